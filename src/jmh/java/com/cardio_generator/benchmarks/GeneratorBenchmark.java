@@ -0,0 +1,132 @@
+package com.cardio_generator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import com.cardio_generator.generators.AlertGenerator;
+import com.cardio_generator.generators.BloodLevelsDataGenerator;
+import com.cardio_generator.generators.BloodPressureDataGenerator;
+import com.cardio_generator.generators.BloodSaturationDataGenerator;
+import com.cardio_generator.generators.ECGDataGenerator;
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.generators.TemplateEcgGenerator;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * Measures how fast each {@link PatientDataGenerator} produces one tick for a whole population of patients.
+ * One operation is one tick: every patient of the calling thread's partition is generated once into a batch.
+ * With several threads, the population is split into one contiguous partition per thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratorBenchmark {
+
+    @Param({"ecg", "ecg-250hz", "saturation", "pressure", "levels", "alert"})
+    public String generator;
+
+    @Param({"1000", "100000"})
+    public int patientCount;
+
+    /** The generator under test, shared by all threads. */
+    PatientDataGenerator instance;
+
+    /** The IDs of all patients. */
+    int[] patientIds;
+
+    /** Hands out partition numbers to the benchmark threads. */
+    final AtomicInteger nextPartition = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        instance = create(generator, patientCount);
+        patientIds = new int[patientCount];
+        for (int i = 0; i < patientCount; i++) {
+            patientIds[i] = i + 1;
+        }
+        nextPartition.set(0);
+    }
+
+    /**
+     * The partition and batch of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Partition {
+        int from;
+        int to;
+        RecordBatch batch;
+        long timestamp = System.currentTimeMillis();
+
+        @Setup(Level.Trial)
+        public void setUp(GeneratorBenchmark benchmark, BenchmarkParams params) {
+            int threads = params.getThreads();
+            int index = benchmark.nextPartition.getAndIncrement() % threads;
+            int count = benchmark.patientCount;
+            from = (int) ((long) count * index / threads);
+            to = (int) ((long) count * (index + 1) / threads);
+            batch = new RecordBatch(Math.max(1, (to - from) * 3));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int tickSingleThread(Partition partition) {
+        return tick(partition);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int tickAllThreads(Partition partition) {
+        return tick(partition);
+    }
+
+    private int tick(Partition partition) {
+        RecordBatch batch = partition.batch;
+        batch.clear();
+        // Advance by one second per tick, so the template ECG emits a full block every time
+        partition.timestamp += 1000;
+        instance.generateBatch(patientIds, partition.from, partition.to, partition.timestamp, batch);
+        return batch.size();
+    }
+
+    /**
+     * Creates a generator by its benchmark name, with a fixed seed so every run generates the same values.
+     */
+    static PatientDataGenerator create(String name, int patientCount) {
+        long seed = 42;
+        switch (name) {
+            case "ecg":
+                return new ECGDataGenerator(patientCount, seed);
+            case "ecg-250hz":
+                return new TemplateEcgGenerator(patientCount, 250, seed);
+            case "saturation":
+                return new BloodSaturationDataGenerator(patientCount, seed);
+            case "pressure":
+                return new BloodPressureDataGenerator(patientCount, seed);
+            case "levels":
+                return new BloodLevelsDataGenerator(patientCount, seed);
+            case "alert":
+                return new AlertGenerator(patientCount, seed);
+            default:
+                throw new IllegalArgumentException("Unknown generator: " + name);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.cardio_generator.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cardio_generator.outputs.AsyncConsoleOutputStrategy;
+import com.cardio_generator.outputs.BinaryLogOutputStrategy;
+import com.cardio_generator.outputs.ConsoleOutputStrategy;
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+import com.cardio_generator.outputs.TcpOutputStrategy;
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+
+/**
+ * Measures how fast each {@link OutputStrategy} accepts records.
+ * One operation is one {@link OutputStrategy#outputBatch(RecordBatch)} call with {@code batchSize} records
+ * spread over {@code patientCount} patients. Console output goes to a null stream, file output to a temporary
+ * directory, and the network strategies have one local consumer connected which reads and discards everything.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+
+    @Param({"console", "console-async", "file", "binlog", "tcp", "websocket-text", "websocket-binary"})
+    public String sink;
+
+    @Param({"1", "256"})
+    public int batchSize;
+
+    @Param({"1000", "100000"})
+    public int patientCount;
+
+    OutputStrategy strategy;
+    Path directory;
+    PrintStream originalOut;
+    Socket tcpConsumer;
+    WebSocketClient webSocketConsumer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        PrintStream nullStream = new PrintStream(OutputStream.nullOutputStream());
+        switch (sink) {
+            case "console":
+                originalOut = System.out;
+                System.setOut(nullStream);
+                strategy = new ConsoleOutputStrategy();
+                break;
+            case "console-async":
+                strategy = new AsyncConsoleOutputStrategy(1.0, nullStream);
+                break;
+            case "file":
+                directory = Files.createTempDirectory("file-benchmark");
+                strategy = new FileOutputStrategy(directory.toString());
+                break;
+            case "binlog":
+                directory = Files.createTempDirectory("binlog-benchmark");
+                strategy = new BinaryLogOutputStrategy(directory.toString());
+                break;
+            case "tcp": {
+                int port = freePort();
+                strategy = new TcpOutputStrategy(port);
+                tcpConsumer = new Socket("127.0.0.1", port);
+                Thread reader = new Thread(() -> drain(tcpConsumer), "tcp-benchmark-consumer");
+                reader.setDaemon(true);
+                reader.start();
+                break;
+            }
+            case "websocket-text":
+            case "websocket-binary": {
+                int port = freePort();
+                WebSocketOutputStrategy.Format format = sink.endsWith("binary")
+                        ? WebSocketOutputStrategy.Format.BINARY : WebSocketOutputStrategy.Format.TEXT;
+                strategy = new WebSocketOutputStrategy(port, format, WebSocketOutputStrategy.DEFAULT_RECORDS_PER_FRAME);
+                webSocketConsumer = new DiscardingClient(new URI("ws://127.0.0.1:" + port));
+                connect(webSocketConsumer);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown sink: " + sink);
+        }
+        // Give the network servers time to register the consumer.
+        Thread.sleep(200);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        strategy.close();
+        if (originalOut != null) {
+            System.setOut(originalOut);
+        }
+        if (tcpConsumer != null) {
+            tcpConsumer.close();
+        }
+        if (webSocketConsumer != null) {
+            webSocketConsumer.closeBlocking();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * The batch of one benchmark thread, filled once with records of distinct patients.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        RecordBatch batch;
+
+        @Setup(Level.Trial)
+        public void setUp(OutputBenchmark benchmark) {
+            batch = new RecordBatch(benchmark.batchSize);
+            long timestamp = System.currentTimeMillis();
+            for (int i = 0; i < benchmark.batchSize; i++) {
+                int patientId = 1 + (int) ((long) i * benchmark.patientCount / benchmark.batchSize);
+                batch.add(patientId, timestamp, LabelRegistry.ECG, Math.sin(i));
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void outputSingleThread(Batch batch) {
+        strategy.outputBatch(batch.batch);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void outputAllThreads(Batch batch) {
+        strategy.outputBatch(batch.batch);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress("127.0.0.1", 0));
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void drain(Socket socket) {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = socket.getInputStream()) {
+            while (in.read(buffer) >= 0) {
+                // Discard
+            }
+        } catch (IOException e) {
+            // The benchmark has finished
+        }
+    }
+
+    private static void connect(WebSocketClient client) throws InterruptedException {
+        // The server starts asynchronously, so retry until it accepts the connection.
+        for (int attempt = 0; attempt < 50; attempt++) {
+            if (attempt == 0 ? client.connectBlocking() : client.reconnectBlocking()) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Could not connect to the WebSocket server");
+    }
+
+    /**
+     * A WebSocket client which discards everything it receives.
+     */
+    private static class DiscardingClient extends WebSocketClient {
+
+        DiscardingClient(URI uri) {
+            super(uri);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onMessage(ByteBuffer bytes) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+    }
+}
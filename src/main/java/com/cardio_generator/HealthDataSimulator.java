@@ -4,26 +4,57 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import com.cardio_generator.aggregation.SummaryOutputStrategy;
+import com.cardio_generator.alerts.AlertRule;
+import com.cardio_generator.alerts.AlertRulesOutputStrategy;
 import com.cardio_generator.generators.AlertGenerator;
 
 import com.cardio_generator.generators.BloodPressureDataGenerator;
 import com.cardio_generator.generators.BloodSaturationDataGenerator;
 import com.cardio_generator.generators.BloodLevelsDataGenerator;
 import com.cardio_generator.generators.ECGDataGenerator;
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.generators.PatientRandom;
+import com.cardio_generator.generators.PatientStateCheckpoint;
+import com.cardio_generator.generators.PatientStateStore;
+import com.cardio_generator.generators.TemplateEcgGenerator;
+import com.cardio_generator.metrics.Metrics;
+import com.cardio_generator.metrics.MetricsReporter;
+import com.cardio_generator.outputs.AsyncConsoleOutputStrategy;
+import com.cardio_generator.outputs.BinaryLogOutputStrategy;
 import com.cardio_generator.outputs.ConsoleOutputStrategy;
+import com.cardio_generator.outputs.FanOutOutputStrategy;
 import com.cardio_generator.outputs.FileOutputStrategy;
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordingReader;
+import com.cardio_generator.outputs.Subscription;
 import com.cardio_generator.outputs.TcpOutputStrategy;
 import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import com.cardio_generator.scheduling.BackfillRunner;
+import com.cardio_generator.scheduling.GeneratorScheduler;
+import com.cardio_generator.scheduling.LoadProfile;
+import com.cardio_generator.scheduling.LoadRunner;
+import com.cardio_generator.scheduling.ParallelTickScheduler;
+import com.cardio_generator.scheduling.ReplayRunner;
+import com.cardio_generator.scheduling.SimulationClock;
+import com.cardio_generator.scheduling.TickScheduler;
+import com.cardio_generator.sharding.PatientShard;
+import com.cardio_generator.sharding.ShardFanIn;
+import com.cardio_generator.util.Durations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 
 /**
  * This class simulates health data for a given number of patients.
@@ -33,27 +64,131 @@ import java.util.ArrayList;
  */
 public class HealthDataSimulator {
 
+    private static final int MAX_PATIENTS_PER_COMMAND = 1_000_000; // Most patients one admit or discharge command may name
+    private static final long REPLAY_REPORT_MILLIS = 5000; // Time between two progress reports of a replay
+    private static final int DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 60; // Time between two checkpoints
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 10; // Longest time to stop generating and flush the outputs
+
     private static int patientCount = 50; // Default number of patients
+    private static String shardArg; // Value of the --shard option, e.g. "2/4", or null to own all patients
+    private static String patientsArg; // Value of the --patients option, e.g. "1-5000", or null
+    private static PatientStateStore patientStateStore = new PatientStateStore(); // The admitted patients and their state
+    private static String fanInArg; // Value of the --fan-in option, or null to generate data
     private static ScheduledExecutorService scheduler; //Scheduler for managing simulations
+    private static TickScheduler tickScheduler; // The scheduler in 'tick' mode, or null
+    private static ParallelTickScheduler parallelScheduler; // The scheduler in 'parallel' mode, or null
     private static OutputStrategy outputStrategy = new ConsoleOutputStrategy(); // Default output strategy
-    private static final Random random = new Random(); //Random number generator for task scheduling
+    private static double ecgRate; // ECG samples per second and patient from beat templates, or 0 for one reading per second
+    private static Long seed; // Seed of all random values, or null to pick one at startup
+    private static Random random; //Random number generator for task scheduling, derived from the seed
+    private static String schedulerMode = "tick"; // Either "tick", "parallel" or "per-patient"
+    private static int partitionSize = ParallelTickScheduler.DEFAULT_PARTITION_SIZE; // Patients per partition in parallel mode
+    private static int workerCount = Runtime.getRuntime().availableProcessors(); // Worker threads in tick mode
+    private static Long backfillFrom; // Start of the backfilled time span in epoch milliseconds, or null in real time
+    private static Long backfillTo; // End of the backfilled time span in epoch milliseconds
+    private static LoadProfile loadProfile; // Target record rate of a load test, or null to follow the generator periods
+    private static int loadReportSeconds = 5; // Time between two progress reports of a load test
+    private static String replayDirectory; // Directory of a recording to replay instead of generating data, or null
+    private static double replaySpeed = 1; // Replay speed as a multiple of the recorded speed, or 0 for unthrottled
+    private static String alertMode = "rules"; // Either "rules", "random" or "off"
+    private static final List<AlertRule> alertRules = new ArrayList<>(); // Values of the --alert-rule options
+    private static long alertClearMillis = AlertRulesOutputStrategy.DEFAULT_CLEAR_MILLIS; // Time before an alert is resolved
+    private static final List<String> outputArgs = new ArrayList<>(); // Values of the --output options, applied after all options are parsed
+    private static final Map<String, String> summarizeArgs = new LinkedHashMap<>(); // Summary interval per --output value
+    private static List<String> summaryLabels = SummaryOutputStrategy.DEFAULT_LABELS; // Labels replaced by summaries
+    private static List<String> summaryStatistics = SummaryOutputStrategy.DEFAULT_STATISTICS; // Statistics of a summary
+    private static final List<SummaryOutputStrategy> summaries = new ArrayList<>(); // The summarized outputs
+    private static int outputBufferRecords = FanOutOutputStrategy.DEFAULT_CAPACITY; // Ring buffer size for several outputs
+    private static FanOutOutputStrategy.OverflowPolicy outputOverflow = FanOutOutputStrategy.OverflowPolicy.DROP;
+    private static int fileFlushSize = FileOutputStrategy.DEFAULT_FLUSH_SIZE; // Records per file flush
+    private static long fileFlushIntervalMillis = FileOutputStrategy.DEFAULT_FLUSH_INTERVAL_MILLIS; // Time between file flushes
+    private static FileOutputStrategy.Format fileFormat = FileOutputStrategy.Format.TEXT; // Text files per label or one compressed file
+    private static long filePartitionMillis = FileOutputStrategy.DEFAULT_PARTITION_MILLIS; // Length of a partitioned file
+    private static int tcpClientBuffer = TcpOutputStrategy.DEFAULT_CLIENT_BUFFER_BYTES; // Outbound bytes per TCP client
+    private static TcpOutputStrategy.SlowClientPolicy tcpSlowClientPolicy = TcpOutputStrategy.SlowClientPolicy.DROP_OLDEST;
+    private static TcpOutputStrategy.Format tcpFormat = TcpOutputStrategy.Format.TEXT; // TCP lines or compressed frames
+    private static WebSocketOutputStrategy.Format websocketFormat = WebSocketOutputStrategy.Format.TEXT; // WebSocket message format
+    private static int websocketFrameRecords = WebSocketOutputStrategy.DEFAULT_RECORDS_PER_FRAME; // Records per binary message
+    private static double consoleSampleRate = 1.0; // Share of records printed by asynchronous console output
+    private static long binlogSegmentSize = BinaryLogOutputStrategy.DEFAULT_SEGMENT_SIZE; // Bytes per binary log segment
+    private static int metricsIntervalSeconds; // Time between two metrics summaries, or 0 to turn metrics off
+    private static String metricsFile; // File the metrics summaries are appended to, or null for standard error only
+    private static String checkpointFile; // File the generator state is checkpointed to, or null
+    private static int checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS; // Time between two checkpoints
+    private static boolean resume; // Whether to restore the generator state from the checkpoint file
+    private static PatientStateCheckpoint resumeCheckpoint; // The checkpoint to restore, or null
+    private static ScheduledExecutorService checkpoints; // Writes the checkpoints once the generators are ready, or null
+    // State outside the patient state store which is checkpointed with it, by section name
+    private static final Map<String, PatientStateCheckpoint.Section> checkpointSections = new LinkedHashMap<>();
+    private static int shutdownTimeoutSeconds = DEFAULT_SHUTDOWN_TIMEOUT_SECONDS; // Longest time the shutdown takes
 
     /**
      * Main method to start the health data simulator.
      *
      * @param args Command-line arguments to configure the simulator.
      * @throws IOException If an I/O error occurs while setting up the output strategy.
+     * @throws InterruptedException If the thread is interrupted during a backfill.
      */
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
         parseArguments(args);
+        if (fanInArg != null) {
+            runFanIn();
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(HealthDataSimulator::shutdown, "shutdown"));
+        if (Metrics.isEnabled()) {
+            new MetricsReporter(metricsIntervalSeconds * 1000L, metricsFile).start();
+        }
+        if (replayDirectory != null) {
+            runReplay();
+            return;
+        }
+        if (alertMode.equals("rules")) {
+            if (alertRules.isEmpty()) {
+                AlertRule.DEFAULT_RULES.forEach(rule -> alertRules.add(AlertRule.parse(rule)));
+            }
+            System.err.println("Alert rules: " + alertRules);
+            AlertRulesOutputStrategy rules = new AlertRulesOutputStrategy(outputStrategy, alertRules, alertClearMillis);
+            rules.follow(patientStateStore);
+            checkpointSections.put("alerts", rules);
+            outputStrategy = rules;
+        }
+        // Only generated patients are admitted, so fan-in and replays, which return above, must not follow the store
+        for (SummaryOutputStrategy summary : summaries) {
+            summary.follow(patientStateStore);
+        }
+        if (resume) {
+            readResumeCheckpoint();
+        }
+        if (seed == null) {
+            seed = PatientRandom.randomSeed();
+        }
+        System.err.println("Random seed: " + seed + " (use --seed " + seed + " to repeat this run)");
+        random = new Random(seed);
 
-        scheduler = Executors.newScheduledThreadPool(patientCount * 4);
-
-        List<Integer> patientIds = initializePatientIds(patientCount);
-        Collections.shuffle(patientIds); // Randomize the order of patient IDs
+        List<Integer> patientIds = resumeCheckpoint != null ? resumedPatientIds() : initializePatientIds();
+        for (int patientId : patientIds) {
+            patientStateStore.admit(patientId); // In ascending order, so neighbouring IDs share state chunks
+        }
+        Collections.shuffle(patientIds, random); // Randomize the order of patient IDs
 
-        scheduleTasksForPatients(patientIds);
+        if (loadProfile != null) {
+            runLoad(patientIds);
+        } else if (backfillFrom != null || backfillTo != null) {
+            runBackfill(patientIds);
+        } else if (schedulerMode.equals("parallel")) {
+            int[] ids = patientIds.stream().mapToInt(Integer::intValue).toArray();
+            parallelScheduler = new ParallelTickScheduler(ids, outputStrategy, workerCount,
+                    partitionSize, SimulationClock.SYSTEM);
+            parallelScheduler.follow(patientStateStore);
+            scheduleGenerators(parallelScheduler);
+        } else if (schedulerMode.equals("per-patient")) {
+            scheduler = Executors.newScheduledThreadPool(patientIds.size() * 4);
+            scheduleTasksForPatients(patientIds);
+        } else {
+            scheduleTicksForPatients(patientIds);
+        }
     }
 
     /**
@@ -79,39 +214,372 @@ public class HealthDataSimulator {
                         }
                     }
                     break;
-                case "--output":
+                case "--shard":
                     if (i + 1 < args.length) {
-                        String outputArg = args[++i];
-                        if (outputArg.equals("console")) {
-                            outputStrategy = new ConsoleOutputStrategy();
-                        } else if (outputArg.startsWith("file:")) {
-                            String baseDirectory = outputArg.substring(5);
-                            Path outputPath = Paths.get(baseDirectory);
-                            if (!Files.exists(outputPath)) {
-                                Files.createDirectories(outputPath);
+                        shardArg = args[++i];
+                    }
+                    break;
+                case "--patients":
+                    if (i + 1 < args.length) {
+                        patientsArg = args[++i];
+                    }
+                    break;
+                case "--fan-in":
+                    if (i + 1 < args.length) {
+                        fanInArg = args[++i];
+                    }
+                    break;
+                case "--seed":
+                    if (i + 1 < args.length) {
+                        try {
+                            seed = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid seed. Using a random seed.");
+                        }
+                    }
+                    break;
+                case "--scheduler":
+                    if (i + 1 < args.length) {
+                        String mode = args[++i];
+                        if (mode.equals("tick") || mode.equals("parallel") || mode.equals("per-patient")) {
+                            schedulerMode = mode;
+                        } else {
+                            System.err.println("Unknown scheduler mode. Using default (" + schedulerMode + ").");
+                        }
+                    }
+                    break;
+                case "--workers":
+                    if (i + 1 < args.length) {
+                        try {
+                            int workers = Integer.parseInt(args[++i]);
+                            if (workers <= 0) {
+                                throw new NumberFormatException();
                             }
-                            outputStrategy = new FileOutputStrategy(baseDirectory);
-                        } else if (outputArg.startsWith("websocket:")) {
-                            try {
-                                int port = Integer.parseInt(outputArg.substring(10));
-                                // Initialize your WebSocket output strategy here
-                                outputStrategy = new WebSocketOutputStrategy(port);
-                                System.out.println("WebSocket output will be on port: " + port);
-                            } catch (NumberFormatException e) {
-                                System.err.println(
-                                        "Invalid port for WebSocket output. Please specify a valid port number.");
+                            workerCount = workers;
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid number of workers. Using default value: " + workerCount);
+                        }
+                    }
+                    break;
+                case "--ecg-rate":
+                    if (i + 1 < args.length) {
+                        try {
+                            double rate = Double.parseDouble(args[++i]);
+                            if (!(rate > 0)) {
+                                throw new NumberFormatException();
                             }
-                        } else if (outputArg.startsWith("tcp:")) {
-                            try {
-                                int port = Integer.parseInt(outputArg.substring(4));
-                                // Initialize your TCP socket output strategy here
-                                outputStrategy = new TcpOutputStrategy(port);
-                                System.out.println("TCP socket output will be on port: " + port);
-                            } catch (NumberFormatException e) {
-                                System.err.println("Invalid port for TCP output. Please specify a valid port number.");
+                            ecgRate = rate;
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid ECG rate. Using one ECG reading per second.");
+                        }
+                    }
+                    break;
+                case "--partition-size":
+                    if (i + 1 < args.length) {
+                        try {
+                            int size = Integer.parseInt(args[++i]);
+                            if (size <= 0) {
+                                throw new NumberFormatException();
+                            }
+                            partitionSize = size;
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid partition size. Using default value: " + partitionSize);
+                        }
+                    }
+                    break;
+                case "--from":
+                    if (i + 1 < args.length) {
+                        backfillFrom = parseTime(args[++i]);
+                    }
+                    break;
+                case "--to":
+                    if (i + 1 < args.length) {
+                        backfillTo = parseTime(args[++i]);
+                    }
+                    break;
+                case "--load":
+                    if (i + 1 < args.length) {
+                        try {
+                            loadProfile = LoadProfile.parse(args[++i]);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: " + e.getMessage() + ". Use e.g. 10000/30s,10000-100000/60s,100000.");
+                            System.exit(1);
+                        }
+                    }
+                    break;
+                case "--load-report":
+                    if (i + 1 < args.length) {
+                        try {
+                            loadReportSeconds = Integer.parseInt(args[++i]);
+                            if (loadReportSeconds <= 0) {
+                                throw new NumberFormatException();
+                            }
+                        } catch (NumberFormatException e) {
+                            loadReportSeconds = 5;
+                            System.err.println("Error: Invalid load report interval. Using default value: "
+                                    + loadReportSeconds);
+                        }
+                    }
+                    break;
+                case "--replay":
+                    if (i + 1 < args.length) {
+                        replayDirectory = args[++i];
+                    }
+                    break;
+                case "--replay-speed":
+                    if (i + 1 < args.length) {
+                        String value = args[++i];
+                        try {
+                            double speed = value.equals("max") ? 0 : Double.parseDouble(value);
+                            if (!(speed > 0 || value.equals("max")) || Double.isInfinite(speed)) {
+                                throw new NumberFormatException();
+                            }
+                            replaySpeed = speed;
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid replay speed. Using default value: " + replaySpeed);
+                        }
+                    }
+                    break;
+                case "--alerts":
+                    if (i + 1 < args.length) {
+                        String mode = args[++i];
+                        if (mode.equals("rules") || mode.equals("random") || mode.equals("off")) {
+                            alertMode = mode;
+                        } else {
+                            System.err.println("Error: Unknown alert mode. Using default value: " + alertMode);
+                        }
+                    }
+                    break;
+                case "--alert-rule":
+                    if (i + 1 < args.length) {
+                        try {
+                            alertRules.add(AlertRule.parse(args[++i]));
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: " + e.getMessage() + ". The rule is ignored.");
+                        }
+                    }
+                    break;
+                case "--alert-clear":
+                    if (i + 1 < args.length) {
+                        try {
+                            long seconds = Long.parseLong(args[++i]);
+                            if (seconds < 0) {
+                                throw new NumberFormatException();
                             }
+                            alertClearMillis = TimeUnit.SECONDS.toMillis(seconds);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid alert clear time. Using default value: "
+                                    + TimeUnit.MILLISECONDS.toSeconds(alertClearMillis));
+                        }
+                    }
+                    break;
+                case "--output":
+                    if (i + 1 < args.length) {
+                        outputArgs.add(args[++i]);
+                    }
+                    break;
+                case "--summarize":
+                    if (i + 1 < args.length) {
+                        String value = args[++i];
+                        int equals = value.lastIndexOf('=');
+                        if (equals > 0) {
+                            summarizeArgs.put(value.substring(0, equals), value.substring(equals + 1));
                         } else {
-                            System.err.println("Unknown output type. Using default (console).");
+                            System.err.println("Error: Expected --summarize <output>=<interval>. The option is ignored.");
+                        }
+                    }
+                    break;
+                case "--summary-labels":
+                    if (i + 1 < args.length) {
+                        summaryLabels = Arrays.asList(args[++i].split(","));
+                    }
+                    break;
+                case "--summary-stats":
+                    if (i + 1 < args.length) {
+                        summaryStatistics = Arrays.asList(args[++i].split(","));
+                    }
+                    break;
+                case "--output-buffer":
+                    if (i + 1 < args.length) {
+                        try {
+                            outputBufferRecords = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid output buffer size. Using default value: "
+                                    + outputBufferRecords);
+                        }
+                    }
+                    break;
+                case "--output-overflow":
+                    if (i + 1 < args.length) {
+                        try {
+                            outputOverflow = FanOutOutputStrategy.OverflowPolicy.valueOf(args[++i].toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Unknown output overflow policy. Using default value: "
+                                    + outputOverflow.name().toLowerCase());
+                        }
+                    }
+                    break;
+                case "--file-flush-size":
+                    if (i + 1 < args.length) {
+                        try {
+                            fileFlushSize = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid file flush size. Using default value: " + fileFlushSize);
+                        }
+                    }
+                    break;
+                case "--file-flush-interval":
+                    if (i + 1 < args.length) {
+                        try {
+                            fileFlushIntervalMillis = Long.parseLong(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println(
+                                    "Error: Invalid file flush interval. Using default value: " + fileFlushIntervalMillis);
+                        }
+                    }
+                    break;
+                case "--file-format":
+                    if (i + 1 < args.length) {
+                        try {
+                            fileFormat = FileOutputStrategy.Format.valueOf(args[++i].toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Unknown file format. Using default value: "
+                                    + fileFormat.name().toLowerCase());
+                        }
+                    }
+                    break;
+                case "--file-partition":
+                    if (i + 1 < args.length) {
+                        try {
+                            long minutes = Long.parseLong(args[++i]);
+                            if (minutes <= 0) {
+                                throw new NumberFormatException();
+                            }
+                            filePartitionMillis = TimeUnit.MINUTES.toMillis(minutes);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid file partition length. Using default value: "
+                                    + TimeUnit.MILLISECONDS.toMinutes(filePartitionMillis));
+                        }
+                    }
+                    break;
+                case "--tcp-format":
+                    if (i + 1 < args.length) {
+                        try {
+                            tcpFormat = TcpOutputStrategy.Format.valueOf(args[++i].toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Unknown TCP format. Using default value: "
+                                    + tcpFormat.name().toLowerCase());
+                        }
+                    }
+                    break;
+                case "--tcp-client-buffer":
+                    if (i + 1 < args.length) {
+                        try {
+                            tcpClientBuffer = Math.multiplyExact(Integer.parseInt(args[++i]), 1024);
+                        } catch (NumberFormatException | ArithmeticException e) {
+                            System.err.println("Error: Invalid TCP client buffer size. Using default value: "
+                                    + tcpClientBuffer / 1024);
+                        }
+                    }
+                    break;
+                case "--tcp-slow-client":
+                    if (i + 1 < args.length) {
+                        try {
+                            tcpSlowClientPolicy = TcpOutputStrategy.SlowClientPolicy.valueOf(
+                                    args[++i].toUpperCase().replace('-', '_'));
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Unknown slow client policy. Using default value: "
+                                    + tcpSlowClientPolicy.name().toLowerCase().replace('_', '-'));
+                        }
+                    }
+                    break;
+                case "--websocket-format":
+                    if (i + 1 < args.length) {
+                        try {
+                            websocketFormat = WebSocketOutputStrategy.Format.valueOf(args[++i].toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Unknown WebSocket format. Using default value: "
+                                    + websocketFormat.name().toLowerCase());
+                        }
+                    }
+                    break;
+                case "--websocket-frame-records":
+                    if (i + 1 < args.length) {
+                        try {
+                            websocketFrameRecords = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid number of records per frame. Using default value: "
+                                    + websocketFrameRecords);
+                        }
+                    }
+                    break;
+                case "--console-sample":
+                    if (i + 1 < args.length) {
+                        try {
+                            consoleSampleRate = Double.parseDouble(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid console sample rate. Using default value: "
+                                    + consoleSampleRate);
+                        }
+                    }
+                    break;
+                case "--binlog-segment-size":
+                    if (i + 1 < args.length) {
+                        try {
+                            binlogSegmentSize = Long.parseLong(args[++i]) * 1024 * 1024;
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid binary log segment size. Using default value: "
+                                    + binlogSegmentSize / (1024 * 1024));
+                        }
+                    }
+                    break;
+                case "--metrics":
+                    if (i + 1 < args.length) {
+                        try {
+                            metricsIntervalSeconds = Integer.parseInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid metrics interval. Metrics are turned off.");
+                        }
+                    }
+                    break;
+                case "--metrics-file":
+                    if (i + 1 < args.length) {
+                        metricsFile = args[++i];
+                    }
+                    break;
+                case "--checkpoint":
+                    if (i + 1 < args.length) {
+                        checkpointFile = args[++i];
+                    }
+                    break;
+                case "--checkpoint-interval":
+                    if (i + 1 < args.length) {
+                        try {
+                            checkpointIntervalSeconds = Integer.parseInt(args[++i]);
+                            if (checkpointIntervalSeconds <= 0) {
+                                throw new NumberFormatException();
+                            }
+                        } catch (NumberFormatException e) {
+                            checkpointIntervalSeconds = DEFAULT_CHECKPOINT_INTERVAL_SECONDS;
+                            System.err.println("Error: Invalid checkpoint interval. Using default value: "
+                                    + checkpointIntervalSeconds);
+                        }
+                    }
+                    break;
+                case "--resume":
+                    resume = true;
+                    break;
+                case "--shutdown-timeout":
+                    if (i + 1 < args.length) {
+                        try {
+                            shutdownTimeoutSeconds = Integer.parseInt(args[++i]);
+                            if (shutdownTimeoutSeconds <= 0) {
+                                throw new NumberFormatException();
+                            }
+                        } catch (NumberFormatException e) {
+                            shutdownTimeoutSeconds = DEFAULT_SHUTDOWN_TIMEOUT_SECONDS;
+                            System.err.println("Error: Invalid shutdown timeout. Using default value: "
+                                    + shutdownTimeoutSeconds);
                         }
                     }
                     break;
@@ -121,6 +589,236 @@ public class HealthDataSimulator {
                     System.exit(1);
             }
         }
+        if (metricsIntervalSeconds > 0) {
+            Metrics.enable();
+        }
+        if (outputArgs.size() <= 1) {
+            String outputArg = outputArgs.isEmpty() ? "console" : outputArgs.get(0);
+            // Metrics name the output after its type, e.g. "file" for "file:./output"
+            outputStrategy = summarize(outputArg, Metrics.instrument(outputArg.split(":", 2)[0], createOutput(outputArg)));
+            warnUnknownSummaries(Collections.singletonList(outputArg));
+            return;
+        }
+        // Several outputs read from one ring buffer on their own threads; metrics name them by their full value
+        Map<String, OutputStrategy> outputs = new LinkedHashMap<>();
+        for (String outputArg : outputArgs) {
+            outputs.put(outputArg, summarize(outputArg, Metrics.instrumentInner(outputArg, createOutput(outputArg))));
+        }
+        warnUnknownSummaries(outputArgs);
+        try {
+            outputStrategy = new FanOutOutputStrategy(outputs, outputBufferRecords, outputOverflow);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage() + ". Using default output buffer size.");
+            outputStrategy = new FanOutOutputStrategy(outputs, FanOutOutputStrategy.DEFAULT_CAPACITY, outputOverflow);
+        }
+        outputStrategy = Metrics.instrument("fan-out", outputStrategy); // Counts every record once per label
+    }
+
+    /**
+     * Wraps an output in a {@link SummaryOutputStrategy} if {@code --summarize} names it.
+     *
+     * @param outputArg The value of the {@code --output} option.
+     * @param output The output strategy.
+     * @return The output strategy, summarized or not.
+     */
+    private static OutputStrategy summarize(String outputArg, OutputStrategy output) {
+        String summarizeArg = summarizeArgs.get(outputArg);
+        if (summarizeArg == null) {
+            return output;
+        }
+        boolean passReadings = summarizeArg.endsWith("+raw");
+        try {
+            long intervalMillis = Durations.parseMillis(
+                    passReadings ? summarizeArg.substring(0, summarizeArg.length() - 4) : summarizeArg);
+            SummaryOutputStrategy summary = new SummaryOutputStrategy(output, intervalMillis, summaryLabels,
+                    summaryStatistics, passReadings);
+            summaries.add(summary);
+            checkpointSections.put("summary:" + outputArg, summary);
+            return summary;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage() + ". Output " + outputArg + " is not summarized.");
+            return output;
+        }
+    }
+
+    /**
+     * Reports the values of {@code --summarize} options which name none of the outputs.
+     */
+    private static void warnUnknownSummaries(List<String> outputs) {
+        for (String outputArg : summarizeArgs.keySet()) {
+            if (!outputs.contains(outputArg)) {
+                System.err.println("Error: --summarize names no --output: " + outputArg + ". The option is ignored.");
+            }
+        }
+    }
+
+    /**
+     * Creates the output strategy described by the value of an {@code --output} option,
+     * and lets network clients admit and discharge patients through it.
+     *
+     * @param outputArg The value of the {@code --output} option.
+     * @return The output strategy.
+     * @throws IOException If an I/O error occurs while setting up the output directory.
+     */
+    private static OutputStrategy createOutput(String outputArg) throws IOException {
+        OutputStrategy output = createOutputStrategy(outputArg);
+        if (output instanceof TcpOutputStrategy) {
+            ((TcpOutputStrategy) output).setCommandHandler(HealthDataSimulator::handleCommand);
+        } else if (output instanceof WebSocketOutputStrategy) {
+            ((WebSocketOutputStrategy) output).setCommandHandler(HealthDataSimulator::handleCommand);
+        }
+        return output;
+    }
+
+    /**
+     * Handles the patient commands network clients can send:
+     * {@code admit <ids>} and {@code discharge <ids>} with IDs and ranges like "1001-1010,2000",
+     * and {@code patients}, which replies with the number of admitted patients.
+     * Admitted patients are generated from the next tick on ({@code tick} and {@code parallel} scheduler modes only).
+     *
+     * @param command The command.
+     * @return The reply, or null if the command is not a patient command.
+     */
+    private static String handleCommand(String command) {
+        String[] parts = command.split("\\s+", 2);
+        if (parts[0].equals("patients")) {
+            return "patients " + patientStateStore.size();
+        }
+        if (!parts[0].equals("admit") && !parts[0].equals("discharge")) {
+            return null;
+        }
+        if (parts.length < 2) {
+            return "error Expected " + parts[0] + " <ids>";
+        }
+        int[][] ranges;
+        try {
+            ranges = Subscription.parsePatientRanges(parts[1]);
+        } catch (IllegalArgumentException e) {
+            return "error " + e.getMessage();
+        }
+        long requested = 0;
+        for (int[] range : ranges) {
+            if (range[0] <= 0) {
+                return "error Patient IDs must be positive";
+            }
+            requested += (long) range[1] - range[0] + 1;
+        }
+        if (requested > MAX_PATIENTS_PER_COMMAND) {
+            return "error At most " + MAX_PATIENTS_PER_COMMAND + " patients per command";
+        }
+        boolean admit = parts[0].equals("admit");
+        int changed = 0;
+        for (int[] range : ranges) {
+            for (int id = range[0]; id <= range[1] && id > 0; id++) {
+                if (admit ? patientStateStore.admit(id) : patientStateStore.discharge(id)) {
+                    changed++;
+                }
+            }
+        }
+        return (admit ? "admitted " : "discharged ") + changed + " patients=" + patientStateStore.size();
+    }
+
+    /**
+     * Parses a point in time given either as an ISO-8601 instant (e.g. "2024-01-01T00:00:00Z")
+     * or as milliseconds since the epoch. Exits with an error message if the value is neither.
+     *
+     * @param value The text to parse.
+     * @return The time in milliseconds since the epoch.
+     */
+    private static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value).toEpochMilli();
+            } catch (DateTimeParseException e2) {
+                System.err.println("Error: Invalid time '" + value + "'. Use e.g. 2024-01-01T00:00:00Z.");
+                System.exit(1);
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Creates the output strategy described by the value of the {@code --output} option.
+     *
+     * @param outputArg The value of the {@code --output} option (e.g. "console", "file:./output").
+     * @return The output strategy, or the default console strategy if the value is not valid.
+     * @throws IOException If an I/O error occurs while setting up the output directory.
+     */
+    private static OutputStrategy createOutputStrategy(String outputArg) throws IOException {
+        if (outputArg.equals("console")) {
+            return new ConsoleOutputStrategy();
+        } else if (outputArg.equals("console:async")) {
+            try {
+                return new AsyncConsoleOutputStrategy(consoleSampleRate);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage() + ". Printing every record.");
+                return new AsyncConsoleOutputStrategy();
+            }
+        } else if (outputArg.startsWith("file:")) {
+            String baseDirectory = outputArg.substring(5);
+            Path outputPath = Paths.get(baseDirectory);
+            if (!Files.exists(outputPath)) {
+                Files.createDirectories(outputPath);
+            }
+            try {
+                return new FileOutputStrategy(baseDirectory, FileOutputStrategy.DEFAULT_QUEUE_CAPACITY,
+                        fileFlushSize, fileFlushIntervalMillis, fileFormat, filePartitionMillis);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage() + ". Using default flush settings.");
+                return new FileOutputStrategy(baseDirectory, FileOutputStrategy.DEFAULT_QUEUE_CAPACITY,
+                        FileOutputStrategy.DEFAULT_FLUSH_SIZE, FileOutputStrategy.DEFAULT_FLUSH_INTERVAL_MILLIS, fileFormat,
+                        filePartitionMillis);
+            }
+        } else if (outputArg.startsWith("binlog:")) {
+            try {
+                return new BinaryLogOutputStrategy(outputArg.substring(7), binlogSegmentSize);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage() + ". Using default segment size.");
+                return new BinaryLogOutputStrategy(outputArg.substring(7));
+            }
+        } else if (outputArg.startsWith("websocket:")) {
+            try {
+                int port = Integer.parseInt(outputArg.substring(10));
+                // Initialize your WebSocket output strategy here
+                WebSocketOutputStrategy strategy;
+                try {
+                    strategy = new WebSocketOutputStrategy(port, websocketFormat, websocketFrameRecords);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage() + ". Using default records per frame.");
+                    strategy = new WebSocketOutputStrategy(port, websocketFormat,
+                            WebSocketOutputStrategy.DEFAULT_RECORDS_PER_FRAME);
+                }
+                strategy.setCloseTimeout(shutdownTimeoutSeconds * 1000);
+                System.out.println("WebSocket output will be on port: " + port);
+                return strategy;
+            } catch (NumberFormatException e) {
+                System.err.println(
+                        "Invalid port for WebSocket output. Please specify a valid port number.");
+            }
+        } else if (outputArg.startsWith("tcp:")) {
+            try {
+                int port = Integer.parseInt(outputArg.substring(4));
+                // Initialize your TCP socket output strategy here
+                TcpOutputStrategy strategy;
+                try {
+                    strategy = new TcpOutputStrategy(port, tcpClientBuffer, tcpSlowClientPolicy, tcpFormat);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage() + ". Using default client buffer size.");
+                    strategy = new TcpOutputStrategy(port, TcpOutputStrategy.DEFAULT_CLIENT_BUFFER_BYTES,
+                            tcpSlowClientPolicy, tcpFormat);
+                }
+                strategy.setCloseTimeout(shutdownTimeoutSeconds * 1000L);
+                System.out.println("TCP socket output will be on port: " + port);
+                return strategy;
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid port for TCP output. Please specify a valid port number.");
+            }
+        } else {
+            System.err.println("Unknown output type. Using default (console).");
+        }
+        return new ConsoleOutputStrategy();
     }
 
     /**
@@ -132,11 +830,97 @@ public class HealthDataSimulator {
         System.out.println("  -h                       Show help and exit.");
         System.out.println(
                 "  --patient-count <count>  Specify the number of patients to simulate data for (default: 50).");
+        System.out.println("  --shard <index>/<count>  Simulate only the index-th of count equal blocks of the patient IDs,");
+        System.out.println("                             e.g. '2/4' for the second quarter of --patient-count.");
+        System.out.println("  --patients <ranges>      Simulate only the given patient IDs, e.g. '1-5000,9000-9999'.");
+        System.out.println("  --fan-in <endpoints>     Generate nothing, but merge the TCP output of other simulators,");
+        System.out.println("                             e.g. 'node1:9001,node2:9001', into the --output.");
+        System.out.println("  --seed <number>          Seed of all random values, to repeat a run exactly (default: random).");
+        System.out.println("  --ecg-rate <Hz>          Generate ECG as a realistic waveform with this many samples per second");
+        System.out.println("                             and patient (e.g. 250), delivered in one block per second.");
+        System.out.println("  --scheduler <mode>       Define how generation is scheduled. Options are:");
+        System.out.println("                             'tick' to drive all patients with a fixed worker pool (default),");
+        System.out.println("                             'parallel' to generate all patients at once per tick, split into");
+        System.out.println("                             partitions on a fork-join pool,");
+        System.out.println("                             'per-patient' to schedule one task per patient and generator.");
+        System.out.println("  --workers <count>        Number of worker threads in 'tick' and 'parallel' mode (default: number of cores).");
+        System.out.println("  --partition-size <n>     Patients per partition in 'parallel' mode (default: "
+                + ParallelTickScheduler.DEFAULT_PARTITION_SIZE + ").");
+        System.out.println("  --from <time>            Start of a time span to generate as fast as possible instead of");
+        System.out.println("                           in real time, as ISO-8601 (e.g. 2024-01-01T00:00:00Z) or epoch ms.");
+        System.out.println("  --to <time>              End of the time span to generate (exclusive).");
+        System.out.println("  --load <profile>         Run as a load generator: send records at a target rate per second,");
+        System.out.println("                             e.g. '50000', or phases like '10000/30s,10000-100000/60s,100000'.");
+        System.out.println("                             Latency is measured from each record's intended send time.");
+        System.out.println("  --load-report <seconds>  Time between two progress reports of --load (default: 5).");
+        System.out.println("  --replay <directory>     Generate nothing, but send the records written to the directory by");
+        System.out.println("                             'file:' or 'binlog:' output again, with their original timestamps.");
+        System.out.println("  --replay-speed <factor>  Speed of --replay as a multiple of the recorded speed (default: 1),");
+        System.out.println("                             or 'max' to replay as fast as the output takes the records.");
+        System.out.println("  --alerts <mode>          How alerts are generated: 'rules' to evaluate alert rules on the");
+        System.out.println("                             readings (default), 'random' to trigger them at random, or 'off'.");
+        System.out.println("  --alert-rule <rule>      An alert rule, replacing the default ones; repeat it for several.");
+        System.out.println("                             e.g. 'SystolicPressure >= 180 x3', 'Saturation drop 5 in 10m'");
+        System.out.println("                             or 'mean Saturation over 5m < 93'. Default: "
+                + String.join(", ", AlertRule.DEFAULT_RULES) + ".");
+        System.out.println("  --alert-clear <seconds>  Time none of the rules must hold before an alert is resolved (default: "
+                + TimeUnit.MILLISECONDS.toSeconds(AlertRulesOutputStrategy.DEFAULT_CLEAR_MILLIS) + ").");
         System.out.println("  --output <type>          Define the output method. Options are:");
         System.out.println("                             'console' for console output,");
+        System.out.println("                             'console:async' for buffered console output on a writer thread,");
         System.out.println("                             'file:<directory>' for file output,");
+        System.out.println("                             'binlog:<directory>' for binary, memory-mapped file output,");
         System.out.println("                             'websocket:<port>' for WebSocket output,");
         System.out.println("                             'tcp:<port>' for TCP socket output.");
+        System.out.println("                             Repeat --output to feed several outputs, each on its own thread.");
+        System.out.println("                             Clients of 'websocket:' and 'tcp:' can send 'admit <ids>' and");
+        System.out.println("                             'discharge <ids>' to change the patients while running.");
+        System.out.println("  --summarize <output>=<interval>  Send summaries of fixed windows, e.g. 'websocket:8080=10s', to");
+        System.out.println("                             the output instead of the readings of --summary-labels; append");
+        System.out.println("                             '+raw' to send the readings as well. Repeat it for several outputs.");
+        System.out.println("  --summary-labels <labels>  Labels to summarize (default: "
+                + String.join(",", SummaryOutputStrategy.DEFAULT_LABELS) + ").");
+        System.out.println("  --summary-stats <stats>  Statistics of a summary, sent as '<label>.<stat>' records: min, max,");
+        System.out.println("                             mean, count and percentiles such as p99 (default: "
+                + String.join(",", SummaryOutputStrategy.DEFAULT_STATISTICS) + ").");
+        System.out.println("  --file-flush-size <n>    Records after which file output is flushed (default: "
+                + FileOutputStrategy.DEFAULT_FLUSH_SIZE + ").");
+        System.out.println("  --file-flush-interval <ms>  Time after which file output is flushed (default: "
+                + FileOutputStrategy.DEFAULT_FLUSH_INTERVAL_MILLIS + ").");
+        System.out.println("  --output-buffer <n>      Records buffered for several outputs (default: "
+                + FanOutOutputStrategy.DEFAULT_CAPACITY + ").");
+        System.out.println("  --output-overflow <policy>  What happens when one of several outputs falls a whole buffer");
+        System.out.println("                             behind: 'drop' its oldest records (default) or 'block' generation.");
+        System.out.println("  --file-format <fmt>      File output format: 'text' (default, one file per label),");
+        System.out.println("                             'compressed' (one file " + FileOutputStrategy.COMPRESSED_FILE_NAME
+                + ", read it with TimeSeriesDecoder) or");
+        System.out.println("                             'partitioned' (text files per label and time partition with an");
+        System.out.println("                             index, query them with PartitionQuery).");
+        System.out.println("  --file-partition <min>   Length of a 'partitioned' file in minutes (default: "
+                + TimeUnit.MILLISECONDS.toMinutes(FileOutputStrategy.DEFAULT_PARTITION_MILLIS) + ").");
+        System.out.println("  --tcp-format <fmt>       TCP output format: 'text' (default) or 'compressed' frames,");
+        System.out.println("                             read them with TimeSeriesDecoder. --fan-in needs 'text'.");
+        System.out.println("  --tcp-client-buffer <KB> Outbound buffer per TCP client (default: "
+                + TcpOutputStrategy.DEFAULT_CLIENT_BUFFER_BYTES / 1024 + ").");
+        System.out.println("  --tcp-slow-client <policy>  What to do when a TCP client's buffer is full:");
+        System.out.println("                             'drop-oldest' (default), 'disconnect' or 'block'.");
+        System.out.println("  --websocket-format <fmt> WebSocket message format: 'text' (default) or 'binary'.");
+        System.out.println("  --websocket-frame-records <n>  Records per binary WebSocket message (default: "
+                + WebSocketOutputStrategy.DEFAULT_RECORDS_PER_FRAME + ").");
+        System.out.println("  --console-sample <rate>  Share of records printed by 'console:async' (default: 1.0).");
+        System.out.println("  --binlog-segment-size <MB>  Size of each binary log segment (default: "
+                + BinaryLogOutputStrategy.DEFAULT_SEGMENT_SIZE / (1024 * 1024) + ").");
+        System.out.println("  --metrics <seconds>      Collect runtime metrics, publish them over JMX and print a summary");
+        System.out.println("                             every given number of seconds to standard error.");
+        System.out.println("  --metrics-file <path>    Also append the metrics summaries to this file.");
+        System.out.println("  --checkpoint <file>      Write the state of all generators to this file periodically and on");
+        System.out.println("                             shutdown.");
+        System.out.println("  --checkpoint-interval <seconds>  Time between two checkpoints (default: "
+                + DEFAULT_CHECKPOINT_INTERVAL_SECONDS + ").");
+        System.out.println("  --resume                 Restore the patients and their generator state from the --checkpoint");
+        System.out.println("                             file, if it exists, so every series continues where it stopped.");
+        System.out.println("  --shutdown-timeout <seconds>  Longest time to stop generating and flush the outputs before the");
+        System.out.println("                             last checkpoint is written on shutdown (default: " + DEFAULT_SHUTDOWN_TIMEOUT_SECONDS + ").");
         System.out.println("Example:");
         System.out.println("  java HealthDataSimulator --patient-count 100 --output websocket:8080");
         System.out.println(
@@ -144,37 +928,324 @@ public class HealthDataSimulator {
     }
 
     /**
-     * Initializes the list of patient IDs.
+     * Initializes the list of patient IDs owned by this simulator: 1 to {@code --patient-count} by default,
+     * one block of them with {@code --shard}, or the ranges given with {@code --patients}.
      *
-     * @param patientCount Number of patients.
-     * @return A list of patient IDs from 1 to {@param patientCount}.
+     * @return A list of patient IDs.
      */
-    private static List<Integer> initializePatientIds(int patientCount) {
-        List<Integer> patientIds = new ArrayList<>();
-        for (int i = 1; i <= patientCount; i++) {
-            patientIds.add(i);
+    private static List<Integer> initializePatientIds() {
+        PatientShard shard;
+        try {
+            if (patientsArg != null) {
+                shard = PatientShard.parseRanges(patientsArg);
+            } else if (shardArg != null) {
+                shard = PatientShard.parseIndex(patientCount, shardArg);
+            } else {
+                shard = PatientShard.all(patientCount);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+        if (patientsArg != null || shardArg != null) {
+            System.err.println("Simulating patients " + shard + " (" + shard.size() + " patients)");
+        }
+        return shard.patientIds();
+    }
+
+    /**
+     * Returns the patient IDs of the checkpoint of {@code --resume}, which replace those of {@code --patient-count},
+     * {@code --shard} and {@code --patients}: patients admitted at runtime are kept, and discharged ones stay away.
+     *
+     * @return A list of patient IDs in ascending order.
+     */
+    private static List<Integer> resumedPatientIds() {
+        int[] ids = resumeCheckpoint.patientIds();
+        Arrays.sort(ids);
+        List<Integer> patientIds = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            patientIds.add(id);
         }
         return patientIds;
     }
 
+    /**
+     * Merges the TCP streams of the simulators given by {@code --fan-in} into the output strategy.
+     * The simulator keeps running until it is stopped.
+     */
+    private static void runFanIn() {
+        try {
+            new ShardFanIn(ShardFanIn.parseEndpoints(fanInArg), outputStrategy).start();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> outputStrategy.close(), "output-shutdown"));
+    }
+
     /**
      * Schedules tasks for generating data for each patient at specified intervals.
      *
      * @param patientIds List of patients IDs.
      */
     private static void scheduleTasksForPatients(List<Integer> patientIds) {
-        ECGDataGenerator ecgDataGenerator = new ECGDataGenerator(patientCount);
-        BloodSaturationDataGenerator bloodSaturationDataGenerator = new BloodSaturationDataGenerator(patientCount);
-        BloodPressureDataGenerator bloodPressureDataGenerator = new BloodPressureDataGenerator(patientCount);
-        BloodLevelsDataGenerator bloodLevelsDataGenerator = new BloodLevelsDataGenerator(patientCount);
-        AlertGenerator alertGenerator = new AlertGenerator(patientCount);
+        PatientDataGenerator ecgDataGenerator = Metrics.instrument("ECG", createEcgGenerator());
+        PatientDataGenerator bloodSaturationDataGenerator = Metrics.instrument("Saturation",
+                new BloodSaturationDataGenerator(patientStateStore, seed));
+        PatientDataGenerator bloodPressureDataGenerator = Metrics.instrument("BloodPressure",
+                new BloodPressureDataGenerator(patientStateStore, seed));
+        PatientDataGenerator bloodLevelsDataGenerator = Metrics.instrument("BloodLevels",
+                new BloodLevelsDataGenerator(patientStateStore, seed));
+        PatientDataGenerator alertGenerator = alertMode.equals("random")
+                ? Metrics.instrument("Alert", new AlertGenerator(patientStateStore, seed)) : null;
+        prepareGeneratorState();
 
         for (int patientId : patientIds) {
             scheduleTask(() -> ecgDataGenerator.generate(patientId, outputStrategy), 1, TimeUnit.SECONDS);
             scheduleTask(() -> bloodSaturationDataGenerator.generate(patientId, outputStrategy), 1, TimeUnit.SECONDS);
             scheduleTask(() -> bloodPressureDataGenerator.generate(patientId, outputStrategy), 1, TimeUnit.MINUTES);
             scheduleTask(() -> bloodLevelsDataGenerator.generate(patientId, outputStrategy), 2, TimeUnit.MINUTES);
-            scheduleTask(() -> alertGenerator.generate(patientId, outputStrategy), 20, TimeUnit.SECONDS);
+            if (alertGenerator != null) {
+                scheduleTask(() -> alertGenerator.generate(patientId, outputStrategy), 20, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Schedules the generators for all patients on a {@link TickScheduler}.
+     *
+     * @param patientIds List of patients IDs.
+     */
+    private static void scheduleTicksForPatients(List<Integer> patientIds) {
+        int[] ids = patientIds.stream().mapToInt(Integer::intValue).toArray();
+        tickScheduler = new TickScheduler(ids, outputStrategy, workerCount);
+        tickScheduler.follow(patientStateStore);
+        scheduleGenerators(tickScheduler);
+    }
+
+    /**
+     * Sends records at the target rate of {@code --load} until the profile ends, then shuts the simulator down.
+     *
+     * @param patientIds List of patients IDs.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    private static void runLoad(List<Integer> patientIds) throws InterruptedException {
+        if (backfillFrom != null || backfillTo != null) {
+            System.err.println("Error: --load cannot be combined with --from and --to.");
+            System.exit(1);
+        }
+        int[] ids = patientIds.stream().mapToInt(Integer::intValue).toArray();
+        System.err.println("Load profile: " + loadProfile + " records/s");
+        LoadRunner load = new LoadRunner(ids, outputStrategy, workerCount, loadProfile, loadReportSeconds * 1000L);
+        scheduleGenerators(load);
+        try {
+            load.run();
+        } catch (IllegalStateException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Replays the recording in the directory given by {@code --replay} at {@code --replay-speed},
+     * then shuts the simulator down.
+     */
+    private static void runReplay() {
+        if (loadProfile != null || backfillFrom != null || backfillTo != null) {
+            System.err.println("Error: --replay cannot be combined with --load, --from and --to.");
+            System.exit(1);
+        }
+        try (RecordingReader recording = RecordingReader.open(Paths.get(replayDirectory))) {
+            System.err.println("Replaying " + recording.format() + " recording " + replayDirectory
+                    + (replaySpeed == 0 ? " as fast as possible" : " at " + replaySpeed + "x speed"));
+            new ReplayRunner(recording, outputStrategy, replaySpeed, REPLAY_REPORT_MILLIS).run();
+        } catch (IOException e) {
+            System.err.println("Error replaying " + replayDirectory + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Generates the data of the time span given by {@code --from} and {@code --to} as fast as possible,
+     * then shuts the simulator down.
+     *
+     * @param patientIds List of patients IDs.
+     * @throws InterruptedException If the thread is interrupted while waiting for the workers.
+     */
+    private static void runBackfill(List<Integer> patientIds) throws InterruptedException {
+        if (backfillFrom == null || backfillTo == null || backfillTo <= backfillFrom) {
+            System.err.println("Error: A backfill needs both --from and --to, with --to after --from.");
+            System.exit(1);
+        }
+        int[] ids = patientIds.stream().mapToInt(Integer::intValue).toArray();
+        BackfillRunner backfill = new BackfillRunner(ids, outputStrategy, workerCount, backfillFrom, backfillTo);
+        scheduleGenerators(backfill);
+        backfill.run();
+        System.exit(0);
+    }
+
+    /**
+     * Creates the ECG generator: a template-based one at {@code --ecg-rate} samples per second if that option is given,
+     * otherwise one which produces a single reading per call.
+     *
+     * @return The ECG generator.
+     */
+    private static PatientDataGenerator createEcgGenerator() {
+        if (ecgRate > 0) {
+            return new TemplateEcgGenerator(patientStateStore, ecgRate, seed);
+        }
+        return new ECGDataGenerator(patientStateStore, seed);
+    }
+
+    /**
+     * Schedules the generators on a {@link GeneratorScheduler},
+     * using the same intervals as {@link #scheduleTasksForPatients(List)}.
+     *
+     * @param generatorScheduler The scheduler which drives the generators.
+     */
+    private static void scheduleGenerators(GeneratorScheduler generatorScheduler) {
+        // All generators create their state before any of them runs, so a checkpoint can restore it
+        PatientDataGenerator ecg = Metrics.instrument("ECG", createEcgGenerator());
+        PatientDataGenerator saturation = Metrics.instrument("Saturation",
+                new BloodSaturationDataGenerator(patientStateStore, seed));
+        PatientDataGenerator bloodPressure = Metrics.instrument("BloodPressure",
+                new BloodPressureDataGenerator(patientStateStore, seed));
+        PatientDataGenerator bloodLevels = Metrics.instrument("BloodLevels",
+                new BloodLevelsDataGenerator(patientStateStore, seed));
+        PatientDataGenerator alert = alertMode.equals("random")
+                ? Metrics.instrument("Alert", new AlertGenerator(patientStateStore, seed)) : null;
+        prepareGeneratorState();
+
+        generatorScheduler.schedule(ecg, 1, TimeUnit.SECONDS);
+        generatorScheduler.schedule(saturation, 1, TimeUnit.SECONDS);
+        generatorScheduler.schedule(bloodPressure, 1, TimeUnit.MINUTES);
+        generatorScheduler.schedule(bloodLevels, 2, TimeUnit.MINUTES);
+        if (alert != null) {
+            generatorScheduler.schedule(alert, 20, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Reads the checkpoint to restore for {@code --resume}, and takes its seed unless {@code --seed} is given,
+     * so patients admitted later get the streams they would have had. Exits with an error message if the
+     * checkpoint cannot be read.
+     */
+    private static void readResumeCheckpoint() {
+        if (checkpointFile == null) {
+            System.err.println("Error: --resume needs --checkpoint <file>.");
+            System.exit(1);
+        }
+        Path path = Paths.get(checkpointFile);
+        if (!Files.exists(path)) {
+            System.err.println("No checkpoint " + checkpointFile + " yet, starting with new patients.");
+            return;
+        }
+        try {
+            resumeCheckpoint = PatientStateCheckpoint.read(path);
+        } catch (IOException e) {
+            System.err.println("Error reading checkpoint: " + e.getMessage());
+            System.exit(1);
+        }
+        if (seed == null) {
+            seed = resumeCheckpoint.seed();
+        }
+    }
+
+    /**
+     * Restores the generator state from the checkpoint of {@code --resume}, if any, and starts writing checkpoints
+     * if {@code --checkpoint} is given. Called once all generators have created their state, before they run.
+     */
+    private static void prepareGeneratorState() {
+        if (resumeCheckpoint != null) {
+            long start = System.nanoTime();
+            try {
+                int restored = resumeCheckpoint.restore(patientStateStore, checkpointSections);
+                System.err.printf("Resumed %d patients from checkpoint %s of %s in %.1f ms%n", restored, checkpointFile,
+                        Instant.ofEpochMilli(resumeCheckpoint.capturedMillis()), (System.nanoTime() - start) / 1e6);
+            } catch (IOException e) {
+                System.err.println("Error restoring checkpoint " + checkpointFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+            resumeCheckpoint = null;
+        }
+        if (checkpointFile != null) {
+            for (SummaryOutputStrategy summary : summaries) {
+                summary.setCheckpointed(true);
+            }
+            checkpoints = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpoints.scheduleWithFixedDelay(HealthDataSimulator::writeCheckpoint, checkpointIntervalSeconds,
+                    checkpointIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Captures the generator state and writes it to the {@code --checkpoint} file.
+     *
+     * @return The checkpoint, or null if it could not be written.
+     */
+    private static synchronized PatientStateCheckpoint writeCheckpoint() {
+        try {
+            PatientStateCheckpoint checkpoint = PatientStateCheckpoint.capture(patientStateStore, seed,
+                    checkpointSections);
+            checkpoint.write(Paths.get(checkpointFile));
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error writing checkpoint " + checkpointFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Shuts the simulator down when the JVM exits: stops the schedulers and waits for their running ticks,
+     * and closes the outputs, which flushes them, within {@code --shutdown-timeout}, then writes a last checkpoint.
+     * Outputs which take longer are abandoned with the records they have not written yet.
+     */
+    private static void shutdown() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        try {
+            if (tickScheduler != null) {
+                tickScheduler.shutdown();
+                tickScheduler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            if (parallelScheduler != null) {
+                parallelScheduler.shutdown();
+                parallelScheduler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Thread closer = new Thread(() -> outputStrategy.close(), "output-shutdown");
+        closer.start();
+        try {
+            closer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closer.isAlive()) {
+            System.err.println("Error: The outputs did not close within " + shutdownTimeoutSeconds
+                    + " s; records they have not written yet are lost.");
+        }
+        // After the outputs, so the checkpoint holds the summary windows with every record passed to them
+        if (checkpoints != null) {
+            checkpoints.shutdown();
+            long start = System.nanoTime();
+            PatientStateCheckpoint checkpoint = writeCheckpoint();
+            if (checkpoint != null) {
+                System.err.printf("Checkpoint of %d patients (%d KB) written to %s in %.1f ms%n",
+                        checkpoint.patientCount(), checkpoint.size() / 1024, checkpointFile,
+                        (System.nanoTime() - start) / 1e6);
+            }
         }
     }
 
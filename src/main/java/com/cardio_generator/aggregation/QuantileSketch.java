@@ -0,0 +1,187 @@
+package com.cardio_generator.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fixed-size sketch of a set of values which answers quantile queries approximately.
+ * <p>
+ * The first {@value #SIZE} values are kept as they are, so small sets are answered exactly. With the next value they
+ * are turned into a histogram of {@value #SIZE} bins of equal width over their range. A value outside the range
+ * doubles the width of the bins, merging every two of them, until the range holds it; the range grows towards the
+ * value, so it stays at most twice as wide as the values need. A quantile is interpolated within the bin which
+ * holds its rank, so it is at most the width of a bin away from a value of that rank. Adding a value is O(1)
+ * amortized, as the bins can only be merged a few dozen times before the width covers any double.
+ */
+final class QuantileSketch {
+
+    /** Number of values kept exactly, and number of bins of the histogram. It must be even. */
+    static final int SIZE = 32;
+
+    /** The bits of the values kept exactly, or the counts of the bins. */
+    private final long[] slots = new long[SIZE];
+    private boolean binned;
+    private long count;
+    private double min;
+    private double max;
+    /** The lower bound of the first bin. */
+    private double low;
+    /** The width of a bin. */
+    private double width;
+
+    /**
+     * Removes all values.
+     */
+    void clear() {
+        if (binned) {
+            Arrays.fill(slots, 0);
+            binned = false;
+        }
+        count = 0;
+    }
+
+    /**
+     * Adds a value. Values which are not finite are ignored.
+     */
+    void add(double value) {
+        if (!Double.isFinite(value)) {
+            return;
+        }
+        if (count == 0 || value < min) {
+            min = value;
+        }
+        if (count == 0 || value > max) {
+            max = value;
+        }
+        if (!binned) {
+            if (count < SIZE) {
+                slots[(int) count++] = Double.doubleToRawLongBits(value);
+                return;
+            }
+            toBins();
+        }
+        slots[binOf(value)]++;
+        count++;
+    }
+
+    /**
+     * @param q The quantile, between 0 and 1 (e.g. 0.95).
+     * @return The approximate value of the quantile, or NaN if the sketch is empty.
+     */
+    double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (!binned) {
+            double[] values = new double[(int) count];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Double.longBitsToDouble(slots[i]);
+            }
+            Arrays.sort(values);
+            double rank = q * (values.length - 1);
+            int below = (int) Math.floor(rank);
+            int above = Math.min(below + 1, values.length - 1);
+            return values[below] + (values[above] - values[below]) * (rank - below);
+        }
+        double target = q * count;
+        long before = 0;
+        for (int bin = 0; bin < SIZE; bin++) {
+            long inBin = slots[bin];
+            if (inBin > 0 && before + inBin >= target) {
+                double value = low + (bin + (target - before) / inBin) * width;
+                return Math.max(min, Math.min(max, value));
+            }
+            before += inBin;
+        }
+        return max;
+    }
+
+    /**
+     * Writes the sketch to a checkpoint.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeBoolean(binned);
+        out.writeLong(count);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(low);
+        out.writeDouble(width);
+        int used = binned ? SIZE : (int) count;
+        for (int i = 0; i < used; i++) {
+            out.writeLong(slots[i]);
+        }
+    }
+
+    /**
+     * Replaces the values with those of a sketch written by {@link #write(DataOutput)}.
+     */
+    void read(DataInput in) throws IOException {
+        Arrays.fill(slots, 0);
+        binned = in.readBoolean();
+        count = in.readLong();
+        min = in.readDouble();
+        max = in.readDouble();
+        low = in.readDouble();
+        width = in.readDouble();
+        if (count < 0 || !binned && count > SIZE) {
+            throw new IOException("Invalid sketch size: " + count);
+        }
+        int used = binned ? SIZE : (int) count;
+        for (int i = 0; i < used; i++) {
+            slots[i] = in.readLong();
+        }
+    }
+
+    /**
+     * Turns the values kept exactly into a histogram over their range.
+     */
+    private void toBins() {
+        double[] values = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            values[i] = Double.longBitsToDouble(slots[i]);
+        }
+        Arrays.fill(slots, 0);
+        binned = true;
+        low = min;
+        // Slightly wider than the range, so the maximum falls into the last bin
+        width = Math.max((max - min) / SIZE * (1 + 1e-9), Math.max(Math.abs(min), 1e-9) * 1e-9);
+        for (double value : values) {
+            slots[binOf(value)]++;
+        }
+    }
+
+    /**
+     * @return The bin of a value, after widening the bins until the range holds it.
+     */
+    private int binOf(double value) {
+        while (true) {
+            double bin = Math.floor((value - low) / width);
+            if (bin >= SIZE) {
+                mergeBins(false);
+            } else if (bin < 0) {
+                mergeBins(true);
+            } else {
+                return (int) bin;
+            }
+        }
+    }
+
+    /**
+     * Doubles the width of the bins, extending the range by its old length downwards or upwards.
+     */
+    private void mergeBins(boolean downwards) {
+        int offset = downwards ? SIZE / 2 : 0;
+        long[] merged = new long[SIZE / 2];
+        for (int i = 0; i < SIZE / 2; i++) {
+            merged[i] = slots[2 * i] + slots[2 * i + 1];
+        }
+        Arrays.fill(slots, 0);
+        System.arraycopy(merged, 0, slots, offset, SIZE / 2);
+        if (downwards) {
+            low -= SIZE * width;
+        }
+        width *= 2;
+    }
+}
@@ -0,0 +1,538 @@
+package com.cardio_generator.aggregation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.cardio_generator.generators.PatientStateCheckpoint;
+import com.cardio_generator.generators.PatientStateStore;
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+import com.cardio_generator.util.LongMap;
+
+/**
+ * This class wraps an {@link OutputStrategy} and replaces the readings of chosen labels with summaries of fixed
+ * time windows, or passes the summaries on in addition to the readings.
+ * <p>
+ * The windows are aligned to multiples of the interval in epoch milliseconds. For every patient and summarized
+ * label, the readings of the current window are kept as their count, minimum, maximum and sum and in a
+ * {@link QuantileSketch}, so a reading is added in O(1) amortized time and the memory does not grow with the rate.
+ * When the first reading of a later window arrives, the finished window is passed on as one record per statistic,
+ * labelled {@code <label>.<statistic>} (e.g. "ECG.p95") and stamped with the start of the window. The windows which
+ * are still open are passed on when the strategy is closed. Readings of other labels, and alerts, pass through.
+ * <p>
+ * The windows are kept in one of {@value #STRIPES} {@link LongMap}s chosen by the patient ID, each with its own
+ * lock, so generator threads rarely wait for each other; the readings of a patient which follow each other in a batch
+ * are added under one lock.
+ * <p>
+ * If the strategy follows a {@link PatientStateStore}, the windows of a patient are removed when it is discharged,
+ * and those which are open are passed on with the next records, so the tables do not grow with every patient ever
+ * seen, and a patient admitted again starts with empty windows.
+ * <p>
+ * The strategy is a {@link PatientStateCheckpoint.Section}, so the open windows survive a restart from a checkpoint,
+ * as long as the interval stays the same. While it is checkpointed, {@link #close()} keeps the open windows for the
+ * last checkpoint instead of passing them on, and the next run passes them on when they are finished.
+ */
+public class SummaryOutputStrategy implements OutputStrategy, PatientStateCheckpoint.Section {
+
+    /** The labels summarized when none are given. */
+    public static final List<String> DEFAULT_LABELS = Collections.unmodifiableList(Arrays.asList("ECG", "Saturation"));
+
+    /** The statistics of a window passed on when none are given. */
+    public static final List<String> DEFAULT_STATISTICS = Collections.unmodifiableList(
+            Arrays.asList("min", "max", "mean", "count", "p50", "p95"));
+
+    /** Number of independently locked window tables, a power of two. */
+    static final int STRIPES = 64;
+
+    private static final int MIN = 0;
+    private static final int MAX = 1;
+    private static final int MEAN = 2;
+    private static final int COUNT = 3;
+    private static final int QUANTILE = 4;
+
+    private final OutputStrategy outputStrategy;
+    private final long intervalMillis;
+    private final boolean passReadings;
+
+    /** The kind of every statistic, and its quantile for {@link #QUANTILE}. */
+    private final int[] statisticKinds;
+    private final double[] quantiles;
+    private final boolean sketched;
+
+    /** For every label ID, the label IDs of the statistics of its summary, or null if it is not summarized. */
+    private final int[][] summaryLabelIds;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /** The store whose discharges the strategy follows, or null. */
+    private volatile PatientStateStore store;
+
+    /** Whether the open windows are kept for a checkpoint on {@link #close()}. */
+    private volatile boolean checkpointed;
+
+    /** The summaries of the open windows of discharged patients, to be passed on with the next records. */
+    private final Queue<RecordBatch> discharged = new ConcurrentLinkedQueue<>();
+
+    /** The records to pass on from one call, reused by every thread. */
+    private final ThreadLocal<RecordBatch> pending = ThreadLocal.withInitial(() -> new RecordBatch(256));
+
+    /**
+     * Constructs a {@code SummaryOutputStrategy}.
+     *
+     * @param outputStrategy The output strategy that receives the summaries and the records which are not summarized.
+     * @param intervalMillis The length of a window in milliseconds. It must be positive.
+     * @param labels The labels to summarize, e.g. "ECG".
+     * @param statistics The statistics of a summary: "min", "max", "mean", "count" or a percentile such as "p95".
+     * @param passReadings Whether the summarized readings are passed on as well.
+     * @throws IllegalArgumentException if the interval is not positive or a statistic is unknown.
+     */
+    public SummaryOutputStrategy(OutputStrategy outputStrategy, long intervalMillis, List<String> labels,
+                                 List<String> statistics, boolean passReadings) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The summary interval must be positive");
+        }
+        if (statistics.isEmpty()) {
+            throw new IllegalArgumentException("A summary needs at least one statistic");
+        }
+        this.outputStrategy = outputStrategy;
+        this.intervalMillis = intervalMillis;
+        this.passReadings = passReadings;
+        this.statisticKinds = new int[statistics.size()];
+        this.quantiles = new double[statistics.size()];
+        boolean anyQuantile = false;
+        for (int i = 0; i < statisticKinds.length; i++) {
+            String statistic = statistics.get(i);
+            switch (statistic) {
+                case "min":
+                    statisticKinds[i] = MIN;
+                    break;
+                case "max":
+                    statisticKinds[i] = MAX;
+                    break;
+                case "mean":
+                    statisticKinds[i] = MEAN;
+                    break;
+                case "count":
+                    statisticKinds[i] = COUNT;
+                    break;
+                default:
+                    statisticKinds[i] = QUANTILE;
+                    quantiles[i] = parsePercentile(statistic) / 100;
+                    anyQuantile = true;
+            }
+        }
+        this.sketched = anyQuantile;
+        int[] labelIds = labels.stream().mapToInt(LabelRegistry::idOf).toArray();
+        this.summaryLabelIds = new int[Arrays.stream(labelIds).max().orElse(-1) + 1][];
+        for (int i = 0; i < labelIds.length; i++) {
+            int[] ids = new int[statistics.size()];
+            for (int k = 0; k < ids.length; k++) {
+                ids[k] = LabelRegistry.idOf(labels.get(i) + "." + statistics.get(k));
+            }
+            summaryLabelIds[labelIds[i]] = ids;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Makes the strategy follow the discharges of a store: the windows of a discharged patient are removed and
+     * the open ones are passed on, and readings of patients who are not admitted are not summarized.
+     * The summaries are passed on with the next records or on {@link #close()}, because the store must not
+     * wait for the wrapped output strategy.
+     *
+     * @param patientStateStore The store.
+     */
+    public void follow(PatientStateStore patientStateStore) {
+        this.store = patientStateStore;
+        patientStateStore.addListener(new PatientStateStore.Listener() {
+            @Override
+            public void admitted(int patientId) {
+            }
+
+            @Override
+            public void discharged(int patientId) {
+                RecordBatch out = new RecordBatch(16);
+                Stripe stripe = stripeOf(patientId);
+                synchronized (stripe) {
+                    for (int labelId = 0; labelId < summaryLabelIds.length; labelId++) {
+                        Window window = summaryLabelIds[labelId] == null ? null : stripe.remove(patientId, labelId);
+                        if (window != null && window.count > 0) {
+                            emit(patientId, labelId, window, out);
+                        }
+                    }
+                }
+                if (!out.isEmpty()) {
+                    discharged.add(out);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        int labelId = LabelRegistry.idOf(label);
+        double value;
+        try {
+            value = summaryIdsOf(labelId) == null ? Double.NaN : LabelRegistry.parseValue(labelId, data);
+        } catch (NumberFormatException e) {
+            value = Double.NaN;
+        }
+        if (passReadings || Double.isNaN(value)) {
+            outputStrategy.output(patientId, timestamp, label, data);
+        }
+        if (!Double.isNaN(value)) {
+            summarize(patientId, timestamp, labelId, value);
+        }
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        if (passReadings || summaryIdsOf(labelId) == null) {
+            outputStrategy.output(patientId, timestamp, labelId, value);
+        }
+        if (summaryIdsOf(labelId) != null) {
+            summarize(patientId, timestamp, labelId, value);
+        }
+    }
+
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        if (passReadings) {
+            outputStrategy.outputBatch(batch);
+        }
+        summarize(batch);
+    }
+
+    /**
+     * Passes the frame on as it is if the readings are passed on, and otherwise only the records
+     * which are not summarized.
+     */
+    @Override
+    public void outputFrame(ByteBuffer frame, RecordBatch batch) {
+        if (passReadings) {
+            outputStrategy.outputFrame(frame, batch);
+        }
+        summarize(batch);
+    }
+
+    /**
+     * Sets whether the windows are checkpointed, in which case {@link #close()} keeps the open windows.
+     *
+     * @param checkpointed Whether the windows are checkpointed.
+     */
+    public void setCheckpointed(boolean checkpointed) {
+        this.checkpointed = checkpointed;
+    }
+
+    /**
+     * Writes the interval, then for every window its patient, its label, its statistics so far and its sketch.
+     * The stripes are locked one after the other.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeLong(intervalMillis);
+        out.writeInt(STRIPES);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                long[] keys = stripe.windows.keys();
+                out.writeInt(keys.length);
+                for (long key : keys) {
+                    Window window = stripe.windows.get(key);
+                    out.writeInt((int) (key >> 32));
+                    out.writeUTF(LabelRegistry.nameOf((int) key));
+                    out.writeLong(window.start);
+                    out.writeLong(window.count);
+                    out.writeDouble(window.min);
+                    out.writeDouble(window.max);
+                    out.writeDouble(window.sum);
+                    out.writeBoolean(window.sketch != null);
+                    if (window.sketch != null) {
+                        window.sketch.write(out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the windows of all patients with those of a checkpoint, unless the interval has changed since,
+     * in which case every patient starts with empty windows. Windows of labels which are no longer summarized
+     * are dropped.
+     */
+    @Override
+    public void readState(DataInput in) throws IOException {
+        if (in.readLong() != intervalMillis) {
+            System.err.println("The summary interval differs from that of the checkpoint; summary windows start over.");
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.windows.clear();
+            }
+        }
+        PatientStateStore followed = store;
+        int stripeCount = in.readInt();
+        for (int s = 0; s < stripeCount; s++) {
+            int windowCount = in.readInt();
+            for (int w = 0; w < windowCount; w++) {
+                int patientId = in.readInt();
+                int labelId = LabelRegistry.find(in.readUTF());
+                Window window = new Window();
+                window.start = in.readLong();
+                window.count = in.readLong();
+                window.min = in.readDouble();
+                window.max = in.readDouble();
+                window.sum = in.readDouble();
+                if (in.readBoolean()) {
+                    (window.sketch != null ? window.sketch : new QuantileSketch()).read(in);
+                }
+                boolean summarized = labelId >= 0 && summaryIdsOf(labelId) != null;
+                if (summarized && window.count > 0 && (followed == null || followed.contains(patientId))) {
+                    Stripe stripe = stripeOf(patientId);
+                    synchronized (stripe) {
+                        stripe.windows.put(stripe.keyOf(patientId, labelId), window);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the windows which are still open on, unless they are checkpointed, then closes the wrapped
+     * output strategy.
+     */
+    @Override
+    public void close() {
+        passDischarged();
+        if (checkpointed) {
+            outputStrategy.close();
+            return;
+        }
+        RecordBatch out = new RecordBatch(256);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.windows.forEach((window, key) -> {
+                    if (window.count > 0) {
+                        emit((int) (key >> 32), (int) key, window, out);
+                    }
+                });
+            }
+        }
+        if (!out.isEmpty()) {
+            outputStrategy.outputBatch(out);
+        }
+        outputStrategy.close();
+    }
+
+    /**
+     * Adds one reading to its window and passes the finished window on, if any.
+     */
+    private void summarize(int patientId, long timestamp, int labelId, double value) {
+        RecordBatch out = pending.get();
+        Stripe stripe = stripeOf(patientId);
+        synchronized (stripe) {
+            add(stripe, patientId, timestamp, labelId, value, out);
+        }
+        flush(out);
+    }
+
+    /**
+     * Adds the readings of a batch to their windows, and passes the finished windows on in one batch,
+     * together with the records which are not summarized unless the readings were passed on already.
+     */
+    private void summarize(RecordBatch batch) {
+        RecordBatch out = pending.get();
+        int size = batch.size();
+        int i = 0;
+        while (i < size) {
+            int patientId = batch.patientId(i);
+            int end = i + 1;
+            while (end < size && batch.patientId(end) == patientId) {
+                end++;
+            }
+            Stripe stripe = stripeOf(patientId);
+            synchronized (stripe) {
+                for (; i < end; i++) {
+                    int labelId = batch.labelId(i);
+                    if (summaryIdsOf(labelId) != null) {
+                        add(stripe, patientId, batch.timestamp(i), labelId, batch.value(i), out);
+                    } else if (!passReadings) {
+                        out.add(patientId, batch.timestamp(i), labelId, batch.value(i));
+                    }
+                }
+            }
+        }
+        flush(out);
+    }
+
+    private void flush(RecordBatch out) {
+        passDischarged();
+        if (!out.isEmpty()) {
+            try {
+                outputStrategy.outputBatch(out);
+            } finally {
+                out.clear();
+            }
+        }
+    }
+
+    /**
+     * Passes on the summaries of the discharged patients which are waiting, if any.
+     */
+    private void passDischarged() {
+        RecordBatch summaries;
+        while ((summaries = discharged.poll()) != null) {
+            outputStrategy.outputBatch(summaries);
+        }
+    }
+
+    /**
+     * Adds a reading to the window of its patient and label, after passing the window on to the given batch
+     * if the reading belongs to a later one. Readings of an earlier window are added to the current one.
+     * The caller holds the lock of the stripe.
+     */
+    private void add(Stripe stripe, int patientId, long timestamp, int labelId, double value, RecordBatch out) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        Window window = stripe.get(patientId, labelId);
+        if (window == null) {
+            return;
+        }
+        long start = timestamp - Math.floorMod(timestamp, intervalMillis);
+        if (window.count > 0 && start > window.start) {
+            emit(patientId, labelId, window, out);
+        }
+        if (window.count == 0) {
+            window.start = start;
+            window.min = value;
+            window.max = value;
+        } else {
+            window.min = Math.min(window.min, value);
+            window.max = Math.max(window.max, value);
+        }
+        window.count++;
+        window.sum += value;
+        if (window.sketch != null) {
+            window.sketch.add(value);
+        }
+    }
+
+    /**
+     * Adds the statistics of a window to a batch and empties the window.
+     */
+    private void emit(int patientId, int labelId, Window window, RecordBatch out) {
+        int[] ids = summaryLabelIds[labelId];
+        for (int k = 0; k < statisticKinds.length; k++) {
+            double statistic;
+            switch (statisticKinds[k]) {
+                case MIN:
+                    statistic = window.min;
+                    break;
+                case MAX:
+                    statistic = window.max;
+                    break;
+                case MEAN:
+                    statistic = window.sum / window.count;
+                    break;
+                case COUNT:
+                    statistic = window.count;
+                    break;
+                default:
+                    statistic = window.sketch.quantile(quantiles[k]);
+            }
+            out.add(patientId, window.start, ids[k], statistic);
+        }
+        window.count = 0;
+        window.sum = 0;
+        if (window.sketch != null) {
+            window.sketch.clear();
+        }
+    }
+
+    /**
+     * @return The label IDs of the statistics of a label, or null if it is not summarized.
+     */
+    private int[] summaryIdsOf(int labelId) {
+        return labelId < summaryLabelIds.length ? summaryLabelIds[labelId] : null;
+    }
+
+    private Stripe stripeOf(int patientId) {
+        return stripes[(patientId * 0x9E3779B9 >>> 16) & (STRIPES - 1)];
+    }
+
+    /**
+     * @return The percentile of a statistic such as "p95" or "p99.9".
+     */
+    private static double parsePercentile(String statistic) {
+        try {
+            if (statistic.startsWith("p")) {
+                double percentile = Double.parseDouble(statistic.substring(1));
+                if (percentile >= 0 && percentile <= 100) {
+                    return percentile;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Unknown summary statistic: " + statistic);
+    }
+
+    /**
+     * The readings of the current window of one patient and label.
+     */
+    private final class Window {
+        private long start;
+        private long count;
+        private double min;
+        private double max;
+        private double sum;
+        private final QuantileSketch sketch = sketched ? new QuantileSketch() : null;
+    }
+
+    /**
+     * The windows of the patients of one stripe by patient and label ID, guarded by the stripe's monitor.
+     */
+    private final class Stripe {
+        private final LongMap<Window> windows = new LongMap<>();
+
+        /**
+         * @return The window of a patient and label, added if there is none yet,
+         *         or null if the followed store does not have the patient admitted.
+         */
+        private Window get(int patientId, int labelId) {
+            long key = keyOf(patientId, labelId);
+            Window window = windows.get(key);
+            if (window == null) {
+                PatientStateStore followed = store;
+                if (followed != null && !followed.contains(patientId)) {
+                    return null; // A reading still in flight after the discharge
+                }
+                window = new Window();
+                windows.put(key, window);
+            }
+            return window;
+        }
+
+        /**
+         * @return The removed window of a patient and label, or null if there was none.
+         */
+        private Window remove(int patientId, int labelId) {
+            return windows.remove(keyOf(patientId, labelId));
+        }
+
+        private long keyOf(int patientId, int labelId) {
+            return (long) patientId << 32 | (labelId & 0xFFFFFFFFL);
+        }
+    }
+}
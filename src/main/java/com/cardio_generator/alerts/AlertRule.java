@@ -0,0 +1,195 @@
+package com.cardio_generator.alerts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.util.Durations;
+
+/**
+ * This class is a condition on the readings of one label of a patient, evaluated one reading at a time.
+ * A rule is parsed from text in one of three forms:
+ * <ul>
+ *   <li>{@code <label> <op> <limit> [x<count>]}, a threshold, e.g. {@code SystolicPressure >= 180 x3}, which holds
+ *       while the last {@code count} readings (default 1) all compare to the limit with {@code <, <=, >} or {@code >=};</li>
+ *   <li>{@code <label> drop|rise <amount> in <duration>}, a trend, e.g. {@code Saturation drop 5 in 10m}, which holds
+ *       while the reading is at least the amount below the highest (or above the lowest) reading of the duration;</li>
+ *   <li>{@code mean <label> over <duration> <op> <limit>}, a window, e.g. {@code mean Saturation over 5m < 93}, which
+ *       holds while the mean of the readings of the duration compares to the limit.</li>
+ * </ul>
+ * Durations are given in seconds, or with a unit of ms, s, m or h. The state of a rule for one patient is kept in a
+ * {@link State}, which takes every reading in O(1) amortized time.
+ */
+public abstract class AlertRule {
+
+    /** The rules used when none are given. */
+    public static final List<String> DEFAULT_RULES = Collections.unmodifiableList(Arrays.asList(
+            "Saturation < 92 x3",
+            "Saturation drop 5 in 10m",
+            "SystolicPressure >= 180 x3",
+            "SystolicPressure <= 90 x3",
+            "DiastolicPressure >= 120 x3"));
+
+    private static final String LABEL = "([A-Za-z][\\w-]*)";
+    private static final String NUMBER = "(-?\\d+(?:\\.\\d+)?)";
+    private static final String OPERATOR = "(<=|>=|<|>)";
+    private static final Pattern THRESHOLD = Pattern.compile(
+            LABEL + "\\s*" + OPERATOR + "\\s*" + NUMBER + "(?:\\s*x\\s*(\\d+))?");
+    private static final Pattern TREND = Pattern.compile(
+            LABEL + "\\s+(drop|rise)\\s+" + NUMBER + "\\s+in\\s+(\\S+)");
+    private static final Pattern WINDOW = Pattern.compile(
+            "mean\\s+" + LABEL + "\\s+over\\s+(\\S+)\\s*" + OPERATOR + "\\s*" + NUMBER);
+
+    private final int labelId;
+    private final String text;
+
+    AlertRule(int labelId, String text) {
+        this.labelId = labelId;
+        this.text = text;
+    }
+
+    /**
+     * Parses a rule.
+     *
+     * @param text The rule, e.g. "SystolicPressure >= 180 x3".
+     * @return The rule.
+     * @throws IllegalArgumentException if the text is not a valid rule or names an unknown label.
+     */
+    public static AlertRule parse(String text) {
+        String rule = text.trim();
+        Matcher matcher = WINDOW.matcher(rule);
+        if (matcher.matches()) {
+            return new WindowMeanRule(labelIdOf(matcher.group(1)), rule,
+                    Durations.parseMillis(matcher.group(2)), Comparison.of(matcher.group(3)),
+                    Double.parseDouble(matcher.group(4)));
+        }
+        matcher = TREND.matcher(rule);
+        if (matcher.matches()) {
+            double amount = Double.parseDouble(matcher.group(3));
+            if (!(amount > 0)) {
+                throw new IllegalArgumentException("The amount of a trend must be positive: " + text);
+            }
+            return new TrendRule(labelIdOf(matcher.group(1)), rule, matcher.group(2).equals("rise"),
+                    amount, Durations.parseMillis(matcher.group(4)));
+        }
+        matcher = THRESHOLD.matcher(rule);
+        if (matcher.matches()) {
+            int count = 1;
+            if (matcher.group(4) != null) {
+                try {
+                    count = Integer.parseInt(matcher.group(4));
+                } catch (NumberFormatException e) {
+                    count = 0;
+                }
+            }
+            if (count <= 0) {
+                throw new IllegalArgumentException("Invalid count of readings: " + text);
+            }
+            return new ThresholdRule(labelIdOf(matcher.group(1)), rule, Comparison.of(matcher.group(2)),
+                    Double.parseDouble(matcher.group(3)), count);
+        }
+        throw new IllegalArgumentException("Invalid alert rule: " + text);
+    }
+
+    /**
+     * @return The ID of a label the generators produce.
+     * @throws IllegalArgumentException if no reading has the label, so a rule on it would never hold.
+     */
+    private static int labelIdOf(String label) {
+        int labelId = LabelRegistry.find(label);
+        if (labelId < 0) {
+            throw new IllegalArgumentException("Unknown label: " + label);
+        }
+        return labelId;
+    }
+
+    /**
+     * @return The ID of the label whose readings the rule takes.
+     */
+    public int labelId() {
+        return labelId;
+    }
+
+    /**
+     * @return The rule as it was given.
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * @return A new state of the rule for one patient, before any reading.
+     */
+    abstract State newState();
+
+    /**
+     * The state of a rule for one patient.
+     */
+    abstract static class State {
+
+        /**
+         * Takes the next reading of the patient.
+         *
+         * @param timestamp The time of the reading in epoch milliseconds, not before the previous one.
+         * @param value The value of the reading.
+         * @return Whether the rule holds after the reading.
+         */
+        abstract boolean update(long timestamp, double value);
+
+        /**
+         * Writes the state to a checkpoint.
+         *
+         * @param out The output.
+         * @throws IOException If an I/O error occurs.
+         */
+        abstract void write(DataOutput out) throws IOException;
+
+        /**
+         * Replaces the state with one written by {@link #write(DataOutput)} for the same rule.
+         *
+         * @param in The input.
+         * @throws IOException If an I/O error occurs.
+         */
+        abstract void read(DataInput in) throws IOException;
+    }
+
+    /**
+     * A comparison of a reading with a limit.
+     */
+    enum Comparison {
+        LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL;
+
+        static Comparison of(String operator) {
+            switch (operator) {
+                case "<":
+                    return LESS;
+                case "<=":
+                    return LESS_OR_EQUAL;
+                case ">":
+                    return GREATER;
+                default:
+                    return GREATER_OR_EQUAL;
+            }
+        }
+
+        boolean test(double value, double limit) {
+            switch (this) {
+                case LESS:
+                    return value < limit;
+                case LESS_OR_EQUAL:
+                    return value <= limit;
+                case GREATER:
+                    return value > limit;
+                default:
+                    return value >= limit;
+            }
+        }
+    }
+}
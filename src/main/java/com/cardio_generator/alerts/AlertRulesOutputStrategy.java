@@ -0,0 +1,377 @@
+package com.cardio_generator.alerts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cardio_generator.generators.PatientStateCheckpoint;
+import com.cardio_generator.generators.PatientStateStore;
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+import com.cardio_generator.util.LongMap;
+
+/**
+ * This class wraps an {@link OutputStrategy}, passes every record on to it and evaluates a set of
+ * {@link AlertRule}s on the readings as they pass. A patient's alert is triggered when the first of its rules holds,
+ * and resolved with the first reading after none of them has held for the clear time, so a reading which moves
+ * back and forth across a limit does not make the alert flap. The "Alert" records are passed on after the readings
+ * which caused them, with the same timestamp.
+ * <p>
+ * The rules are looked up by label ID in an array, so readings of labels without rules, such as ECG by default,
+ * only cost that lookup. The states of the rules of a patient are kept in one of {@value #STRIPES} stripes chosen
+ * by the patient ID, each a {@link LongMap} with its own lock, so generator threads rarely wait for each
+ * other. Every rule takes a reading in O(1) amortized time.
+ * <p>
+ * If the strategy follows a {@link PatientStateStore}, the states of a patient are removed when it is discharged,
+ * so the tables do not grow with every patient ever seen, and a patient admitted again starts without an alert.
+ * <p>
+ * The strategy is a {@link PatientStateCheckpoint.Section}, so the alerts and the states of the rules survive a
+ * restart from a checkpoint, as long as the rules stay the same.
+ */
+public class AlertRulesOutputStrategy implements OutputStrategy, PatientStateCheckpoint.Section {
+
+    /** Number of independently locked patient tables, a power of two. */
+    static final int STRIPES = 64;
+
+    /** Default time none of the rules of a patient must hold before the alert is resolved. */
+    public static final long DEFAULT_CLEAR_MILLIS = 60_000;
+
+    private final OutputStrategy outputStrategy;
+    private final AlertRule[] rules;
+    private final long clearMillis;
+
+    /** For every label ID, the indexes of its rules in {@link #rules}, or null if it has none. */
+    private final int[][] rulesByLabel;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /** The store whose discharges the strategy follows, or null. */
+    private volatile PatientStateStore store;
+
+    /**
+     * Constructs an {@code AlertRulesOutputStrategy}.
+     *
+     * @param outputStrategy The output strategy that receives the records and the alerts.
+     * @param rules The rules to evaluate. There should be at least one.
+     * @param clearMillis Time none of the rules of a patient must hold before the alert is resolved,
+     *                    in milliseconds, or 0 to resolve it as soon as none holds.
+     */
+    public AlertRulesOutputStrategy(OutputStrategy outputStrategy, List<AlertRule> rules, long clearMillis) {
+        this.outputStrategy = outputStrategy;
+        this.rules = rules.toArray(new AlertRule[0]);
+        this.clearMillis = clearMillis;
+        int labels = 0;
+        for (AlertRule rule : this.rules) {
+            labels = Math.max(labels, rule.labelId() + 1);
+        }
+        this.rulesByLabel = new int[labels][];
+        for (int i = 0; i < this.rules.length; i++) {
+            int labelId = this.rules[i].labelId();
+            int[] indexes = rulesByLabel[labelId] == null ? new int[0] : rulesByLabel[labelId];
+            indexes = Arrays.copyOf(indexes, indexes.length + 1);
+            indexes[indexes.length - 1] = i;
+            rulesByLabel[labelId] = indexes;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Makes the strategy follow the discharges of a store: the rule states of a discharged patient are removed,
+     * and readings of patients who are not admitted are passed on without evaluating the rules.
+     *
+     * @param patientStateStore The store.
+     */
+    public void follow(PatientStateStore patientStateStore) {
+        this.store = patientStateStore;
+        patientStateStore.addListener(new PatientStateStore.Listener() {
+            @Override
+            public void admitted(int patientId) {
+            }
+
+            @Override
+            public void discharged(int patientId) {
+                Stripe stripe = stripeOf(patientId);
+                synchronized (stripe) {
+                    stripe.remove(patientId);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        outputStrategy.output(patientId, timestamp, label, data);
+        int labelId = LabelRegistry.idOf(label);
+        if (labelId >= rulesByLabel.length || rulesByLabel[labelId] == null) {
+            return;
+        }
+        double value;
+        try {
+            value = LabelRegistry.parseValue(labelId, data);
+        } catch (NumberFormatException e) {
+            return; // Not a reading the rules can take
+        }
+        double alert = evaluate(patientId, timestamp, labelId, value);
+        if (!Double.isNaN(alert)) {
+            outputStrategy.output(patientId, timestamp, LabelRegistry.ALERT, alert);
+        }
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        outputStrategy.output(patientId, timestamp, labelId, value);
+        double alert = evaluate(patientId, timestamp, labelId, value);
+        if (!Double.isNaN(alert)) {
+            outputStrategy.output(patientId, timestamp, LabelRegistry.ALERT, alert);
+        }
+    }
+
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        outputStrategy.outputBatch(batch);
+        outputAlerts(batch);
+    }
+
+    @Override
+    public void outputFrame(ByteBuffer frame, RecordBatch batch) {
+        outputStrategy.outputFrame(frame, batch);
+        outputAlerts(batch);
+    }
+
+    @Override
+    public void close() {
+        outputStrategy.close();
+    }
+
+    /**
+     * Writes the rules, then for every patient its ID, its alert, and whether each rule has a state, whether it
+     * holds and the state itself. The stripes are locked one after the other.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(rules.length);
+        for (AlertRule rule : rules) {
+            out.writeUTF(rule.toString());
+        }
+        out.writeInt(STRIPES);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                long[] patientIds = stripe.patients.keys();
+                out.writeInt(patientIds.length);
+                for (long patientId : patientIds) {
+                    PatientAlerts patient = stripe.patients.get(patientId);
+                    out.writeInt((int) patientId);
+                    out.writeBoolean(patient.triggered);
+                    out.writeLong(patient.lastHeld);
+                    for (int i = 0; i < rules.length; i++) {
+                        out.writeBoolean(patient.states[i] != null);
+                        if (patient.states[i] != null) {
+                            out.writeBoolean(patient.holds[i]);
+                            patient.states[i].write(out);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the alerts and rule states of all patients with those of a checkpoint, unless the rules have changed
+     * since, in which case every patient starts without an alert.
+     */
+    @Override
+    public void readState(DataInput in) throws IOException {
+        String[] texts = new String[in.readInt()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = in.readUTF();
+        }
+        if (!Arrays.equals(texts, Arrays.stream(rules).map(AlertRule::toString).toArray())) {
+            System.err.println("The alert rules differ from those of the checkpoint; alerts start over.");
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.patients.clear();
+            }
+        }
+        PatientStateStore followed = store;
+        int stripeCount = in.readInt();
+        for (int s = 0; s < stripeCount; s++) {
+            int patientCount = in.readInt();
+            for (int p = 0; p < patientCount; p++) {
+                int patientId = in.readInt();
+                PatientAlerts patient = new PatientAlerts();
+                patient.triggered = in.readBoolean();
+                patient.lastHeld = in.readLong();
+                for (int i = 0; i < rules.length; i++) {
+                    if (in.readBoolean()) {
+                        patient.holds[i] = in.readBoolean();
+                        patient.activeRules += patient.holds[i] ? 1 : 0;
+                        patient.states[i] = rules[i].newState();
+                        patient.states[i].read(in);
+                    }
+                }
+                if (followed == null || followed.contains(patientId)) {
+                    Stripe stripe = stripeOf(patientId);
+                    synchronized (stripe) {
+                        stripe.patients.put(patientId, patient);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the rules on the readings of a batch and passes the resulting alerts on as one batch.
+     * The readings of a patient which follow each other in the batch, such as a block of ECG samples,
+     * are evaluated under one lock.
+     */
+    private void outputAlerts(RecordBatch batch) {
+        RecordBatch alerts = null;
+        int size = batch.size();
+        int i = 0;
+        while (i < size) {
+            int patientId = batch.patientId(i);
+            int end = i + 1;
+            while (end < size && batch.patientId(end) == patientId) {
+                end++;
+            }
+            while (i < end && rulesOf(batch.labelId(i)) == null) {
+                i++;
+            }
+            if (i == end) {
+                continue;
+            }
+            Stripe stripe = stripeOf(patientId);
+            synchronized (stripe) {
+                PatientAlerts patient = stripe.get(patientId);
+                if (patient == null) {
+                    i = end;
+                    continue;
+                }
+                for (; i < end; i++) {
+                    int[] indexes = rulesOf(batch.labelId(i));
+                    if (indexes == null) {
+                        continue;
+                    }
+                    double alert = evaluate(patient, indexes, batch.timestamp(i), batch.value(i));
+                    if (!Double.isNaN(alert)) {
+                        if (alerts == null) {
+                            alerts = new RecordBatch(16);
+                        }
+                        alerts.add(patientId, batch.timestamp(i), LabelRegistry.ALERT, alert);
+                    }
+                }
+            }
+        }
+        if (alerts != null) {
+            outputStrategy.outputBatch(alerts);
+        }
+    }
+
+    /**
+     * Passes a reading to the rules of its label.
+     *
+     * @return {@link LabelRegistry#ALERT_TRIGGERED} or {@link LabelRegistry#ALERT_RESOLVED} if the reading changed
+     *         the alert of the patient, or NaN.
+     */
+    private double evaluate(int patientId, long timestamp, int labelId, double value) {
+        int[] indexes = rulesOf(labelId);
+        if (indexes == null) {
+            return Double.NaN;
+        }
+        Stripe stripe = stripeOf(patientId);
+        synchronized (stripe) {
+            PatientAlerts patient = stripe.get(patientId);
+            return patient == null ? Double.NaN : evaluate(patient, indexes, timestamp, value);
+        }
+    }
+
+    /**
+     * Passes a reading to the given rules of a patient. The caller holds the lock of the patient's stripe.
+     */
+    private double evaluate(PatientAlerts patient, int[] indexes, long timestamp, double value) {
+        for (int index : indexes) {
+            AlertRule.State state = patient.states[index];
+            if (state == null) {
+                state = rules[index].newState();
+                patient.states[index] = state;
+            }
+            boolean holds = state.update(timestamp, value);
+            if (holds != patient.holds[index]) {
+                patient.holds[index] = holds;
+                patient.activeRules += holds ? 1 : -1;
+            }
+        }
+        if (patient.activeRules > 0) {
+            patient.lastHeld = timestamp;
+            if (!patient.triggered) {
+                patient.triggered = true;
+                return LabelRegistry.ALERT_TRIGGERED;
+            }
+        } else if (patient.triggered && timestamp - patient.lastHeld >= clearMillis) {
+            patient.triggered = false;
+            return LabelRegistry.ALERT_RESOLVED;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return The indexes of the rules of a label, or null if it has none.
+     */
+    private int[] rulesOf(int labelId) {
+        return labelId < rulesByLabel.length ? rulesByLabel[labelId] : null;
+    }
+
+    private Stripe stripeOf(int patientId) {
+        return stripes[(patientId * 0x9E3779B9 >>> 16) & (STRIPES - 1)];
+    }
+
+    /**
+     * The states of the rules for one patient. The states are created with the first reading of their label.
+     */
+    private final class PatientAlerts {
+        private final AlertRule.State[] states = new AlertRule.State[rules.length];
+        private final boolean[] holds = new boolean[rules.length];
+        /** Number of rules which hold. */
+        private int activeRules;
+        /** Whether the alert of the patient is triggered. */
+        private boolean triggered;
+        /** The timestamp of the last reading after which a rule held. */
+        private long lastHeld;
+    }
+
+    /**
+     * The rule states of the patients of one stripe by patient ID, guarded by the stripe's monitor.
+     */
+    private final class Stripe {
+        private final LongMap<PatientAlerts> patients = new LongMap<>();
+
+        /**
+         * @return The rule states of a patient, added if the patient has none yet,
+         *         or null if the followed store does not have the patient admitted.
+         */
+        private PatientAlerts get(int patientId) {
+            PatientAlerts patient = patients.get(patientId);
+            if (patient == null) {
+                PatientStateStore followed = store;
+                if (followed != null && !followed.contains(patientId)) {
+                    return null; // A reading still in flight after the discharge
+                }
+                patient = new PatientAlerts();
+                patients.put(patientId, patient);
+            }
+            return patient;
+        }
+
+        private void remove(int patientId) {
+            patients.remove(patientId);
+        }
+    }
+}
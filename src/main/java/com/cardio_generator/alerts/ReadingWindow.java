@@ -0,0 +1,99 @@
+package com.cardio_generator.alerts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A growable ring buffer of readings, each a timestamp and a value, which can be used as a queue or as a deque.
+ * Its capacity is a power of two and doubles when it is full, so every operation is O(1) amortized.
+ */
+final class ReadingWindow {
+
+    private long[] timestamps;
+    private double[] values;
+    /** Index of the first reading. */
+    private int head;
+    private int size;
+
+    ReadingWindow() {
+        timestamps = new long[8];
+        values = new double[8];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long firstTimestamp() {
+        return timestamps[head];
+    }
+
+    double firstValue() {
+        return values[head];
+    }
+
+    double lastValue() {
+        return values[(head + size - 1) & (values.length - 1)];
+    }
+
+    void addLast(long timestamp, double value) {
+        if (size == values.length) {
+            grow();
+        }
+        int index = (head + size) & (values.length - 1);
+        timestamps[index] = timestamp;
+        values[index] = value;
+        size++;
+    }
+
+    void removeFirst() {
+        head = (head + 1) & (values.length - 1);
+        size--;
+    }
+
+    void removeLast() {
+        size--;
+    }
+
+    /**
+     * Writes the readings, oldest first.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (values.length - 1);
+            out.writeLong(timestamps[index]);
+            out.writeDouble(values[index]);
+        }
+    }
+
+    /**
+     * Replaces the readings with those written by {@link #write(DataOutput)}.
+     */
+    void read(DataInput in) throws IOException {
+        int count = in.readInt();
+        head = 0;
+        size = 0;
+        for (int i = 0; i < count; i++) {
+            addLast(in.readLong(), in.readDouble());
+        }
+    }
+
+    private void grow() {
+        long[] newTimestamps = new long[timestamps.length * 2];
+        double[] newValues = new double[values.length * 2];
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & (values.length - 1);
+            newTimestamps[i] = timestamps[index];
+            newValues[i] = values[index];
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        head = 0;
+    }
+}
@@ -0,0 +1,51 @@
+package com.cardio_generator.alerts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A rule which holds while a number of readings in a row compare to a limit, e.g. three systolic pressures of
+ * 180 or more. Its state is the number of readings in a row so far.
+ */
+final class ThresholdRule extends AlertRule {
+
+    private final Comparison comparison;
+    private final double limit;
+    private final int count;
+
+    ThresholdRule(int labelId, String text, Comparison comparison, double limit, int count) {
+        super(labelId, text);
+        this.comparison = comparison;
+        this.limit = limit;
+        this.count = count;
+    }
+
+    @Override
+    State newState() {
+        return new State() {
+            /** Readings in a row which compare to the limit, up to the count. */
+            private int run;
+
+            @Override
+            boolean update(long timestamp, double value) {
+                if (!comparison.test(value, limit)) {
+                    run = 0;
+                } else if (run < count) {
+                    run++;
+                }
+                return run == count;
+            }
+
+            @Override
+            void write(DataOutput out) throws IOException {
+                out.writeInt(run);
+            }
+
+            @Override
+            void read(DataInput in) throws IOException {
+                run = Math.min(in.readInt(), count);
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package com.cardio_generator.alerts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A rule which holds while a reading has dropped by an amount from the highest reading of a time window,
+ * or risen by it from the lowest, e.g. a saturation 5 points below its peak of the last 10 minutes.
+ * <p>
+ * The extreme of the window is kept with a monotonic queue: it holds only the readings which may still become the
+ * extreme, in the order of their timestamps and with decreasing values (increasing for a rise), so the extreme is
+ * the first one. Every reading is added and removed once, which makes an update O(1) amortized.
+ */
+final class TrendRule extends AlertRule {
+
+    /** Whether the rule looks for a rise rather than a drop. */
+    private final boolean rise;
+    private final double amount;
+    private final long windowMillis;
+
+    TrendRule(int labelId, String text, boolean rise, double amount, long windowMillis) {
+        super(labelId, text);
+        this.rise = rise;
+        this.amount = amount;
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    State newState() {
+        return new State() {
+            /** The candidates for the extreme, with negated values for a rise, so it is always the maximum. */
+            private final ReadingWindow candidates = new ReadingWindow();
+
+            @Override
+            boolean update(long timestamp, double value) {
+                double v = rise ? -value : value;
+                while (!candidates.isEmpty() && candidates.firstTimestamp() <= timestamp - windowMillis) {
+                    candidates.removeFirst();
+                }
+                while (!candidates.isEmpty() && candidates.lastValue() <= v) {
+                    candidates.removeLast();
+                }
+                candidates.addLast(timestamp, v);
+                return candidates.firstValue() - v >= amount;
+            }
+
+            @Override
+            void write(DataOutput out) throws IOException {
+                candidates.write(out);
+            }
+
+            @Override
+            void read(DataInput in) throws IOException {
+                candidates.read(in);
+            }
+        };
+    }
+}
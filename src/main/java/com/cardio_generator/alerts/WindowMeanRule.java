@@ -0,0 +1,58 @@
+package com.cardio_generator.alerts;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A rule which holds while the mean of the readings of a time window compares to a limit, e.g. a mean saturation
+ * below 93 over 5 minutes. The readings of the window are kept in a queue with their running sum, so an update
+ * is O(1) amortized.
+ */
+final class WindowMeanRule extends AlertRule {
+
+    private final long windowMillis;
+    private final Comparison comparison;
+    private final double limit;
+
+    WindowMeanRule(int labelId, String text, long windowMillis, Comparison comparison, double limit) {
+        super(labelId, text);
+        this.windowMillis = windowMillis;
+        this.comparison = comparison;
+        this.limit = limit;
+    }
+
+    @Override
+    State newState() {
+        return new State() {
+            private final ReadingWindow readings = new ReadingWindow();
+            private double sum;
+
+            @Override
+            boolean update(long timestamp, double value) {
+                while (!readings.isEmpty() && readings.firstTimestamp() <= timestamp - windowMillis) {
+                    sum -= readings.firstValue();
+                    readings.removeFirst();
+                }
+                if (readings.isEmpty()) {
+                    sum = 0; // Drop the rounding errors of the readings which have left the window
+                }
+                readings.addLast(timestamp, value);
+                sum += value;
+                return comparison.test(sum / readings.size(), limit);
+            }
+
+            @Override
+            void write(DataOutput out) throws IOException {
+                readings.write(out);
+                out.writeDouble(sum);
+            }
+
+            @Override
+            void read(DataInput in) throws IOException {
+                readings.read(in);
+                sum = in.readDouble();
+            }
+        };
+    }
+}
@@ -1,6 +1,6 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
+import com.cardio_generator.outputs.LabelRegistry;
 import com.cardio_generator.outputs.OutputStrategy; // no blank lines between import statements
 
 /**
@@ -9,13 +9,16 @@ import com.cardio_generator.outputs.OutputStrategy; // no blank lines between im
  */
 public class AlertGenerator implements PatientDataGenerator {
 
-    /** A random number generator to simulate alerts. */
-    // Changed constant name to UPPER_SNAKE_CASE.
-    public static final Random RANDOM_GENERATOR = new Random();
-    /** An array representing the alert-state of each patient. False means that the alert is resolved,
-     * and true means that the alert was pressed, so it is active at the moment. */
+    /** Stream number of this generator in {@link PatientRandom}. */
+    private static final long RANDOM_STREAM = 5;
+    /** The random number streams of the patients, used to simulate alerts. */
+    private final PatientRandom random;
+    /** The store which holds the state of the patients. */
+    private final PatientStateStore store;
+    /** A column representing the alert-state of each patient. 0 means that the alert is resolved,
+     * and 1 means that the alert was pressed, so it is active at the moment. */
     // Changed variable name to lowerCamelCase and made it final.
-    private final boolean[] alertStates; // false = resolved, true = active
+    private final PatientStateStore.IntColumn alertStates; // 0 = resolved, 1 = active
 
     /**
      * Constructs an {@code AlertGenerator} for a given number of patients.
@@ -25,41 +28,70 @@ public class AlertGenerator implements PatientDataGenerator {
      */
     // Line break after the opening brace and line break before the closing brace.
     public AlertGenerator(int patientCount) {
-        alertStates = new boolean[patientCount + 1];
+        this(patientCount, PatientRandom.randomSeed());
+    }
+
+    /**
+     * Constructs an {@code AlertGenerator} for a given number of patients,
+     * whose random values are derived from the given seed.
+     *
+     * @param patientCount The number of patients whose data will be generated. It should be a positive integer.
+     * @param seed The seed of the simulation.
+     */
+    public AlertGenerator(int patientCount, long seed) {
+        this(PatientStateStore.withPatients(patientCount), seed);
+    }
+
+    /**
+     * Constructs an {@code AlertGenerator} for the patients of a store, including patients admitted later.
+     * Each patient's alert state starts resolved.
+     *
+     * @param store The store which holds the state of the patients.
+     * @param seed The seed of the simulation.
+     */
+    public AlertGenerator(PatientStateStore store, long seed) {
+        this.store = store;
+        random = new PatientRandom(store, seed, RANDOM_STREAM);
+        alertStates = store.intColumn();
+        store.onAdmit((patientId, slot) -> alertStates.set(slot, 0));
     }
 
     /**
      * Generates alert data for a specified patient and outputs it using the provided {@link OutputStrategy}.
      * Alerts are randomly triggered and resolved based on specified probabilities.
+     * Patients who are not admitted produce no alerts.
      *
      * @param patientId The patient's ID. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
      * @param outputStrategy The specified way to output the generated data.
-     * @throws ArrayIndexOutOfBoundsException if the patientId is out of bounds for the alertStates array.
      */
     @Override
-    public void generate(int patientId, OutputStrategy outputStrategy) throws RuntimeException {
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) throws RuntimeException {
+        int slot = store.slotOf(patientId);
+        if (slot < 0) {
+            return; // The patient has been discharged
+        }
         try {
-            if (alertStates[patientId]) {
-                if (RANDOM_GENERATOR.nextDouble() < 0.9) { // 90% chance to resolve
-                    alertStates[patientId] = false;
+            if (alertStates.get(slot) != 0) {
+                if (random.nextDouble(slot) < 0.9) { // 90% chance to resolve
+                    alertStates.set(slot, 0);
                     // Output the alert
-                    outputStrategy.output(patientId, System.currentTimeMillis(), "Alert", "resolved");
+                    outputStrategy.output(patientId, timestamp, LabelRegistry.ALERT,
+                            LabelRegistry.ALERT_RESOLVED);
                 }
             } else {
                 // Changed variable name to lowerCamelCase.
                 double lambda = 0.1; // Average rate (alerts per period), adjust based on desired frequency
                 double p = -Math.expm1(-lambda); // Probability of at least one alert in the period
-                boolean alertTriggered = RANDOM_GENERATOR.nextDouble() < p;
+                boolean alertTriggered = random.nextDouble(slot) < p;
 
                 if (alertTriggered) {
-                    alertStates[patientId] = true;
+                    alertStates.set(slot, 1);
                     // Output the alert
-                    outputStrategy.output(patientId, System.currentTimeMillis(), "Alert", "triggered");
+                    outputStrategy.output(patientId, timestamp, LabelRegistry.ALERT,
+                            LabelRegistry.ALERT_TRIGGERED);
                 }
             }
-        } catch (ArrayIndexOutOfBoundsException e) { // Changed error handling to be more specific and differentiate between invalid parameter and runtime errors.
-            System.err.println("Invalid patient ID: " + patientId);
-            e.printStackTrace();
         } catch (RuntimeException e) {
             System.err.println("A runtime error occurred while generating alert data for patient " + patientId);
             e.printStackTrace();
@@ -1,42 +1,57 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
-
+import com.cardio_generator.outputs.LabelRegistry;
 import com.cardio_generator.outputs.OutputStrategy;
 
 public class BloodLevelsDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
-    private final double[] baselineCholesterol;
-    private final double[] baselineWhiteCells;
-    private final double[] baselineRedCells;
+    /** Stream number of this generator in {@link PatientRandom}. */
+    private static final long RANDOM_STREAM = 4;
+    private final PatientStateStore store;
+    private final PatientRandom random;
+    private final PatientStateStore.DoubleColumn baselineCholesterol;
+    private final PatientStateStore.DoubleColumn baselineWhiteCells;
+    private final PatientStateStore.DoubleColumn baselineRedCells;
 
     public BloodLevelsDataGenerator(int patientCount) {
-        // Initialize arrays to store baseline values for each patient
-        baselineCholesterol = new double[patientCount + 1];
-        baselineWhiteCells = new double[patientCount + 1];
-        baselineRedCells = new double[patientCount + 1];
+        this(patientCount, PatientRandom.randomSeed());
+    }
+
+    public BloodLevelsDataGenerator(int patientCount, long seed) {
+        this(PatientStateStore.withPatients(patientCount), seed);
+    }
+
+    public BloodLevelsDataGenerator(PatientStateStore store, long seed) {
+        this.store = store;
+        random = new PatientRandom(store, seed, RANDOM_STREAM);
+        // Initialize columns to store baseline values for each patient
+        baselineCholesterol = store.doubleColumn();
+        baselineWhiteCells = store.doubleColumn();
+        baselineRedCells = store.doubleColumn();
 
         // Generate baseline values for each patient
-        for (int i = 1; i <= patientCount; i++) {
-            baselineCholesterol[i] = 150 + random.nextDouble() * 50; // Initial random baseline
-            baselineWhiteCells[i] = 4 + random.nextDouble() * 6; // Initial random baseline
-            baselineRedCells[i] = 4.5 + random.nextDouble() * 1.5; // Initial random baseline
-        }
+        store.onAdmit((patientId, slot) -> {
+            baselineCholesterol.set(slot, 150 + random.nextDouble(slot) * 50); // Initial random baseline
+            baselineWhiteCells.set(slot, 4 + random.nextDouble(slot) * 6); // Initial random baseline
+            baselineRedCells.set(slot, 4.5 + random.nextDouble(slot) * 1.5); // Initial random baseline
+        });
     }
 
     @Override
-    public void generate(int patientId, OutputStrategy outputStrategy) {
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) {
+        int slot = store.slotOf(patientId);
+        if (slot < 0) {
+            return; // The patient has been discharged
+        }
         try {
             // Generate values around the baseline for realism
-            double cholesterol = baselineCholesterol[patientId] + (random.nextDouble() - 0.5) * 10; // Small variation
-            double whiteCells = baselineWhiteCells[patientId] + (random.nextDouble() - 0.5) * 1; // Small variation
-            double redCells = baselineRedCells[patientId] + (random.nextDouble() - 0.5) * 0.2; // Small variation
+            double cholesterol = baselineCholesterol.get(slot) + (random.nextDouble(slot) - 0.5) * 10; // Small variation
+            double whiteCells = baselineWhiteCells.get(slot) + (random.nextDouble(slot) - 0.5) * 1; // Small variation
+            double redCells = baselineRedCells.get(slot) + (random.nextDouble(slot) - 0.5) * 0.2; // Small variation
 
             // Output the generated values
-            outputStrategy.output(patientId, System.currentTimeMillis(), "Cholesterol", Double.toString(cholesterol));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "WhiteBloodCells",
-                    Double.toString(whiteCells));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "RedBloodCells", Double.toString(redCells));
+            outputStrategy.output(patientId, timestamp, LabelRegistry.CHOLESTEROL, cholesterol);
+            outputStrategy.output(patientId, timestamp, LabelRegistry.WHITE_BLOOD_CELLS, whiteCells);
+            outputStrategy.output(patientId, timestamp, LabelRegistry.RED_BLOOD_CELLS, redCells);
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood levels data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
@@ -1,43 +1,59 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
-
+import com.cardio_generator.outputs.LabelRegistry;
 import com.cardio_generator.outputs.OutputStrategy;
 
 public class BloodPressureDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
+    /** Stream number of this generator in {@link PatientRandom}. */
+    private static final long RANDOM_STREAM = 3;
+    private final PatientStateStore store;
+    private final PatientRandom random;
 
-    private int[] lastSystolicValues;
-    private int[] lastDiastolicValues;
+    private final PatientStateStore.IntColumn lastSystolicValues;
+    private final PatientStateStore.IntColumn lastDiastolicValues;
 
     public BloodPressureDataGenerator(int patientCount) {
-        lastSystolicValues = new int[patientCount + 1];
-        lastDiastolicValues = new int[patientCount + 1];
+        this(patientCount, PatientRandom.randomSeed());
+    }
+
+    public BloodPressureDataGenerator(int patientCount, long seed) {
+        this(PatientStateStore.withPatients(patientCount), seed);
+    }
+
+    public BloodPressureDataGenerator(PatientStateStore store, long seed) {
+        this.store = store;
+        random = new PatientRandom(store, seed, RANDOM_STREAM);
+        lastSystolicValues = store.intColumn();
+        lastDiastolicValues = store.intColumn();
 
         // Initialize with baseline values for each patient
-        for (int i = 1; i <= patientCount; i++) {
-            lastSystolicValues[i] = 110 + random.nextInt(20); // Random baseline between 110 and 130
-            lastDiastolicValues[i] = 70 + random.nextInt(15); // Random baseline between 70 and 85
-        }
+        store.onAdmit((patientId, slot) -> {
+            lastSystolicValues.set(slot, 110 + random.nextInt(slot, 20)); // Random baseline between 110 and 130
+            lastDiastolicValues.set(slot, 70 + random.nextInt(slot, 15)); // Random baseline between 70 and 85
+        });
     }
 
     @Override
-    public void generate(int patientId, OutputStrategy outputStrategy) {
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) {
+        int slot = store.slotOf(patientId);
+        if (slot < 0) {
+            return; // The patient has been discharged
+        }
         try {
-            int systolicVariation = random.nextInt(5) - 2; // -2, -1, 0, 1, or 2
-            int diastolicVariation = random.nextInt(5) - 2;
-            int newSystolicValue = lastSystolicValues[patientId] + systolicVariation;
-            int newDiastolicValue = lastDiastolicValues[patientId] + diastolicVariation;
+            int systolicVariation = random.nextInt(slot, 5) - 2; // -2, -1, 0, 1, or 2
+            int diastolicVariation = random.nextInt(slot, 5) - 2;
+            int newSystolicValue = lastSystolicValues.get(slot) + systolicVariation;
+            int newDiastolicValue = lastDiastolicValues.get(slot) + diastolicVariation;
             // Ensure the blood pressure stays within a realistic and safe range
             newSystolicValue = Math.min(Math.max(newSystolicValue, 90), 180);
             newDiastolicValue = Math.min(Math.max(newDiastolicValue, 60), 120);
-            lastSystolicValues[patientId] = newSystolicValue;
-            lastDiastolicValues[patientId] = newDiastolicValue;
+            lastSystolicValues.set(slot, newSystolicValue);
+            lastDiastolicValues.set(slot, newDiastolicValue);
 
-            outputStrategy.output(patientId, System.currentTimeMillis(), "SystolicPressure",
-                    Double.toString(newSystolicValue));
-            outputStrategy.output(patientId, System.currentTimeMillis(), "DiastolicPressure",
-                    Double.toString(newDiastolicValue));
+            outputStrategy.output(patientId, timestamp, LabelRegistry.SYSTOLIC_PRESSURE,
+                    newSystolicValue);
+            outputStrategy.output(patientId, timestamp, LabelRegistry.DIASTOLIC_PRESSURE,
+                    newDiastolicValue);
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood pressure data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
@@ -1,7 +1,6 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
-
+import com.cardio_generator.outputs.LabelRegistry;
 import com.cardio_generator.outputs.OutputStrategy;
 
 /**
@@ -10,10 +9,14 @@ import com.cardio_generator.outputs.OutputStrategy;
  * outputs the data using a specified {@link OutputStrategy}.
  */
 public class BloodSaturationDataGenerator implements PatientDataGenerator {
-    /** A random number generator to generate different blood saturation values. */
-    private static final Random random = new Random();
-    /** An array storing the last saturation values for each patient. */
-    private int[] lastSaturationValues;
+    /** Stream number of this generator in {@link PatientRandom}. */
+    private static final long RANDOM_STREAM = 2;
+    /** The random number streams of the patients, used to generate different blood saturation values. */
+    private final PatientRandom random;
+    /** The store which holds the state of the patients. */
+    private final PatientStateStore store;
+    /** A column storing the last saturation values for each patient. */
+    private final PatientStateStore.IntColumn lastSaturationValues;
 
     /**
      * Constructs a {@code BloodSaturationDataGenerator} for a given number of patients.
@@ -22,12 +25,34 @@ public class BloodSaturationDataGenerator implements PatientDataGenerator {
      * @param patientCount The number of patients whose data will be generated. It should be a positive integer.
      */
     public BloodSaturationDataGenerator(int patientCount) {
-        lastSaturationValues = new int[patientCount + 1];
+        this(patientCount, PatientRandom.randomSeed());
+    }
+
+    /**
+     * Constructs a {@code BloodSaturationDataGenerator} for a given number of patients,
+     * whose random values are derived from the given seed.
+     *
+     * @param patientCount The number of patients whose data will be generated. It should be a positive integer.
+     * @param seed The seed of the simulation.
+     */
+    public BloodSaturationDataGenerator(int patientCount, long seed) {
+        this(PatientStateStore.withPatients(patientCount), seed);
+    }
+
+    /**
+     * Constructs a {@code BloodSaturationDataGenerator} for the patients of a store, including patients admitted later.
+     *
+     * @param store The store which holds the state of the patients.
+     * @param seed The seed of the simulation.
+     */
+    public BloodSaturationDataGenerator(PatientStateStore store, long seed) {
+        this.store = store;
+        random = new PatientRandom(store, seed, RANDOM_STREAM);
+        lastSaturationValues = store.intColumn();
 
         // Initialize with baseline saturation values for each patient
-        for (int i = 1; i <= patientCount; i++) {
-            lastSaturationValues[i] = 95 + random.nextInt(6); // Initializes with a value between 95 and 100
-        }
+        store.onAdmit((patientId, slot) ->
+                lastSaturationValues.set(slot, 95 + random.nextInt(slot, 6))); // Initializes with a value between 95 and 100
     }
 
     /**
@@ -35,20 +60,24 @@ public class BloodSaturationDataGenerator implements PatientDataGenerator {
      * The blood saturation values vary between 90 and 100.
      *
      * @param patientId The patient's ID. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
      * @param outputStrategy The specified way to output the generated data.
      */
     @Override
-    public void generate(int patientId, OutputStrategy outputStrategy) {
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) {
+        int slot = store.slotOf(patientId);
+        if (slot < 0) {
+            return; // The patient has been discharged
+        }
         try {
             // Simulate blood saturation values
-            int variation = random.nextInt(3) - 1; // -1, 0, or 1 to simulate small fluctuations
-            int newSaturationValue = lastSaturationValues[patientId] + variation;
+            int variation = random.nextInt(slot, 3) - 1; // -1, 0, or 1 to simulate small fluctuations
+            int newSaturationValue = lastSaturationValues.get(slot) + variation;
 
             // Ensure the saturation stays within a realistic and healthy range
             newSaturationValue = Math.min(Math.max(newSaturationValue, 90), 100);
-            lastSaturationValues[patientId] = newSaturationValue;
-            outputStrategy.output(patientId, System.currentTimeMillis(), "Saturation",
-                    Double.toString(newSaturationValue) + "%");
+            lastSaturationValues.set(slot, newSaturationValue);
+            outputStrategy.output(patientId, timestamp, LabelRegistry.SATURATION, newSaturationValue);
         } catch (Exception e) {
             System.err.println("An error occurred while generating blood saturation data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
@@ -1,39 +1,53 @@
 package com.cardio_generator.generators;
 
-import java.util.Random;
-
+import com.cardio_generator.outputs.LabelRegistry;
 import com.cardio_generator.outputs.OutputStrategy;
 
 public class ECGDataGenerator implements PatientDataGenerator {
-    private static final Random random = new Random();
-    private double[] lastEcgValues;
+    /** Stream number of this generator in {@link PatientRandom}. */
+    private static final long RANDOM_STREAM = 1;
+    private final PatientStateStore store;
+    private final PatientRandom random;
+    private final PatientStateStore.DoubleColumn lastEcgValues;
     private static final double PI = Math.PI;
 
     public ECGDataGenerator(int patientCount) {
-        lastEcgValues = new double[patientCount + 1];
+        this(patientCount, PatientRandom.randomSeed());
+    }
+
+    public ECGDataGenerator(int patientCount, long seed) {
+        this(PatientStateStore.withPatients(patientCount), seed);
+    }
+
+    public ECGDataGenerator(PatientStateStore store, long seed) {
+        this.store = store;
+        random = new PatientRandom(store, seed, RANDOM_STREAM);
+        lastEcgValues = store.doubleColumn();
         // Initialize the last ECG value for each patient
-        for (int i = 1; i <= patientCount; i++) {
-            lastEcgValues[i] = 0; // Initial ECG value can be set to 0
-        }
+        store.onAdmit((patientId, slot) -> lastEcgValues.set(slot, 0)); // Initial ECG value can be set to 0
     }
 
     @Override
-    public void generate(int patientId, OutputStrategy outputStrategy) {
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) {
         // TODO Check how realistic this data is and make it more realistic if necessary
+        int slot = store.slotOf(patientId);
+        if (slot < 0) {
+            return; // The patient has been discharged
+        }
         try {
-            double ecgValue = simulateEcgWaveform(patientId, lastEcgValues[patientId]);
-            outputStrategy.output(patientId, System.currentTimeMillis(), "ECG", Double.toString(ecgValue));
-            lastEcgValues[patientId] = ecgValue;
+            double ecgValue = simulateEcgWaveform(slot, lastEcgValues.get(slot), timestamp);
+            outputStrategy.output(patientId, timestamp, LabelRegistry.ECG, ecgValue);
+            lastEcgValues.set(slot, ecgValue);
         } catch (Exception e) {
             System.err.println("An error occurred while generating ECG data for patient " + patientId);
             e.printStackTrace(); // This will print the stack trace to help identify where the error occurred.
         }
     }
 
-    private double simulateEcgWaveform(int patientId, double lastEcgValue) {
+    private double simulateEcgWaveform(int slot, double lastEcgValue, long timestamp) {
         // Simplified ECG waveform generation based on sinusoids
-        double hr = 60.0 + random.nextDouble() * 20.0; // Simulate heart rate variability between 60 and 80 bpm
-        double t = System.currentTimeMillis() / 1000.0; // Use system time to simulate continuous time
+        double hr = 60.0 + random.nextDouble(slot) * 20.0; // Simulate heart rate variability between 60 and 80 bpm
+        double t = timestamp / 1000.0; // Use the time of the reading to simulate continuous time
         double ecgFrequency = hr / 60.0; // Convert heart rate to Hz
 
         // Simulate different components of the ECG signal
@@ -41,6 +55,6 @@ public class ECGDataGenerator implements PatientDataGenerator {
         double qrsComplex = 0.5 * Math.sin(2 * PI * 3 * ecgFrequency * t); // QRS is higher frequency
         double tWave = 0.2 * Math.sin(2 * PI * 2 * ecgFrequency * t + PI / 4); // T wave is offset
 
-        return pWave + qrsComplex + tWave + random.nextDouble() * 0.05; // Add small noise
+        return pWave + qrsComplex + tWave + random.nextDouble(slot) * 0.05; // Add small noise
     }
 }
@@ -1,6 +1,7 @@
 package com.cardio_generator.generators;
 
 import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
 
 /**
  * This interface gives an outline for generating patient's data.
@@ -10,9 +11,38 @@ import com.cardio_generator.outputs.OutputStrategy;
 public interface PatientDataGenerator {
     /**
      * Generates data for a given patient and outputs it using a given {@link OutputStrategy}.
+     * The data is stamped with the current time.
      *
      * @param patientId The patient's ID. It should be a positive integer.
      * @param outputStrategy The specified way to output the generated data.
      */
-    void generate(int patientId, OutputStrategy outputStrategy);
+    default void generate(int patientId, OutputStrategy outputStrategy) {
+        generate(patientId, System.currentTimeMillis(), outputStrategy);
+    }
+
+    /**
+     * Generates data for a given patient and outputs it using a given {@link OutputStrategy}.
+     * The records produced by one call are stamped with the given timestamp, except for generators which produce
+     * a block of samples leading up to it, each stamped with its own sampling time.
+     *
+     * @param patientId The patient's ID. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param outputStrategy The specified way to output the generated data.
+     */
+    void generate(int patientId, long timestamp, OutputStrategy outputStrategy);
+
+    /**
+     * Generates data for a range of patients and adds it to a batch.
+     *
+     * @param patientIds The patients' IDs.
+     * @param from The index of the first patient in {@code patientIds}.
+     * @param to The index after the last patient in {@code patientIds}.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param batch The batch which receives the generated records.
+     */
+    default void generateBatch(int[] patientIds, int from, int to, long timestamp, RecordBatch batch) {
+        for (int i = from; i < to; i++) {
+            generate(patientIds[i], timestamp, batch);
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.cardio_generator.generators;
+
+/**
+ * This class provides an independent stream of random numbers for every patient of a generator.
+ * <p>
+ * Each stream is a SplitMix64 generator whose state is one {@code long} per patient in a column of the
+ * {@link PatientStateStore}, so drawing a number is a few arithmetic operations with no shared state between patients
+ * and no locking. Streams are addressed by the patient's slot in the store.
+ * The state of every stream is derived from a single seed, the generator's stream number and the patient ID only,
+ * so a run with the same seed produces the same values for a patient regardless of thread count, scheduling,
+ * the slot of the patient or the other patients being simulated.
+ * <p>
+ * A stream must not be used by two threads at the same time. The schedulers never run the same generator for the
+ * same patient concurrently, so a generator can use the stream of the patient it is generating data for.
+ */
+public class PatientRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** The state of the stream of every patient, indexed by slot. */
+    private final PatientStateStore.LongColumn states;
+
+    /**
+     * Constructs the streams for the patients of a store, including patients admitted later.
+     *
+     * @param store The store of the patients.
+     * @param seed The seed of the whole simulation.
+     * @param stream A number which is different for every generator, so they get unrelated streams.
+     */
+    public PatientRandom(PatientStateStore store, long seed, long stream) {
+        states = store.longColumn();
+        long base = mix(seed ^ mix(stream * GOLDEN_GAMMA));
+        store.onAdmit((patientId, slot) -> states.set(slot, mix(base + patientId * GOLDEN_GAMMA)));
+    }
+
+    /**
+     * Returns the next random {@code double} of a patient's stream.
+     *
+     * @param slot The patient's slot.
+     * @return A value between 0 (inclusive) and 1 (exclusive).
+     */
+    public double nextDouble(int slot) {
+        return (nextLong(slot) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns the next random {@code int} of a patient's stream.
+     *
+     * @param slot The patient's slot.
+     * @param bound The upper bound (exclusive). It should be a positive integer.
+     * @return A value between 0 (inclusive) and {@code bound} (exclusive).
+     */
+    public int nextInt(int slot, int bound) {
+        return (int) (((nextLong(slot) >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Returns the next random {@code long} of a patient's stream.
+     *
+     * @param slot The patient's slot.
+     * @return A random value.
+     */
+    public long nextLong(int slot) {
+        long state = states.get(slot) + GOLDEN_GAMMA;
+        states.set(slot, state);
+        return mix(state);
+    }
+
+    /**
+     * The SplitMix64 finalizer, which turns a counter into a well-distributed value.
+     *
+     * @param z The value to mix.
+     * @return The mixed value.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Creates a seed for a run without an explicit seed.
+     *
+     * @return A seed which differs between runs.
+     */
+    public static long randomSeed() {
+        return mix(System.nanoTime() ^ System.currentTimeMillis() * GOLDEN_GAMMA);
+    }
+}
@@ -0,0 +1,401 @@
+package com.cardio_generator.generators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class is a snapshot of the state of all generators for all admitted patients: the columns of a
+ * {@link PatientStateStore}, which include the random number streams of {@link PatientRandom}.
+ * <p>
+ * A snapshot is captured in one pass over the columns while the store is locked, so admissions and discharges wait
+ * for it, but generation does not. A patient which is being generated at that moment may be captured with some of
+ * its columns one reading ahead of the others, which does not show in its values. Writing the snapshot to a file
+ * happens afterwards, without the lock.
+ * <p>
+ * The file holds, in big-endian order: the magic number {@code "CPST"}, the version, the seed of the simulation,
+ * the time of the capture, the number of columns and of patients, the type of every column ('I', 'L' or 'D'),
+ * the patient IDs, then the values of every column for all patients one column after the other, and a CRC-32
+ * of all that. It is written to a temporary file which then replaces the previous checkpoint, so a crash while
+ * writing leaves the previous checkpoint intact.
+ * <p>
+ * Components which keep per-patient state outside the store, such as the alert rules and the summary windows,
+ * take part as named {@link Section}s: their state follows the column values as the number of sections and,
+ * for each, its name, its length and its bytes. A section of the checkpoint which no component claims on restore
+ * is ignored, and a component whose section is missing keeps its state.
+ */
+public final class PatientStateCheckpoint {
+
+    static final int MAGIC = 0x43505354; // "CPST"
+    static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+
+    /** The whole file, without the CRC. */
+    private final ByteBuffer data;
+    private final long seed;
+    private final long capturedMillis;
+    private final byte[] types;
+    private final int[] patientIds;
+    /** The offset of the column values in {@link #data}. */
+    private final int valuesOffset;
+    /** The state of the sections by name. */
+    private final Map<String, byte[]> sections = new HashMap<>();
+
+    /**
+     * Per-patient state kept outside the {@link PatientStateStore}, which is checkpointed with it.
+     * Both methods are called while the store is locked, so admissions and discharges wait for them.
+     */
+    public interface Section {
+
+        /**
+         * Writes the state of the admitted patients.
+         *
+         * @param out The output.
+         * @throws IOException Never for the output of a checkpoint, which is held in memory.
+         */
+        void writeState(DataOutput out) throws IOException;
+
+        /**
+         * Replaces the state with one written by {@link #writeState(DataOutput)}, after the patients of the
+         * checkpoint have been restored.
+         *
+         * @param in The input, which holds exactly the state.
+         * @throws IOException If the state is damaged.
+         */
+        void readState(DataInput in) throws IOException;
+    }
+
+    private PatientStateCheckpoint(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = data.getInt(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported checkpoint version: " + data.getInt(4));
+        }
+        this.seed = data.getLong(8);
+        this.capturedMillis = data.getLong(16);
+        int columnCount = data.getInt(24);
+        int patientCount = data.getInt(28);
+        long expected = HEADER_SIZE + columnCount + 4L * patientCount;
+        if (columnCount < 0 || patientCount < 0 || expected > data.limit()) {
+            throw new IOException("Damaged checkpoint header");
+        }
+        ByteBuffer in = data.duplicate();
+        in.position(HEADER_SIZE);
+        this.types = new byte[columnCount];
+        in.get(types);
+        this.patientIds = new int[patientCount];
+        in.asIntBuffer().get(patientIds);
+        this.valuesOffset = (int) expected;
+        for (byte type : types) {
+            if (width(type) < 0) {
+                throw new IOException("Damaged checkpoint: unknown column type " + type);
+            }
+            expected += (long) width(type) * patientCount;
+        }
+        if (version > 1) {
+            expected = readSections(data, expected);
+        }
+        if (expected != data.limit()) {
+            throw new IOException("Damaged checkpoint: expected " + expected + " bytes, found " + data.limit());
+        }
+    }
+
+    /**
+     * Reads the sections which follow the column values.
+     *
+     * @return The offset after the sections.
+     */
+    private long readSections(ByteBuffer data, long offset) throws IOException {
+        if (offset + 4 > data.limit()) {
+            throw new IOException("Damaged checkpoint: sections missing");
+        }
+        ByteBuffer in = data.duplicate();
+        in.position((int) offset);
+        int count = in.getInt();
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[in.getShort() & 0xFFFF];
+                in.get(name);
+                byte[] state = new byte[in.getInt()];
+                in.get(state);
+                sections.put(new String(name, StandardCharsets.UTF_8), state);
+            }
+        } catch (RuntimeException e) { // BufferUnderflowException or a negative length
+            throw new IOException("Damaged checkpoint: sections cut short");
+        }
+        return in.position();
+    }
+
+    /**
+     * Captures the state of all admitted patients.
+     *
+     * @param store The store which holds the state of the generators.
+     * @param seed The seed of the simulation, which is kept with the state.
+     * @return The checkpoint.
+     */
+    public static PatientStateCheckpoint capture(PatientStateStore store, long seed) {
+        return capture(store, seed, Collections.emptyMap());
+    }
+
+    /**
+     * Captures the state of all admitted patients, including the state of the given sections.
+     *
+     * @param store The store which holds the state of the generators.
+     * @param seed The seed of the simulation, which is kept with the state.
+     * @param sections The sections by name.
+     * @return The checkpoint.
+     */
+    public static PatientStateCheckpoint capture(PatientStateStore store, long seed, Map<String, Section> sections) {
+        synchronized (store) {
+            byte[] sectionBytes = writeSections(sections);
+            List<PatientStateStore.Column> columns = store.columns();
+            int[] ids = store.patientIds();
+            int size = HEADER_SIZE + columns.size() + 4 * ids.length;
+            for (PatientStateStore.Column column : columns) {
+                size += width(column.type()) * ids.length;
+            }
+            size += sectionBytes.length;
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.putInt(MAGIC).putInt(VERSION).putLong(seed).putLong(System.currentTimeMillis())
+                    .putInt(columns.size()).putInt(ids.length);
+            for (PatientStateStore.Column column : columns) {
+                out.put(column.type());
+            }
+            int[] slots = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                out.putInt(ids[i]);
+                slots[i] = store.slotOf(ids[i]);
+            }
+            for (PatientStateStore.Column column : columns) {
+                for (int slot : slots) {
+                    column.write(slot, out);
+                }
+            }
+            out.put(sectionBytes);
+            out.flip();
+            try {
+                return new PatientStateCheckpoint(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // Cannot happen for a buffer built above
+            }
+        }
+    }
+
+    /**
+     * @return The number of sections followed by each section's name, length and state.
+     */
+    private static byte[] writeSections(Map<String, Section> sections) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(sections.size());
+            for (Map.Entry<String, Section> section : sections.entrySet()) {
+                ByteArrayOutputStream state = new ByteArrayOutputStream();
+                section.getValue().writeState(new DataOutputStream(state));
+                out.writeUTF(section.getKey());
+                out.writeInt(state.size());
+                state.writeTo(out);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Cannot happen for streams in memory
+        }
+    }
+
+    /**
+     * Reads a checkpoint file.
+     *
+     * @param path The file.
+     * @return The checkpoint.
+     * @throws IOException If an I/O error occurs, or the file is not a valid checkpoint.
+     */
+    public static PatientStateCheckpoint read(Path path) throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (file.remaining() < HEADER_SIZE + 8) {
+            throw new IOException("Not a checkpoint: " + path);
+        }
+        ByteBuffer data = file.duplicate();
+        data.limit(file.limit() - 8);
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if (crc.getValue() != file.getLong(file.limit() - 8)) {
+            throw new IOException("Damaged checkpoint (CRC mismatch): " + path);
+        }
+        try {
+            return new PatientStateCheckpoint(data.slice());
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + path, e);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a file, replacing it in one step.
+     *
+     * @param path The file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        ByteBuffer trailer = ByteBuffer.allocate(8).putLong(0, crc.getValue());
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = {data.duplicate(), trailer};
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the patients of the checkpoint and their state: patients which are not in the checkpoint are
+     * discharged, and those which are not admitted yet are admitted, so the admitted patients are exactly those
+     * of the checkpoint. The generators must have created their columns in the same order as when the checkpoint
+     * was captured, which is the case for the same generators.
+     *
+     * @param store The store which holds the state of the generators.
+     * @return The number of patients restored.
+     * @throws IOException If the columns of the store do not match those of the checkpoint.
+     */
+    public int restore(PatientStateStore store) throws IOException {
+        return restore(store, Collections.emptyMap());
+    }
+
+    /**
+     * Restores the patients of the checkpoint and their state as {@link #restore(PatientStateStore)} does,
+     * then the state of the given sections which the checkpoint holds.
+     *
+     * @param store The store which holds the state of the generators.
+     * @param sections The sections by name.
+     * @return The number of patients restored.
+     * @throws IOException If the columns of the store do not match those of the checkpoint, or a section is damaged.
+     */
+    public int restore(PatientStateStore store, Map<String, Section> sections) throws IOException {
+        synchronized (store) {
+            List<PatientStateStore.Column> columns = store.columns();
+            boolean matches = columns.size() == types.length;
+            for (int i = 0; matches && i < types.length; i++) {
+                matches = columns.get(i).type() == types[i];
+            }
+            if (!matches) {
+                throw new IOException("The checkpoint holds the state of other generators (" + describe(types)
+                        + " instead of " + describe(columns) + "), e.g. because --ecg-rate or --alerts differ");
+            }
+            int[] sortedIds = patientIds.clone();
+            Arrays.sort(sortedIds);
+            for (int patientId : store.patientIds().clone()) {
+                if (Arrays.binarySearch(sortedIds, patientId) < 0) {
+                    store.discharge(patientId); // Discharged while the checkpointed run was going on
+                }
+            }
+            int[] slots = new int[patientIds.length];
+            for (int i = 0; i < patientIds.length; i++) {
+                store.admit(patientIds[i]);
+                slots[i] = store.slotOf(patientIds[i]);
+            }
+            ByteBuffer in = data.duplicate();
+            in.position(valuesOffset);
+            for (PatientStateStore.Column column : columns) {
+                for (int slot : slots) {
+                    column.read(slot, in);
+                }
+            }
+            for (Map.Entry<String, Section> section : sections.entrySet()) {
+                byte[] state = this.sections.get(section.getKey());
+                if (state != null) {
+                    try {
+                        section.getValue().readState(new DataInputStream(new ByteArrayInputStream(state)));
+                    } catch (IOException e) {
+                        throw new IOException("Damaged state of " + section.getKey() + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            return patientIds.length;
+        }
+    }
+
+    /**
+     * @return The seed of the simulation the checkpoint was captured from.
+     */
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * @return The time of the capture in epoch milliseconds.
+     */
+    public long capturedMillis() {
+        return capturedMillis;
+    }
+
+    /**
+     * @return The IDs of the patients in the checkpoint.
+     */
+    public int[] patientIds() {
+        return patientIds.clone();
+    }
+
+    /**
+     * @return The number of patients in the checkpoint.
+     */
+    public int patientCount() {
+        return patientIds.length;
+    }
+
+    /**
+     * @return The size of the checkpoint file in bytes.
+     */
+    public int size() {
+        return data.limit() + 8;
+    }
+
+    /**
+     * @return The size of a value of a column type in bytes, or -1 for an unknown type.
+     */
+    private static int width(byte type) {
+        switch (type) {
+            case 'I':
+                return 4;
+            case 'L':
+            case 'D':
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    private static String describe(byte[] types) {
+        return new String(types, StandardCharsets.US_ASCII);
+    }
+
+    private static String describe(List<PatientStateStore.Column> columns) {
+        StringBuilder text = new StringBuilder();
+        for (PatientStateStore.Column column : columns) {
+            text.append((char) column.type());
+        }
+        return text.toString();
+    }
+}
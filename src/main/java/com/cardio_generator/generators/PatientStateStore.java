@@ -0,0 +1,482 @@
+package com.cardio_generator.generators;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class holds the per-patient state of all generators and the set of patients currently in the simulation.
+ * <p>
+ * Every admitted patient occupies one slot. Generators keep their state in columns of the store
+ * ({@link IntColumn}, {@link LongColumn}, {@link DoubleColumn}), which are indexed by slot, so the state of all
+ * generators is one struct-of-arrays over the same population. Columns are stored in chunks of
+ * {@value #CHUNK_SIZE} slots: when the population grows, a chunk is added to every column, and the state of the
+ * patients already admitted is never copied. Slots of discharged patients are reused for later admissions,
+ * after a grace period of {@value #SLOT_REUSE_DELAY_MILLIS} ms so that a tick still running for the discharged
+ * patient cannot overwrite the state of the new one.
+ * <p>
+ * Patients can be admitted and discharged at any time. Generators register an initializer, which sets their state
+ * for a patient before it becomes visible; schedulers register a {@link Listener} to add and remove patients
+ * from their ticks. Reading and writing state is not synchronized; like before, a patient is never generated by two
+ * threads at the same time.
+ */
+public class PatientStateStore {
+
+    /** The number of slots of a chunk. */
+    public static final int CHUNK_SIZE = 4096;
+
+    /** The time after which the slot of a discharged patient may be reused, in milliseconds. */
+    static final long SLOT_REUSE_DELAY_MILLIS = 10_000;
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Initializes the state of a generator for a newly admitted patient.
+     */
+    @FunctionalInterface
+    public interface Initializer {
+        /**
+         * @param patientId The patient's ID.
+         * @param slot The slot of the patient.
+         */
+        void initialize(int patientId, int slot);
+    }
+
+    /**
+     * Is told about patients entering and leaving the simulation, after the store has been updated and while it is
+     * still locked, so listeners see the changes in the order they happened, and code which holds the lock of the
+     * store sees no change its listener has not been told about yet. Listeners should be quick and must not wait
+     * for other threads which use the store.
+     */
+    public interface Listener {
+        /**
+         * @param patientId The ID of the admitted patient.
+         */
+        void admitted(int patientId);
+
+        /**
+         * @param patientId The ID of the discharged patient.
+         */
+        void discharged(int patientId);
+    }
+
+    /** For every patient ID, its slot plus one, or 0 if the patient is not admitted. Chunks are created on demand. */
+    private volatile int[][] slotsById = new int[0][];
+
+    /** For every slot, the ID of its patient, or 0 if the slot is free. */
+    private int[][] idsBySlot = new int[0][];
+
+    /** The number of slots, which is a multiple of the chunk size. */
+    private int capacity;
+
+    /** The number of slots which have been used at least once. */
+    private int usedSlots;
+
+    /** The number of admitted patients. */
+    private volatile int size;
+
+    /** Freed slots with the time they were freed, oldest first. */
+    private final ArrayDeque<long[]> freeSlots = new ArrayDeque<>();
+
+    private final List<Column> columns = new ArrayList<>();
+    private final List<Initializer> initializers = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** The IDs of the admitted patients by slot, or null if they changed since the last call of {@link #patientIds()}. */
+    private volatile int[] patientIds = new int[0];
+
+    /**
+     * Constructs an empty {@code PatientStateStore}.
+     */
+    public PatientStateStore() {
+    }
+
+    /**
+     * Constructs a {@code PatientStateStore} with the patients 1 to {@code patientCount} admitted.
+     *
+     * @param patientCount The number of patients.
+     * @return The store.
+     */
+    public static PatientStateStore withPatients(int patientCount) {
+        PatientStateStore store = new PatientStateStore();
+        for (int id = 1; id <= patientCount; id++) {
+            store.admit(id);
+        }
+        return store;
+    }
+
+    /**
+     * Admits a patient. The initializers of all generators set up its state before it becomes visible.
+     *
+     * @param patientId The patient's ID. It should be a positive integer.
+     * @return {@code true} if the patient was admitted, {@code false} if it already was.
+     * @throws IllegalArgumentException if the ID is not positive.
+     */
+    public boolean admit(int patientId) {
+        if (patientId <= 0) {
+            throw new IllegalArgumentException("Patient IDs must be positive: " + patientId);
+        }
+        synchronized (this) {
+            if (slotOf(patientId) >= 0) {
+                return false;
+            }
+            int slot = allocateSlot();
+            idsBySlot[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK] = patientId;
+            for (Initializer initializer : initializers) {
+                initializer.initialize(patientId, slot);
+            }
+            int[][] table = slotsById;
+            int chunk = patientId >>> CHUNK_SHIFT;
+            if (chunk >= table.length) {
+                table = Arrays.copyOf(table, Math.max(chunk + 1, table.length * 2));
+            }
+            if (table[chunk] == null) {
+                table[chunk] = new int[CHUNK_SIZE];
+            }
+            table[chunk][patientId & CHUNK_MASK] = slot + 1;
+            size++;
+            patientIds = null;
+            slotsById = table; // Publishes the slot and the initialized state
+            for (Listener listener : listeners) {
+                listener.admitted(patientId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Discharges a patient. Its slot is freed and reused by a later admission.
+     *
+     * @param patientId The patient's ID.
+     * @return {@code true} if the patient was discharged, {@code false} if it was not admitted.
+     */
+    public boolean discharge(int patientId) {
+        synchronized (this) {
+            int slot = slotOf(patientId);
+            if (slot < 0) {
+                return false;
+            }
+            int[][] table = slotsById;
+            table[patientId >>> CHUNK_SHIFT][patientId & CHUNK_MASK] = 0;
+            idsBySlot[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK] = 0;
+            freeSlots.addLast(new long[] {slot, System.currentTimeMillis()});
+            size--;
+            patientIds = null;
+            slotsById = table;
+            for (Listener listener : listeners) {
+                listener.discharged(patientId);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of a patient.
+     *
+     * @param patientId The patient's ID.
+     * @return The slot, or -1 if the patient is not admitted.
+     */
+    public int slotOf(int patientId) {
+        int[][] table = slotsById;
+        int chunk = patientId >>> CHUNK_SHIFT;
+        if (patientId <= 0 || chunk >= table.length || table[chunk] == null) {
+            return -1;
+        }
+        return table[chunk][patientId & CHUNK_MASK] - 1;
+    }
+
+    /**
+     * @param patientId The patient's ID.
+     * @return {@code true} if the patient is admitted.
+     */
+    public boolean contains(int patientId) {
+        return slotOf(patientId) >= 0;
+    }
+
+    /**
+     * @return The number of admitted patients.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the IDs of the admitted patients, ordered by slot, so that iterating over them
+     * walks the columns from front to back. The array is shared and must not be modified.
+     *
+     * @return The IDs of the admitted patients.
+     */
+    public int[] patientIds() {
+        int[] ids = patientIds;
+        if (ids != null) {
+            return ids;
+        }
+        synchronized (this) {
+            if (patientIds == null) {
+                int[] result = new int[size];
+                int count = 0;
+                for (int slot = 0; slot < usedSlots; slot++) {
+                    int id = idsBySlot[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+                    if (id != 0) {
+                        result[count++] = id;
+                    }
+                }
+                patientIds = result;
+            }
+            return patientIds;
+        }
+    }
+
+    /**
+     * Registers the initializer of a generator. It is called at once for every patient already admitted,
+     * and later for every newly admitted patient.
+     *
+     * @param initializer The initializer.
+     */
+    public synchronized void onAdmit(Initializer initializer) {
+        initializers.add(initializer);
+        for (int slot = 0; slot < usedSlots; slot++) {
+            int id = idsBySlot[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+            if (id != 0) {
+                initializer.initialize(id, slot);
+            }
+        }
+        slotsById = slotsById; // Publishes the initialized state
+    }
+
+    /**
+     * Registers a listener which is told about later admissions and discharges.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener The listener.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return A new column of {@code int} values, one per slot.
+     */
+    public synchronized IntColumn intColumn() {
+        return addColumn(new IntColumn());
+    }
+
+    /**
+     * @return A new column of {@code long} values, one per slot.
+     */
+    public synchronized LongColumn longColumn() {
+        return addColumn(new LongColumn());
+    }
+
+    /**
+     * @return A new column of {@code double} values, one per slot.
+     */
+    public synchronized DoubleColumn doubleColumn() {
+        return addColumn(new DoubleColumn());
+    }
+
+    /**
+     * @return The columns in the order they were created. The caller holds the lock of the store.
+     */
+    List<Column> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    private <C extends Column> C addColumn(C column) {
+        for (int chunk = 0; chunk < capacity >>> CHUNK_SHIFT; chunk++) {
+            column.addChunk();
+        }
+        columns.add(column);
+        return column;
+    }
+
+    /**
+     * Takes a free slot whose grace period is over, or a new one, adding a chunk to every column if necessary.
+     */
+    private int allocateSlot() {
+        long[] free = freeSlots.peekFirst();
+        if (free != null && System.currentTimeMillis() - free[1] >= SLOT_REUSE_DELAY_MILLIS) {
+            freeSlots.pollFirst();
+            return (int) free[0];
+        }
+        if (usedSlots == capacity) {
+            idsBySlot = Arrays.copyOf(idsBySlot, idsBySlot.length + 1);
+            idsBySlot[idsBySlot.length - 1] = new int[CHUNK_SIZE];
+            for (Column column : columns) {
+                column.addChunk();
+            }
+            capacity += CHUNK_SIZE;
+        }
+        return usedSlots++;
+    }
+
+    /**
+     * A column of per-slot state. Chunks are only ever added, so the state of a slot stays where it is.
+     */
+    abstract static class Column {
+        abstract void addChunk();
+
+        /**
+         * @return A code of the type of the values, which tells columns of different types apart in a checkpoint.
+         */
+        abstract byte type();
+
+        /**
+         * Writes the value of a slot to a buffer.
+         */
+        abstract void write(int slot, ByteBuffer out);
+
+        /**
+         * Reads the value of a slot from a buffer.
+         */
+        abstract void read(int slot, ByteBuffer in);
+    }
+
+    /**
+     * A column of {@code int} values.
+     */
+    public static final class IntColumn extends Column {
+        private int[][] chunks = new int[0][];
+
+        /**
+         * @param slot The slot.
+         * @return The value of the slot.
+         */
+        public int get(int slot) {
+            return chunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+        }
+
+        /**
+         * @param slot The slot.
+         * @param value The new value of the slot.
+         */
+        public void set(int slot, int value) {
+            chunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK] = value;
+        }
+
+        @Override
+        byte type() {
+            return 'I';
+        }
+
+        @Override
+        void write(int slot, ByteBuffer out) {
+            out.putInt(get(slot));
+        }
+
+        @Override
+        void read(int slot, ByteBuffer in) {
+            set(slot, in.getInt());
+        }
+
+        @Override
+        void addChunk() {
+            int[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new int[CHUNK_SIZE];
+            chunks = grown;
+        }
+    }
+
+    /**
+     * A column of {@code long} values.
+     */
+    public static final class LongColumn extends Column {
+        private long[][] chunks = new long[0][];
+
+        /**
+         * @param slot The slot.
+         * @return The value of the slot.
+         */
+        public long get(int slot) {
+            return chunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+        }
+
+        /**
+         * @param slot The slot.
+         * @param value The new value of the slot.
+         */
+        public void set(int slot, long value) {
+            chunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK] = value;
+        }
+
+        @Override
+        byte type() {
+            return 'L';
+        }
+
+        @Override
+        void write(int slot, ByteBuffer out) {
+            out.putLong(get(slot));
+        }
+
+        @Override
+        void read(int slot, ByteBuffer in) {
+            set(slot, in.getLong());
+        }
+
+        @Override
+        void addChunk() {
+            long[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new long[CHUNK_SIZE];
+            chunks = grown;
+        }
+    }
+
+    /**
+     * A column of {@code double} values.
+     */
+    public static final class DoubleColumn extends Column {
+        private double[][] chunks = new double[0][];
+
+        /**
+         * @param slot The slot.
+         * @return The value of the slot.
+         */
+        public double get(int slot) {
+            return chunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK];
+        }
+
+        /**
+         * @param slot The slot.
+         * @param value The new value of the slot.
+         */
+        public void set(int slot, double value) {
+            chunks[slot >>> CHUNK_SHIFT][slot & CHUNK_MASK] = value;
+        }
+
+        @Override
+        byte type() {
+            return 'D';
+        }
+
+        @Override
+        void write(int slot, ByteBuffer out) {
+            out.putDouble(get(slot));
+        }
+
+        @Override
+        void read(int slot, ByteBuffer in) {
+            set(slot, in.getDouble());
+        }
+
+        @Override
+        void addChunk() {
+            double[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new double[CHUNK_SIZE];
+            chunks = grown;
+        }
+    }
+}
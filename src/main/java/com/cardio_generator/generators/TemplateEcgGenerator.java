@@ -0,0 +1,205 @@
+package com.cardio_generator.generators;
+
+import java.util.Random;
+
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class generates ECG signals at a monitor-like sampling rate (e.g. 250 or 500 Hz) from precomputed beat templates.
+ * <p>
+ * One heartbeat (P wave, QRS complex, T wave) is tabulated once per template as {@value #TEMPLATE_SIZE} points
+ * over the phase of the beat. Every patient is assigned one of {@value #TEMPLATE_VARIANTS} template variants
+ * and an amplitude, and keeps its own beat phase and RR interval. A sample is a linear interpolation
+ * in the table, so no trigonometric or exponential functions are evaluated while generating.
+ * At the end of every beat, the next RR interval is drawn around the patient's resting heart rate,
+ * which gives the signal heart-rate variability.
+ * <p>
+ * Each call emits all samples which are due since the previous call for the patient, up to the given timestamp,
+ * each stamped with its own sampling time. The samples of one call are delivered as one batch.
+ */
+public class TemplateEcgGenerator implements PatientDataGenerator {
+
+    /** Stream number of this generator in {@link PatientRandom}. */
+    private static final long RANDOM_STREAM = 6;
+
+    /** The number of points of a beat template. */
+    static final int TEMPLATE_SIZE = 1024;
+
+    /** The number of beat templates patients are assigned to. */
+    static final int TEMPLATE_VARIANTS = 16;
+
+    /** The most samples emitted for one patient at once, in seconds of signal. Older samples are skipped. */
+    static final int MAX_BLOCK_SECONDS = 10;
+
+    /** The beat templates, in millivolts. Each has one extra point, a copy of the first, for interpolation. */
+    private static final double[][] TEMPLATES = buildTemplates();
+
+    private final PatientStateStore store;
+    private final PatientRandom random;
+    private final double samplingRate;
+
+    /** The template of every patient. */
+    private final PatientStateStore.IntColumn templates;
+    /** The amplitude factor of every patient. */
+    private final PatientStateStore.DoubleColumn amplitudes;
+    /** The resting RR interval of every patient, in seconds. */
+    private final PatientStateStore.DoubleColumn restingRrIntervals;
+    /** The RR interval of the current beat of every patient, in seconds. */
+    private final PatientStateStore.DoubleColumn rrIntervals;
+    /** The position of every patient within its current beat, from 0 (inclusive) to 1 (exclusive). */
+    private final PatientStateStore.DoubleColumn phases;
+    /** The number of the next sample of every patient, counted from the epoch, or -1 before the first call. */
+    private final PatientStateStore.LongColumn nextSamples;
+
+    /** Batches used to deliver a block when the output strategy is not a batch itself. */
+    private final ThreadLocal<RecordBatch> blocks = ThreadLocal.withInitial(() -> new RecordBatch(256));
+
+    /**
+     * Constructs a {@code TemplateEcgGenerator} with a random seed.
+     *
+     * @param patientCount The highest patient ID.
+     * @param samplingRate The number of samples per second and patient. It should be positive.
+     */
+    public TemplateEcgGenerator(int patientCount, double samplingRate) {
+        this(patientCount, samplingRate, PatientRandom.randomSeed());
+    }
+
+    /**
+     * Constructs a {@code TemplateEcgGenerator}.
+     *
+     * @param patientCount The highest patient ID.
+     * @param samplingRate The number of samples per second and patient. It should be positive.
+     * @param seed The seed of the whole simulation.
+     */
+    public TemplateEcgGenerator(int patientCount, double samplingRate, long seed) {
+        this(PatientStateStore.withPatients(patientCount), samplingRate, seed);
+    }
+
+    /**
+     * Constructs a {@code TemplateEcgGenerator} for the patients of a store, including patients admitted later.
+     *
+     * @param store The store which holds the state of the patients.
+     * @param samplingRate The number of samples per second and patient. It should be positive.
+     * @param seed The seed of the whole simulation.
+     */
+    public TemplateEcgGenerator(PatientStateStore store, double samplingRate, long seed) {
+        if (!(samplingRate > 0)) {
+            throw new IllegalArgumentException("Sampling rate must be positive: " + samplingRate);
+        }
+        this.store = store;
+        this.samplingRate = samplingRate;
+        random = new PatientRandom(store, seed, RANDOM_STREAM);
+        templates = store.intColumn();
+        amplitudes = store.doubleColumn();
+        restingRrIntervals = store.doubleColumn();
+        rrIntervals = store.doubleColumn();
+        phases = store.doubleColumn();
+        nextSamples = store.longColumn();
+        store.onAdmit((patientId, slot) -> {
+            templates.set(slot, random.nextInt(slot, TEMPLATE_VARIANTS));
+            amplitudes.set(slot, 0.8 + random.nextDouble(slot) * 0.4);
+            restingRrIntervals.set(slot, 60.0 / (55 + random.nextDouble(slot) * 35)); // 55 to 90 bpm
+            rrIntervals.set(slot, restingRrIntervals.get(slot));
+            phases.set(slot, random.nextDouble(slot));
+            nextSamples.set(slot, -1);
+        });
+    }
+
+    @Override
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) {
+        int slot = store.slotOf(patientId);
+        if (slot < 0) {
+            return; // The patient has been discharged
+        }
+        try {
+            if (outputStrategy instanceof RecordBatch) {
+                generateBlock(patientId, slot, timestamp, (RecordBatch) outputStrategy);
+            } else {
+                RecordBatch block = blocks.get();
+                try {
+                    generateBlock(patientId, slot, timestamp, block);
+                    outputStrategy.outputBatch(block);
+                } finally {
+                    block.clear();
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("An error occurred while generating ECG data for patient " + patientId);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the samples of a patient which are due up to the given time to a batch.
+     * The first call for a patient emits one second of signal.
+     */
+    private void generateBlock(int patientId, int slot, long timestamp, RecordBatch batch) {
+        long lastSample = (long) Math.floor(timestamp * samplingRate / 1000.0);
+        long firstSample = nextSamples.get(slot);
+        if (firstSample < 0) {
+            firstSample = lastSample - (long) Math.ceil(samplingRate) + 1;
+        }
+        firstSample = Math.max(firstSample, lastSample - (long) Math.ceil(samplingRate * MAX_BLOCK_SECONDS) + 1);
+
+        double[] template = TEMPLATES[templates.get(slot)];
+        double amplitude = amplitudes.get(slot);
+        double restingRr = restingRrIntervals.get(slot);
+        double rr = rrIntervals.get(slot);
+        double phase = phases.get(slot);
+        double samplePeriod = 1.0 / samplingRate;
+        double millisPerSample = 1000.0 / samplingRate;
+        for (long sample = firstSample; sample <= lastSample; sample++) {
+            double position = phase * TEMPLATE_SIZE;
+            int index = (int) position;
+            double fraction = position - index;
+            double value = template[index] + (template[index + 1] - template[index]) * fraction;
+            value = value * amplitude + (random.nextDouble(slot) - 0.5) * 0.02; // Add small noise
+            batch.add(patientId, (long) (sample * millisPerSample), LabelRegistry.ECG, value);
+
+            // At low sampling rates, one sample period can span several beats
+            double remaining = samplePeriod;
+            while (remaining >= (1 - phase) * rr) {
+                remaining -= (1 - phase) * rr;
+                phase = 0;
+                // Heart-rate variability: each beat is up to 8% shorter or longer than the resting interval
+                rr = restingRr * (0.92 + random.nextDouble(slot) * 0.16);
+            }
+            phase = Math.min(phase + remaining / rr, Math.nextDown(1.0)); // Rounding must not reach the end of the table
+        }
+        rrIntervals.set(slot, rr);
+        phases.set(slot, phase);
+        nextSamples.set(slot, lastSample + 1);
+    }
+
+    /**
+     * Builds the beat templates as sums of Gaussian waves, with the wave amplitudes and widths
+     * varied from template to template. The templates are the same in every run.
+     */
+    private static double[][] buildTemplates() {
+        // Position within the beat, amplitude (mV) and width of the P, Q, R, S and T waves
+        double[] centers = {0.16, 0.285, 0.30, 0.318, 0.56};
+        double[] amplitudes = {0.15, -0.12, 1.2, -0.25, 0.3};
+        double[] widths = {0.025, 0.008, 0.010, 0.009, 0.05};
+        Random variation = new Random(0x45434721L);
+        double[][] templates = new double[TEMPLATE_VARIANTS][TEMPLATE_SIZE + 1];
+        for (double[] template : templates) {
+            double[] scale = new double[centers.length];
+            for (int wave = 0; wave < centers.length; wave++) {
+                scale[wave] = 0.8 + variation.nextDouble() * 0.4;
+            }
+            for (int i = 0; i < TEMPLATE_SIZE; i++) {
+                double phase = (double) i / TEMPLATE_SIZE;
+                double value = 0;
+                for (int wave = 0; wave < centers.length; wave++) {
+                    double distance = (phase - centers[wave]) / (widths[wave] * scale[wave]);
+                    value += amplitudes[wave] * scale[wave] * Math.exp(-0.5 * distance * distance);
+                }
+                template[i] = value;
+            }
+            template[TEMPLATE_SIZE] = template[0];
+        }
+        return templates;
+    }
+}
@@ -0,0 +1,55 @@
+package com.cardio_generator.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the counters and histograms of one generator.
+ */
+public class GeneratorMetrics implements GeneratorMetricsMXBean {
+
+    final LongAdder ticks = new LongAdder();
+    final LongAdder records = new LongAdder();
+    /** Time one tick took, in nanoseconds. */
+    final LatencyHistogram tickLatency = new LatencyHistogram();
+    /** Delay of a tick behind its planned time, in milliseconds. */
+    final LatencyHistogram schedulerLag = new LatencyHistogram();
+
+    /**
+     * Records how late a tick started compared to its planned time.
+     *
+     * @param lagMillis The delay in milliseconds.
+     */
+    public void recordLag(long lagMillis) {
+        schedulerLag.record(lagMillis);
+    }
+
+    @Override
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    @Override
+    public long getRecords() {
+        return records.sum();
+    }
+
+    @Override
+    public double getTickLatencyP99Micros() {
+        return tickLatency.snapshot().percentile(99) / 1e3;
+    }
+
+    @Override
+    public double getSchedulerLagP50Millis() {
+        return schedulerLag.snapshot().percentile(50);
+    }
+
+    @Override
+    public double getSchedulerLagP99Millis() {
+        return schedulerLag.snapshot().percentile(99);
+    }
+
+    @Override
+    public double getSchedulerLagMaxMillis() {
+        return schedulerLag.snapshot().max();
+    }
+}
@@ -0,0 +1,25 @@
+package com.cardio_generator.metrics;
+
+/**
+ * The JMX view of the metrics of a generator.
+ */
+public interface GeneratorMetricsMXBean {
+
+    /** @return The number of ticks run, each over a group of patients. */
+    long getTicks();
+
+    /** @return The number of records generated. */
+    long getRecords();
+
+    /** @return The 99th percentile of the time one tick took, in microseconds. */
+    double getTickLatencyP99Micros();
+
+    /** @return The median delay of a tick behind its planned time, in milliseconds. */
+    double getSchedulerLagP50Millis();
+
+    /** @return The 99th percentile of the delay of a tick behind its planned time, in milliseconds. */
+    double getSchedulerLagP99Millis();
+
+    /** @return The longest delay of a tick behind its planned time, in milliseconds. */
+    double getSchedulerLagMaxMillis();
+}
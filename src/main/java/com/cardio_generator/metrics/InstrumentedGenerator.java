@@ -0,0 +1,41 @@
+package com.cardio_generator.metrics;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class wraps a {@link PatientDataGenerator} and measures how long its ticks take and how many records they add.
+ */
+class InstrumentedGenerator implements PatientDataGenerator {
+
+    private final PatientDataGenerator generator;
+    private final GeneratorMetrics metrics;
+
+    InstrumentedGenerator(PatientDataGenerator generator, GeneratorMetrics metrics) {
+        this.generator = generator;
+        this.metrics = metrics;
+    }
+
+    GeneratorMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void generate(int patientId, long timestamp, OutputStrategy outputStrategy) {
+        long start = System.nanoTime();
+        generator.generate(patientId, timestamp, outputStrategy);
+        metrics.tickLatency.record(System.nanoTime() - start);
+        metrics.ticks.increment();
+    }
+
+    @Override
+    public void generateBatch(int[] patientIds, int from, int to, long timestamp, RecordBatch batch) {
+        int before = batch.size();
+        long start = System.nanoTime();
+        generator.generateBatch(patientIds, from, to, timestamp, batch);
+        metrics.tickLatency.record(System.nanoTime() - start);
+        metrics.ticks.increment();
+        metrics.records.add(batch.size() - before);
+    }
+}
@@ -0,0 +1,117 @@
+package com.cardio_generator.metrics;
+
+import java.nio.ByteBuffer;
+
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class wraps an {@link OutputStrategy}, counts the records passed to it per label
+ * and measures the time spent in each call. Only the outermost wrapper counts the records per label,
+ * so wrappers of the outputs behind it count their records only in their own {@link SinkMetrics}.
+ */
+class InstrumentedOutputStrategy implements OutputStrategy {
+
+    private final OutputStrategy outputStrategy;
+    private final SinkMetrics metrics;
+    /** Whether the records are counted per label, which only the outermost wrapper does. */
+    private final boolean countsLabels;
+
+    InstrumentedOutputStrategy(OutputStrategy outputStrategy, SinkMetrics metrics, boolean countsLabels) {
+        this.outputStrategy = outputStrategy;
+        this.metrics = metrics;
+        this.countsLabels = countsLabels;
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        long start = System.nanoTime();
+        try {
+            outputStrategy.output(patientId, timestamp, label, data);
+        } catch (RuntimeException e) {
+            metrics.failed.increment();
+            throw e;
+        } finally {
+            record(start, 1);
+        }
+        if (countsLabels) {
+            Metrics.countLabel(LabelRegistry.idOf(label), 1);
+        }
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        long start = System.nanoTime();
+        try {
+            outputStrategy.output(patientId, timestamp, labelId, value);
+        } catch (RuntimeException e) {
+            metrics.failed.increment();
+            throw e;
+        } finally {
+            record(start, 1);
+        }
+        if (countsLabels) {
+            Metrics.countLabel(labelId, 1);
+        }
+    }
+
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        long start = System.nanoTime();
+        try {
+            outputStrategy.outputBatch(batch);
+        } catch (RuntimeException e) {
+            metrics.failed.increment();
+            throw e;
+        } finally {
+            record(start, batch.size());
+        }
+        countLabels(batch);
+    }
+
+    @Override
+    public void outputFrame(ByteBuffer frame, RecordBatch batch) {
+        long start = System.nanoTime();
+        try {
+            outputStrategy.outputFrame(frame, batch);
+        } catch (RuntimeException e) {
+            metrics.failed.increment();
+            throw e;
+        } finally {
+            record(start, batch.size());
+        }
+        countLabels(batch);
+    }
+
+    @Override
+    public void close() {
+        outputStrategy.close();
+    }
+
+    private void record(long start, int records) {
+        metrics.latency.record(System.nanoTime() - start);
+        metrics.calls.increment();
+        metrics.records.add(records);
+    }
+
+    /**
+     * Counts the records of a batch per label, adding to the shared counters once per label.
+     */
+    private void countLabels(RecordBatch batch) {
+        if (!countsLabels) {
+            return;
+        }
+        int size = batch.size();
+        int i = 0;
+        while (i < size) {
+            int labelId = batch.labelId(i);
+            int run = 1;
+            while (i + run < size && batch.labelId(i + run) == labelId) {
+                run++;
+            }
+            Metrics.countLabel(labelId, run);
+            i += run;
+        }
+    }
+}
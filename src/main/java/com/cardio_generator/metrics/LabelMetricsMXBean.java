@@ -0,0 +1,12 @@
+package com.cardio_generator.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the number of records generated per label.
+ */
+public interface LabelMetricsMXBean {
+
+    /** @return The number of records output so far, by label name. */
+    Map<String, Long> getRecordsByLabel();
+}
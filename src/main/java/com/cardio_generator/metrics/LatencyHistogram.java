@@ -0,0 +1,137 @@
+package com.cardio_generator.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts durations in logarithmic buckets with {@value #SUB_BUCKETS} sub-buckets per power of two,
+ * so percentiles are accurate to about 12% over the whole range of a {@code long}.
+ * Recording is one atomic increment and never allocates. Counts are cumulative;
+ * {@link #snapshot()} and {@link Snapshot#minus(Snapshot)} give the counts of an interval.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records one value.
+     *
+     * @param value The value, e.g. a duration in nanoseconds. Negative values are counted as 0.
+     */
+    public void record(long value) {
+        counts.incrementAndGet(bucketOf(Math.max(0, value)));
+    }
+
+    /**
+     * Records the same value several times.
+     *
+     * @param value The value, e.g. a duration in nanoseconds. Negative values are counted as 0.
+     * @param count How many times the value is recorded.
+     */
+    public void record(long value, long count) {
+        counts.addAndGet(bucketOf(Math.max(0, value)), count);
+    }
+
+    /**
+     * @return A copy of the current counts.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    /**
+     * Finds the bucket of a value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the highest value which falls into a bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the counts of a histogram.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long total;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+
+        /**
+         * @param earlier An earlier snapshot of the same histogram.
+         * @return The counts recorded between the earlier snapshot and this one.
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        /** @return The number of recorded values. */
+        public long count() {
+            return total;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100.
+         * @return An upper bound of the value at the percentile, or 0 if nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(counts.length - 1);
+        }
+
+        /** @return An upper bound of the largest recorded value, or 0 if nothing was recorded. */
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return upperBoundOf(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.cardio_generator.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+
+/**
+ * This class is the registry of the runtime metrics of the simulator.
+ * <p>
+ * Metrics are off unless {@link #enable()} is called at startup. While they are off, nothing is wrapped and the
+ * reporting methods used inside the output strategies ({@link #dropped(String, long)}, {@link #failed(String)})
+ * return after reading one field, so the simulator pays nothing for them.
+ * While they are on, generators and output strategies are wrapped by {@link #instrument(String, PatientDataGenerator)}
+ * and {@link #instrument(String, OutputStrategy)}, and every component is registered as an MXBean
+ * under the {@value #JMX_DOMAIN} domain.
+ */
+public final class Metrics {
+
+    /** The JMX domain of the MXBeans. */
+    public static final String JMX_DOMAIN = "com.cardio_generator";
+
+    private static volatile boolean enabled;
+
+    private static final Map<String, SinkMetrics> SINKS = new ConcurrentHashMap<>();
+    private static final Map<String, GeneratorMetrics> GENERATORS = new ConcurrentHashMap<>();
+
+    /** Records per label ID. Replaced by a longer copy when a new label appears. */
+    private static volatile LongAdder[] recordsByLabel = new LongAdder[0];
+
+    private Metrics() {
+    }
+
+    /**
+     * Turns metrics on and registers the label counters with JMX.
+     */
+    public static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        enabled = true;
+        register("type=Labels", (LabelMetricsMXBean) Metrics::recordsByLabel);
+    }
+
+    /** @return {@code true} if metrics are on. */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wraps a generator so its ticks are measured, if metrics are on.
+     *
+     * @param name The name of the generator in the metrics, e.g. "ECG".
+     * @param generator The generator.
+     * @return The wrapped generator, or the generator itself if metrics are off.
+     */
+    public static PatientDataGenerator instrument(String name, PatientDataGenerator generator) {
+        return enabled ? new InstrumentedGenerator(generator, generator(name)) : generator;
+    }
+
+    /**
+     * Wraps an output strategy so its calls are measured, if metrics are on.
+     *
+     * @param name The name of the output strategy in the metrics, e.g. "file".
+     * @param outputStrategy The output strategy.
+     * @return The wrapped output strategy, or the output strategy itself if metrics are off.
+     */
+    public static OutputStrategy instrument(String name, OutputStrategy outputStrategy) {
+        return enabled ? new InstrumentedOutputStrategy(outputStrategy, sink(name), true) : outputStrategy;
+    }
+
+    /**
+     * Wraps an output strategy behind an instrumented one, such as one output of a fan-out, so its calls are
+     * measured, if metrics are on. Its records are not counted per label, because the outer one counts them.
+     *
+     * @param name The name of the output strategy in the metrics, e.g. "file:./output".
+     * @param outputStrategy The output strategy.
+     * @return The wrapped output strategy, or the output strategy itself if metrics are off.
+     */
+    public static OutputStrategy instrumentInner(String name, OutputStrategy outputStrategy) {
+        return enabled ? new InstrumentedOutputStrategy(outputStrategy, sink(name), false) : outputStrategy;
+    }
+
+    /**
+     * Returns the metrics of a generator wrapped by {@link #instrument(String, PatientDataGenerator)}.
+     * Schedulers use it to report how late the ticks of the generator start.
+     *
+     * @param generator The generator, as passed to the scheduler.
+     * @return The metrics, or null if the generator is not instrumented.
+     */
+    public static GeneratorMetrics metricsOf(PatientDataGenerator generator) {
+        return generator instanceof InstrumentedGenerator ? ((InstrumentedGenerator) generator).metrics() : null;
+    }
+
+    /**
+     * Counts records or messages an output strategy had to drop. Does nothing if metrics are off.
+     *
+     * @param sink The name of the output strategy.
+     * @param count The number of dropped records or messages.
+     */
+    public static void dropped(String sink, long count) {
+        if (enabled) {
+            sink(sink).dropped.add(count);
+        }
+    }
+
+    /**
+     * Counts a write of an output strategy which failed with an error. Does nothing if metrics are off.
+     *
+     * @param sink The name of the output strategy.
+     */
+    public static void failed(String sink) {
+        if (enabled) {
+            sink(sink).failed.increment();
+        }
+    }
+
+    /**
+     * Reports the lag of an output strategy which is fed through a buffer. Does nothing if metrics are off.
+     *
+     * @param sink The name of the output strategy.
+     * @param lag Tells how many records wait in the buffer. It is called whenever the metrics are read,
+     *            so it must be cheap and thread-safe.
+     */
+    public static void lag(String sink, LongSupplier lag) {
+        if (enabled) {
+            sink(sink).lag = lag;
+        }
+    }
+
+    /**
+     * Returns the metrics of a generator, creating them on first use.
+     *
+     * @param name The name of the generator.
+     * @return The metrics.
+     */
+    public static GeneratorMetrics generator(String name) {
+        return GENERATORS.computeIfAbsent(name, n -> {
+            GeneratorMetrics metrics = new GeneratorMetrics();
+            register("type=Generator,name=" + ObjectName.quote(n), metrics);
+            return metrics;
+        });
+    }
+
+    /**
+     * Returns the metrics of an output strategy, creating them on first use.
+     *
+     * @param name The name of the output strategy.
+     * @return The metrics.
+     */
+    public static SinkMetrics sink(String name) {
+        return SINKS.computeIfAbsent(name, n -> {
+            SinkMetrics metrics = new SinkMetrics();
+            register("type=Sink,name=" + ObjectName.quote(n), metrics);
+            return metrics;
+        });
+    }
+
+    /** @return The metrics of all generators, by name. */
+    static Map<String, GeneratorMetrics> generators() {
+        return GENERATORS;
+    }
+
+    /** @return The metrics of all output strategies, by name. */
+    static Map<String, SinkMetrics> sinks() {
+        return SINKS;
+    }
+
+    /**
+     * Counts output records of a label.
+     */
+    static void countLabel(int labelId, long count) {
+        LongAdder[] adders = recordsByLabel;
+        if (labelId >= adders.length) {
+            adders = growLabels(labelId);
+        }
+        adders[labelId].add(count);
+    }
+
+    /**
+     * @return The number of records output so far, by label name.
+     */
+    static Map<String, Long> recordsByLabel() {
+        LongAdder[] adders = recordsByLabel;
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int id = 0; id < adders.length; id++) {
+            result.put(LabelRegistry.nameOf(id), adders[id].sum());
+        }
+        return result;
+    }
+
+    private static synchronized LongAdder[] growLabels(int labelId) {
+        LongAdder[] adders = recordsByLabel;
+        if (labelId < adders.length) {
+            return adders;
+        }
+        int size = Math.max(labelId + 1, LabelRegistry.size());
+        LongAdder[] grown = Arrays.copyOf(adders, size);
+        for (int i = adders.length; i < size; i++) {
+            grown[i] = new LongAdder();
+        }
+        recordsByLabel = grown;
+        return grown;
+    }
+
+    private static void register(String properties, Object mxBean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mxBean, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Error registering metrics with JMX: " + e.getMessage());
+        }
+    }
+}
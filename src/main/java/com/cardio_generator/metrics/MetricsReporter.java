@@ -0,0 +1,156 @@
+package com.cardio_generator.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class writes a one-line summary of the {@link Metrics} of the last interval at a fixed rate,
+ * to standard error and optionally to a file. A line looks like
+ * <pre>metrics 10s records/s=152000 ECG=50000/s ... sink[file] calls=... p99=85us max=1.2ms dropped=0 failed=0 gen[ECG] lag p99=3ms max=12ms</pre>
+ */
+public class MetricsReporter {
+
+    private final long intervalMillis;
+    private final PrintStream console;
+    private final String file;
+    private final ScheduledExecutorService executor;
+
+    private Map<String, Long> lastLabels = new HashMap<>();
+    private final Map<String, LatencyHistogram.Snapshot> lastSinkLatency = new HashMap<>();
+    private final Map<String, Long> lastSinkCalls = new HashMap<>();
+    private final Map<String, Long> lastSinkDropped = new HashMap<>();
+    private final Map<String, Long> lastSinkFailed = new HashMap<>();
+    private final Map<String, LatencyHistogram.Snapshot> lastLag = new HashMap<>();
+
+    /**
+     * Constructs a {@code MetricsReporter}. Call {@link #start()} to begin reporting.
+     *
+     * @param intervalMillis The time between two summaries, in milliseconds. It should be positive.
+     * @param file A file the summaries are appended to, or null to write them to standard error only.
+     */
+    public MetricsReporter(long intervalMillis, String file) {
+        this.intervalMillis = intervalMillis;
+        this.console = System.err;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts writing summaries.
+     */
+    public void start() {
+        executor.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops writing summaries.
+     */
+    public void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * Writes the summary of the last interval.
+     */
+    void report() {
+        try {
+            String line = summary();
+            console.println(line);
+            if (file != null) {
+                try (Writer out = Files.newBufferedWriter(Paths.get(file),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    out.write(line + System.lineSeparator());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing metrics to " + file + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Keep reporting; a failure here must not cancel the schedule.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Builds the summary of the interval since the last call.
+     */
+    String summary() {
+        double seconds = intervalMillis / 1000.0;
+        StringBuilder line = new StringBuilder("metrics ").append(intervalMillis / 1000).append('s');
+
+        Map<String, Long> labels = Metrics.recordsByLabel();
+        long total = 0;
+        StringBuilder perLabel = new StringBuilder();
+        for (Map.Entry<String, Long> label : labels.entrySet()) {
+            long delta = label.getValue() - lastLabels.getOrDefault(label.getKey(), 0L);
+            total += delta;
+            if (delta > 0) {
+                perLabel.append(' ').append(label.getKey()).append('=').append(Math.round(delta / seconds)).append("/s");
+            }
+        }
+        lastLabels = labels;
+        line.append(" records/s=").append(Math.round(total / seconds)).append(perLabel);
+
+        for (Map.Entry<String, SinkMetrics> sink : Metrics.sinks().entrySet()) {
+            String name = sink.getKey();
+            SinkMetrics metrics = sink.getValue();
+            LatencyHistogram.Snapshot latency = metrics.latency.snapshot();
+            LatencyHistogram.Snapshot interval = latency.minus(
+                    lastSinkLatency.getOrDefault(name, new LatencyHistogram().snapshot()));
+            lastSinkLatency.put(name, latency);
+            line.append(" sink[").append(name).append(']')
+                    .append(" calls=").append(delta(lastSinkCalls, name, metrics.getCalls()))
+                    .append(" p99=").append(formatNanos(interval.percentile(99)))
+                    .append(" max=").append(formatNanos(interval.max()))
+                    .append(" dropped=").append(delta(lastSinkDropped, name, metrics.getDropped()))
+                    .append(" failed=").append(delta(lastSinkFailed, name, metrics.getFailed()));
+            long lag = metrics.getLag();
+            if (lag >= 0) {
+                line.append(" lag=").append(lag);
+            }
+        }
+
+        for (Map.Entry<String, GeneratorMetrics> generator : Metrics.generators().entrySet()) {
+            String name = generator.getKey();
+            LatencyHistogram.Snapshot lag = generator.getValue().schedulerLag.snapshot();
+            LatencyHistogram.Snapshot interval = lag.minus(
+                    lastLag.getOrDefault(name, new LatencyHistogram().snapshot()));
+            lastLag.put(name, lag);
+            if (interval.count() > 0) {
+                line.append(" gen[").append(name).append("] lag p99=").append(interval.percentile(99))
+                        .append("ms max=").append(interval.max()).append("ms");
+            }
+        }
+        return line.toString();
+    }
+
+    private static long delta(Map<String, Long> last, String name, long current) {
+        Long previous = last.put(name, current);
+        return current - (previous == null ? 0 : previous);
+    }
+
+    /**
+     * Formats a duration for a summary line, e.g. "850us" or "12.5ms".
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     */
+    public static String formatNanos(long nanos) {
+        if (nanos < 1_000_000) {
+            return (nanos / 1000) + "us";
+        }
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,60 @@
+package com.cardio_generator.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class holds the counters and the call latency histogram of one output strategy.
+ */
+public class SinkMetrics implements SinkMetricsMXBean {
+
+    final LongAdder records = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    /** Time spent in one call, in nanoseconds. */
+    final LatencyHistogram latency = new LatencyHistogram();
+    /** Tells how many records wait in front of the output strategy, or null if it is called directly. */
+    volatile LongSupplier lag;
+
+    @Override
+    public long getRecords() {
+        return records.sum();
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getLag() {
+        LongSupplier supplier = lag;
+        return supplier != null ? supplier.getAsLong() : -1;
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return latency.snapshot().percentile(50) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return latency.snapshot().percentile(99) / 1e3;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return latency.snapshot().max() / 1e3;
+    }
+}
@@ -0,0 +1,34 @@
+package com.cardio_generator.metrics;
+
+/**
+ * The JMX view of the metrics of an output strategy.
+ */
+public interface SinkMetricsMXBean {
+
+    /** @return The number of records passed to the output strategy. */
+    long getRecords();
+
+    /** @return The number of calls into the output strategy. */
+    long getCalls();
+
+    /** @return The number of records or messages the output strategy dropped. */
+    long getDropped();
+
+    /** @return The number of writes that failed with an error. */
+    long getFailed();
+
+    /**
+     * @return The number of records waiting in a buffer in front of the output strategy,
+     *         or -1 if the output strategy is called directly by the generators.
+     */
+    long getLag();
+
+    /** @return The median time spent in one call, in microseconds. */
+    double getLatencyP50Micros();
+
+    /** @return The 99th percentile of the time spent in one call, in microseconds. */
+    double getLatencyP99Micros();
+
+    /** @return The longest time spent in one call, in microseconds. */
+    double getLatencyMaxMicros();
+}
@@ -0,0 +1,235 @@
+package com.cardio_generator.outputs;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class implements the {@link OutputStrategy} interface and prints patient's data onto the console
+ * in the same format as {@link ConsoleOutputStrategy}, without making the generator threads write to the console.
+ * <p>
+ * Each generator thread formats its records into its own reusable buffer and appends the text to a shared buffer.
+ * A single writer thread swaps the shared buffer with a spare one and writes it to the console in one large write,
+ * whenever {@value #FLUSH_THRESHOLD} characters are pending or {@value #FLUSH_INTERVAL_MILLIS} ms have passed.
+ * Generator threads wait if the writer falls more than {@value #MAX_PENDING} characters behind.
+ * <p>
+ * An optional sampling rate prints only a random share of the records, so a person can follow the stream.
+ */
+public class AsyncConsoleOutputStrategy implements OutputStrategy {
+
+    /** Number of pending characters after which the writer is woken up. */
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    /** Maximum number of pending characters before generator threads wait. */
+    private static final int MAX_PENDING = 8 * 1024 * 1024;
+    /** Time after which pending text is written, in milliseconds. */
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+
+    /** The reusable formatting buffer of each generator thread. */
+    private static final ThreadLocal<StringBuilder> FORMAT_BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    /** The stream the text is written to. */
+    private final PrintStream out;
+
+    /** The share of records which are printed, between 0 and 1. */
+    private final double sampleRate;
+
+    /** Guards {@link #pending}. */
+    private final Object lock = new Object();
+
+    /** Text waiting to be written. Guarded by {@link #lock}. */
+    private StringBuilder pending = new StringBuilder(FLUSH_THRESHOLD);
+
+    /** The buffer being written by the writer thread. Only used by the writer thread. */
+    private StringBuilder writing = new StringBuilder(FLUSH_THRESHOLD);
+
+    /** The background thread that writes to the console. */
+    private final Thread writerThread;
+
+    /** Whether new records are accepted. */
+    private volatile boolean running = true;
+
+    /**
+     * Constructs an {@code AsyncConsoleOutputStrategy} which prints every record to {@link System#out}.
+     */
+    public AsyncConsoleOutputStrategy() {
+        this(1.0, System.out);
+    }
+
+    /**
+     * Constructs an {@code AsyncConsoleOutputStrategy} which prints a share of the records to {@link System#out}.
+     *
+     * @param sampleRate The share of records which are printed. It should be greater than 0 and at most 1.
+     */
+    public AsyncConsoleOutputStrategy(double sampleRate) {
+        this(sampleRate, System.out);
+    }
+
+    /**
+     * Constructs an {@code AsyncConsoleOutputStrategy} which prints a share of the records to a given stream.
+     *
+     * @param sampleRate The share of records which are printed. It should be greater than 0 and at most 1.
+     * @param out The stream the records are printed to. It should not be null.
+     */
+    public AsyncConsoleOutputStrategy(double sampleRate, PrintStream out) {
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("Sample rate must be greater than 0 and at most 1: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.out = out;
+        this.writerThread = new Thread(this::runWriter, "console-output-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Outputs the specified data for a patient by queueing it to be printed to the console.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param label Describes the type of data (e.g., "heart rate"). It should not be null or empty.
+     * @param data The actual data to be output. It should not be null or empty.
+     * @throws IllegalArgumentException if any of the parameters are invalid (e.g., null or empty data/label).
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        if (!sampled()) {
+            return;
+        }
+        StringBuilder text = FORMAT_BUFFER.get();
+        text.setLength(0);
+        appendLine(text, patientId, timestamp, label, data);
+        submit(text);
+    }
+
+    /**
+     * Outputs all sampled records of a batch by queueing them to be printed to the console in one piece.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        StringBuilder text = FORMAT_BUFFER.get();
+        text.setLength(0);
+        for (int i = 0; i < batch.size(); i++) {
+            if (sampled()) {
+                int labelId = batch.labelId(i);
+                appendLine(text, batch.patientId(i), batch.timestamp(i),
+                        LabelRegistry.nameOf(labelId), LabelRegistry.formatValue(labelId, batch.value(i)));
+            }
+        }
+        if (text.length() > 0) {
+            submit(text);
+        }
+    }
+
+    /**
+     * Stops accepting records and prints all queued text.
+     */
+    @Override
+    public void close() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decides whether the next record is printed.
+     */
+    private boolean sampled() {
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Appends a record in the "Patient ID: ..., Timestamp: ..., Label: ..., Data: ..." line format.
+     */
+    private static void appendLine(StringBuilder text, int patientId, long timestamp, String label, String data) {
+        text.append("Patient ID: ").append(patientId)
+                .append(", Timestamp: ").append(timestamp)
+                .append(", Label: ").append(label)
+                .append(", Data: ").append(data)
+                .append(System.lineSeparator());
+    }
+
+    /**
+     * Appends formatted text to the pending buffer, waiting while the writer is too far behind.
+     */
+    private void submit(CharSequence text) {
+        synchronized (lock) {
+            while (running && pending.length() > MAX_PENDING) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            pending.append(text);
+            if (pending.length() >= FLUSH_THRESHOLD) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The loop of the writer thread. Swaps the pending buffer with the spare one and writes it out.
+     */
+    private void runWriter() {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        ByteBuffer bytes = ByteBuffer.allocate(FLUSH_THRESHOLD);
+        boolean stopping = false;
+        while (!stopping) {
+            synchronized (lock) {
+                if (running && pending.length() < FLUSH_THRESHOLD) {
+                    try {
+                        lock.wait(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                stopping = !running;
+                StringBuilder swap = writing;
+                writing = pending;
+                pending = swap;
+                lock.notifyAll();
+            }
+            if (writing.length() > 0) {
+                write(encoder, bytes);
+                writing.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Encodes the text of {@link #writing} into the reusable byte buffer chunk by chunk and writes it out.
+     */
+    private void write(CharsetEncoder encoder, ByteBuffer bytes) {
+        CharBuffer chars = CharBuffer.wrap(writing);
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, true);
+            if (result.isOverflow() || !chars.hasRemaining()) {
+                if (!chars.hasRemaining()) {
+                    encoder.flush(bytes);
+                }
+                out.write(bytes.array(), 0, bytes.position());
+                bytes.clear();
+            }
+        } while (chars.hasRemaining() && !result.isError());
+        out.flush();
+    }
+}
@@ -0,0 +1,254 @@
+package com.cardio_generator.outputs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.cardio_generator.metrics.Metrics;
+
+/**
+ * This class implements the {@link OutputStrategy} interface
+ * and appends patient's data as fixed-width binary records to memory-mapped segment files.
+ * <p>
+ * Each segment is pre-allocated with a fixed size and starts with a {@value #HEADER_SIZE}-byte header
+ * (magic number, format version and the number of records written), followed by records in the
+ * {@link BinaryRecords} layout in little-endian byte order. When a segment is full, the next one is created.
+ * The names of the label IDs used in the records are kept in {@value #LABELS_FILE} in the same directory.
+ * When records are appended to an existing log, a label keeps the ID it has in that file, which can differ from
+ * its ID in the {@link LabelRegistry} of this process.
+ * Segments can be read back with {@link BinaryLogReader}.
+ */
+public class BinaryLogOutputStrategy implements OutputStrategy {
+
+    /** Magic number at the start of every segment ("CDLG"). */
+    public static final int MAGIC = 0x43444C47;
+    /** Version of the segment format. */
+    public static final int VERSION = 1;
+    /** Size of the segment header in bytes. */
+    public static final int HEADER_SIZE = 16;
+    /** Offset of the record count within the segment header. */
+    public static final int RECORD_COUNT_OFFSET = 8;
+    /** Default size of a segment in bytes. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    /** Name of the file that maps label IDs to label names. */
+    public static final String LABELS_FILE = "labels.txt";
+    /** File name suffix of the segments. */
+    public static final String SEGMENT_SUFFIX = ".binlog";
+
+    /** Directory, where the segments are stored. */
+    private final Path directory;
+
+    /** Size of every segment in bytes. */
+    private final long segmentSize;
+
+    /** The segment currently written to. */
+    private MappedByteBuffer segment;
+
+    /** Sequence number of the current segment. */
+    private long segmentNumber;
+
+    /** Number of records in the current segment. */
+    private long recordCount;
+
+    /** The label names of the labels file by ID, with null for IDs which are not used. */
+    private final List<String> logLabels;
+
+    /** For every ID in the {@link LabelRegistry}, the ID of the label in the log, or -1 if it has none yet. */
+    private int[] logLabelIds = new int[0];
+
+    /** Whether records are still accepted. */
+    private boolean open = true;
+
+    /**
+     * Constructs a {@code BinaryLogOutputStrategy} with the default segment size.
+     *
+     * @param directory Directory, where the segments will be stored. It should not be null or empty.
+     * @throws IOException If an I/O error occurs while creating the directory or the first segment.
+     */
+    public BinaryLogOutputStrategy(String directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs a {@code BinaryLogOutputStrategy} with the specified segment size.
+     * New segments are numbered after the segments already in the directory, so existing data is never overwritten.
+     *
+     * @param directory Directory, where the segments will be stored. It should not be null or empty.
+     * @param segmentSize Size of every segment in bytes. It should hold the header and at least one record.
+     * @throws IOException If an I/O error occurs while creating the directory or the first segment.
+     */
+    public BinaryLogOutputStrategy(String directory, long segmentSize) throws IOException {
+        if (segmentSize < HEADER_SIZE + BinaryRecords.RECORD_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        Files.createDirectories(this.directory);
+
+        List<Path> existing = BinaryLogReader.segments(this.directory);
+        segmentNumber = existing.isEmpty() ? 0 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        logLabels = new ArrayList<>(Arrays.asList(BinaryLogReader.readLabels(this.directory)));
+        openSegment();
+    }
+
+    /**
+     * Outputs the specified data for a patient by appending it as a binary record.
+     * The data is converted to its numeric form with {@link LabelRegistry#parseValue(int, String)}.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param label Describes the type of data (e.g., "heart rate"). It should not be null or empty.
+     * @param data The actual data to be output. It should not be null or empty.
+     * @throws IllegalArgumentException if any of the parameters are invalid (e.g., null or empty data/label).
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        int labelId = LabelRegistry.idOf(label);
+        double value;
+        try {
+            value = LabelRegistry.parseValue(labelId, data);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid " + label + " value for binary log: " + data);
+            return;
+        }
+        append(patientId, timestamp, labelId, value);
+    }
+
+    /**
+     * Outputs the specified numeric data for a patient by appending it as a binary record.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label in {@link LabelRegistry}.
+     * @param value The value of the reading.
+     */
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        append(patientId, timestamp, labelId, value);
+    }
+
+    /**
+     * Outputs all records of a batch while holding the lock of the log once.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public synchronized void outputBatch(RecordBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.patientId(i), batch.timestamp(i), batch.labelId(i), batch.value(i));
+        }
+    }
+
+    /**
+     * Writes the current segment to disk and stops accepting records.
+     */
+    @Override
+    public synchronized void close() {
+        if (open) {
+            open = false;
+            segment.force();
+        }
+    }
+
+    /**
+     * Appends a record to the current segment, moving on to a new segment when it is full.
+     *
+     * @param patientId The ID of the patient.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label.
+     * @param value The value of the reading.
+     */
+    private synchronized void append(int patientId, long timestamp, int labelId, double value) {
+        if (!open) {
+            return;
+        }
+        int logLabelId = labelId < logLabelIds.length ? logLabelIds[labelId] : -1;
+        try {
+            if (logLabelId < 0) {
+                logLabelId = logLabelIdOf(labelId);
+            }
+            if (segment.remaining() < BinaryRecords.RECORD_SIZE) {
+                segment.force();
+                segmentNumber++;
+                openSegment();
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing binary log in " + directory + ": " + e.getMessage());
+            Metrics.failed("binlog");
+            return;
+        }
+        BinaryRecords.put(segment, patientId, timestamp, logLabelId, value);
+        segment.putLong(RECORD_COUNT_OFFSET, ++recordCount);
+    }
+
+    /**
+     * Creates and maps the segment with the current sequence number and writes its header.
+     *
+     * @throws IOException If an I/O error occurs while creating the segment.
+     */
+    private void openSegment() throws IOException {
+        Path path = directory.resolve(String.format("segment-%010d%s", segmentNumber, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed.
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putLong(0);
+        recordCount = 0;
+    }
+
+    /**
+     * Looks up the ID of a label in the log, and adds the label to the labels file if the log does not have it yet.
+     * A new label gets the same ID as in the {@link LabelRegistry} if that ID is still free in the log.
+     *
+     * @param labelId The ID of the label in the {@link LabelRegistry}.
+     * @return The ID of the label in the log.
+     * @throws IOException If an I/O error occurs while writing the labels file.
+     */
+    private int logLabelIdOf(int labelId) throws IOException {
+        String name = LabelRegistry.nameOf(labelId);
+        int logLabelId = logLabels.indexOf(name);
+        if (logLabelId < 0) {
+            boolean free = labelId >= logLabels.size() || logLabels.get(labelId) == null;
+            logLabelId = free ? labelId : logLabels.size();
+            try (Writer out = Files.newBufferedWriter(directory.resolve(LABELS_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(logLabelId + " " + name + System.lineSeparator());
+            }
+            while (logLabels.size() <= logLabelId) {
+                logLabels.add(null);
+            }
+            logLabels.set(logLabelId, name);
+        }
+        if (labelId >= logLabelIds.length) {
+            int oldLength = logLabelIds.length;
+            logLabelIds = Arrays.copyOf(logLabelIds, LabelRegistry.size());
+            Arrays.fill(logLabelIds, oldLength, logLabelIds.length, -1);
+        }
+        logLabelIds[labelId] = logLabelId;
+        return logLabelId;
+    }
+
+    /**
+     * Extracts the sequence number from the name of a segment.
+     *
+     * @param segmentPath The path of the segment.
+     * @return The sequence number.
+     */
+    private static long segmentNumber(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
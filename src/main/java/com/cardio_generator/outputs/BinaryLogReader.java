@@ -0,0 +1,159 @@
+package com.cardio_generator.outputs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class reads the records of a segment written by {@link BinaryLogOutputStrategy}.
+ * It works like a cursor: {@link #next()} moves to the next record, whose fields are then available
+ * from the accessor methods, so iterating a segment does not allocate anything per record.
+ */
+public class BinaryLogReader implements Closeable {
+
+    /** The channel of the segment. */
+    private final FileChannel channel;
+
+    /** The mapped segment. */
+    private final MappedByteBuffer buffer;
+
+    /** Number of records in the segment. */
+    private final long recordCount;
+
+    /** Index of the current record, or -1 before the first call to {@link #next()}. */
+    private long index = -1;
+
+    private int patientId;
+    private long timestamp;
+    private int labelId;
+    private double value;
+
+    /**
+     * Opens a segment for reading.
+     *
+     * @param segment The path of the segment.
+     * @throws IOException If an I/O error occurs, or the file is not a segment.
+     */
+    public BinaryLogReader(Path segment) throws IOException {
+        channel = FileChannel.open(segment, StandardOpenOption.READ);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < BinaryLogOutputStrategy.HEADER_SIZE
+                    || buffer.getInt(0) != BinaryLogOutputStrategy.MAGIC) {
+                throw new IOException("Not a binary log segment: " + segment);
+            }
+            if (buffer.getInt(4) != BinaryLogOutputStrategy.VERSION) {
+                throw new IOException("Unsupported binary log version " + buffer.getInt(4) + ": " + segment);
+            }
+            long capacity = (buffer.limit() - BinaryLogOutputStrategy.HEADER_SIZE) / BinaryRecords.RECORD_SIZE;
+            recordCount = Math.min(buffer.getLong(BinaryLogOutputStrategy.RECORD_COUNT_OFFSET), capacity);
+            buffer.position(BinaryLogOutputStrategy.HEADER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return {@code true} if there is a next record, {@code false} at the end of the segment.
+     */
+    public boolean next() {
+        if (index + 1 >= recordCount) {
+            return false;
+        }
+        index++;
+        patientId = buffer.getInt();
+        timestamp = buffer.getLong();
+        labelId = buffer.getInt();
+        value = buffer.getDouble();
+        return true;
+    }
+
+    /** @return The number of records in the segment. */
+    public long recordCount() {
+        return recordCount;
+    }
+
+    /** @return The patient ID of the current record. */
+    public int patientId() {
+        return patientId;
+    }
+
+    /** @return The timestamp of the current record in milliseconds. */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /** @return The label ID of the current record. */
+    public int labelId() {
+        return labelId;
+    }
+
+    /** @return The value of the current record. */
+    public double value() {
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Lists the segments in a directory in the order they were written.
+     *
+     * @param directory The directory of the binary log.
+     * @return The paths of the segments, or an empty list if the directory does not exist.
+     * @throws IOException If an I/O error occurs while listing the directory.
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith("segment-") && name.endsWith(BinaryLogOutputStrategy.SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the label names of a binary log.
+     *
+     * @param directory The directory of the binary log.
+     * @return The label names indexed by label ID, or an empty array if there is no labels file.
+     * @throws IOException If an I/O error occurs while reading the labels file.
+     */
+    public static String[] readLabels(Path directory) throws IOException {
+        Path file = directory.resolve(BinaryLogOutputStrategy.LABELS_FILE);
+        if (!Files.exists(file)) {
+            return new String[0];
+        }
+        List<String> names = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            int id = Integer.parseInt(line.substring(0, space));
+            while (names.size() <= id) {
+                names.add(null);
+            }
+            names.set(id, line.substring(space + 1));
+        }
+        return names.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,98 @@
+package com.cardio_generator.outputs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * This class reads the segments of a {@link BinaryLogOutputStrategy} one after the other with a {@link BinaryLogReader},
+ * which maps them into memory. The label IDs of the log are mapped to the IDs of the local {@link LabelRegistry}.
+ */
+final class BinaryLogRecordingReader implements RecordingReader {
+
+    private final List<Path> segments;
+
+    /** For every label ID of the log, the ID of the label in the local {@link LabelRegistry}. */
+    private final int[] labelIds;
+
+    /** Index of the next segment to open. */
+    private int nextSegment;
+
+    /** The open segment, positioned at the next record, or null at the end of the log. */
+    private BinaryLogReader reader;
+
+    /** Whether the current record of {@link #reader} has not been read yet. */
+    private boolean loaded;
+
+    /**
+     * Opens the binary log in a directory.
+     *
+     * @param directory The directory of the binary log.
+     * @throws IOException If an I/O error occurs, or a segment is not valid.
+     */
+    BinaryLogRecordingReader(Path directory) throws IOException {
+        this.segments = BinaryLogReader.segments(directory);
+        String[] names = BinaryLogReader.readLabels(directory);
+        this.labelIds = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            labelIds[i] = names[i] == null ? -1 : LabelRegistry.idOf(names[i]);
+        }
+        load();
+    }
+
+    @Override
+    public String format() {
+        return "binlog";
+    }
+
+    @Override
+    public long nextTimestamp() throws IOException {
+        return load() ? reader.timestamp() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void read(RecordBatch out, long until, int maxRecords) throws IOException {
+        for (int i = 0; i < maxRecords && load() && reader.timestamp() <= until; i++) {
+            int labelId = reader.labelId();
+            if (labelId < 0 || labelId >= labelIds.length || labelIds[labelId] < 0) {
+                throw new IOException("Unknown label ID in binary log: " + labelId);
+            }
+            out.add(reader.patientId(), reader.timestamp(), labelIds[labelId], reader.value());
+            loaded = false;
+        }
+    }
+
+    @Override
+    public ByteBuffer frame() {
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    /**
+     * Moves to the next record unless the current one has not been read yet, opening the next segments as needed.
+     *
+     * @return {@code false} at the end of the log.
+     */
+    private boolean load() throws IOException {
+        while (!loaded) {
+            if (reader != null && reader.next()) {
+                loaded = true;
+            } else if (nextSegment < segments.size()) {
+                close();
+                reader = new BinaryLogReader(segments.get(nextSegment++));
+            } else {
+                close();
+                return false;
+            }
+        }
+        return true;
+    }
+}
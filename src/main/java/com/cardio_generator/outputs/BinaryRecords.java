@@ -0,0 +1,42 @@
+package com.cardio_generator.outputs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class defines the fixed-width binary form of a record, shared by the binary output formats.
+ * A record takes {@value #RECORD_SIZE} bytes: the patient ID (int), the timestamp in milliseconds (long),
+ * the label ID from {@link LabelRegistry} (int) and the value (double), in the byte order of the buffer.
+ */
+public final class BinaryRecords {
+
+    /** Size of one record in bytes. */
+    public static final int RECORD_SIZE = 24;
+
+    /** Offset of the patient ID within a record. */
+    public static final int PATIENT_ID_OFFSET = 0;
+    /** Offset of the timestamp within a record. */
+    public static final int TIMESTAMP_OFFSET = 4;
+    /** Offset of the label ID within a record. */
+    public static final int LABEL_ID_OFFSET = 12;
+    /** Offset of the value within a record. */
+    public static final int VALUE_OFFSET = 16;
+
+    private BinaryRecords() {
+    }
+
+    /**
+     * Writes a record at the current position of a buffer and advances the position by {@link #RECORD_SIZE}.
+     *
+     * @param buffer The buffer to write to. It should have at least {@link #RECORD_SIZE} bytes remaining.
+     * @param patientId The ID of the patient.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label.
+     * @param value The value of the reading.
+     */
+    public static void put(ByteBuffer buffer, int patientId, long timestamp, int labelId, double value) {
+        buffer.putInt(patientId);
+        buffer.putLong(timestamp);
+        buffer.putInt(labelId);
+        buffer.putDouble(value);
+    }
+}
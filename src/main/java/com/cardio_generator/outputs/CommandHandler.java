@@ -0,0 +1,16 @@
+package com.cardio_generator.outputs;
+
+/**
+ * This interface handles text commands which network clients send to an output strategy
+ * and which the output strategy does not understand itself (it handles {@code subscribe} and {@code unsubscribe}).
+ */
+@FunctionalInterface
+public interface CommandHandler {
+    /**
+     * Handles a command.
+     *
+     * @param command The command, without surrounding whitespace.
+     * @return The reply to the client without the leading '#', or null if the command is unknown.
+     */
+    String handle(String command);
+}
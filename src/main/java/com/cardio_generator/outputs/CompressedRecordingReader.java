@@ -0,0 +1,143 @@
+package com.cardio_generator.outputs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads a compressed file of {@link FileOutputStrategy} frame by frame. The file is mapped in windows of
+ * {@value #WINDOW_SIZE} bytes, and every frame is decoded one ahead, so its first timestamp is known before it is read.
+ * The frames themselves are slices of the mapping, which can be sent without copying.
+ */
+final class CompressedRecordingReader implements RecordingReader {
+
+    /** Size of the mapped window of the file in bytes, unless a frame is larger. */
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final TimeSeriesDecoder decoder = new TimeSeriesDecoder();
+
+    /** The mapped window of the file, positioned at the next frame to decode. */
+    private MappedByteBuffer window;
+    /** The offset of the window in the file. */
+    private long windowOffset;
+
+    /** The records of the frame decoded ahead, or empty at the end of the file. */
+    private RecordBatch next = new RecordBatch(4096);
+    /** The frame decoded ahead. */
+    private ByteBuffer nextFrame;
+    /** The records of the frame read last, kept for reuse. */
+    private RecordBatch spare = new RecordBatch(4096);
+    /** The frame read last. */
+    private ByteBuffer frame;
+    /** Whether the frames since the last keyframe can be passed on as they are. */
+    private boolean framesPassable;
+
+    /**
+     * Opens a compressed file.
+     *
+     * @param path The path of the file.
+     * @throws IOException If an I/O error occurs, or the file is not a compressed file.
+     */
+    CompressedRecordingReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            map(0, Math.min(size, WINDOW_SIZE));
+            byte[] magic = new byte[TimeSeriesCodec.MAGIC.length];
+            if (window.remaining() >= magic.length) {
+                window.get(magic);
+            }
+            if (!Arrays.equals(magic, TimeSeriesCodec.MAGIC)) {
+                throw new IOException("Not a compressed time series file: " + path);
+            }
+            advance();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String format() {
+        return "compressed";
+    }
+
+    @Override
+    public long nextTimestamp() {
+        return next.isEmpty() ? Long.MAX_VALUE : next.timestamp(0);
+    }
+
+    /**
+     * Reads the next frame if its first record is due, regardless of the maximum number of records.
+     */
+    @Override
+    public void read(RecordBatch out, long until, int maxRecords) throws IOException {
+        frame = null;
+        if (next.isEmpty() || next.timestamp(0) > until) {
+            return;
+        }
+        out.outputBatch(next);
+        frame = nextFrame;
+        RecordBatch read = next;
+        next = spare;
+        spare = read;
+        spare.clear();
+        advance();
+    }
+
+    @Override
+    public ByteBuffer frame() {
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Decodes the next data frame with records into {@link #next}, skipping text frames and empty frames.
+     */
+    private void advance() throws IOException {
+        while (next.isEmpty()) {
+            int length = TimeSeriesDecoder.frameLength(window);
+            if (length < 0 || length > window.remaining()) {
+                long offset = windowOffset + window.position();
+                if (offset == size) {
+                    nextFrame = null;
+                    return;
+                }
+                if (windowOffset + window.limit() == size) {
+                    throw new IOException("Truncated frame at offset " + offset + " of " + path);
+                }
+                // Move the window to the frame, making it large enough for the frame
+                map(offset, Math.min(size - offset, Math.max(WINDOW_SIZE, length)));
+                continue;
+            }
+            boolean keyframe = TimeSeriesCodec.isKeyframe(window);
+            nextFrame = window.slice();
+            nextFrame.limit(length);
+            decoder.readFrame(window, next);
+            if (keyframe && decoder.text() == null) {
+                // Frames can only be passed on from a keyframe which is passed on as well
+                framesPassable = !next.isEmpty();
+            }
+        }
+        if (!framesPassable) {
+            nextFrame = null;
+        }
+    }
+
+    private void map(long offset, long length) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        windowOffset = offset;
+    }
+}
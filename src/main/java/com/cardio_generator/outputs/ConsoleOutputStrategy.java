@@ -17,4 +17,26 @@ public class ConsoleOutputStrategy implements OutputStrategy {
     public void output(int patientId, long timestamp, String label, String data) {
         System.out.printf("Patient ID: %d, Timestamp: %d, Label: %s, Data: %s%n", patientId, timestamp, label, data);
     }
+
+    /**
+     * Outputs all records of a batch by printing them to the console with a single write.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder(batch.size() * 80);
+        for (int i = 0; i < batch.size(); i++) {
+            int labelId = batch.labelId(i);
+            text.append("Patient ID: ").append(batch.patientId(i))
+                    .append(", Timestamp: ").append(batch.timestamp(i))
+                    .append(", Label: ").append(LabelRegistry.nameOf(labelId))
+                    .append(", Data: ").append(LabelRegistry.formatValue(labelId, batch.value(i)))
+                    .append(System.lineSeparator());
+        }
+        System.out.print(text);
+    }
 }
@@ -0,0 +1,333 @@
+package com.cardio_generator.outputs;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cardio_generator.metrics.Metrics;
+
+/**
+ * This class implements the {@link OutputStrategy} interface and passes every record to several output strategies,
+ * each on its own thread, so that generation does not run at the speed of the slowest output.
+ * <p>
+ * Records are copied into one ring buffer of pre-allocated arrays, which all outputs read from. Every output has
+ * a consumer thread with its own sequence: it takes the records between its sequence and the last published one,
+ * up to {@value #MAX_BATCH} at a time, and passes them to its output as one {@link RecordBatch}.
+ * The generator threads only copy records into the ring and never call an output.
+ * <p>
+ * The distance between the newest record and the sequence of an output is its lag, which is published as a metric.
+ * When an output falls a whole ring behind, the {@link OverflowPolicy} decides what happens: by default the output
+ * skips the records which were overwritten, so a stuck output loses data instead of stopping the simulation.
+ */
+public class FanOutOutputStrategy implements OutputStrategy {
+
+    /** Default number of records in the ring buffer. */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    /** Maximum number of records passed to an output in one call. */
+    static final int MAX_BATCH = 4096;
+
+    /** Time {@link #close()} waits for each output to catch up, in milliseconds. */
+    private static final long CLOSE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * What happens when an output falls a whole ring buffer behind.
+     */
+    public enum OverflowPolicy {
+        /** The output skips the overwritten records, which are counted as dropped. Generation never waits. */
+        DROP,
+        /** Generation waits until the slowest output has caught up, so no output loses records. */
+        BLOCK
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final int[] patientIds;
+    private final long[] timestamps;
+    private final int[] labelIds;
+    private final double[] values;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /** Guards claiming and writing slots, so producers write the ring one after the other. */
+    private final Object claimLock = new Object();
+
+    /** The sequences below this one have been claimed by a producer and may be being written. */
+    private volatile long claimed;
+
+    /** The sequences below this one have been written and may be read. */
+    private volatile long published;
+
+    /** Whether new records are accepted. Only changed while holding {@link #claimLock}. */
+    private volatile boolean running = true;
+
+    private final List<Consumer> consumers = new ArrayList<>();
+
+    /**
+     * Constructs a {@code FanOutOutputStrategy} with the default capacity and {@link OverflowPolicy#DROP},
+     * and starts a consumer thread per output.
+     *
+     * @param outputs The outputs by name. The name is used for the thread and the metrics.
+     */
+    public FanOutOutputStrategy(Map<String, OutputStrategy> outputs) {
+        this(outputs, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Constructs a {@code FanOutOutputStrategy} and starts a consumer thread per output.
+     *
+     * @param outputs The outputs by name. The name is used for the thread and the metrics. It should not be empty.
+     * @param capacity The number of records in the ring buffer. It is rounded up to a power of two.
+     * @param overflowPolicy What happens when an output falls a whole ring buffer behind. It should not be null.
+     */
+    public FanOutOutputStrategy(Map<String, OutputStrategy> outputs, int capacity, OverflowPolicy overflowPolicy) {
+        if (outputs.isEmpty()) {
+            throw new IllegalArgumentException("At least one output is required");
+        }
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        int rounded = Integer.highestOneBit(capacity);
+        this.capacity = rounded < capacity ? rounded << 1 : rounded;
+        this.mask = this.capacity - 1;
+        this.patientIds = new int[this.capacity];
+        this.timestamps = new long[this.capacity];
+        this.labelIds = new int[this.capacity];
+        this.values = new double[this.capacity];
+        this.overflowPolicy = overflowPolicy;
+        for (Map.Entry<String, OutputStrategy> output : outputs.entrySet()) {
+            Consumer consumer = new Consumer(output.getKey(), output.getValue());
+            consumers.add(consumer);
+            Metrics.lag(consumer.name, () -> published - consumer.sequence);
+        }
+        for (Consumer consumer : consumers) {
+            consumer.thread.start();
+        }
+    }
+
+    /**
+     * Outputs the specified data for a patient by adding it to the ring buffer.
+     * The data is converted to a number with {@link LabelRegistry}, so it must be a valid value of the label.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param label Describes the type of data (e.g., "heart rate"). It should not be null or empty.
+     * @param data The actual data to be output. It should not be null or empty.
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        int labelId = LabelRegistry.idOf(label);
+        double value;
+        try {
+            value = LabelRegistry.parseValue(labelId, data);
+        } catch (NumberFormatException e) {
+            System.err.println("Cannot pass non-numeric data of label " + label + " to several outputs: " + data);
+            Metrics.failed("fan-out");
+            return;
+        }
+        output(patientId, timestamp, labelId, value);
+    }
+
+    /**
+     * Outputs the specified numeric data for a patient by adding it to the ring buffer.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label in {@link LabelRegistry}.
+     * @param value The value of the reading.
+     */
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        synchronized (claimLock) {
+            if (!running) {
+                return;
+            }
+            long sequence = claim(1);
+            int slot = (int) sequence & mask;
+            patientIds[slot] = patientId;
+            timestamps[slot] = timestamp;
+            labelIds[slot] = labelId;
+            values[slot] = value;
+            published = sequence + 1;
+        }
+        wakeConsumers();
+    }
+
+    /**
+     * Outputs all records of a batch by copying them into the ring buffer in one piece.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        for (int from = 0; from < batch.size(); from += capacity) {
+            int count = Math.min(batch.size() - from, capacity);
+            synchronized (claimLock) {
+                if (!running) {
+                    return;
+                }
+                long sequence = claim(count);
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) (sequence + i) & mask;
+                    patientIds[slot] = batch.patientId(from + i);
+                    timestamps[slot] = batch.timestamp(from + i);
+                    labelIds[slot] = batch.labelId(from + i);
+                    values[slot] = batch.value(from + i);
+                }
+                published = sequence + count;
+            }
+            wakeConsumers();
+        }
+    }
+
+    /**
+     * Stops accepting records, lets every output take the records still in the ring and closes the outputs.
+     * Waits at most {@value #CLOSE_TIMEOUT_MILLIS} ms for each output.
+     */
+    @Override
+    public void close() {
+        synchronized (claimLock) {
+            running = false;
+        }
+        wakeConsumers();
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        for (Consumer consumer : consumers) {
+            try {
+                consumer.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (consumer.thread.isAlive()) {
+                System.err.println("Output " + consumer.name + " did not catch up within " + CLOSE_TIMEOUT_MILLIS
+                        + " ms, " + (published - consumer.sequence) + " records are lost");
+            }
+        }
+    }
+
+    /**
+     * Claims the next slots, waiting for the slowest output first under {@link OverflowPolicy#BLOCK}.
+     * Must be called while holding {@link #claimLock}.
+     *
+     * @param count The number of slots, at most the capacity.
+     * @return The sequence of the first slot.
+     */
+    private long claim(int count) {
+        long sequence = published;
+        long end = sequence + count;
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            while (end - slowestSequence() > capacity) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+        claimed = end;
+        // Consumers must see the claim before any of the slot writes that follow, see Consumer.copy
+        VarHandle.storeStoreFence();
+        return sequence;
+    }
+
+    /**
+     * @return The smallest sequence of all outputs which are still running.
+     */
+    private long slowestSequence() {
+        long slowest = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            if (consumer.thread.isAlive()) {
+                slowest = Math.min(slowest, consumer.sequence);
+            }
+        }
+        return slowest == Long.MAX_VALUE ? published : slowest;
+    }
+
+    private void wakeConsumers() {
+        for (Consumer consumer : consumers) {
+            if (consumer.waiting) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+    }
+
+    /**
+     * An output with its consumer thread and sequence.
+     */
+    private final class Consumer implements Runnable {
+        private final String name;
+        private final OutputStrategy output;
+        private final Thread thread;
+        /** The sequence of the next record to pass to the output. Only written by the consumer thread. */
+        private volatile long sequence;
+        /** Whether the consumer thread is parked waiting for records. */
+        private volatile boolean waiting;
+
+        private Consumer(String name, OutputStrategy output) {
+            this.name = name;
+            this.output = output;
+            this.thread = new Thread(this, "fan-out-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            RecordBatch batch = new RecordBatch(MAX_BATCH);
+            long next = sequence;
+            while (true) {
+                long available = published;
+                if (available == next) {
+                    if (!running && published == next) {
+                        break;
+                    }
+                    waiting = true;
+                    if (published == next && running) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                    }
+                    waiting = false;
+                    continue;
+                }
+                long oldest = claimed - capacity;
+                if (next < oldest) {
+                    // The producers have overwritten records this output has not taken yet
+                    Metrics.dropped(name, oldest - next);
+                    next = oldest;
+                    sequence = next;
+                    continue;
+                }
+                long end = Math.min(available, next + MAX_BATCH);
+                if (!copy(batch, next, end)) {
+                    batch.clear();
+                    continue;
+                }
+                try {
+                    output.outputBatch(batch);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    Metrics.failed(name);
+                }
+                batch.clear();
+                next = end;
+                sequence = next;
+            }
+            output.close();
+        }
+
+        /**
+         * Copies records from the ring into a batch.
+         *
+         * @return {@code false} if some of them may have been overwritten while they were copied.
+         */
+        private boolean copy(RecordBatch batch, long from, long to) {
+            for (long s = from; s < to; s++) {
+                int slot = (int) s & mask;
+                batch.add(patientIds[slot], timestamps[slot], labelIds[slot], values[slot]);
+            }
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                return true;
+            }
+            // Like a sequence lock: if no producer had claimed the slots again before we finished reading, they are intact
+            VarHandle.loadLoadFence();
+            return claimed - capacity <= from;
+        }
+    }
+}
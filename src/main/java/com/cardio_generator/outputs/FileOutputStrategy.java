@@ -1,20 +1,73 @@
-﻿package com.cardio_generator.outputs;
+package com.cardio_generator.outputs;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.cardio_generator.metrics.Metrics;
 
 /**
  * This class implements {@link OutputStrategy} interface
  * and writes patient's data into files in a specified directory.
  * Each label corresponds to a different file, and the data is added to the appropriate file.
+ * <p>
+ * Records are handed to a background writer thread through a bounded queue. A batch is queued as a single entry,
+ * which the writer formats in one pass, so its records cost one hand-off instead of one each. The queue is bounded
+ * by the number of records in it, whether single or in batches. The writer keeps one open writer per file and
+ * flushes them together once enough records are pending or the flush interval has passed.
+ * Callers block when the queue is full, so no data is dropped. {@link #close()} writes out everything
+ * that is still queued.
+ * <p>
+ * In {@link Format#COMPRESSED} format, all records go to a single file {@value #COMPRESSED_FILE_NAME} instead,
+ * as frames of a {@link TimeSeriesEncoder}, one frame per batch taken from the queue. {@link TimeSeriesDecoder}
+ * reads the file back.
+ * <p>
+ * In {@link Format#PARTITIONED} format, the text files are split by label and time partition, and every file has
+ * a sidecar index of where the records of each patient and minute are, see {@link PartitionedTextWriter}.
+ * {@link PartitionQuery} uses the index to read the records of a patient and time span without scanning the files.
  */
 // Changed class name to UpperCamelCase.
 public class FileOutputStrategy implements OutputStrategy {
 
+    /** Default capacity of the record queue. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    /** Default number of records after which the open files are flushed. */
+    public static final int DEFAULT_FLUSH_SIZE = 4096;
+    /** Default time after which the open files are flushed, in milliseconds. */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    /** Name of the file written in compressed format. */
+    public static final String COMPRESSED_FILE_NAME = "records.cts";
+    /** Time after which the compressed file gets a keyframe, so a damaged file can be read from the next one. */
+    static final long KEYFRAME_INTERVAL_MILLIS = 60_000;
+    /** Default length of a partition in {@link Format#PARTITIONED} format, in milliseconds. */
+    public static final long DEFAULT_PARTITION_MILLIS = 3_600_000;
+
+    /**
+     * The format of the written files.
+     */
+    public enum Format {
+        /** One text file per label with a line per record. */
+        TEXT,
+        /** One file of compressed frames, see {@link TimeSeriesEncoder}. */
+        COMPRESSED,
+        /** One text file per label and time partition, each with an index by patient and minute. */
+        PARTITIONED
+    }
+
     /** Base directory, where output files will be stored. */
     // Changed field name to lowerCamelCase, and assigned final to it.
     private final String baseDirectory;
@@ -26,20 +79,114 @@ public class FileOutputStrategy implements OutputStrategy {
     // Changed variable name to lowerCamelCase.
     public final ConcurrentHashMap<String, String> fileMap = new ConcurrentHashMap<>();
 
+    /** Open writers by file path. Only accessed by the writer thread. */
+    private final Map<String, Writer> writers = new HashMap<>();
+
+    /** Records and batches waiting to be written. */
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+
+    /** Permits for the records which may still be queued, which bounds {@link #queue}. */
+    private final Semaphore space;
+
+    /** Maximum number of records waiting to be written. */
+    private final int queueCapacity;
+
+    /** Number of pending records after which the files are flushed. */
+    private final int flushSize;
+
+    /** Time after which pending records are flushed, in milliseconds. */
+    private final long flushIntervalMillis;
+
+    /** The encoder of the compressed file, or null in text format. Only accessed by the writer thread. */
+    private final TimeSeriesEncoder encoder;
+
+    /** The compressed file, or null if it is not open. Only accessed by the writer thread. */
+    private OutputStream compressedOut;
+
+    /** The records of the next compressed frame. Only accessed by the writer thread. */
+    private final RecordBatch frame;
+
+    /** The writer of the partitioned files, or null in other formats. Only accessed by the writer thread. */
+    private final PartitionedTextWriter partitions;
+
+    /** The background thread that writes the records. */
+    private final Thread writerThread;
+
+    /** Whether new records are accepted. */
+    private volatile boolean running = true;
+
     /**
-     * Constructs a {@code FileOutputStrategy} with the specified base directory.
+     * Constructs a {@code FileOutputStrategy} with the specified base directory and the default flush settings.
      *
      * @param baseDirectory Base directory, where output files will be stored. It should not be null or empty.
      */
     /*Changed constructor name to UpperCamelCase to match class name.
     * Moreover, removed the blank line as it is unnecessary.*/
     public FileOutputStrategy(String baseDirectory) {
+        this(baseDirectory, DEFAULT_QUEUE_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Constructs a {@code FileOutputStrategy} with the specified base directory and flush settings.
+     *
+     * @param baseDirectory Base directory, where output files will be stored. It should not be null or empty.
+     * @param queueCapacity Maximum number of records waiting to be written. It should be a positive integer.
+     * @param flushSize Number of pending records after which the files are flushed. It should be a positive integer.
+     * @param flushIntervalMillis Time after which pending records are flushed, in milliseconds. It should be positive.
+     */
+    public FileOutputStrategy(String baseDirectory, int queueCapacity, int flushSize, long flushIntervalMillis) {
+        this(baseDirectory, queueCapacity, flushSize, flushIntervalMillis, Format.TEXT);
+    }
+
+    /**
+     * Constructs a {@code FileOutputStrategy} with the specified base directory, flush settings and format.
+     *
+     * @param baseDirectory Base directory, where output files will be stored. It should not be null or empty.
+     * @param queueCapacity Maximum number of records waiting to be written. It should be a positive integer.
+     * @param flushSize Number of pending records after which the files are flushed. It should be a positive integer.
+     * @param flushIntervalMillis Time after which pending records are flushed, in milliseconds. It should be positive.
+     * @param format The format of the written files. It should not be null.
+     */
+    public FileOutputStrategy(String baseDirectory, int queueCapacity, int flushSize, long flushIntervalMillis,
+                              Format format) {
+        this(baseDirectory, queueCapacity, flushSize, flushIntervalMillis, format, DEFAULT_PARTITION_MILLIS);
+    }
+
+    /**
+     * Constructs a {@code FileOutputStrategy} with the specified base directory, flush settings, format
+     * and partition length.
+     *
+     * @param baseDirectory Base directory, where output files will be stored. It should not be null or empty.
+     * @param queueCapacity Maximum number of records waiting to be written. It should be a positive integer.
+     * @param flushSize Number of pending records after which the files are flushed. It should be a positive integer.
+     * @param flushIntervalMillis Time after which pending records are flushed, in milliseconds. It should be positive.
+     * @param format The format of the written files. It should not be null.
+     * @param partitionMillis The length of a partition in {@link Format#PARTITIONED} format, in milliseconds.
+     *                        It should be positive.
+     */
+    public FileOutputStrategy(String baseDirectory, int queueCapacity, int flushSize, long flushIntervalMillis,
+                              Format format, long partitionMillis) {
+        if (queueCapacity <= 0 || flushSize <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Queue capacity, flush size and flush interval must be positive");
+        }
         this.baseDirectory = baseDirectory;
+        this.space = new Semaphore(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.encoder = format == Format.COMPRESSED ? new TimeSeriesEncoder(KEYFRAME_INTERVAL_MILLIS) : null;
+        this.frame = format == Format.COMPRESSED ? new RecordBatch(flushSize) : null;
+        this.partitions = format == Format.PARTITIONED
+                ? new PartitionedTextWriter(Paths.get(baseDirectory), partitionMillis) : null;
+        this.writerThread = new Thread(this::runWriter, "file-output-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
     }
 
     /**
-     * Outputs the specified data for a patient by writing it to a file.
+     * Outputs the specified data for a patient by queueing it to be written to a file.
      * Each label corresponds to a different file in the base directory, and data is added to the appropriate file.
+     * Blocks while the queue is full.
      *
      * @param patientId The ID of the patient. It should be a positive integer.
      * @param timestamp The time of the recording in milliseconds.
@@ -49,23 +196,368 @@ public class FileOutputStrategy implements OutputStrategy {
      */
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
+        if (!running) {
+            return;
+        }
+        enqueue(new Record(patientId, timestamp, label, data));
+    }
+
+    /**
+     * Outputs the specified numeric data for a patient by queueing it to be written to a file.
+     * The value is converted to text on the writer thread.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label in {@link LabelRegistry}.
+     * @param value The value of the reading.
+     */
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        if (!running) {
+            return;
+        }
+        enqueue(new Record(patientId, timestamp, labelId, value));
+    }
+
+    /**
+     * Outputs all records of a batch by queueing a copy of it as a single entry, which the writer thread formats
+     * in one pass. Blocks while the queue is full.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        if (!running || batch.isEmpty()) {
+            return;
+        }
+        RecordBatch copy = new RecordBatch(batch.size());
+        copy.outputBatch(batch);
+        enqueue(new Record(copy));
+    }
+
+    /**
+     * Queues a record or batch once there is space for its records.
+     *
+     * @param record The record or batch.
+     */
+    private void enqueue(Record record) {
         try {
-            // Create the directory
-            Files.createDirectories(Paths.get(baseDirectory));
-        } catch (IOException e) {
-            System.err.println("Error creating base directory: " + e.getMessage());
+            space.acquire(permits(record));
+            queue.add(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of queue permits a record or batch holds. A batch larger than the whole queue takes all
+     *         permits, so it can still be queued.
+     */
+    private int permits(Record record) {
+        return Math.min(record.size(), queueCapacity);
+    }
+
+    /**
+     * Stops accepting records, writes out all queued records and closes the files.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The loop of the writer thread. Writes queued records and flushes the files
+     * once {@link #flushSize} records are pending or {@link #flushIntervalMillis} has passed.
+     */
+    private void runWriter() {
+        List<Record> batch = new ArrayList<>(flushSize);
+        int pending = 0;
+        long nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+
+        while (running || !queue.isEmpty()) {
+            try {
+                long wait = Math.max(1, nextFlush - System.currentTimeMillis());
+                Record first = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, flushSize - 1);
+                    writeAll(batch);
+                    for (Record record : batch) {
+                        pending += record.size();
+                        space.release(permits(record));
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (pending >= flushSize || System.currentTimeMillis() >= nextFlush) {
+                flushAll();
+                pending = 0;
+                nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+            }
+        }
+        queue.drainTo(batch);
+        writeAll(batch);
+        for (Record record : batch) {
+            space.release(permits(record));
+        }
+        closeAll();
+    }
+
+    /**
+     * Writes records and batches, one by one to the files of their labels or partitions,
+     * or as one frame to the compressed file.
+     *
+     * @param batch The records and batches to write.
+     */
+    private void writeAll(List<Record> batch) {
+        if (partitions != null) {
+            for (Record record : batch) {
+                if (record.batch != null) {
+                    RecordBatch records = record.batch;
+                    for (int i = 0; i < records.size(); i++) {
+                        int labelId = records.labelId(i);
+                        partitions.write(records.patientId(i), records.timestamp(i), LabelRegistry.nameOf(labelId),
+                                LabelRegistry.formatValue(labelId, records.value(i)));
+                    }
+                    continue;
+                }
+                String label = record.label != null ? record.label : LabelRegistry.nameOf(record.labelId);
+                String data = record.data != null ? record.data : LabelRegistry.formatValue(record.labelId, record.value);
+                partitions.write(record.patientId, record.timestamp, label, data);
+            }
+            return;
+        }
+        if (encoder == null) {
+            for (Record record : batch) {
+                if (record.batch != null) {
+                    write(record.batch);
+                } else {
+                    write(record);
+                }
+            }
             return;
         }
+        for (Record record : batch) {
+            if (record.batch != null) {
+                frame.outputBatch(record.batch);
+                continue;
+            }
+            if (record.label == null) {
+                frame.add(record.patientId, record.timestamp, record.labelId, record.value);
+                continue;
+            }
+            try {
+                frame.output(record.patientId, record.timestamp, record.label, record.data);
+            } catch (NumberFormatException e) {
+                System.err.println("Cannot compress non-numeric data of label " + record.label + ": " + record.data);
+                Metrics.failed("file");
+            }
+        }
+        if (frame.isEmpty()) {
+            return;
+        }
+        Path path = Paths.get(baseDirectory, COMPRESSED_FILE_NAME);
+        try {
+            if (compressedOut == null) {
+                Files.createDirectories(Paths.get(baseDirectory));
+                boolean empty = !Files.exists(path) || Files.size(path) == 0;
+                compressedOut = new BufferedOutputStream(
+                        Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 65536);
+                if (empty) {
+                    compressedOut.write(TimeSeriesCodec.MAGIC);
+                }
+            }
+            compressedOut.write(encoder.encode(frame));
+        } catch (IOException e) {
+            System.err.println("Error writing to file " + path + ": " + e.getMessage());
+            Metrics.failed("file");
+            encoder.requestKeyframe(); // The next frame must not depend on the lost one
+        } finally {
+            frame.clear();
+        }
+    }
+
+    /**
+     * Writes a record to the file of its label, opening the file on first use.
+     *
+     * @param record The record to write.
+     */
+    private void write(Record record) {
+        String label = record.label != null ? record.label : LabelRegistry.nameOf(record.labelId);
+        String data = record.data != null ? record.data : LabelRegistry.formatValue(record.labelId, record.value);
         // Set the FilePath variable
         // Changed variable name to lowerCamelCase.
         String filePath = fileMap.computeIfAbsent(label, k -> Paths.get(baseDirectory, label + ".txt").toString());
-
-        // Write the data to the file
-        try (PrintWriter out = new PrintWriter(
-                Files.newBufferedWriter(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
-            out.printf("Patient ID: %d, Timestamp: %d, Label: %s, Data: %s%n", patientId, timestamp, label, data);
+        try {
+            writeLine(writerOf(filePath), record.patientId, record.timestamp, label, data);
         } catch (IOException e) {   // Changed Exception to IOException to be more specific and avoid over generalizing.
             System.err.println("Error writing to file " + filePath + ": " + e.getMessage());
+            Metrics.failed("file");
+        }
+    }
+
+    /**
+     * Writes the records of a batch to the files of their labels. The file of a label is looked up once for a run
+     * of records with that label, such as a block of ECG samples.
+     *
+     * @param batch The records to write.
+     */
+    private void write(RecordBatch batch) {
+        int currentLabelId = -1;
+        String label = null;
+        String filePath = null;
+        Writer out = null;
+        for (int i = 0; i < batch.size(); i++) {
+            int labelId = batch.labelId(i);
+            try {
+                if (labelId != currentLabelId || out == null) {
+                    currentLabelId = labelId;
+                    label = LabelRegistry.nameOf(labelId);
+                    String name = label;
+                    filePath = fileMap.computeIfAbsent(name, k -> Paths.get(baseDirectory, name + ".txt").toString());
+                    out = writerOf(filePath);
+                }
+                writeLine(out, batch.patientId(i), batch.timestamp(i), label,
+                        LabelRegistry.formatValue(labelId, batch.value(i)));
+            } catch (IOException e) {
+                System.err.println("Error writing to file " + filePath + ": " + e.getMessage());
+                Metrics.failed("file");
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * @return The open writer of a file, opened on first use.
+     */
+    private Writer writerOf(String filePath) throws IOException {
+        Writer out = writers.get(filePath);
+        if (out == null) {
+            Files.createDirectories(Paths.get(baseDirectory));
+            out = Files.newBufferedWriter(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            writers.put(filePath, out);
+        }
+        return out;
+    }
+
+    /**
+     * Writes a record as a line of text.
+     */
+    private static void writeLine(Writer out, int patientId, long timestamp, String label, String data)
+            throws IOException {
+        out.write("Patient ID: ");
+        out.write(Integer.toString(patientId));
+        out.write(", Timestamp: ");
+        out.write(Long.toString(timestamp));
+        out.write(", Label: ");
+        out.write(label);
+        out.write(", Data: ");
+        out.write(data);
+        out.write(System.lineSeparator());
+    }
+
+    /**
+     * Flushes every open file. Partitioned files are written and flushed a bucket at a time instead.
+     */
+    private void flushAll() {
+        if (compressedOut != null) {
+            try {
+                compressedOut.flush();
+            } catch (IOException e) {
+                System.err.println("Error flushing file " + COMPRESSED_FILE_NAME + ": " + e.getMessage());
+                Metrics.failed("file");
+            }
+        }
+        for (Map.Entry<String, Writer> entry : writers.entrySet()) {
+            try {
+                entry.getValue().flush();
+            } catch (IOException e) {
+                System.err.println("Error flushing file " + entry.getKey() + ": " + e.getMessage());
+                Metrics.failed("file");
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes every open file.
+     */
+    private void closeAll() {
+        if (partitions != null) {
+            partitions.close();
+        }
+        if (compressedOut != null) {
+            try {
+                compressedOut.close();
+            } catch (IOException e) {
+                System.err.println("Error closing file " + COMPRESSED_FILE_NAME + ": " + e.getMessage());
+            }
+            compressedOut = null;
+        }
+        for (Map.Entry<String, Writer> entry : writers.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                System.err.println("Error closing file " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        writers.clear();
+    }
+
+    /**
+     * A record waiting in the queue. It holds either the text label and data, the label ID and numeric value,
+     * or a whole batch of records, depending on which output method received it.
+     */
+    private static final class Record {
+        private final int patientId;
+        private final long timestamp;
+        private final String label;
+        private final String data;
+        private final int labelId;
+        private final double value;
+        private final RecordBatch batch;
+
+        private Record(int patientId, long timestamp, String label, String data) {
+            this.patientId = patientId;
+            this.timestamp = timestamp;
+            this.label = label;
+            this.data = data;
+            this.labelId = -1;
+            this.value = 0;
+            this.batch = null;
+        }
+
+        private Record(int patientId, long timestamp, int labelId, double value) {
+            this.patientId = patientId;
+            this.timestamp = timestamp;
+            this.label = null;
+            this.data = null;
+            this.labelId = labelId;
+            this.value = value;
+            this.batch = null;
+        }
+
+        private Record(RecordBatch batch) {
+            this.patientId = 0;
+            this.timestamp = 0;
+            this.label = null;
+            this.data = null;
+            this.labelId = -1;
+            this.value = 0;
+            this.batch = batch;
+        }
+
+        /**
+         * @return The number of records this entry holds.
+         */
+        private int size() {
+            return batch != null ? batch.size() : 1;
         }
     }
-}
\ No newline at end of file
+}
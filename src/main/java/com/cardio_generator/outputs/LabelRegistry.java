@@ -0,0 +1,162 @@
+package com.cardio_generator.outputs;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class assigns a numeric ID to every data label (e.g. "ECG", "Saturation")
+ * and converts the values of each label between their text and numeric form.
+ * The labels produced by the generators have fixed IDs; any other label gets the next free ID the first time it is seen.
+ */
+public final class LabelRegistry {
+
+    /** Label ID of ECG readings. */
+    public static final int ECG = 0;
+    /** Label ID of blood saturation readings, written as a percentage (e.g. "97.0%"). */
+    public static final int SATURATION = 1;
+    /** Label ID of systolic blood pressure readings. */
+    public static final int SYSTOLIC_PRESSURE = 2;
+    /** Label ID of diastolic blood pressure readings. */
+    public static final int DIASTOLIC_PRESSURE = 3;
+    /** Label ID of cholesterol readings. */
+    public static final int CHOLESTEROL = 4;
+    /** Label ID of white blood cell readings. */
+    public static final int WHITE_BLOOD_CELLS = 5;
+    /** Label ID of red blood cell readings. */
+    public static final int RED_BLOOD_CELLS = 6;
+    /** Label ID of alerts. The value is {@link #ALERT_TRIGGERED} or {@link #ALERT_RESOLVED}. */
+    public static final int ALERT = 7;
+
+    /** Numeric value of a triggered alert. */
+    public static final double ALERT_TRIGGERED = 1;
+    /** Numeric value of a resolved alert. */
+    public static final double ALERT_RESOLVED = 0;
+
+    /** Label IDs by name. */
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    /** Label names by ID. Replaced as a whole when a label is added, so it can be read without locking. */
+    private static volatile String[] names = new String[0];
+
+    static {
+        register("ECG");
+        register("Saturation");
+        register("SystolicPressure");
+        register("DiastolicPressure");
+        register("Cholesterol");
+        register("WhiteBloodCells");
+        register("RedBloodCells");
+        register("Alert");
+    }
+
+    private LabelRegistry() {
+    }
+
+    /**
+     * Returns the ID of a label, assigning the next free ID if the label has not been seen before.
+     *
+     * @param label The name of the label. It should not be null or empty.
+     * @return The ID of the label.
+     */
+    public static int idOf(String label) {
+        Integer id = IDS.get(label);
+        return id != null ? id : register(label);
+    }
+
+    /**
+     * Returns the ID of a label without assigning one, for labels given by users or remote clients,
+     * which must not grow the registry.
+     *
+     * @param label The name of the label.
+     * @return The ID of the label, or -1 if it has not been seen before.
+     */
+    public static int find(String label) {
+        Integer id = IDS.get(label);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the name of a label.
+     *
+     * @param labelId The ID of the label.
+     * @return The name of the label.
+     * @throws IllegalArgumentException if no label has the given ID.
+     */
+    public static String nameOf(int labelId) {
+        String[] current = names;
+        if (labelId < 0 || labelId >= current.length) {
+            throw new IllegalArgumentException("Unknown label ID: " + labelId);
+        }
+        return current[labelId];
+    }
+
+    /**
+     * Returns the number of labels registered so far. Label IDs range from 0 to this number minus one.
+     *
+     * @return The number of labels.
+     */
+    public static int size() {
+        return names.length;
+    }
+
+    /**
+     * Converts the text form of a value to its numeric form.
+     *
+     * @param labelId The ID of the label the value belongs to.
+     * @param data The text form of the value (e.g. "97.0%", "triggered").
+     * @return The numeric form of the value.
+     * @throws NumberFormatException if the text is not a valid value of the label.
+     */
+    public static double parseValue(int labelId, String data) {
+        switch (labelId) {
+            case SATURATION:
+                return Double.parseDouble(data.endsWith("%") ? data.substring(0, data.length() - 1) : data);
+            case ALERT:
+                if (data.equals("triggered")) {
+                    return ALERT_TRIGGERED;
+                } else if (data.equals("resolved")) {
+                    return ALERT_RESOLVED;
+                }
+                throw new NumberFormatException("Unknown alert state: " + data);
+            default:
+                return Double.parseDouble(data);
+        }
+    }
+
+    /**
+     * Converts the numeric form of a value to the text form the generators have always produced.
+     *
+     * @param labelId The ID of the label the value belongs to.
+     * @param value The numeric form of the value.
+     * @return The text form of the value.
+     */
+    public static String formatValue(int labelId, double value) {
+        switch (labelId) {
+            case SATURATION:
+                return Double.toString(value) + "%";
+            case ALERT:
+                return value == ALERT_TRIGGERED ? "triggered" : "resolved";
+            default:
+                return Double.toString(value);
+        }
+    }
+
+    /**
+     * Adds a label with the next free ID, unless another thread added it first.
+     *
+     * @param label The name of the label.
+     * @return The ID of the label.
+     */
+    private static synchronized int register(String label) {
+        Integer existing = IDS.get(label);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = names;
+        int id = current.length;
+        String[] updated = Arrays.copyOf(current, id + 1);
+        updated[id] = label;
+        names = updated;
+        IDS.put(label, id);
+        return id;
+    }
+}
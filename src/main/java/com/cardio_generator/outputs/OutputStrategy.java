@@ -1,5 +1,7 @@
 package com.cardio_generator.outputs;
 
+import java.nio.ByteBuffer;
+
 /**
  * This interface gives an outline for outputting patient's data.
  * Different implementations of this interface specify how the data should be output.
@@ -17,4 +19,54 @@ public interface OutputStrategy {
      */
 
     void output(int patientId, long timestamp, String label, String data);
+
+    /**
+     * Outputs the specified numeric data for a patient.
+     * The default implementation converts the label and value to text with {@link LabelRegistry}
+     * and passes them to {@link #output(int, long, String, String)}. Strategies which can write numbers
+     * directly should override it to avoid building strings.
+     *
+     * @param patientId The patient's ID. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label in {@link LabelRegistry} (e.g. {@link LabelRegistry#ECG}).
+     * @param value The value of the reading.
+     */
+    default void output(int patientId, long timestamp, int labelId, double value) {
+        output(patientId, timestamp, LabelRegistry.nameOf(labelId), LabelRegistry.formatValue(labelId, value));
+    }
+
+    /**
+     * Outputs all records of a batch. The batch may be cleared and reused by the caller once this method returns,
+     * so implementations must not keep a reference to it.
+     * The default implementation passes every record to {@link #output(int, long, int, double)}.
+     * Strategies which can write many records at once should override it.
+     *
+     * @param batch The records to output.
+     */
+    default void outputBatch(RecordBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            output(batch.patientId(i), batch.timestamp(i), batch.labelId(i), batch.value(i));
+        }
+    }
+
+    /**
+     * Outputs the records of a frame which is already encoded by a {@link TimeSeriesEncoder}, e.g. because it was
+     * read from a compressed file. The default implementation passes the decoded records to
+     * {@link #outputBatch(RecordBatch)}. Strategies which send frames of the same format may send the frame itself
+     * instead of encoding the records again. The bytes of the frame do not change afterwards,
+     * so a strategy may queue a view of them instead of a copy.
+     *
+     * @param frame The encoded frame, from its position to its limit. It is not modified.
+     * @param batch The decoded records of the frame.
+     */
+    default void outputFrame(ByteBuffer frame, RecordBatch batch) {
+        outputBatch(batch);
+    }
+
+    /**
+     * Releases the resources of this output strategy, writing out any data it still buffers.
+     * The default implementation does nothing.
+     */
+    default void close() {
+    }
 }
@@ -0,0 +1,238 @@
+package com.cardio_generator.outputs;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class reads the records of one patient and label within a time span from the partitioned files of
+ * {@link FileOutputStrategy}, see {@link PartitionedTextWriter} for the layout.
+ * <p>
+ * Only the partitions overlapping the time span are considered. For each of them the index is read, and only the runs
+ * of the patient whose bucket overlaps the time span are read from the text file, adjacent runs in one read.
+ * The lines of those runs are then filtered by their exact timestamp.
+ * <p>
+ * Run as a program, it prints the matching lines and a summary of what was read on standard error:
+ * <pre>java -cp ... com.cardio_generator.outputs.PartitionQuery output ECG 42 2024-01-01T10:00:00Z 2024-01-01T10:05:00Z</pre>
+ */
+public final class PartitionQuery {
+
+    private final Path labelDirectory;
+    private final int patientId;
+    private final long from;
+    private final long to;
+
+    private long bytesRead;
+    private int reads;
+    private int partitionsRead;
+
+    /**
+     * Constructs a {@code PartitionQuery}.
+     *
+     * @param baseDirectory The base directory of the file output.
+     * @param label The label of the records, e.g. "ECG".
+     * @param patientId The ID of the patient.
+     * @param from The start of the time span in epoch milliseconds.
+     * @param to The end of the time span in epoch milliseconds (exclusive).
+     */
+    public PartitionQuery(Path baseDirectory, String label, int patientId, long from, long to) {
+        this.labelDirectory = baseDirectory.resolve(label);
+        this.patientId = patientId;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Writes the matching lines, in the order of their buckets.
+     *
+     * @param out The writer the lines are written to, each followed by a line break.
+     * @return The number of lines written.
+     * @throws IOException If an I/O error occurs, or an index is damaged.
+     */
+    public long run(Writer out) throws IOException {
+        if (!Files.isDirectory(labelDirectory)) {
+            return 0;
+        }
+        List<Path> indexes;
+        try (Stream<Path> files = Files.list(labelDirectory)) {
+            indexes = files.filter(path -> path.getFileName().toString().endsWith(PartitionedTextWriter.INDEX_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        long lines = 0;
+        for (Path index : indexes) {
+            lines += query(index, out);
+        }
+        return lines;
+    }
+
+    /**
+     * @return The number of bytes read from text files so far.
+     */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return The number of reads from text files so far.
+     */
+    public int reads() {
+        return reads;
+    }
+
+    /**
+     * @return The number of partitions with matching runs so far.
+     */
+    public int partitionsRead() {
+        return partitionsRead;
+    }
+
+    /**
+     * Writes the matching lines of one partition.
+     */
+    private long query(Path indexPath, Writer out) throws IOException {
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        if (index.remaining() < PartitionedTextWriter.INDEX_HEADER_SIZE
+                || index.getInt() != PartitionedTextWriter.INDEX_MAGIC) {
+            throw new IOException("Not a partition index: " + indexPath);
+        }
+        if (index.getInt() != PartitionedTextWriter.INDEX_VERSION) {
+            throw new IOException("Unsupported partition index version: " + indexPath);
+        }
+        long partitionStart = index.getLong();
+        long partitionMillis = index.getLong();
+        long bucketMillis = index.getLong();
+        if (partitionStart >= to || partitionStart + partitionMillis <= from) {
+            return 0;
+        }
+        // Offsets and lengths of the runs to read, in the order they appear in the index
+        List<long[]> ranges = new ArrayList<>();
+        while (index.remaining() >= PartitionedTextWriter.INDEX_ENTRY_SIZE) {
+            int entryPatientId = index.getInt();
+            long bucket = index.getLong();
+            long offset = index.getLong();
+            int length = index.getInt();
+            index.getInt(); // Number of records
+            if (entryPatientId != patientId || bucket >= to || bucket + bucketMillis <= from) {
+                continue;
+            }
+            long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[0] + last[1] == offset) {
+                last[1] += length;
+            } else {
+                ranges.add(new long[] {offset, length});
+            }
+        }
+        if (ranges.isEmpty()) {
+            return 0;
+        }
+        partitionsRead++;
+        String name = indexPath.getFileName().toString();
+        Path dataPath = indexPath.resolveSibling(
+                name.substring(0, name.length() - PartitionedTextWriter.INDEX_SUFFIX.length())
+                        + PartitionedTextWriter.DATA_SUFFIX);
+        long lines = 0;
+        try (FileChannel channel = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            for (long[] range : ranges) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) range[1]);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, range[0] + buffer.position()) < 0) {
+                        throw new IOException("Index of " + dataPath + " points past the end of the file");
+                    }
+                }
+                bytesRead += range[1];
+                reads++;
+                lines += writeMatching(new String(buffer.array(), StandardCharsets.UTF_8), out);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the lines of a run whose timestamp lies within the time span.
+     */
+    private long writeMatching(String text, Writer out) throws IOException {
+        long lines = 0;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end > start && text.charAt(end - 1) == '\r' ? end - 1 : end);
+            start = end + 1;
+            long timestamp = timestampOf(line);
+            if (timestamp >= from && timestamp < to) {
+                out.write(line);
+                out.write('\n');
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return The timestamp of a line in the "Patient ID: ..., Timestamp: ..., ..." format, or -1 if it has none.
+     */
+    private static long timestampOf(String line) {
+        int start = line.indexOf("Timestamp: ");
+        if (start < 0) {
+            return -1;
+        }
+        start += "Timestamp: ".length();
+        int end = line.indexOf(',', start);
+        try {
+            return Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Prints the records of a patient and label within a time span.
+     *
+     * @param args The base directory of the file output, the label, the patient ID and optionally the start
+     *             and the end (exclusive) of the time span, as ISO-8601 (e.g. 2024-01-01T10:00:00Z) or epoch ms.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Usage: PartitionQuery <directory> <label> <patientId> [<from> [<to>]]");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 65536);
+        try {
+            PartitionQuery query = new PartitionQuery(Paths.get(args[0]), args[1], Integer.parseInt(args[2]),
+                    args.length > 3 ? parseTime(args[3]) : Long.MIN_VALUE,
+                    args.length > 4 ? parseTime(args[4]) : Long.MAX_VALUE);
+            long lines = query.run(out);
+            out.flush();
+            System.err.println(lines + " records from " + query.partitionsRead() + " partitions, "
+                    + query.bytesRead() + " bytes in " + query.reads() + " reads");
+        } catch (IOException | NumberFormatException | DateTimeParseException e) {
+            System.err.println("Error querying " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Instant.parse(value).toEpochMilli();
+        }
+    }
+}
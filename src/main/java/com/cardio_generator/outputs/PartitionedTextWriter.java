@@ -0,0 +1,269 @@
+package com.cardio_generator.outputs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.cardio_generator.metrics.Metrics;
+
+/**
+ * This class writes the text files of {@link FileOutputStrategy} in {@link FileOutputStrategy.Format#PARTITIONED}
+ * format: one file per label and time partition, each with a sidecar index. It is used by the writer thread of
+ * {@link FileOutputStrategy} only and is not thread-safe.
+ * <p>
+ * The records of a partition go to {@code <label>/<start>.txt}, where the start is the UTC time the partition begins,
+ * e.g. {@code ECG/20240101T1000Z.txt}, and the partition of a record is decided by its timestamp. Within a partition,
+ * records are grouped by patient and by index bucket of {@value #BUCKET_MILLIS} ms: the lines of a patient and bucket
+ * are kept in memory until a later bucket begins and are then written as one contiguous run, so a patient's data for
+ * a few minutes takes a handful of reads instead of a scan of the whole file. Late records start another run.
+ * <p>
+ * Every run gets an entry in the index {@code <label>/<start>.idx}: after a {@value #INDEX_HEADER_SIZE}-byte header
+ * (magic number, format version, partition start, partition length and bucket length), each entry of
+ * {@value #INDEX_ENTRY_SIZE} bytes holds the patient ID (int), the bucket start (long), the byte offset (long)
+ * and the length (int) of the run in the text file and its number of records (int), in big-endian byte order.
+ * The index is written after the data it points to, so it never points past the end of the text file.
+ * {@link PartitionQuery} reads the runs of a patient and time span back.
+ */
+final class PartitionedTextWriter {
+
+    /** Magic number at the start of every index ("CPIX"). */
+    static final int INDEX_MAGIC = 0x43504958;
+    /** Version of the index format. */
+    static final int INDEX_VERSION = 1;
+    /** Size of the index header in bytes. */
+    static final int INDEX_HEADER_SIZE = 32;
+    /** Size of an index entry in bytes. */
+    static final int INDEX_ENTRY_SIZE = 28;
+    /** File name suffix of the text files. */
+    static final String DATA_SUFFIX = ".txt";
+    /** File name suffix of the indexes. */
+    static final String INDEX_SUFFIX = ".idx";
+    /** Length of an index bucket in milliseconds, unless the partitions are shorter. */
+    static final long BUCKET_MILLIS = 60_000;
+    /** Number of buffered characters after which all runs are written, even if their bucket has not ended. */
+    private static final long MAX_PENDING_CHARS = 8L * 1024 * 1024;
+
+    /** Formats the start of a partition as its file name. */
+    static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmm'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final Path baseDirectory;
+    private final long partitionMillis;
+    private final long bucketMillis;
+
+    /** The partitions which are open or have buffered runs, by label and partition start. */
+    private final Map<String, Map<Long, Partition>> partitions = new HashMap<>();
+
+    /** The start of the latest bucket any record belonged to. */
+    private long currentBucket = Long.MIN_VALUE;
+
+    /** Number of characters in all buffered runs. */
+    private long pendingChars;
+
+    /**
+     * Constructs a {@code PartitionedTextWriter}.
+     *
+     * @param baseDirectory The directory that holds a directory per label.
+     * @param partitionMillis The length of a partition in milliseconds. It should be positive.
+     */
+    PartitionedTextWriter(Path baseDirectory, long partitionMillis) {
+        if (partitionMillis <= 0) {
+            throw new IllegalArgumentException("Partition length must be positive: " + partitionMillis);
+        }
+        this.baseDirectory = baseDirectory;
+        this.partitionMillis = partitionMillis;
+        this.bucketMillis = Math.min(BUCKET_MILLIS, partitionMillis);
+    }
+
+    /**
+     * Buffers a record in the run of its patient and bucket. When the record begins a new bucket,
+     * the runs of the earlier buckets are written first.
+     *
+     * @param patientId The ID of the patient.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param label The label of the record.
+     * @param data The data of the record as text.
+     */
+    void write(int patientId, long timestamp, String label, String data) {
+        long bucket = Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+        if (bucket > currentBucket) {
+            if (currentBucket != Long.MIN_VALUE) {
+                writeRuns(Math.floorDiv(bucket, partitionMillis) * partitionMillis);
+            }
+            currentBucket = bucket;
+        }
+        long partitionStart = Math.floorDiv(timestamp, partitionMillis) * partitionMillis;
+        Partition partition = partitions.computeIfAbsent(label, k -> new HashMap<>())
+                .computeIfAbsent(partitionStart, start -> new Partition(label, start));
+        Run run = partition.runs.computeIfAbsent((long) patientId << 32 | (bucket - partitionStart) / bucketMillis,
+                key -> new Run(patientId, bucket));
+        int length = run.text.length();
+        run.text.append("Patient ID: ").append(patientId)
+                .append(", Timestamp: ").append(timestamp)
+                .append(", Label: ").append(label)
+                .append(", Data: ").append(data)
+                .append(System.lineSeparator());
+        run.count++;
+        pendingChars += run.text.length() - length;
+        if (pendingChars >= MAX_PENDING_CHARS) {
+            writeRuns(Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Writes all buffered runs and closes every file.
+     */
+    void close() {
+        writeRuns(Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes all buffered runs and closes the files of the partitions which start before the given time.
+     * A partition which is closed is opened again, in append mode, if a late record arrives for it.
+     *
+     * @param openFrom The start of the oldest partition which stays open.
+     */
+    private void writeRuns(long openFrom) {
+        for (Iterator<Map<Long, Partition>> labels = partitions.values().iterator(); labels.hasNext(); ) {
+            Map<Long, Partition> byStart = labels.next();
+            for (Iterator<Partition> it = byStart.values().iterator(); it.hasNext(); ) {
+                Partition partition = it.next();
+                partition.writeRuns();
+                if (partition.start < openFrom) {
+                    partition.close();
+                    it.remove();
+                }
+            }
+            if (byStart.isEmpty()) {
+                labels.remove();
+            }
+        }
+        pendingChars = 0;
+    }
+
+    /**
+     * The files and buffered runs of a label and partition.
+     */
+    private final class Partition {
+        private final String label;
+        private final long start;
+        private final Map<Long, Run> runs = new HashMap<>();
+        private OutputStream data;
+        private DataOutputStream index;
+        /** The size of the text file, which is the offset of the next run. */
+        private long size;
+
+        private Partition(String label, long start) {
+            this.label = label;
+            this.start = start;
+        }
+
+        /**
+         * Writes the buffered runs, ordered by bucket and patient, followed by their index entries.
+         */
+        private void writeRuns() {
+            if (runs.isEmpty()) {
+                return;
+            }
+            List<Run> sorted = new ArrayList<>(runs.values());
+            runs.clear();
+            sorted.sort(Comparator.comparingLong((Run run) -> run.bucket).thenComparingInt(run -> run.patientId));
+            Path path = baseDirectory.resolve(label).resolve(PARTITION_NAME.format(Instant.ofEpochMilli(start)));
+            try {
+                open(path);
+                long offset = size;
+                List<byte[]> texts = new ArrayList<>(sorted.size());
+                for (Run run : sorted) {
+                    byte[] text = run.text.toString().getBytes(StandardCharsets.UTF_8);
+                    data.write(text);
+                    texts.add(text);
+                }
+                data.flush();
+                for (int i = 0; i < sorted.size(); i++) {
+                    Run run = sorted.get(i);
+                    index.writeInt(run.patientId);
+                    index.writeLong(run.bucket);
+                    index.writeLong(offset);
+                    index.writeInt(texts.get(i).length);
+                    index.writeInt(run.count);
+                    offset += texts.get(i).length;
+                }
+                index.flush();
+                size = offset;
+            } catch (IOException e) {
+                System.err.println("Error writing to file " + path + DATA_SUFFIX + ": " + e.getMessage());
+                Metrics.failed("file");
+                close(); // Reopening takes the size from the file again
+            }
+        }
+
+        /**
+         * Opens the text file and the index in append mode, writing the header of a new index.
+         */
+        private void open(Path path) throws IOException {
+            if (data != null) {
+                return;
+            }
+            Files.createDirectories(path.getParent());
+            Path dataPath = path.resolveSibling(path.getFileName() + DATA_SUFFIX);
+            Path indexPath = path.resolveSibling(path.getFileName() + INDEX_SUFFIX);
+            boolean newIndex = !Files.exists(indexPath) || Files.size(indexPath) == 0;
+            data = new BufferedOutputStream(Files.newOutputStream(dataPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 65536);
+            size = Files.size(dataPath);
+            index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 8192));
+            if (newIndex) {
+                index.writeInt(INDEX_MAGIC);
+                index.writeInt(INDEX_VERSION);
+                index.writeLong(start);
+                index.writeLong(partitionMillis);
+                index.writeLong(bucketMillis);
+            }
+        }
+
+        private void close() {
+            try {
+                if (data != null) {
+                    data.close();
+                }
+                if (index != null) {
+                    index.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing partition " + label + " " + start + ": " + e.getMessage());
+            }
+            data = null;
+            index = null;
+        }
+    }
+
+    /**
+     * The buffered lines of a patient within a bucket.
+     */
+    private static final class Run {
+        private final int patientId;
+        private final long bucket;
+        private final StringBuilder text = new StringBuilder();
+        private int count;
+
+        private Run(int patientId, long bucket) {
+            this.patientId = patientId;
+            this.bucket = bucket;
+        }
+    }
+}
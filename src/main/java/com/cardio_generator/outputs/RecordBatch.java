@@ -0,0 +1,145 @@
+package com.cardio_generator.outputs;
+
+import java.util.Arrays;
+
+/**
+ * This class holds a batch of records as parallel arrays of patient IDs, timestamps, label IDs and values.
+ * It is meant to be reused: fill it, pass it to {@link OutputStrategy#outputBatch(RecordBatch)} and {@link #clear()} it.
+ * The arrays grow when the batch is full.
+ * <p>
+ * A batch is itself an {@link OutputStrategy} which collects everything it is given,
+ * so generators can fill it through the same methods they use to output data.
+ * A batch is not thread-safe.
+ */
+public class RecordBatch implements OutputStrategy {
+
+    private int[] patientIds;
+    private long[] timestamps;
+    private int[] labelIds;
+    private double[] values;
+    private int size;
+
+    /**
+     * Constructs an empty {@code RecordBatch}.
+     *
+     * @param initialCapacity The number of records the batch can hold before it grows. It should be positive.
+     */
+    public RecordBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        patientIds = new int[capacity];
+        timestamps = new long[capacity];
+        labelIds = new int[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * Adds a record to the batch.
+     *
+     * @param patientId The ID of the patient.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label in {@link LabelRegistry}.
+     * @param value The value of the reading.
+     */
+    public void add(int patientId, long timestamp, int labelId, double value) {
+        if (size == patientIds.length) {
+            grow();
+        }
+        patientIds[size] = patientId;
+        timestamps[size] = timestamp;
+        labelIds[size] = labelId;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Adds a record to the batch, converting the label and data with {@link LabelRegistry}.
+     *
+     * @param patientId The ID of the patient.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param label Describes the type of data. It should not be null or empty.
+     * @param data The actual data. It should be a valid value of the label.
+     * @throws NumberFormatException if the data is not a valid value of the label.
+     */
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        int labelId = LabelRegistry.idOf(label);
+        add(patientId, timestamp, labelId, LabelRegistry.parseValue(labelId, data));
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        add(patientId, timestamp, labelId, value);
+    }
+
+    /**
+     * Adds all records of another batch to this batch.
+     *
+     * @param batch The batch to add.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        for (int i = 0; i < batch.size; i++) {
+            add(batch.patientIds[i], batch.timestamps[i], batch.labelIds[i], batch.values[i]);
+        }
+    }
+
+    /**
+     * Removes all records. The capacity is kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /** @return The number of records in the batch. */
+    public int size() {
+        return size;
+    }
+
+    /** @return {@code true} if the batch holds no records. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index The index of the record, between 0 and {@link #size()} minus one.
+     * @return The patient ID of the record.
+     */
+    public int patientId(int index) {
+        return patientIds[index];
+    }
+
+    /**
+     * @param index The index of the record, between 0 and {@link #size()} minus one.
+     * @return The timestamp of the record in milliseconds.
+     */
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index The index of the record, between 0 and {@link #size()} minus one.
+     * @return The label ID of the record.
+     */
+    public int labelId(int index) {
+        return labelIds[index];
+    }
+
+    /**
+     * @param index The index of the record, between 0 and {@link #size()} minus one.
+     * @return The value of the record.
+     */
+    public double value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Doubles the capacity of the batch.
+     */
+    private void grow() {
+        int capacity = patientIds.length * 2;
+        patientIds = Arrays.copyOf(patientIds, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        labelIds = Arrays.copyOf(labelIds, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+}
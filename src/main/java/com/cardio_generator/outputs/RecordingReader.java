@@ -0,0 +1,66 @@
+package com.cardio_generator.outputs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This interface reads back the records written by a file output strategy, in the order of their timestamps,
+ * for example to replay them through another output strategy.
+ * <p>
+ * {@link #open(Path)} recognizes the format of a directory: a compressed file of {@link FileOutputStrategy},
+ * the segments of {@link BinaryLogOutputStrategy}, or the text files of {@link FileOutputStrategy}, partitioned
+ * or not. The files are memory-mapped and read as a stream, so recordings much larger than the heap can be read.
+ */
+public interface RecordingReader extends Closeable {
+
+    /**
+     * Opens the recording in a directory.
+     *
+     * @param directory The directory a file output strategy has written to.
+     * @return The reader.
+     * @throws IOException If an I/O error occurs, or the directory holds no recording.
+     */
+    static RecordingReader open(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        if (Files.isRegularFile(directory.resolve(FileOutputStrategy.COMPRESSED_FILE_NAME))) {
+            return new CompressedRecordingReader(directory.resolve(FileOutputStrategy.COMPRESSED_FILE_NAME));
+        }
+        if (!BinaryLogReader.segments(directory).isEmpty()) {
+            return new BinaryLogRecordingReader(directory);
+        }
+        return new TextRecordingReader(directory);
+    }
+
+    /**
+     * @return A short description of the format, e.g. "compressed".
+     */
+    String format();
+
+    /**
+     * @return The timestamp of the next record, or {@link Long#MAX_VALUE} at the end of the recording.
+     * @throws IOException If an I/O error occurs, or the recording is damaged.
+     */
+    long nextTimestamp() throws IOException;
+
+    /**
+     * Reads the next records with a timestamp up to the given time, at most the given number,
+     * or, for a compressed recording, the next frame if its first record is due.
+     *
+     * @param out The batch the records are added to.
+     * @param until The latest timestamp to read.
+     * @param maxRecords The most records to read, unless a whole frame is read.
+     * @throws IOException If an I/O error occurs, or the recording is damaged.
+     */
+    void read(RecordBatch out, long until, int maxRecords) throws IOException;
+
+    /**
+     * @return The encoded frame the records of the last {@link #read} came from, or null if they were not read
+     *         from a single frame of a {@link TimeSeriesEncoder}.
+     */
+    ByteBuffer frame();
+}
@@ -0,0 +1,179 @@
+package com.cardio_generator.outputs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class describes which records a network client wants to receive: a set of patient ID ranges and a set of labels.
+ * It is parsed from a command of the form
+ * <pre>subscribe patients=1-20,42 labels=ECG,Alert</pre>
+ * Both parts are optional; a missing part matches all patients or all labels. Only labels known to the
+ * {@link LabelRegistry} can be subscribed to, so clients cannot add labels to it.
+ */
+public final class Subscription {
+
+    /** The command word which starts a subscription. */
+    public static final String SUBSCRIBE = "subscribe";
+    /** The command which removes the subscription of a client, so it receives all records again. */
+    public static final String UNSUBSCRIBE = "unsubscribe";
+
+    /** Sorted, non-overlapping inclusive patient ID ranges as {from, to} pairs, or null for all patients. */
+    private final int[][] patientRanges;
+
+    /** The subscribed label IDs, or null for all labels. */
+    private final BitSet labelIds;
+
+    private Subscription(int[][] patientRanges, BitSet labelIds) {
+        this.patientRanges = patientRanges;
+        this.labelIds = labelIds;
+    }
+
+    /**
+     * Parses a subscribe command.
+     *
+     * @param command The command, e.g. "subscribe patients=1-20,42 labels=ECG,Alert".
+     * @return The subscription.
+     * @throws IllegalArgumentException if the command is not a valid subscribe command or names an unknown label.
+     */
+    public static Subscription parse(String command) {
+        String[] parts = command.trim().split("\\s+");
+        if (!parts[0].equals(SUBSCRIBE)) {
+            throw new IllegalArgumentException("Expected '" + SUBSCRIBE + "': " + command);
+        }
+        int[][] ranges = null;
+        BitSet labels = null;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].startsWith("patients=")) {
+                ranges = parsePatientRanges(parts[i].substring(9));
+            } else if (parts[i].startsWith("labels=")) {
+                labels = new BitSet();
+                for (String label : parts[i].substring(7).split(",")) {
+                    if (label.isEmpty()) {
+                        continue;
+                    }
+                    int labelId = LabelRegistry.find(label);
+                    if (labelId < 0) {
+                        throw new IllegalArgumentException("Unknown label: " + label);
+                    }
+                    labels.set(labelId);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown subscription part: " + parts[i]);
+            }
+        }
+        return new Subscription(ranges, labels);
+    }
+
+    /**
+     * @return {@code true} if the subscription matches every patient.
+     */
+    public boolean allPatients() {
+        return patientRanges == null;
+    }
+
+    /**
+     * @return The sorted, non-overlapping inclusive patient ID ranges as {from, to} pairs.
+     *         Must not be called if {@link #allPatients()} is {@code true}.
+     */
+    int[][] patientRanges() {
+        return patientRanges;
+    }
+
+    /**
+     * Tells whether the subscription includes a label.
+     *
+     * @param labelId The ID of the label.
+     * @return {@code true} if records with the label match the subscription.
+     */
+    public boolean matchesLabel(int labelId) {
+        return labelIds == null || labelIds.get(labelId);
+    }
+
+    /**
+     * Tells whether a record matches the subscription.
+     *
+     * @param patientId The ID of the patient.
+     * @param labelId The ID of the label.
+     * @return {@code true} if the record matches.
+     */
+    public boolean matches(int patientId, int labelId) {
+        if (!matchesLabel(labelId)) {
+            return false;
+        }
+        if (patientRanges == null) {
+            return true;
+        }
+        for (int[] range : patientRanges) {
+            if (patientId < range[0]) {
+                return false;
+            }
+            if (patientId <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(SUBSCRIBE);
+        if (patientRanges != null) {
+            text.append(" patients=");
+            for (int i = 0; i < patientRanges.length; i++) {
+                text.append(i == 0 ? "" : ",").append(patientRanges[i][0]);
+                if (patientRanges[i][1] != patientRanges[i][0]) {
+                    text.append('-').append(patientRanges[i][1]);
+                }
+            }
+        }
+        if (labelIds != null) {
+            text.append(" labels=");
+            boolean first = true;
+            for (int id = labelIds.nextSetBit(0); id >= 0; id = labelIds.nextSetBit(id + 1)) {
+                text.append(first ? "" : ",").append(LabelRegistry.nameOf(id));
+                first = false;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses a comma-separated list of patient IDs and ID ranges, and merges overlapping ranges.
+     *
+     * @param text The list, e.g. "1-20,42".
+     * @return Sorted, non-overlapping inclusive ranges as {from, to} pairs.
+     * @throws IllegalArgumentException if an entry is not a valid ID or range.
+     */
+    public static int[][] parsePatientRanges(String text) {
+        List<int[]> ranges = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = part.indexOf('-', 1);
+                int from = Integer.parseInt(dash < 0 ? part : part.substring(0, dash));
+                int to = dash < 0 ? from : Integer.parseInt(part.substring(dash + 1));
+                if (to < from) {
+                    throw new IllegalArgumentException("Empty patient range: " + part);
+                }
+                ranges.add(new int[] {from, to});
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid patient ID or range: " + part);
+            }
+        }
+        ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+        List<int[]> merged = new ArrayList<>();
+        for (int[] range : ranges) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && (long) range[0] <= (long) last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(Arrays.copyOf(range, 2));
+            }
+        }
+        return merged.toArray(new int[0][]);
+    }
+}
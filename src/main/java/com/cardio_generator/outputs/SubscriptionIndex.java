@@ -0,0 +1,190 @@
+package com.cardio_generator.outputs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class keeps track of the connected clients of a network output strategy and their {@link Subscription}s,
+ * and finds the clients a record must be sent to.
+ * <p>
+ * Clients without a subscription receive everything and are returned as one group by {@link #unfilteredClients()},
+ * so a message for them can be encoded once. Subscribed patient ranges of up to {@value #MAX_EXPANDED_RANGE}
+ * patients are indexed per patient ID, so finding the subscribers of a record costs a binary search plus the number
+ * of interested clients, rather than a check of every client. Wider ranges and subscriptions to all patients
+ * are checked for each record.
+ * <p>
+ * Changes rebuild an immutable snapshot, so lookups from the generator threads need no locking.
+ *
+ * @param <C> The type of the clients.
+ */
+public class SubscriptionIndex<C> {
+
+    /** Patient ranges up to this size are indexed per patient ID. */
+    static final int MAX_EXPANDED_RANGE = 10000;
+
+    /** The subscription of every client, or null for clients without one. Guarded by {@code this}. */
+    private final Map<C, Subscription> subscriptions = new LinkedHashMap<>();
+
+    /** The current lookup structure. */
+    private volatile Snapshot<C> snapshot = new Snapshot<>(new ArrayList<>(), new int[0],
+            new Object[0][], new ArrayList<>());
+
+    /**
+     * Adds a client without a subscription, so it receives every record.
+     *
+     * @param client The client.
+     */
+    public synchronized void add(C client) {
+        subscriptions.put(client, null);
+        rebuild();
+    }
+
+    /**
+     * Sets the subscription of a client, replacing any previous one.
+     *
+     * @param client The client.
+     * @param subscription The subscription, or null to receive every record.
+     */
+    public synchronized void subscribe(C client, Subscription subscription) {
+        subscriptions.put(client, subscription);
+        rebuild();
+    }
+
+    /**
+     * Removes a client.
+     *
+     * @param client The client.
+     */
+    public synchronized void remove(C client) {
+        if (subscriptions.containsKey(client)) {
+            subscriptions.remove(client);
+            rebuild();
+        }
+    }
+
+    /**
+     * @return {@code true} if at least one client has a subscription.
+     */
+    public boolean hasSubscriptions() {
+        Snapshot<C> current = snapshot;
+        return current.patientKeys.length > 0 || !current.scanned.isEmpty();
+    }
+
+    /**
+     * @return The clients without a subscription, which receive every record.
+     */
+    public List<C> unfilteredClients() {
+        return snapshot.unfiltered;
+    }
+
+    /**
+     * Adds the subscribed clients which want a record to a list. Clients without a subscription are not added.
+     *
+     * @param patientId The ID of the patient of the record.
+     * @param labelId The ID of the label of the record.
+     * @param targets The list the clients are added to. Each client is added at most once.
+     */
+    @SuppressWarnings("unchecked")
+    public void subscribedTargets(int patientId, int labelId, List<C> targets) {
+        Snapshot<C> current = snapshot;
+        int index = Arrays.binarySearch(current.patientKeys, patientId);
+        if (index >= 0) {
+            for (Object entry : current.patientEntries[index]) {
+                Entry<C> e = (Entry<C>) entry;
+                if (e.subscription.matchesLabel(labelId)) {
+                    targets.add(e.client);
+                }
+            }
+        }
+        for (Entry<C> e : current.scanned) {
+            if (e.subscription.matches(patientId, labelId)) {
+                targets.add(e.client);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot from the subscriptions. Must be called while holding the lock.
+     */
+    private void rebuild() {
+        List<C> unfiltered = new ArrayList<>();
+        TreeMap<Integer, List<Entry<C>>> byPatient = new TreeMap<>();
+        List<Entry<C>> scanned = new ArrayList<>();
+        for (Map.Entry<C, Subscription> client : subscriptions.entrySet()) {
+            Subscription subscription = client.getValue();
+            if (subscription == null) {
+                unfiltered.add(client.getKey());
+                continue;
+            }
+            Entry<C> entry = new Entry<>(client.getKey(), subscription);
+            if (subscription.allPatients() || hasWideRange(subscription)) {
+                // Ranges of a subscription are merged, so checking the whole subscription adds the client only once.
+                scanned.add(entry);
+                continue;
+            }
+            for (int[] range : subscription.patientRanges()) {
+                for (int id = range[0]; id <= range[1]; id++) {
+                    byPatient.computeIfAbsent(id, k -> new ArrayList<>()).add(entry);
+                }
+            }
+        }
+        int[] keys = new int[byPatient.size()];
+        Object[][] entries = new Object[byPatient.size()][];
+        int i = 0;
+        for (Map.Entry<Integer, List<Entry<C>>> patient : byPatient.entrySet()) {
+            keys[i] = patient.getKey();
+            entries[i] = patient.getValue().toArray();
+            i++;
+        }
+        snapshot = new Snapshot<>(unfiltered, keys, entries, scanned);
+    }
+
+    /**
+     * Tells whether a subscription has a range too wide to be indexed per patient.
+     */
+    private static boolean hasWideRange(Subscription subscription) {
+        for (int[] range : subscription.patientRanges()) {
+            if ((long) range[1] - range[0] + 1 > MAX_EXPANDED_RANGE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A client and its subscription.
+     */
+    private static final class Entry<C> {
+        private final C client;
+        private final Subscription subscription;
+
+        private Entry(C client, Subscription subscription) {
+            this.client = client;
+            this.subscription = subscription;
+        }
+    }
+
+    /**
+     * An immutable lookup structure.
+     */
+    private static final class Snapshot<C> {
+        private final List<C> unfiltered;
+        /** Sorted patient IDs with at least one indexed subscriber. */
+        private final int[] patientKeys;
+        /** For every patient ID in {@link #patientKeys}, its indexed subscribers as {@link Entry} objects. */
+        private final Object[][] patientEntries;
+        /** Subscriptions which are checked for every record. */
+        private final List<Entry<C>> scanned;
+
+        private Snapshot(List<C> unfiltered, int[] patientKeys, Object[][] patientEntries, List<Entry<C>> scanned) {
+            this.unfiltered = unfiltered;
+            this.patientKeys = patientKeys;
+            this.patientEntries = patientEntries;
+            this.scanned = scanned;
+        }
+    }
+}
@@ -1,55 +1,190 @@
 package com.cardio_generator.outputs;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.Executors;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.cardio_generator.metrics.Metrics;
 
 /**
  * This class implements the {@link OutputStrategy} interface
- * and sends patient's data over a TCP connection.
- * The server listens for a connection on the specified port and sends data to the connected client.
+ * and sends patient's data over TCP connections.
+ * The server accepts any number of clients on the specified port, at any time, and sends the data to all of them.
+ * <p>
+ * A single selector thread accepts clients and writes to them without blocking. Every record is encoded once
+ * and queued for each client in a bounded outbound buffer, so the generator threads never wait for the network.
+ * When a client reads slower than the data is produced and its buffer is full, the {@link SlowClientPolicy}
+ * decides what happens, so one slow client cannot hold up the others.
+ * <p>
+ * A client may send a line "subscribe patients=1-20,42 labels=ECG,Alert" to receive only matching records,
+ * or "unsubscribe" to receive everything again (see {@link Subscription}). The server answers each command
+ * with a line starting with '#'.
+ * <p>
+ * In {@link Format#COMPRESSED} format, records are sent as frames of a {@link TimeSeriesEncoder} instead of lines,
+ * and answers as text frames; {@link TimeSeriesDecoder} reads them. All clients without a subscription share one
+ * encoder, so each batch is still encoded once, and every subscribed client has its own. A new client, or one
+ * which has lost frames to a full buffer, skips frames until the next keyframe, which is then sent right away.
+ * Frames which are already encoded, e.g. replayed from a compressed file, are queued as they are
+ * (see {@link #outputFrame(ByteBuffer, RecordBatch)}).
+ * <p>
+ * {@link #close()} stops taking records and lets the selector thread write out what is queued for every client
+ * until the queues are empty or the close timeout has passed; only then are the clients disconnected.
  */
 public class TcpOutputStrategy implements OutputStrategy {
 
-    /** The server socket which listens for incoming connections. */
-    private ServerSocket serverSocket;
+    /** Maximum length of a command line sent by a client. */
+    private static final int MAX_COMMAND_LENGTH = 64 * 1024;
+
+    /** Default size of the outbound buffer of each client in bytes. */
+    public static final int DEFAULT_CLIENT_BUFFER_BYTES = 1024 * 1024;
+
+    /** Default longest time {@link #close()} writes out the queued data, in milliseconds. */
+    public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * What to do with a record when the outbound buffer of a client is full.
+     */
+    public enum SlowClientPolicy {
+        /** Drop the oldest queued records of the client to make room. */
+        DROP_OLDEST,
+        /** Disconnect the client. */
+        DISCONNECT,
+        /** Make the generator wait until the client has caught up. This stalls the other clients too. */
+        BLOCK
+    }
+
+    /**
+     * The format of the data sent to the clients.
+     */
+    public enum Format {
+        /** One "patientId,timestamp,label,data" line per record. */
+        TEXT,
+        /** Compressed frames, see {@link TimeSeriesEncoder}. */
+        COMPRESSED
+    }
+
+    /** The channel which listens for incoming connections. */
+    private ServerSocketChannel serverChannel;
+
+    /** The selector of the server channel and all client channels. */
+    private Selector selector;
+
+    /** The connected clients. */
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
 
-    /** The client socket which represents the connection to the client. */
-    private Socket clientSocket;
+    /** The subscriptions of the connected clients. */
+    private final SubscriptionIndex<Client> subscriptions = new SubscriptionIndex<>();
 
-    /** The output stream for sending data to the client. */
-    private PrintWriter out;
+    /** Clients which have received data since the selector thread last looked at them. */
+    private final ConcurrentLinkedQueue<Client> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    /** Maximum number of bytes queued for a client. */
+    private final int clientBufferBytes;
+
+    /** What to do when the buffer of a client is full. */
+    private final SlowClientPolicy slowClientPolicy;
+
+    /** Whether the server is running. */
+    private volatile boolean running;
+
+    /** Whether records are taken; false once {@link #close()} is called. */
+    private volatile boolean accepting = true;
+
+    /** Longest time {@link #close()} writes out the queued data, in milliseconds. */
+    private volatile long closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+
+    /** The {@link System#nanoTime()} until which the queued data is written out after {@link #close()}. */
+    private volatile long drainDeadline;
+
+    /** The thread which accepts clients and writes to them, or null if the server did not start. */
+    private Thread selectorThread;
+
+    /** The handler of commands other than subscriptions, or null. */
+    private volatile CommandHandler commandHandler;
+
+    /** The encoder of the frames for all clients without a subscription, or null in text format. */
+    private final TimeSeriesEncoder sharedEncoder;
+
+    /** Whether a client of the shared encoder waits for a keyframe. */
+    private volatile boolean sharedKeyframeWanted;
+
+    /**
+     * Whether the clients without a subscription currently receive the frames given to {@link #outputFrame}
+     * as they are, rather than frames of the shared encoder. Only accessed while holding the lock of the shared encoder.
+     */
+    private boolean passingFrames;
+
+    /**
+     * Constructs a {@code TcpOutputStrategy} with the default client buffer size and the
+     * {@link SlowClientPolicy#DROP_OLDEST} policy, and starts the TCP server on the specified port.
+     *
+     * @param port The port where the server listens for incoming connections.
+     */
+    public TcpOutputStrategy(int port) {
+        this(port, DEFAULT_CLIENT_BUFFER_BYTES, SlowClientPolicy.DROP_OLDEST);
+    }
 
     /**
      * Constructs a {@code TcpOutputStrategy} and starts the TCP server on the specified port.
-     * The server accepts a client connection in a separate thread.
+     * The server accepts clients and writes to them in a separate thread.
      *
      * @param port The port where the server listens for incoming connections.
-     * @throws IOException If an I/O error occurs when opening the socket.
+     * @param clientBufferBytes Maximum number of bytes queued for a client. It should be a positive integer.
+     * @param slowClientPolicy What to do when the buffer of a client is full. It should not be null.
      */
-    public TcpOutputStrategy(int port){
+    public TcpOutputStrategy(int port, int clientBufferBytes, SlowClientPolicy slowClientPolicy) {
+        this(port, clientBufferBytes, slowClientPolicy, Format.TEXT);
+    }
+
+    /**
+     * Constructs a {@code TcpOutputStrategy} with the specified format and starts the TCP server on the specified port.
+     *
+     * @param port The port where the server listens for incoming connections.
+     * @param clientBufferBytes Maximum number of bytes queued for a client. It should be a positive integer.
+     * @param slowClientPolicy What to do when the buffer of a client is full. It should not be null.
+     * @param format The format of the data sent to the clients. It should not be null.
+     */
+    public TcpOutputStrategy(int port, int clientBufferBytes, SlowClientPolicy slowClientPolicy, Format format) {
+        if (clientBufferBytes <= 0) {
+            throw new IllegalArgumentException("Client buffer size must be positive: " + clientBufferBytes);
+        }
+        this.clientBufferBytes = clientBufferBytes;
+        this.slowClientPolicy = slowClientPolicy;
+        this.sharedEncoder = format == Format.COMPRESSED ? new TimeSeriesEncoder() : null;
         try {
-            serverSocket = new ServerSocket(port);
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            running = true;
             System.out.println("TCP Server started on port " + port);
 
-            // Accept clients in a new thread to not block the main thread
-            Executors.newSingleThreadExecutor().submit(() -> {
-                try {
-                    clientSocket = serverSocket.accept();
-                    out = new PrintWriter(clientSocket.getOutputStream(), true);
-                    System.out.println("Client connected: " + clientSocket.getInetAddress());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
+            // Serve clients in a new thread to not block the main thread
+            selectorThread = new Thread(this::runSelector, "tcp-output-selector");
+            selectorThread.setDaemon(true);
+            selectorThread.start();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
     /**
-     * Outputs the specified data for a patient by sending it over the TCP connection to the connected client.
+     * Outputs the specified data for a patient by sending it over the TCP connections to all connected clients.
      * The data is in String format, seperated by commas.
      *
      * @param patientId The ID of the patient. It should be a positive integer.
@@ -60,9 +195,628 @@ public class TcpOutputStrategy implements OutputStrategy {
      */
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        if (out != null) {
-            String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
-            out.println(message);
+        if (!accepting || clients.isEmpty()) {
+            return;
+        }
+        if (sharedEncoder != null) {
+            RecordBatch batch = new RecordBatch(1);
+            try {
+                batch.output(patientId, timestamp, label, data);
+            } catch (NumberFormatException e) {
+                System.err.println("Cannot compress non-numeric data of label " + label + ": " + data);
+                Metrics.failed("tcp");
+                return;
+            }
+            outputCompressed(batch, null);
+            return;
+        }
+        StringBuilder message = new StringBuilder(64);
+        appendLine(message, patientId, timestamp, label, data);
+        ByteBuffer encoded = encode(message);
+        broadcast(encoded);
+        if (subscriptions.hasSubscriptions()) {
+            List<Client> targets = new ArrayList<>();
+            subscriptions.subscribedTargets(patientId, LabelRegistry.idOf(label), targets);
+            for (Client client : targets) {
+                enqueue(client, encoded);
+            }
+        }
+    }
+
+    /**
+     * Outputs all records of a batch by sending them to all connected clients as one block of lines.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        if (!accepting || clients.isEmpty() || batch.isEmpty()) {
+            return;
+        }
+        if (sharedEncoder != null) {
+            outputCompressed(batch, null);
+            return;
+        }
+        if (!subscriptions.hasSubscriptions()) {
+            StringBuilder message = new StringBuilder(batch.size() * 48);
+            for (int i = 0; i < batch.size(); i++) {
+                int labelId = batch.labelId(i);
+                appendLine(message, batch.patientId(i), batch.timestamp(i),
+                        LabelRegistry.nameOf(labelId), LabelRegistry.formatValue(labelId, batch.value(i)));
+            }
+            broadcast(encode(message));
+            return;
+        }
+        // Collect the lines of every subscribed client separately, and the lines for everyone else once.
+        boolean anyUnfiltered = !subscriptions.unfilteredClients().isEmpty();
+        StringBuilder shared = new StringBuilder(anyUnfiltered ? batch.size() * 48 : 0);
+        Map<Client, StringBuilder> perClient = new IdentityHashMap<>();
+        List<Client> targets = new ArrayList<>();
+        StringBuilder line = new StringBuilder(64);
+        for (int i = 0; i < batch.size(); i++) {
+            int labelId = batch.labelId(i);
+            targets.clear();
+            subscriptions.subscribedTargets(batch.patientId(i), labelId, targets);
+            if (!anyUnfiltered && targets.isEmpty()) {
+                continue;
+            }
+            line.setLength(0);
+            appendLine(line, batch.patientId(i), batch.timestamp(i),
+                    LabelRegistry.nameOf(labelId), LabelRegistry.formatValue(labelId, batch.value(i)));
+            if (anyUnfiltered) {
+                shared.append(line);
+            }
+            for (Client client : targets) {
+                perClient.computeIfAbsent(client, c -> new StringBuilder()).append(line);
+            }
+        }
+        if (shared.length() > 0) {
+            broadcast(encode(shared));
+        }
+        for (Map.Entry<Client, StringBuilder> entry : perClient.entrySet()) {
+            enqueue(entry.getKey(), encode(entry.getValue()));
+        }
+    }
+
+    /**
+     * Outputs the records of an encoded frame. In compressed format, the clients without a subscription receive
+     * the frame itself, without copying or encoding it again, from the first keyframe on. When such a client needs
+     * a keyframe in between, they receive frames of the shared encoder, starting with a keyframe, until the next
+     * keyframe given to this method. Subscribed clients receive the matching records from their own encoder.
+     * In text format, the records are sent as lines.
+     *
+     * @param frame The encoded frame, from its position to its limit. It is not modified.
+     * @param batch The decoded records of the frame.
+     */
+    @Override
+    public void outputFrame(ByteBuffer frame, RecordBatch batch) {
+        if (sharedEncoder == null) {
+            outputBatch(batch);
+        } else if (accepting && !clients.isEmpty()) {
+            outputCompressed(batch, frame);
+        }
+    }
+
+    /**
+     * Encodes a batch once with the shared encoder for the clients without a subscription, or passes on the frame
+     * of the batch if there is one, and encodes the matching records for every subscribed client with its own encoder.
+     * Frames are queued while holding the lock of their encoder, so every client receives them in encoding order.
+     */
+    private void outputCompressed(RecordBatch batch, ByteBuffer encoded) {
+        if (!subscriptions.unfilteredClients().isEmpty()) {
+            synchronized (sharedEncoder) {
+                ByteBuffer frame;
+                if (encoded != null && (TimeSeriesCodec.isKeyframe(encoded) || passingFrames && !sharedKeyframeWanted)) {
+                    // A keyframe resets the decoders, so the clients can switch to the given frames at any keyframe
+                    if (TimeSeriesCodec.isKeyframe(encoded)) {
+                        sharedKeyframeWanted = false;
+                    }
+                    passingFrames = true;
+                    frame = encoded;
+                } else {
+                    if (sharedKeyframeWanted || passingFrames) {
+                        sharedKeyframeWanted = false;
+                        passingFrames = false;
+                        sharedEncoder.requestKeyframe();
+                    }
+                    frame = ByteBuffer.wrap(sharedEncoder.encode(batch));
+                }
+                for (Client client : subscriptions.unfilteredClients()) {
+                    enqueue(client, frame, sharedEncoder);
+                }
+            }
+        }
+        if (!subscriptions.hasSubscriptions()) {
+            return;
+        }
+        Map<Client, RecordBatch> perClient = new IdentityHashMap<>();
+        List<Client> targets = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            targets.clear();
+            subscriptions.subscribedTargets(batch.patientId(i), batch.labelId(i), targets);
+            for (Client client : targets) {
+                perClient.computeIfAbsent(client, c -> new RecordBatch(64))
+                        .add(batch.patientId(i), batch.timestamp(i), batch.labelId(i), batch.value(i));
+            }
+        }
+        for (Map.Entry<Client, RecordBatch> entry : perClient.entrySet()) {
+            Client client = entry.getKey();
+            synchronized (client.encoder) {
+                if (!client.synced) {
+                    client.encoder.requestKeyframe();
+                }
+                enqueue(client, ByteBuffer.wrap(client.encoder.encode(entry.getValue())), client.encoder);
+            }
+        }
+    }
+
+    /**
+     * Makes a client skip frames until the next keyframe of the encoder it follows, and asks for that keyframe.
+     * Must be called while holding the lock of the client.
+     */
+    private void resync(Client client) {
+        client.synced = false;
+        if (client.source == sharedEncoder) {
+            sharedKeyframeWanted = true;
+        }
+    }
+
+    /**
+     * Sets the longest time {@link #close()} writes out the queued data.
+     *
+     * @param closeTimeoutMillis The time in milliseconds. It should be positive.
+     */
+    public void setCloseTimeout(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * Stops taking records, writes out the data queued for every client within the close timeout,
+     * then stops the server and disconnects all clients. Data which could not be written in time is lost.
+     */
+    @Override
+    public void close() {
+        accepting = false;
+        drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(closeTimeoutMillis);
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Appends a record in the "patientId,timestamp,label,data" line format.
+     */
+    private static void appendLine(StringBuilder message, int patientId, long timestamp, String label, String data) {
+        message.append(patientId).append(',').append(timestamp).append(',')
+                .append(label).append(',').append(data).append('\n');
+    }
+
+    /**
+     * Encodes a message once, so the same bytes can be queued for every client.
+     */
+    private static ByteBuffer encode(CharSequence message) {
+        return ByteBuffer.wrap(message.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Queues an encoded message for every connected client without a subscription.
+     *
+     * @param message The encoded message. It is not modified.
+     */
+    private void broadcast(ByteBuffer message) {
+        for (Client client : subscriptions.unfilteredClients()) {
+            enqueue(client, message);
+        }
+    }
+
+    /**
+     * Queues an encoded message for a client, applying the slow client policy if its buffer is full.
+     *
+     * @param client The client.
+     * @param message The encoded message. It is not modified.
+     */
+    private void enqueue(Client client, ByteBuffer message) {
+        enqueue(client, message, null);
+    }
+
+    /**
+     * Queues an encoded message for a client, applying the slow client policy if its buffer is full.
+     * A compressed frame is only queued if it comes from the encoder the client follows, and if it is a keyframe
+     * or the client has received every frame since the last keyframe.
+     *
+     * @param client The client.
+     * @param message The encoded message. It is not modified.
+     * @param source The encoder of a compressed frame, or null for a text message.
+     */
+    private void enqueue(Client client, ByteBuffer message, TimeSeriesEncoder source) {
+        int size = message.remaining();
+        boolean wasEmpty;
+        synchronized (client) {
+            if (client.closed) {
+                return;
+            }
+            if (source != null) {
+                if (source != client.source || !(client.synced || TimeSeriesCodec.isKeyframe(message))) {
+                    return;
+                }
+                client.synced = true;
+            }
+            if (client.queuedBytes + size > clientBufferBytes) {
+                switch (slowClientPolicy) {
+                    case DROP_OLDEST:
+                        if (source != null) {
+                            // Later frames depend on every queued one, so drop them all and start over at a keyframe
+                            client.dropOldest(0);
+                            client.droppedMessages++;
+                            Metrics.dropped("tcp", 1);
+                            resync(client);
+                            return;
+                        }
+                        client.dropOldest(clientBufferBytes - size);
+                        if (client.queuedBytes + size > clientBufferBytes) {
+                            client.droppedMessages++;
+                            Metrics.dropped("tcp", 1);
+                            return;
+                        }
+                        break;
+                    case DISCONNECT:
+                        System.out.println("Disconnecting slow client: " + client.address);
+                        Metrics.dropped("tcp", 1);
+                        closeClient(client);
+                        return;
+                    case BLOCK:
+                        while (!client.closed && client.queuedBytes > 0
+                                && client.queuedBytes + size > clientBufferBytes) {
+                            try {
+                                client.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                        }
+                        if (client.closed) {
+                            return;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown policy: " + slowClientPolicy);
+                }
+            }
+            wasEmpty = append(client, message);
+        }
+        if (wasEmpty) {
+            pendingWrites.add(client);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Adds a message to the outbound buffer of a client, ignoring its size limit.
+     * Must be called while holding the lock of the client.
+     *
+     * @return {@code true} if the buffer was empty before.
+     */
+    private static boolean append(Client client, ByteBuffer message) {
+        boolean wasEmpty = client.queue.isEmpty();
+        client.queue.add(message.duplicate());
+        client.queuedBytes += message.remaining();
+        return wasEmpty;
+    }
+
+    /**
+     * Sends the answer to a command. Called on the selector thread, so the answer is queued
+     * regardless of the slow client policy and written right away.
+     */
+    private void reply(Client client, String answer) {
+        synchronized (client) {
+            if (client.closed) {
+                return;
+            }
+            append(client, sharedEncoder != null
+                    ? ByteBuffer.wrap(TimeSeriesEncoder.encodeText(answer)) : encode(answer + "\n"));
+        }
+        flush(client);
+    }
+
+    /**
+     * Sets the handler of commands which clients send and which are not subscriptions.
+     *
+     * @param commandHandler The handler, or null to reject such commands.
+     */
+    public void setCommandHandler(CommandHandler commandHandler) {
+        this.commandHandler = commandHandler;
+    }
+
+    /**
+     * Handles a command line sent by a client.
+     */
+    private void handleCommand(Client client, String command) {
+        if (command.isEmpty()) {
+            return;
+        }
+        if (command.equals(Subscription.UNSUBSCRIBE)) {
+            subscriptions.subscribe(client, null);
+            follow(client, sharedEncoder);
+            reply(client, "#unsubscribed");
+            return;
+        }
+        CommandHandler handler = commandHandler;
+        if (handler != null && !command.startsWith(Subscription.SUBSCRIBE)) {
+            String handled = handler.handle(command);
+            if (handled != null) {
+                reply(client, "#" + handled);
+                return;
+            }
+        }
+        try {
+            Subscription subscription = Subscription.parse(command);
+            subscriptions.subscribe(client, subscription);
+            follow(client, client.encoder);
+            reply(client, "#" + subscription);
+        } catch (IllegalArgumentException e) {
+            reply(client, "#error " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes a client follow the frames of another encoder, starting at its next keyframe.
+     * Does nothing in text format.
+     */
+    private void follow(Client client, TimeSeriesEncoder source) {
+        if (sharedEncoder == null) {
+            return;
+        }
+        synchronized (client) {
+            client.source = source;
+            resync(client);
+        }
+    }
+
+    /**
+     * The loop of the selector thread. Accepts clients, writes queued data and notices disconnected clients.
+     */
+    private void runSelector() {
+        ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+        try {
+            while (running) {
+                selector.select();
+                Client pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    flush(pending);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    if (key.isReadable()) {
+                        read(client, readBuffer);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(client);
+                    }
+                }
+            }
+            drain(readBuffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Client client : clients) {
+                synchronized (client) {
+                    if (client.queuedBytes > 0) {
+                        System.out.println("Client " + client.address + " did not receive the last "
+                                + client.queuedBytes + " bytes before the server stopped");
+                    }
+                    closeClient(client);
+                }
+            }
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes out the data queued for the clients until every queue is empty or {@link #drainDeadline} has passed.
+     * New connections are no longer accepted, but clients which disconnect are still noticed.
+     */
+    private void drain(ByteBuffer readBuffer) throws IOException {
+        serverChannel.keyFor(selector).cancel();
+        Client pending;
+        while ((pending = pendingWrites.poll()) != null) {
+            flush(pending);
+        }
+        while (true) {
+            boolean queued = false;
+            for (Client client : clients) {
+                synchronized (client) {
+                    queued |= !client.queue.isEmpty();
+                }
+            }
+            long remaining = drainDeadline - System.nanoTime();
+            if (!queued || remaining <= 0) {
+                return;
+            }
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                Client client = (Client) key.attachment();
+                if (key.isReadable()) {
+                    read(client, readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(client);
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts a pending connection and registers the new client.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Client client = new Client(channel, sharedEncoder != null ? new TimeSeriesEncoder() : null);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        follow(client, sharedEncoder);
+        clients.add(client);
+        subscriptions.add(client);
+        System.out.println("Client connected: " + client.address);
+    }
+
+    /**
+     * Reads the command lines sent by a client, closing the client when it has disconnected.
+     */
+    private void read(Client client, ByteBuffer readBuffer) {
+        try {
+            readBuffer.clear();
+            if (client.channel.read(readBuffer) < 0) {
+                synchronized (client) {
+                    closeClient(client);
+                }
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                char c = (char) readBuffer.get();
+                if (c == '\n') {
+                    handleCommand(client, client.command.toString().trim());
+                    client.command.setLength(0);
+                } else if (client.command.length() < MAX_COMMAND_LENGTH) {
+                    client.command.append(c);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (client) {
+                closeClient(client);
+            }
+        }
+    }
+
+    /**
+     * Writes as much queued data to a client as its socket accepts without blocking,
+     * and asks the selector to report when the client can take more.
+     */
+    private void flush(Client client) {
+        synchronized (client) {
+            if (client.closed) {
+                return;
+            }
+            try {
+                ByteBuffer head;
+                while ((head = client.queue.peek()) != null) {
+                    client.queuedBytes -= client.channel.write(head);
+                    if (head.hasRemaining()) {
+                        break;
+                    }
+                    client.queue.poll();
+                }
+                client.key.interestOps(client.queue.isEmpty()
+                        ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                closeClient(client);
+            }
+            client.notifyAll();
+        }
+    }
+
+    /**
+     * Closes a client and forgets its queued data. Must be called while holding the lock of the client.
+     */
+    private void closeClient(Client client) {
+        if (client.closed) {
+            return;
+        }
+        client.closed = true;
+        client.queue.clear();
+        client.queuedBytes = 0;
+        clients.remove(client);
+        subscriptions.remove(client);
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (client.droppedMessages > 0) {
+            System.out.println("Client " + client.address + " missed " + client.droppedMessages + " messages");
+        }
+        System.out.println("Client disconnected: " + client.address);
+        client.notifyAll();
+    }
+
+    /**
+     * A connected client and its outbound buffer. The buffer is guarded by the lock of the client.
+     */
+    private static final class Client {
+        private final SocketChannel channel;
+        private final String address;
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        /** The command line being received. Only used by the selector thread. */
+        private final StringBuilder command = new StringBuilder();
+        private SelectionKey key;
+        private long queuedBytes;
+        private long droppedMessages;
+        private boolean closed;
+        /** The encoder of the frames for this client alone, used while it has a subscription, or null in text format. */
+        private final TimeSeriesEncoder encoder;
+        /** The encoder whose frames the client currently receives. */
+        private TimeSeriesEncoder source;
+        /** Whether the client has received every frame of its encoder since the last keyframe. */
+        private volatile boolean synced;
+
+        private Client(SocketChannel channel, TimeSeriesEncoder encoder) throws IOException {
+            this.channel = channel;
+            this.encoder = encoder;
+            this.address = String.valueOf(channel.getRemoteAddress());
+        }
+
+        /**
+         * Drops queued messages, oldest first, until at most {@code limit} bytes are queued.
+         * A message which is partly written is kept, so the client never receives half a line.
+         */
+        private void dropOldest(long limit) {
+            ByteBuffer inProgress = null;
+            if (!queue.isEmpty() && queue.peek().position() > 0) {
+                inProgress = queue.poll();
+            }
+            while (queuedBytes > limit && !queue.isEmpty()) {
+                queuedBytes -= queue.poll().remaining();
+                droppedMessages++;
+                Metrics.dropped("tcp", 1);
+            }
+            if (inProgress != null) {
+                queue.addFirst(inProgress);
+            }
         }
     }
 }
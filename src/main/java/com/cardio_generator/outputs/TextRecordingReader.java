@@ -0,0 +1,372 @@
+package com.cardio_generator.outputs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This class reads the text files of {@link FileOutputStrategy}: the files {@code <label>.txt} of the text format
+ * and the partitions {@code <label>/<start>.txt} of the partitioned format, merged in the order of their timestamps.
+ * <p>
+ * Every file is memory-mapped in chunks of up to 1 GB, and its lines are parsed straight from the mapping.
+ * A file of the text format is read as one sorted sequence of lines. A partition is only opened when the replay
+ * reaches its start, and then every run of its index, which holds the lines of a patient and minute, is read as
+ * a sorted sequence of its own from the start of its minute on. A heap of the sequences gives the next line.
+ * Lines which cannot be parsed are skipped and counted.
+ */
+final class TextRecordingReader implements RecordingReader {
+
+    /** Size of a mapped chunk of a file, as a power of two. */
+    private static final int CHUNK_BITS = 30;
+
+    /** The sequences which start later, by their start. */
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>(Comparator.comparingLong(p -> p.start));
+
+    /** The sequences which have been started, by the timestamp of their current line. */
+    private final PriorityQueue<LineCursor> cursors =
+            new PriorityQueue<>(Comparator.comparingLong(cursor -> cursor.timestamp));
+
+    /** Number of lines which could not be parsed. */
+    private long skippedLines;
+
+    /**
+     * Opens the text files in a directory.
+     *
+     * @param directory The base directory of a file output strategy.
+     * @throws IOException If an I/O error occurs, or the directory holds no text files.
+     */
+    TextRecordingReader(Path directory) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files.sorted().collect(Collectors.toList());
+        }
+        for (Path entry : entries) {
+            String name = entry.getFileName().toString();
+            if (Files.isRegularFile(entry) && name.endsWith(PartitionedTextWriter.DATA_SUFFIX)) {
+                MappedFile file = new MappedFile(entry);
+                pending.add(new Pending(Long.MIN_VALUE, file, 0, file.size));
+            } else if (Files.isDirectory(entry)) {
+                try (Stream<Path> files = Files.list(entry)) {
+                    for (Path index : files.filter(p -> p.getFileName().toString()
+                            .endsWith(PartitionedTextWriter.INDEX_SUFFIX)).collect(Collectors.toList())) {
+                        pending.add(new Pending(readPartitionStart(index), index));
+                    }
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            throw new IOException("No recording found in " + directory);
+        }
+    }
+
+    @Override
+    public String format() {
+        return "text";
+    }
+
+    @Override
+    public long nextTimestamp() throws IOException {
+        startDue();
+        return cursors.isEmpty() ? Long.MAX_VALUE : cursors.peek().timestamp;
+    }
+
+    @Override
+    public void read(RecordBatch out, long until, int maxRecords) throws IOException {
+        while (out.size() < maxRecords) {
+            startDue();
+            LineCursor cursor = cursors.poll();
+            if (cursor == null) {
+                return;
+            }
+            if (cursor.timestamp > until) {
+                cursors.add(cursor);
+                return;
+            }
+            // Take lines from the same sequence while it stays ahead of all others
+            boolean more;
+            do {
+                out.add(cursor.patientId, cursor.timestamp, cursor.labelId, cursor.value);
+                more = cursor.advance();
+            } while (more && out.size() < maxRecords && cursor.timestamp <= until
+                    && (cursors.isEmpty() || cursor.timestamp <= cursors.peek().timestamp)
+                    && (pending.isEmpty() || cursor.timestamp < pending.peek().start));
+            if (more) {
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer frame() {
+        return null;
+    }
+
+    /**
+     * Reports the number of lines which could not be parsed, if any.
+     */
+    @Override
+    public void close() {
+        pending.clear();
+        cursors.clear();
+        if (skippedLines > 0) {
+            System.err.println("Skipped " + skippedLines + " lines of the recording which could not be parsed");
+            skippedLines = 0;
+        }
+    }
+
+    /**
+     * Starts the sequences which begin before the next line of the started ones.
+     */
+    private void startDue() throws IOException {
+        while (!pending.isEmpty() && (cursors.isEmpty() || pending.peek().start <= cursors.peek().timestamp)) {
+            Pending next = pending.poll();
+            if (next.index != null) {
+                openPartition(next.index);
+                continue;
+            }
+            LineCursor cursor = new LineCursor(next.file, next.offset, next.offset + next.length);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Reads the index of a partition and adds every run to the sequences which start at the beginning of their minute.
+     */
+    private void openPartition(Path indexPath) throws IOException {
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        index.position(PartitionedTextWriter.INDEX_HEADER_SIZE);
+        String name = indexPath.getFileName().toString();
+        MappedFile file = new MappedFile(indexPath.resolveSibling(
+                name.substring(0, name.length() - PartitionedTextWriter.INDEX_SUFFIX.length())
+                        + PartitionedTextWriter.DATA_SUFFIX));
+        while (index.remaining() >= PartitionedTextWriter.INDEX_ENTRY_SIZE) {
+            index.getInt(); // Patient ID
+            long bucket = index.getLong();
+            long offset = index.getLong();
+            int length = index.getInt();
+            index.getInt(); // Number of records
+            if (offset + length > file.size) {
+                throw new IOException("Index of " + file.path + " points past the end of the file");
+            }
+            pending.add(new Pending(bucket, file, offset, length));
+        }
+    }
+
+    /**
+     * @return The start of the partition of an index, from its header.
+     */
+    private static long readPartitionStart(Path indexPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(PartitionedTextWriter.INDEX_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Read the whole header
+            }
+            header.flip();
+            if (header.remaining() < PartitionedTextWriter.INDEX_HEADER_SIZE
+                    || header.getInt() != PartitionedTextWriter.INDEX_MAGIC) {
+                throw new IOException("Not a partition index: " + indexPath);
+            }
+            if (header.getInt() != PartitionedTextWriter.INDEX_VERSION) {
+                throw new IOException("Unsupported partition index version: " + indexPath);
+            }
+            return header.getLong();
+        }
+    }
+
+    /**
+     * A sequence of lines which has not been started yet: a region of a text file, or a whole partition.
+     */
+    private static final class Pending {
+        /** The earliest timestamp in the sequence. */
+        private final long start;
+        private final MappedFile file;
+        private final long offset;
+        private final long length;
+        /** The index of a partition, or null for a region of a text file. */
+        private final Path index;
+
+        private Pending(long start, MappedFile file, long offset, long length) {
+            this.start = start;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.index = null;
+        }
+
+        private Pending(long start, Path index) {
+            this.start = start;
+            this.file = null;
+            this.offset = 0;
+            this.length = 0;
+            this.index = index;
+        }
+    }
+
+    /**
+     * A text file, mapped in chunks of {@code 1 << CHUNK_BITS} bytes.
+     */
+    private static final class MappedFile {
+        private final Path path;
+        private final long size;
+        private final MappedByteBuffer[] chunks;
+
+        private MappedFile(Path path) throws IOException {
+            this.path = path;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                this.size = channel.size();
+                this.chunks = new MappedByteBuffer[(int) ((size + (1L << CHUNK_BITS) - 1) >>> CHUNK_BITS)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long offset = (long) i << CHUNK_BITS;
+                    // The mappings stay valid after the channel is closed.
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                            Math.min(1L << CHUNK_BITS, size - offset));
+                }
+            }
+        }
+
+        private int get(long position) {
+            return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & ((1L << CHUNK_BITS) - 1)));
+        }
+    }
+
+    /**
+     * Parses the lines of a region of a text file, one at a time. The fields of the current line are kept
+     * in the cursor, and the label of the previous line is reused if it is the same.
+     */
+    private final class LineCursor {
+        private final MappedFile file;
+        private final long end;
+        private long position;
+
+        private int patientId;
+        private long timestamp;
+        private int labelId;
+        private double value;
+
+        private final StringBuilder text = new StringBuilder(32);
+        private String label;
+
+        private LineCursor(MappedFile file, long start, long end) {
+            this.file = file;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Moves to the next line which can be parsed.
+         *
+         * @return {@code false} at the end of the region.
+         */
+        private boolean advance() {
+            while (position < end) {
+                long lineStart = position;
+                if (parseLine()) {
+                    return true;
+                }
+                position = lineStart;
+                skipLine();
+                skippedLines++;
+            }
+            return false;
+        }
+
+        /**
+         * Parses a "Patient ID: ..., Timestamp: ..., Label: ..., Data: ..." line and moves past it.
+         */
+        private boolean parseLine() {
+            if (!skip("Patient ID: ")) {
+                return false;
+            }
+            long id = parseLong();
+            if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE || !skip(", Timestamp: ")) {
+                return false;
+            }
+            patientId = (int) id;
+            timestamp = parseLong();
+            if (!skip(", Label: ")) {
+                return false;
+            }
+            readUntil(',');
+            if (label == null || !label.contentEquals(text)) {
+                label = text.toString();
+                labelId = LabelRegistry.idOf(label);
+            }
+            if (!skip(", Data: ")) {
+                return false;
+            }
+            readUntil('\n');
+            if (text.length() > 0 && text.charAt(text.length() - 1) == '\r') {
+                text.setLength(text.length() - 1);
+            }
+            try {
+                value = LabelRegistry.parseValue(labelId, text.toString());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (position < end) {
+                position++; // The line break
+            }
+            return true;
+        }
+
+        private boolean skip(String expected) {
+            for (int i = 0; i < expected.length(); i++) {
+                if (position >= end || file.get(position) != expected.charAt(i)) {
+                    return false;
+                }
+                position++;
+            }
+            return true;
+        }
+
+        private long parseLong() {
+            boolean negative = position < end && file.get(position) == '-';
+            if (negative) {
+                position++;
+            }
+            long result = 0;
+            while (position < end) {
+                int b = file.get(position);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                result = result * 10 + (b - '0');
+                position++;
+            }
+            return negative ? -result : result;
+        }
+
+        /**
+         * Reads the characters up to the given one, or the end of the line, into {@link #text}.
+         * Labels and values are ASCII, as written by {@link FileOutputStrategy}.
+         */
+        private void readUntil(char stop) {
+            text.setLength(0);
+            while (position < end) {
+                int b = file.get(position);
+                if (b == stop || b == '\n') {
+                    return;
+                }
+                text.append((char) (b & 0xFF));
+                position++;
+            }
+        }
+
+        private void skipLine() {
+            while (position < end && file.get(position++) != '\n') {
+                // Move past the line break
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.cardio_generator.outputs;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class holds what {@link TimeSeriesEncoder} and {@link TimeSeriesDecoder} share: the frame layout and
+ * the table of per-stream state.
+ * <p>
+ * A compressed stream is a sequence of frames. Every frame starts with a flags byte and the length of its body
+ * as a varint. The body of a text frame is a UTF-8 string. The body of a data frame starts, in a keyframe only,
+ * with the label names, followed by the number of records and the records. A record is
+ * <ul>
+ *   <li>the difference to the patient ID of the previous record in the frame, as a zigzag varint,</li>
+ *   <li>the label ID, as a varint,</li>
+ *   <li>for the first record of a patient+label stream since the last keyframe, the difference to the timestamp of
+ *       the previous record in the frame, and otherwise the delta-of-delta of the stream's timestamps,
+ *       as a zigzag varint,</li>
+ *   <li>the XOR of the value's bits with the stream's previous value (or 0), as a byte with the number of leading
+ *       zero bytes in the high and the number of meaningful bytes in the low nibble, followed by those bytes.</li>
+ * </ul>
+ * A keyframe resets the state of all streams, so a reader can start at any keyframe.
+ */
+final class TimeSeriesCodec {
+
+    /** The first bytes of a compressed file. */
+    static final byte[] MAGIC = {'C', 'T', 'S', '1'};
+
+    /** Flag of a frame which resets all streams and lists the label names. */
+    static final int KEYFRAME = 1;
+
+    /** Flag of a frame whose body is a text message rather than records. */
+    static final int TEXT = 2;
+
+    private TimeSeriesCodec() {
+    }
+
+    /**
+     * @param frame An encoded frame, positioned at its start. It is not modified.
+     * @return {@code true} if the frame is a keyframe.
+     */
+    static boolean isKeyframe(ByteBuffer frame) {
+        return (frame.get(frame.position()) & KEYFRAME) != 0;
+    }
+
+    /**
+     * @param frame An encoded frame, positioned at its start. It is not modified.
+     * @return {@code true} if the frame is a text frame.
+     */
+    static boolean isText(ByteBuffer frame) {
+        return (frame.get(frame.position()) & TEXT) != 0;
+    }
+
+    /**
+     * @return The key of the stream of a patient and label.
+     */
+    static long streamKey(int patientId, int labelId) {
+        return ((long) patientId << 32) | (labelId & 0xFFFFFFFFL);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * The state of every patient+label stream since the last keyframe: the last timestamp, the last timestamp
+     * difference and the bits of the last value. Streams are found through an open-addressing hash table,
+     * and their state is kept in parallel arrays, so no object is allocated per stream.
+     */
+    static final class StreamTable {
+        /** For every hash bucket, the index of its stream plus one, or 0 if the bucket is empty. */
+        private int[] buckets = new int[1024];
+        private long[] keys = new long[512];
+        long[] timestamps = new long[512];
+        long[] deltas = new long[512];
+        long[] bits = new long[512];
+        private int size;
+
+        /**
+         * Finds the stream with a key, adding it if it is new.
+         *
+         * @param key The key of the stream, see {@link TimeSeriesCodec#streamKey(int, int)}.
+         * @return The index of the stream, or {@code -(index + 1)} if it was added.
+         */
+        int findOrAdd(long key) {
+            int mask = buckets.length - 1;
+            int bucket = hash(key) & mask;
+            while (true) {
+                int entry = buckets[bucket];
+                if (entry == 0) {
+                    break;
+                }
+                if (keys[entry - 1] == key) {
+                    return entry - 1;
+                }
+                bucket = (bucket + 1) & mask;
+            }
+            if (size == keys.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                deltas = Arrays.copyOf(deltas, capacity);
+                bits = Arrays.copyOf(bits, capacity);
+            }
+            int index = size++;
+            keys[index] = key;
+            timestamps[index] = 0;
+            deltas[index] = 0;
+            bits[index] = 0;
+            buckets[bucket] = index + 1;
+            if (size * 2 > buckets.length) {
+                rehash();
+            }
+            return -(index + 1);
+        }
+
+        /**
+         * Forgets all streams. The capacity is kept.
+         */
+        void clear() {
+            Arrays.fill(buckets, 0);
+            size = 0;
+        }
+
+        private void rehash() {
+            buckets = new int[buckets.length * 2];
+            int mask = buckets.length - 1;
+            for (int index = 0; index < size; index++) {
+                int bucket = hash(keys[index]) & mask;
+                while (buckets[bucket] != 0) {
+                    bucket = (bucket + 1) & mask;
+                }
+                buckets[bucket] = index + 1;
+            }
+        }
+
+        private static int hash(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+}
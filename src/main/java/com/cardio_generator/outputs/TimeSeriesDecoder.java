@@ -0,0 +1,373 @@
+package com.cardio_generator.outputs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * This class reads a stream of frames written by {@link TimeSeriesEncoder}, from a compressed file of
+ * {@link FileOutputStrategy} or from {@link TcpOutputStrategy} in compressed format.
+ * <p>
+ * {@link #readFrame(RecordBatch)} decodes one frame at a time into a batch. Label names are taken from the keyframes
+ * and mapped to the IDs of the local {@link LabelRegistry}, so the decoded batch can be given to any output strategy.
+ * <p>
+ * Run as a program, it prints the records of a file or of a TCP server in the "patientId,timestamp,label,data"
+ * line format of the text TCP output:
+ * <pre>java -cp ... com.cardio_generator.outputs.TimeSeriesDecoder output/records.cts
+ * java -cp ... com.cardio_generator.outputs.TimeSeriesDecoder localhost:8080 "subscribe patients=1-10"</pre>
+ */
+public class TimeSeriesDecoder implements Closeable {
+
+    private final DataInputStream in;
+
+    private final TimeSeriesCodec.StreamTable streams = new TimeSeriesCodec.StreamTable();
+
+    /** For every label ID of the stream, the ID of the label in the local {@link LabelRegistry}. */
+    private int[] labelIds;
+
+    /** The message of the last frame if it was a text frame, or null. */
+    private String text;
+
+    private byte[] body = new byte[4096];
+    private int position;
+    private int limit;
+
+    /**
+     * Constructs a {@code TimeSeriesDecoder} which reads frames from a stream. The stream must start with
+     * a keyframe or a text frame.
+     *
+     * @param in The stream.
+     */
+    public TimeSeriesDecoder(InputStream in) {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 65536));
+    }
+
+    /**
+     * Constructs a {@code TimeSeriesDecoder} for frames which are given one at a time
+     * with {@link #readFrame(ByteBuffer, RecordBatch)}, e.g. from a memory-mapped file.
+     */
+    public TimeSeriesDecoder() {
+        this.in = null;
+    }
+
+    /**
+     * Opens a compressed file written by {@link FileOutputStrategy}.
+     *
+     * @param file The path of the file.
+     * @return The decoder.
+     * @throws IOException If an I/O error occurs, or the file is not a compressed file.
+     */
+    public static TimeSeriesDecoder open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), 65536);
+        try {
+            byte[] magic = new byte[TimeSeriesCodec.MAGIC.length];
+            if (in.readNBytes(magic, 0, magic.length) != magic.length || !Arrays.equals(magic, TimeSeriesCodec.MAGIC)) {
+                throw new IOException("Not a compressed time series file: " + file);
+            }
+            return new TimeSeriesDecoder(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next frame. The records of a data frame are added to the batch;
+     * the message of a text frame is available from {@link #text()}.
+     *
+     * @param out The batch the records are added to.
+     * @return {@code true} if a frame was read, {@code false} at the end of the stream.
+     * @throws IOException If an I/O error occurs, or the stream is damaged or truncated.
+     */
+    public boolean readFrame(RecordBatch out) throws IOException {
+        int flags = in.read();
+        if (flags < 0) {
+            return false;
+        }
+        long length = readVarLong(in);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Frame too large: " + length);
+        }
+        if (body.length < length) {
+            body = new byte[(int) Math.max(length, body.length * 2L)];
+        }
+        in.readFully(body, 0, (int) length);
+        decode(flags, (int) length, out);
+        return true;
+    }
+
+    /**
+     * Reads the frame at the position of a buffer and moves the position to the end of the frame.
+     * The records of a data frame are added to the batch; the message of a text frame is available from {@link #text()}.
+     *
+     * @param frame The buffer. It should hold the whole frame, see {@link #frameLength(ByteBuffer)}.
+     * @param out The batch the records are added to.
+     * @throws IOException If the frame is damaged or truncated.
+     */
+    public void readFrame(ByteBuffer frame, RecordBatch out) throws IOException {
+        int length = frameLength(frame);
+        if (length < 0 || length > frame.remaining()) {
+            throw new EOFException("Frame runs past the end of the buffer");
+        }
+        int flags = frame.get() & 0xFF;
+        int bodyLength = (int) readVarLong(frame);
+        if (body.length < bodyLength) {
+            body = new byte[Math.max(bodyLength, body.length * 2)];
+        }
+        frame.get(body, 0, bodyLength);
+        decode(flags, bodyLength, out);
+    }
+
+    /**
+     * Tells the length of the frame at the position of a buffer, without moving the position.
+     *
+     * @param frame The buffer.
+     * @return The length of the whole frame in bytes, or -1 if the buffer ends before the length of the body.
+     * @throws IOException If the length is not valid.
+     */
+    public static int frameLength(ByteBuffer frame) throws IOException {
+        ByteBuffer header = frame.duplicate();
+        if (!header.hasRemaining()) {
+            return -1;
+        }
+        header.get();
+        long bodyLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!header.hasRemaining()) {
+                return -1;
+            }
+            if (shift >= 64) {
+                throw new IOException("Varint too long");
+            }
+            int b = header.get() & 0xFF;
+            bodyLength |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        long length = header.position() - frame.position() + bodyLength;
+        if (bodyLength > Integer.MAX_VALUE - 8 || length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Frame too large: " + bodyLength);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Decodes the body of a frame, which has been read into {@link #body}.
+     */
+    private void decode(int flags, int length, RecordBatch out) throws IOException {
+        position = 0;
+        limit = length;
+        text = null;
+        if ((flags & TimeSeriesCodec.TEXT) != 0) {
+            text = new String(body, 0, limit, StandardCharsets.UTF_8);
+            return;
+        }
+        if ((flags & TimeSeriesCodec.KEYFRAME) != 0) {
+            streams.clear();
+            labelIds = new int[(int) readVarLong()];
+            for (int i = 0; i < labelIds.length; i++) {
+                labelIds[i] = LabelRegistry.idOf(readString());
+            }
+        } else if (labelIds == null) {
+            throw new IOException("The stream does not start with a keyframe");
+        }
+        long count = readVarLong();
+        int previousPatientId = 0;
+        long previousTimestamp = 0;
+        for (long i = 0; i < count; i++) {
+            int patientId = previousPatientId + (int) TimeSeriesCodec.unzigzag(readVarLong());
+            int labelId = (int) readVarLong();
+            if (labelId >= labelIds.length) {
+                throw new IOException("Unknown label ID in stream: " + labelId);
+            }
+            long timestampBits = TimeSeriesCodec.unzigzag(readVarLong());
+            int stream = streams.findOrAdd(TimeSeriesCodec.streamKey(patientId, labelId));
+            long timestamp;
+            if (stream < 0) {
+                stream = -stream - 1;
+                timestamp = previousTimestamp + timestampBits;
+            } else {
+                long delta = streams.deltas[stream] + timestampBits;
+                timestamp = streams.timestamps[stream] + delta;
+                streams.deltas[stream] = delta;
+            }
+            streams.timestamps[stream] = timestamp;
+            long bits = streams.bits[stream] ^ readXor();
+            streams.bits[stream] = bits;
+            out.add(patientId, timestamp, labelIds[labelId], Double.longBitsToDouble(bits));
+            previousPatientId = patientId;
+            previousTimestamp = timestamp;
+        }
+        if (position != limit) {
+            throw new IOException("Frame has " + (limit - position) + " unread bytes");
+        }
+    }
+
+    /**
+     * @return The message of the last frame if it was a text frame, or null.
+     */
+    public String text() {
+        return text;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private long readXor() throws IOException {
+        int header = readByte();
+        if (header == 0) {
+            return 0;
+        }
+        int leading = header >>> 4;
+        int meaningful = header & 0x0F;
+        int trailing = 8 - leading - meaningful;
+        if (meaningful == 0 || trailing < 0) {
+            throw new IOException("Invalid value header: " + header);
+        }
+        long xor = 0;
+        for (int i = 0; i < meaningful; i++) {
+            xor = xor << 8 | readByte();
+        }
+        return xor << (trailing * 8);
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarLong();
+        if (length < 0 || length > limit - position) {
+            throw new EOFException("Label name runs past the end of the frame");
+        }
+        String value = new String(body, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (position >= limit) {
+            throw new EOFException("Record runs past the end of the frame");
+        }
+        return body[position++] & 0xFF;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    private static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * Prints the records of a compressed file, or of a TCP server in compressed format, as text lines.
+     *
+     * @param args The path of the file, or "host:port" of the server, optionally followed by commands
+     *             to send to the server, e.g. "subscribe patients=1-10".
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: TimeSeriesDecoder <file> | <host>:<port> [command...]");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0]);
+        int colon = args[0].lastIndexOf(':');
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 65536);
+        try {
+            if (Files.isRegularFile(file) || colon < 0) {
+                try (TimeSeriesDecoder decoder = open(file)) {
+                    print(decoder, out);
+                }
+            } else {
+                try (Socket socket = new Socket(args[0].substring(0, colon),
+                        Integer.parseInt(args[0].substring(colon + 1)))) {
+                    for (int i = 1; i < args.length; i++) {
+                        socket.getOutputStream().write((args[i] + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    socket.getOutputStream().flush();
+                    print(new TimeSeriesDecoder(socket.getInputStream()), out);
+                }
+            }
+            out.flush();
+        } catch (IOException | NumberFormatException e) {
+            try {
+                out.flush();
+            } catch (IOException ignored) {
+                // Standard output is gone as well
+            }
+            System.err.println("Error decoding " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints every frame of a decoder until the end of its stream.
+     */
+    private static void print(TimeSeriesDecoder decoder, Writer out) throws IOException {
+        RecordBatch batch = new RecordBatch(4096);
+        while (decoder.readFrame(batch)) {
+            if (decoder.text() != null) {
+                out.write(decoder.text());
+                out.write('\n');
+                out.flush();
+                continue;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                int labelId = batch.labelId(i);
+                out.write(Integer.toString(batch.patientId(i)));
+                out.write(',');
+                out.write(Long.toString(batch.timestamp(i)));
+                out.write(',');
+                out.write(LabelRegistry.nameOf(labelId));
+                out.write(',');
+                out.write(LabelRegistry.formatValue(labelId, batch.value(i)));
+                out.write('\n');
+            }
+            batch.clear();
+            out.flush();
+        }
+    }
+}
@@ -4,22 +4,112 @@ import org.java_websocket.WebSocket;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class implements the {@link OutputStrategy} interface
  * and broadcasts patient's data to every connected WebSocket client.
+ * <p>
+ * In {@link Format#TEXT} format every record is sent as one text message "patientId,timestamp,label,data".
+ * In {@link Format#BINARY} format records are packed into binary messages of up to a configurable number of records
+ * in the {@link BinaryRecords} layout, little-endian. Each message is encoded once and the same frame is shared by all
+ * connections. Single records are collected and sent at least every {@value #FLUSH_INTERVAL_MILLIS} ms.
+ * In binary format every new connection first receives a text message
+ * "#labels,0=ECG,1=Saturation,..." which maps label IDs to names.
+ * <p>
+ * A client may send a text message "subscribe patients=1-20,42 labels=ECG,Alert" to receive only matching records,
+ * or "unsubscribe" to receive everything again (see {@link Subscription}). The server answers each command
+ * with a text message starting with '#'. Messages for clients without a subscription are still encoded once.
+ * <p>
+ * {@link #close()} stops taking records and gives the connections up to the close timeout to send what is queued
+ * and complete the closing handshake.
  */
 public class WebSocketOutputStrategy implements OutputStrategy {
 
-    private WebSocketServer server;
+    /** Default maximum number of records in one binary message. */
+    public static final int DEFAULT_RECORDS_PER_FRAME = 256;
+
+    /** Time after which collected single records are sent in binary format, in milliseconds. */
+    private static final long FLUSH_INTERVAL_MILLIS = 50;
+
+    /** Default longest time {@link #close()} waits for the connections to send their queued messages and close. */
+    public static final int DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
 
     /**
-     * Constructs a {@code WebSocketOutputStrategy} and starts the WebSocket server on the specified port.
+     * The format of the messages sent to the clients.
+     */
+    public enum Format {
+        /** One text message per record. */
+        TEXT,
+        /** Binary messages of several records each. */
+        BINARY
+    }
+
+    private final SimpleWebSocketServer server;
+
+    /** The subscriptions of the connected clients. */
+    private final SubscriptionIndex<WebSocket> subscriptions = new SubscriptionIndex<>();
+
+    /** The format of the messages. */
+    private final Format format;
+
+    /** Maximum number of records in one binary message. */
+    private final int recordsPerFrame;
+
+    /** Single records collected for the next binary message. Guarded by {@code this}. */
+    private RecordBatch pending;
+
+    /** Sends the collected single records periodically in binary format. */
+    private ScheduledExecutorService flusher;
+
+    /** Whether records are taken; false once {@link #close()} is called. */
+    private volatile boolean accepting = true;
+
+    /** Longest time {@link #close()} waits for the connections, in milliseconds. */
+    private volatile int closeTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
+
+    /**
+     * Constructs a {@code WebSocketOutputStrategy} which sends text messages
+     * and starts the WebSocket server on the specified port.
      *
      * @param port The port where the server listens for incoming WebSocket connections.
      */
     public WebSocketOutputStrategy(int port) {
-        server = new SimpleWebSocketServer(new InetSocketAddress(port));
+        this(port, Format.TEXT, DEFAULT_RECORDS_PER_FRAME);
+    }
+
+    /**
+     * Constructs a {@code WebSocketOutputStrategy} and starts the WebSocket server on the specified port.
+     *
+     * @param port The port where the server listens for incoming WebSocket connections.
+     * @param format The format of the messages. It should not be null.
+     * @param recordsPerFrame Maximum number of records in one binary message. It should be a positive integer.
+     */
+    public WebSocketOutputStrategy(int port, Format format, int recordsPerFrame) {
+        if (recordsPerFrame <= 0) {
+            throw new IllegalArgumentException("Records per frame must be positive: " + recordsPerFrame);
+        }
+        this.format = format;
+        this.recordsPerFrame = recordsPerFrame;
+        if (format == Format.BINARY) {
+            pending = new RecordBatch(recordsPerFrame);
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "websocket-output-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleAtFixedRate(this::flushPending,
+                    FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        server = new SimpleWebSocketServer(new InetSocketAddress(port), format, subscriptions);
         System.out.println("WebSocket server created on port: " + port + ", listening for connections...");
         server.start();
     }
@@ -36,32 +126,261 @@ public class WebSocketOutputStrategy implements OutputStrategy {
      */
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
-        // Broadcast the message to all connected clients
-        for (WebSocket conn : server.getConnections()) {
-            conn.send(message);
+        if (!accepting) {
+            return;
+        }
+        if (format == Format.BINARY) {
+            int labelId = LabelRegistry.idOf(label);
+            try {
+                output(patientId, timestamp, labelId, LabelRegistry.parseValue(labelId, data));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid " + label + " value for binary WebSocket output: " + data);
+            }
+            return;
+        }
+        if (server.getConnections().isEmpty()) {
+            return;
+        }
+        String message = patientId + "," + timestamp + "," + label + "," + data;
+        // Broadcast the message to all clients without a subscription, framing it only once
+        List<WebSocket> unfiltered = subscriptions.unfilteredClients();
+        if (!unfiltered.isEmpty()) {
+            server.broadcast(message, unfiltered);
+        }
+        if (subscriptions.hasSubscriptions()) {
+            List<WebSocket> targets = new ArrayList<>();
+            subscriptions.subscribedTargets(patientId, LabelRegistry.idOf(label), targets);
+            if (!targets.isEmpty()) {
+                server.broadcast(message, targets);
+            }
+        }
+    }
+
+    /**
+     * Outputs the specified numeric data for a patient. In binary format the record is added to the next message.
+     *
+     * @param patientId The ID of the patient. It should be a positive integer.
+     * @param timestamp The time of the recording in milliseconds.
+     * @param labelId The ID of the label in {@link LabelRegistry}.
+     * @param value The value of the reading.
+     */
+    @Override
+    public void output(int patientId, long timestamp, int labelId, double value) {
+        if (!accepting) {
+            return;
+        }
+        if (format == Format.TEXT) {
+            output(patientId, timestamp, LabelRegistry.nameOf(labelId), LabelRegistry.formatValue(labelId, value));
+            return;
+        }
+        RecordBatch full = null;
+        synchronized (this) {
+            pending.add(patientId, timestamp, labelId, value);
+            if (pending.size() >= recordsPerFrame) {
+                full = pending;
+                pending = new RecordBatch(recordsPerFrame);
+            }
+        }
+        if (full != null) {
+            sendBinary(full);
+        }
+    }
+
+    /**
+     * Outputs all records of a batch. In binary format the batch is sent in messages of up to the configured
+     * number of records each, independently of the collected single records.
+     *
+     * @param batch The records to output.
+     */
+    @Override
+    public void outputBatch(RecordBatch batch) {
+        if (!accepting) {
+            return;
+        }
+        if (format == Format.TEXT) {
+            OutputStrategy.super.outputBatch(batch);
+            return;
+        }
+        sendBinary(batch);
+    }
+
+    /**
+     * Sets the handler of commands which clients send and which are not subscriptions.
+     *
+     * @param commandHandler The handler, or null to reject such commands.
+     */
+    public void setCommandHandler(CommandHandler commandHandler) {
+        server.commandHandler = commandHandler;
+    }
+
+    /**
+     * Sets the longest time {@link #close()} waits for the connections to send their queued messages and close.
+     *
+     * @param closeTimeoutMillis The time in milliseconds. It should be positive.
+     */
+    public void setCloseTimeout(int closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * Stops taking records, sends the collected single records and stops the WebSocket server, waiting up to
+     * the close timeout for the connections to send their queued messages and complete the closing handshake.
+     */
+    @Override
+    public void close() {
+        accepting = false;
+        if (flusher != null) {
+            flusher.shutdown();
+            flushPending();
+        }
+        try {
+            server.stop(closeTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Sends the single records collected so far, if any.
+     */
+    private void flushPending() {
+        RecordBatch batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new RecordBatch(recordsPerFrame);
+        }
+        sendBinary(batch);
+    }
+
+    /**
+     * Sends a batch as binary messages of up to {@link #recordsPerFrame} records.
+     * The messages for the clients without a subscription are framed once and shared by their connections;
+     * every subscribed client gets its own messages with only the matching records.
+     */
+    private void sendBinary(RecordBatch batch) {
+        if (server.getConnections().isEmpty() || batch.isEmpty()) {
+            return;
+        }
+        List<WebSocket> unfiltered = subscriptions.unfilteredClients();
+        if (!unfiltered.isEmpty()) {
+            ByteBuffer frame = null;
+            for (int i = 0; i < batch.size(); i++) {
+                if (frame == null) {
+                    frame = newFrame();
+                }
+                BinaryRecords.put(frame, batch.patientId(i), batch.timestamp(i), batch.labelId(i), batch.value(i));
+                if (!frame.hasRemaining()) {
+                    server.broadcast(frame.flip(), unfiltered);
+                    frame = null;
+                }
+            }
+            if (frame != null) {
+                server.broadcast(frame.flip(), unfiltered);
+            }
+        }
+        if (!subscriptions.hasSubscriptions()) {
+            return;
+        }
+        Map<WebSocket, ByteBuffer> frames = new IdentityHashMap<>();
+        List<WebSocket> targets = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            targets.clear();
+            subscriptions.subscribedTargets(batch.patientId(i), batch.labelId(i), targets);
+            for (WebSocket conn : targets) {
+                ByteBuffer frame = frames.computeIfAbsent(conn, c -> newFrame());
+                BinaryRecords.put(frame, batch.patientId(i), batch.timestamp(i), batch.labelId(i), batch.value(i));
+                if (!frame.hasRemaining()) {
+                    sendTo(conn, frame);
+                    frames.remove(conn);
+                }
+            }
+        }
+        for (Map.Entry<WebSocket, ByteBuffer> entry : frames.entrySet()) {
+            sendTo(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sends the written part of a binary message to one client, unless it has disconnected in the meantime.
+     */
+    private static void sendTo(WebSocket conn, ByteBuffer frame) {
+        if (conn.isOpen()) {
+            conn.send(frame.flip());
+        }
+    }
+
+    /**
+     * Allocates an empty binary message.
+     */
+    private ByteBuffer newFrame() {
+        return ByteBuffer.allocate(recordsPerFrame * BinaryRecords.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Builds the text message which maps label IDs to names.
+     */
+    private static String labelsMessage() {
+        StringBuilder message = new StringBuilder("#labels");
+        for (int id = 0; id < LabelRegistry.size(); id++) {
+            message.append(',').append(id).append('=').append(LabelRegistry.nameOf(id));
+        }
+        return message.toString();
+    }
+
     private static class SimpleWebSocketServer extends WebSocketServer {
 
-        public SimpleWebSocketServer(InetSocketAddress address) {
+        private final Format format;
+        private final SubscriptionIndex<WebSocket> subscriptions;
+        private volatile CommandHandler commandHandler;
+
+        public SimpleWebSocketServer(InetSocketAddress address, Format format,
+                SubscriptionIndex<WebSocket> subscriptions) {
             super(address);
+            this.format = format;
+            this.subscriptions = subscriptions;
         }
 
         @Override
         public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
             System.out.println("New connection: " + conn.getRemoteSocketAddress());
+            if (format == Format.BINARY) {
+                conn.send(labelsMessage());
+            }
+            subscriptions.add(conn);
         }
 
         @Override
         public void onClose(WebSocket conn, int code, String reason, boolean remote) {
             System.out.println("Closed connection: " + conn.getRemoteSocketAddress());
+            subscriptions.remove(conn);
         }
 
         @Override
         public void onMessage(WebSocket conn, String message) {
-            // Not used in this context
+            String command = message.trim();
+            if (command.equals(Subscription.UNSUBSCRIBE)) {
+                subscriptions.subscribe(conn, null);
+                conn.send("#unsubscribed");
+                return;
+            }
+            CommandHandler handler = commandHandler;
+            if (handler != null && !command.startsWith(Subscription.SUBSCRIBE)) {
+                String handled = handler.handle(command);
+                if (handled != null) {
+                    conn.send("#" + handled);
+                    return;
+                }
+            }
+            try {
+                Subscription subscription = Subscription.parse(command);
+                subscriptions.subscribe(conn, subscription);
+                conn.send("#" + subscription);
+            } catch (IllegalArgumentException e) {
+                conn.send("#error " + e.getMessage());
+            }
         }
 
         @Override
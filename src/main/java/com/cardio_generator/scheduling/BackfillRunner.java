@@ -0,0 +1,137 @@
+package com.cardio_generator.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.outputs.OutputStrategy;
+
+/**
+ * This class generates the data of a past (or future) time span as fast as possible, instead of in real time.
+ * <p>
+ * It uses the same phase slots as {@link TickScheduler}, but every slot runs at its planned times on a simulated
+ * timeline from {@code from} to {@code to}, and the records are stamped with those times, so the samples are spaced
+ * exactly as in a real-time run. The planned times are counted from the epoch, so a slot runs at the same times
+ * whichever {@code from} the time span starts at. The timeline advances in steps of the shortest generator period; all slot runs
+ * which fall into one step are executed in parallel on a fixed pool of worker threads before the next step starts.
+ */
+public class BackfillRunner implements GeneratorScheduler {
+
+    /** The IDs of the patients, in the order they are assigned to slots. */
+    private final int[] patientIds;
+
+    /** The output strategy that receives the generated data. */
+    private final OutputStrategy outputStrategy;
+
+    /** The number of worker threads. */
+    private final int workerCount;
+
+    /** The start of the time span in milliseconds since the epoch (inclusive). */
+    private final long from;
+
+    /** The end of the time span in milliseconds since the epoch (exclusive). */
+    private final long to;
+
+    /** The slots of all scheduled generators. */
+    private final List<Slot> slots = new ArrayList<>();
+
+    /**
+     * Constructs a {@code BackfillRunner} for the given patients and time span.
+     *
+     * @param patientIds The IDs of the patients to generate data for. The order decides the slot of each patient.
+     * @param outputStrategy The specified way to output the generated data.
+     * @param workerCount The number of worker threads. It should be a positive integer.
+     * @param from The start of the time span in milliseconds since the epoch (inclusive).
+     * @param to The end of the time span in milliseconds since the epoch (exclusive). It should be after {@code from}.
+     */
+    public BackfillRunner(int[] patientIds, OutputStrategy outputStrategy, int workerCount, long from, long to) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        }
+        if (to <= from) {
+            throw new IllegalArgumentException("The end of the time span must be after its start");
+        }
+        this.patientIds = patientIds.clone();
+        this.outputStrategy = outputStrategy;
+        this.workerCount = workerCount;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Adds a generator to the backfill. The generator runs when {@link #run()} is called.
+     *
+     * @param generator The generator to drive.
+     * @param period The period between two readings of the same patient.
+     * @param timeUnit Time unit of the period parameter (e.g. MINUTES, SECONDS).
+     */
+    @Override
+    public void schedule(PatientDataGenerator generator, long period, TimeUnit timeUnit) {
+        long periodMillis = Math.max(1, timeUnit.toMillis(period));
+        for (Slot slot : Slot.plan(generator, patientIds, periodMillis)) {
+            slots.add(slot);
+        }
+    }
+
+    /**
+     * Generates all data of the time span and reports the achieved rate on the console.
+     *
+     * @return The number of records generated.
+     * @throws InterruptedException If the thread is interrupted while waiting for the workers.
+     */
+    public long run() throws InterruptedException {
+        if (slots.isEmpty()) {
+            return 0;
+        }
+        // A step is at most one period long, so a slot runs at most once per step and never concurrently with itself.
+        long step = Long.MAX_VALUE;
+        for (Slot slot : slots) {
+            step = Math.min(step, slot.periodMillis);
+        }
+        // The planned times are aligned to the epoch rather than to the start, so a backfill which resumes
+        // from a checkpoint where the previous one ended continues the same schedule.
+        long[] nextRun = new long[slots.size()];
+        for (int i = 0; i < nextRun.length; i++) {
+            Slot slot = slots.get(i);
+            nextRun[i] = from + Math.floorMod(slot.offsetMillis - from, slot.periodMillis);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+        long records = 0;
+        long started = System.nanoTime();
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (long stepStart = from; stepStart < to; stepStart += step) {
+                long stepEnd = Math.min(stepStart + step, to);
+                tasks.clear();
+                for (int i = 0; i < nextRun.length; i++) {
+                    if (nextRun[i] < stepEnd) {
+                        Slot slot = slots.get(i);
+                        long timestamp = nextRun[i];
+                        tasks.add(() -> slot.run(timestamp, outputStrategy));
+                        nextRun[i] += slot.periodMillis;
+                    }
+                }
+                for (Future<Integer> result : workers.invokeAll(tasks)) {
+                    records += result.get();
+                }
+            }
+        } catch (ExecutionException e) {
+            // Slot.run catches the errors of the generators and the output strategy
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            workers.shutdown();
+        }
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+        System.err.printf("Backfilled %d records of %.1f hours in %.1f s (%.0f records/s)%n",
+                records, (to - from) / 3_600_000.0, seconds, records / seconds);
+        return records;
+    }
+}
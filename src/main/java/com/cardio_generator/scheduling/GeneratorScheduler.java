@@ -0,0 +1,21 @@
+package com.cardio_generator.scheduling;
+
+import java.util.concurrent.TimeUnit;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+
+/**
+ * This interface gives an outline for running {@link PatientDataGenerator}s periodically for a population of patients.
+ * Different implementations decide on which timeline the periods elapse (e.g. real time or simulated time).
+ */
+public interface GeneratorScheduler {
+
+    /**
+     * Schedules a generator to run once per period for every patient.
+     *
+     * @param generator The generator to drive.
+     * @param period The period between two readings of the same patient.
+     * @param timeUnit Time unit of the period parameter (e.g. MINUTES, SECONDS).
+     */
+    void schedule(PatientDataGenerator generator, long period, TimeUnit timeUnit);
+}
@@ -0,0 +1,190 @@
+package com.cardio_generator.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cardio_generator.util.Durations;
+
+/**
+ * This class describes the target record rate of a load test over time, as a sequence of phases.
+ * A phase holds a constant rate or ramps linearly from one rate to another. It is parsed from text such as
+ * <pre>10000/30s,10000-100000/60s,100000</pre>
+ * which means 10,000 records/s for 30 seconds, then a ramp to 100,000 records/s over 60 seconds, then 100,000
+ * records/s until the simulator is stopped. Durations are given in seconds, or with a unit of ms, s, m or h;
+ * only the last phase may omit its duration.
+ * <p>
+ * The profile tells how many records are due at a point in time and, the other way round,
+ * when a given record is due, which is the intended send time of that record.
+ */
+public final class LoadProfile {
+
+    private final double[] startRates;
+    private final double[] endRates;
+    /** The durations of the phases in seconds. The last one may be infinite. */
+    private final double[] durations;
+    /** The time each phase starts, in seconds from the start of the test. */
+    private final double[] startTimes;
+    /** The number of records due before each phase starts. */
+    private final double[] startRecords;
+
+    private LoadProfile(List<double[]> phases) {
+        int count = phases.size();
+        startRates = new double[count];
+        endRates = new double[count];
+        durations = new double[count];
+        startTimes = new double[count];
+        startRecords = new double[count];
+        double time = 0;
+        double records = 0;
+        for (int i = 0; i < count; i++) {
+            double[] phase = phases.get(i);
+            startRates[i] = phase[0];
+            endRates[i] = phase[1];
+            durations[i] = phase[2];
+            startTimes[i] = time;
+            startRecords[i] = records;
+            time += durations[i];
+            records += (startRates[i] + endRates[i]) / 2 * durations[i];
+        }
+    }
+
+    /**
+     * Parses a profile.
+     *
+     * @param text The profile, e.g. "10000/30s,10000-100000/60s,100000".
+     * @return The profile.
+     * @throws IllegalArgumentException if the text is not a valid profile.
+     */
+    public static LoadProfile parse(String text) {
+        List<double[]> phases = new ArrayList<>();
+        String[] parts = text.split(",");
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int slash = part.indexOf('/');
+            String rates = slash < 0 ? part : part.substring(0, slash);
+            double duration;
+            if (slash >= 0) {
+                duration = parseDuration(part.substring(slash + 1));
+            } else if (i == parts.length - 1) {
+                duration = Double.POSITIVE_INFINITY;
+            } else {
+                throw new IllegalArgumentException("Only the last phase may omit its duration: " + part);
+            }
+            int dash = rates.indexOf('-');
+            double startRate = parseRate(dash < 0 ? rates : rates.substring(0, dash));
+            double endRate = dash < 0 ? startRate : parseRate(rates.substring(dash + 1));
+            if (Double.isInfinite(duration) && endRate != startRate) {
+                throw new IllegalArgumentException("A ramp needs a duration: " + part);
+            }
+            phases.add(new double[] {startRate, endRate, duration});
+        }
+        return new LoadProfile(phases);
+    }
+
+    /**
+     * @return The length of the test in seconds, or infinity if the last phase has no end.
+     */
+    public double durationSeconds() {
+        int last = durations.length - 1;
+        return startTimes[last] + durations[last];
+    }
+
+    /**
+     * @param seconds The time since the start of the test.
+     * @return The target rate at that time, in records per second.
+     */
+    public double rateAt(double seconds) {
+        int phase = phaseAt(seconds);
+        if (Double.isInfinite(durations[phase])) {
+            return startRates[phase];
+        }
+        double t = Math.min(seconds - startTimes[phase], durations[phase]);
+        return startRates[phase] + (endRates[phase] - startRates[phase]) * t / durations[phase];
+    }
+
+    /**
+     * @param seconds The time since the start of the test.
+     * @return The number of records due by that time.
+     */
+    public double recordsBy(double seconds) {
+        int phase = phaseAt(seconds);
+        double t = Math.min(seconds - startTimes[phase], durations[phase]);
+        return startRecords[phase] + startRates[phase] * t + slope(phase) * t * t / 2;
+    }
+
+    /**
+     * Tells when a record is due, which is the inverse of {@link #recordsBy(double)}.
+     *
+     * @param records The number of records, e.g. 1 for the first record.
+     * @return The time in seconds since the start of the test at which that many records are due,
+     *         or infinity if the profile never reaches it.
+     */
+    public double timeOf(double records) {
+        for (int phase = 0; phase < durations.length; phase++) {
+            double inPhase = records - startRecords[phase];
+            double phaseRecords = (startRates[phase] + endRates[phase]) / 2 * durations[phase];
+            if (inPhase > phaseRecords && phase < durations.length - 1) {
+                continue;
+            }
+            // Solve startRate * t + slope * t^2 / 2 = inPhase in a form which is stable for a zero slope
+            double a = startRates[phase];
+            double root = a * a + 2 * slope(phase) * inPhase;
+            double denominator = a + Math.sqrt(Math.max(0, root));
+            if (denominator <= 0 || root < 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double t = 2 * inPhase / denominator;
+            return t > durations[phase] ? Double.POSITIVE_INFINITY : startTimes[phase] + t;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < durations.length; i++) {
+            text.append(i == 0 ? "" : ",").append(Math.round(startRates[i]));
+            if (endRates[i] != startRates[i]) {
+                text.append('-').append(Math.round(endRates[i]));
+            }
+            if (!Double.isInfinite(durations[i])) {
+                text.append('/').append(durations[i]).append('s');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The change of the rate per second within a phase.
+     */
+    private double slope(int phase) {
+        return Double.isInfinite(durations[phase]) ? 0 : (endRates[phase] - startRates[phase]) / durations[phase];
+    }
+
+    private int phaseAt(double seconds) {
+        int phase = 0;
+        while (phase < durations.length - 1 && seconds >= startTimes[phase + 1]) {
+            phase++;
+        }
+        return phase;
+    }
+
+    private static double parseRate(String text) {
+        try {
+            double rate = Double.parseDouble(text.trim());
+            if (!(rate >= 0) || Double.isInfinite(rate)) {
+                throw new NumberFormatException();
+            }
+            return rate;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate: " + text);
+        }
+    }
+
+    /**
+     * @return The duration in seconds.
+     */
+    private static double parseDuration(String text) {
+        return Durations.parseMillis(text) / 1000.0;
+    }
+}
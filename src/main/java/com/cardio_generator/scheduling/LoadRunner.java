@@ -0,0 +1,311 @@
+package com.cardio_generator.scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.metrics.LatencyHistogram;
+import com.cardio_generator.metrics.Metrics;
+import com.cardio_generator.metrics.MetricsReporter;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class turns the simulator into an open-loop load generator: it sends records to the output at the rate of
+ * a {@link LoadProfile}, regardless of the number of patients and the periods of the generators.
+ * <p>
+ * Generation and sending are separate. A generator thread walks the simulated timeline of the patients step by step,
+ * like {@link BackfillRunner}, and keeps about {@value #PREFETCH_RECORDS} records ready. The sending thread
+ * gives every record an intended send time from the profile and passes the records which are due to the output,
+ * up to {@value #MAX_SEND} at a time. The schedule never waits for the output: when the output is slow, the records
+ * which became due in the meantime are sent right after, and their latency is measured from their intended send time,
+ * not from when they could finally be sent. So backpressure from the output shows up as latency and as records behind
+ * schedule instead of a silently lower rate (this avoids coordinated omission).
+ * <p>
+ * The records are stamped with their time on the simulated timeline, which starts now and runs faster or slower
+ * than the clock depending on the target rate and the number of patients.
+ */
+public class LoadRunner implements GeneratorScheduler {
+
+    /** Maximum number of records passed to the output in one call. */
+    static final int MAX_SEND = 4096;
+
+    /** Number of records generated ahead of sending. At least one step of the timeline is generated ahead. */
+    static final int PREFETCH_RECORDS = 1 << 20;
+
+    /** Queued by the generator thread when it stops, so the sender does not wait for records forever. */
+    private static final RecordBatch END = new RecordBatch(1);
+
+    /** The IDs of the patients, in the order they are assigned to slots. */
+    private final int[] patientIds;
+
+    /** The output strategy that receives the generated data. */
+    private final OutputStrategy outputStrategy;
+
+    /** The number of worker threads generating the data. */
+    private final int workerCount;
+
+    /** The target rate over time. */
+    private final LoadProfile profile;
+
+    /** Time between two progress reports, in milliseconds. */
+    private final long reportIntervalMillis;
+
+    /** The slots of all scheduled generators. */
+    private final List<Slot> slots = new ArrayList<>();
+
+    /** Time from the intended send time of a record until the output has taken it, in nanoseconds. */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /** The error which stopped the generator thread, or null. */
+    private volatile Throwable generatorFailure;
+
+    /**
+     * Constructs a {@code LoadRunner} for the given patients and profile.
+     *
+     * @param patientIds The IDs of the patients to generate data for. The order decides the slot of each patient.
+     * @param outputStrategy The specified way to output the generated data.
+     * @param workerCount The number of worker threads generating the data. It should be a positive integer.
+     * @param profile The target rate over time.
+     * @param reportIntervalMillis Time between two progress reports on standard error, in milliseconds.
+     *                             It should be positive.
+     */
+    public LoadRunner(int[] patientIds, OutputStrategy outputStrategy, int workerCount, LoadProfile profile,
+                      long reportIntervalMillis) {
+        if (workerCount <= 0 || reportIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Worker count and report interval must be positive");
+        }
+        this.patientIds = patientIds.clone();
+        this.outputStrategy = outputStrategy;
+        this.workerCount = workerCount;
+        this.profile = profile;
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    /**
+     * Adds a generator to the load test. The generator runs when {@link #run()} is called.
+     *
+     * @param generator The generator to drive.
+     * @param period The period between two readings of the same patient on the simulated timeline.
+     * @param timeUnit Time unit of the period parameter (e.g. MINUTES, SECONDS).
+     */
+    @Override
+    public void schedule(PatientDataGenerator generator, long period, TimeUnit timeUnit) {
+        long periodMillis = Math.max(1, timeUnit.toMillis(period));
+        for (Slot slot : Slot.plan(generator, patientIds, periodMillis)) {
+            slots.add(slot);
+        }
+    }
+
+    /**
+     * Sends records at the rate of the profile until the profile ends, or forever if its last phase has no end.
+     * Reports the achieved rate and the latency at every report interval and at the end.
+     *
+     * @return The number of records sent.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws IllegalStateException If the generation of the records fails. The total is reported before.
+     */
+    public long run() throws InterruptedException {
+        if (slots.isEmpty()) {
+            return 0;
+        }
+        BlockingQueue<RecordBatch> ready = new LinkedBlockingQueue<>();
+        Semaphore room = new Semaphore(PREFETCH_RECORDS);
+        Thread generatorThread = new Thread(() -> generate(ready, room), "load-generator");
+        generatorThread.setDaemon(true);
+        generatorThread.start();
+
+        RecordBatch step = null;
+        int stepIndex = 0;
+        RecordBatch send = new RecordBatch(MAX_SEND);
+        long sent = 0;
+        long starvedNanos = 0;
+        double duration = profile.durationSeconds();
+        long start = System.nanoTime();
+        long reportNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMillis);
+        long nextReport = start + reportNanos;
+        Report report = new Report(start);
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (now - nextReport >= 0) {
+                    report.print(now, sent, starvedNanos);
+                    nextReport += reportNanos;
+                }
+                double elapsed = (now - start) / 1e9;
+                if (elapsed >= duration) {
+                    break;
+                }
+                long due = (long) profile.recordsBy(elapsed);
+                if (due <= sent) {
+                    double nextDue = Math.min(profile.timeOf(sent + 1), duration);
+                    long wakeUp = Double.isInfinite(nextDue) ? nextReport : start + (long) (nextDue * 1e9);
+                    if (wakeUp - nextReport > 0) {
+                        wakeUp = nextReport;
+                    }
+                    LockSupport.parkNanos(wakeUp - now);
+                    continue;
+                }
+                if (step == null || stepIndex == step.size()) {
+                    step = ready.poll();
+                    if (step == null) {
+                        long waitStart = System.nanoTime();
+                        step = ready.take();
+                        starvedNanos += System.nanoTime() - waitStart;
+                    }
+                    if (step == END) {
+                        break;
+                    }
+                    room.release(Math.min(step.size(), PREFETCH_RECORDS));
+                    stepIndex = 0;
+                    continue;
+                }
+                int count = (int) Math.min(Math.min(due - sent, MAX_SEND), step.size() - stepIndex);
+                for (int i = stepIndex; i < stepIndex + count; i++) {
+                    send.add(step.patientId(i), step.timestamp(i), step.labelId(i), step.value(i));
+                }
+                // All records of a send share the intended time of the middle one, which is off by at most half a send
+                long intended = start + (long) (profile.timeOf(sent + (count + 1) / 2) * 1e9);
+                try {
+                    outputStrategy.outputBatch(send);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    Metrics.failed("load");
+                }
+                latency.record(System.nanoTime() - intended, count);
+                send.clear();
+                sent += count;
+                stepIndex += count;
+            }
+        } finally {
+            generatorThread.interrupt();
+        }
+        report.printTotal(System.nanoTime(), sent);
+        Throwable failure = generatorFailure;
+        if (failure != null) {
+            throw new IllegalStateException("The generation of the records failed: " + failure, failure);
+        }
+        return sent;
+    }
+
+    /**
+     * The loop of the generator thread. Generates the simulated timeline step by step in parallel,
+     * and queues the records of each step while fewer than {@value #PREFETCH_RECORDS} records are queued.
+     * Queues {@link #END} when it stops, after setting {@link #generatorFailure} if it stops because of an error.
+     */
+    private void generate(BlockingQueue<RecordBatch> ready, Semaphore room) {
+        // A step is at most one period long, so a slot runs at most once per step and never concurrently with itself.
+        long step = Long.MAX_VALUE;
+        for (Slot slot : slots) {
+            step = Math.min(step, slot.periodMillis);
+        }
+        long from = System.currentTimeMillis();
+        long[] nextRun = new long[slots.size()];
+        for (int i = 0; i < nextRun.length; i++) {
+            nextRun[i] = from + slots.get(i).offsetMillis;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+        try {
+            List<Callable<RecordBatch>> tasks = new ArrayList<>();
+            for (long stepStart = from; !Thread.currentThread().isInterrupted(); stepStart += step) {
+                long stepEnd = stepStart + step;
+                tasks.clear();
+                for (int i = 0; i < nextRun.length; i++) {
+                    if (nextRun[i] < stepEnd) {
+                        Slot slot = slots.get(i);
+                        long timestamp = nextRun[i];
+                        tasks.add(() -> {
+                            RecordBatch records = new RecordBatch(256);
+                            slot.run(timestamp, records);
+                            return records;
+                        });
+                        nextRun[i] += slot.periodMillis;
+                    }
+                }
+                RecordBatch records = new RecordBatch(4096);
+                for (Future<RecordBatch> result : workers.invokeAll(tasks)) {
+                    records.outputBatch(result.get());
+                }
+                if (!records.isEmpty()) {
+                    room.acquire(Math.min(records.size(), PREFETCH_RECORDS));
+                    ready.put(records);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The load test is over
+        } catch (ExecutionException e) {
+            // Slot.run catches the errors of the generators
+            generatorFailure = e.getCause();
+        } catch (RuntimeException | Error e) {
+            generatorFailure = e;
+        } finally {
+            workers.shutdownNow();
+            ready.add(END);
+        }
+    }
+
+    /**
+     * Prints the progress of the load test: the target and achieved rates, the records behind schedule,
+     * and the latency from the intended send time.
+     */
+    private final class Report {
+        private final long start;
+        private long lastTime;
+        private long lastSent;
+        private long lastStarvedNanos;
+        private LatencyHistogram.Snapshot lastLatency;
+
+        private Report(long start) {
+            this.start = start;
+            this.lastTime = start;
+            this.lastLatency = latency.snapshot();
+        }
+
+        private void print(long now, long sent, long starvedNanos) {
+            double seconds = Math.max(1e-9, (now - lastTime) / 1e9);
+            double elapsed = (now - start) / 1e9;
+            double target = (profile.recordsBy(elapsed) - profile.recordsBy((lastTime - start) / 1e9)) / seconds;
+            LatencyHistogram.Snapshot snapshot = latency.snapshot();
+            LatencyHistogram.Snapshot interval = snapshot.minus(lastLatency);
+            StringBuilder line = new StringBuilder("load ")
+                    .append(Math.round(elapsed)).append('s')
+                    .append(" target=").append(Math.round(target)).append("/s")
+                    .append(" sent=").append(Math.round((sent - lastSent) / seconds)).append("/s")
+                    .append(" behind=").append(Math.max(0, (long) profile.recordsBy(elapsed) - sent))
+                    .append(" latency p50=").append(MetricsReporter.formatNanos(interval.percentile(50)))
+                    .append(" p99=").append(MetricsReporter.formatNanos(interval.percentile(99)))
+                    .append(" max=").append(MetricsReporter.formatNanos(interval.max()));
+            if (starvedNanos > lastStarvedNanos) {
+                // The generators, not the output, could not keep up
+                line.append(" generation-wait=").append(MetricsReporter.formatNanos(starvedNanos - lastStarvedNanos));
+            }
+            System.err.println(line);
+            lastTime = now;
+            lastSent = sent;
+            lastStarvedNanos = starvedNanos;
+            lastLatency = snapshot;
+        }
+
+        private void printTotal(long now, long sent) {
+            double seconds = Math.max(1e-9, (now - start) / 1e9);
+            LatencyHistogram.Snapshot total = latency.snapshot();
+            System.err.printf("Load test sent %d records in %.1f s (%.0f records/s, target %.0f records/s),"
+                            + " latency from intended send time p50=%s p99=%s p99.9=%s max=%s%n",
+                    sent, seconds, sent / seconds, profile.recordsBy(seconds) / seconds,
+                    MetricsReporter.formatNanos(total.percentile(50)),
+                    MetricsReporter.formatNanos(total.percentile(99)),
+                    MetricsReporter.formatNanos(total.percentile(99.9)),
+                    MetricsReporter.formatNanos(total.max()));
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.cardio_generator.scheduling;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.generators.PatientStateStore;
+import com.cardio_generator.metrics.GeneratorMetrics;
+import com.cardio_generator.metrics.Metrics;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class drives {@link PatientDataGenerator}s in real time by generating every patient at the start of each
+ * period, with the work of one tick spread over a {@link ForkJoinPool}.
+ * <p>
+ * Unlike {@link TickScheduler}, which spreads the patients over the period, a tick here covers the whole population
+ * at once, so it is the mode to use when a tick of a large population must finish quickly. The patient IDs are sorted
+ * and cut into partitions of consecutive IDs, so each partition walks a contiguous, cache-sized stretch of the
+ * generators' per-patient state arrays. A tick is split recursively down to single partitions, and idle workers
+ * steal the remaining halves. Each partition fills its own {@link RecordBatch}, which is handed to the output
+ * strategy by the worker that filled it.
+ */
+public class ParallelTickScheduler implements GeneratorScheduler {
+
+    /** The default number of patients in a partition. */
+    public static final int DEFAULT_PARTITION_SIZE = 2048;
+
+    /** The timer which starts the ticks. The ticks themselves run on the pool. */
+    private final ScheduledExecutorService timer;
+
+    /** The pool which generates the partitions. */
+    private final ForkJoinPool pool;
+
+    /** The IDs of the patients, in ascending order. */
+    private final int[] patientIds;
+
+    /** The store whose patients are generated, or null to generate the fixed patients. */
+    private volatile PatientStateStore store;
+
+    /** The number of patients in a partition. */
+    private final int partitionSize;
+
+    /** The output strategy that receives the generated data. */
+    private final OutputStrategy outputStrategy;
+
+    /** The clock the records are stamped with. */
+    private final SimulationClock clock;
+
+    /**
+     * Constructs a {@code ParallelTickScheduler} with partitions of {@value #DEFAULT_PARTITION_SIZE} patients,
+     * which stamps records with the system clock.
+     *
+     * @param patientIds The IDs of the patients to generate data for.
+     * @param outputStrategy The specified way to output the generated data.
+     * @param workerCount The number of worker threads. It should be a positive integer.
+     */
+    public ParallelTickScheduler(int[] patientIds, OutputStrategy outputStrategy, int workerCount) {
+        this(patientIds, outputStrategy, workerCount, DEFAULT_PARTITION_SIZE, SimulationClock.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@code ParallelTickScheduler}.
+     *
+     * @param patientIds The IDs of the patients to generate data for.
+     * @param outputStrategy The specified way to output the generated data.
+     * @param workerCount The number of worker threads. It should be a positive integer.
+     * @param partitionSize The number of patients in a partition. It should be a positive integer.
+     * @param clock The clock the records are stamped with.
+     */
+    public ParallelTickScheduler(int[] patientIds, OutputStrategy outputStrategy, int workerCount, int partitionSize,
+            SimulationClock clock) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        }
+        if (partitionSize <= 0) {
+            throw new IllegalArgumentException("Partition size must be positive: " + partitionSize);
+        }
+        this.patientIds = patientIds.clone();
+        Arrays.sort(this.patientIds);
+        this.partitionSize = partitionSize;
+        this.outputStrategy = outputStrategy;
+        this.clock = clock;
+        this.pool = new ForkJoinPool(workerCount);
+        this.timer = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "parallel-tick-timer");
+            thread.setDaemon(false);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules a generator to run for all patients at the start of every period.
+     *
+     * @param generator The generator to drive.
+     * @param period The period between two readings of the same patient.
+     * @param timeUnit Time unit of the period parameter (e.g. MINUTES, SECONDS).
+     */
+    @Override
+    public void schedule(PatientDataGenerator generator, long period, TimeUnit timeUnit) {
+        long periodMillis = Math.max(1, timeUnit.toMillis(period));
+        Runnable tick = new Tick(generator);
+        GeneratorMetrics metrics = Metrics.metricsOf(generator);
+        if (metrics != null) {
+            tick = TickScheduler.measureLag(tick, metrics, System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(periodMillis));
+        }
+        timer.scheduleAtFixedRate(tick, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes every tick generate the patients admitted to a store at the start of the tick, instead of the fixed
+     * patients given to the constructor. The store lists the patients by slot, so the partitions walk
+     * the state columns from front to back.
+     *
+     * @param patientStateStore The store.
+     */
+    public void follow(PatientStateStore patientStateStore) {
+        this.store = patientStateStore;
+    }
+
+    /**
+     * Stops scheduling new ticks. Ticks which are already running are allowed to finish.
+     */
+    public void shutdown() {
+        timer.shutdown();
+        pool.shutdown();
+    }
+
+    /**
+     * Waits for the ticks which are running after {@link #shutdown()} to finish.
+     *
+     * @param timeout The longest time to wait.
+     * @param unit Time unit of the timeout.
+     * @return {@code true} if all ticks finished, {@code false} if the timeout elapsed first.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return timer.awaitTermination(timeout, unit)
+                && pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The periodic task of one generator.
+     * Ticks of one generator never overlap, because a periodic task never runs concurrently with itself,
+     * so the batches of the partitions can be reused from tick to tick.
+     */
+    private final class Tick implements Runnable {
+
+        private final PatientDataGenerator generator;
+        private RecordBatch[] batches = new RecordBatch[0];
+
+        Tick(PatientDataGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void run() {
+            PatientStateStore followed = store;
+            int[] ids = followed == null ? patientIds : followed.patientIds();
+            int partitions = (ids.length + partitionSize - 1) / partitionSize;
+            if (partitions > batches.length) {
+                RecordBatch[] grown = Arrays.copyOf(batches, partitions);
+                for (int i = batches.length; i < partitions; i++) {
+                    grown[i] = new RecordBatch(partitionSize);
+                }
+                batches = grown;
+            }
+            pool.invoke(new PartitionTask(generator, ids, batches, clock.currentTimeMillis(), 0, partitions));
+        }
+    }
+
+    /**
+     * A range of partitions of one tick. It splits itself in halves until a single partition is left.
+     */
+    private final class PartitionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final PatientDataGenerator generator;
+        private final int[] ids;
+        private final RecordBatch[] batches;
+        private final long timestamp;
+        private final int fromPartition;
+        private final int toPartition;
+
+        PartitionTask(PatientDataGenerator generator, int[] ids, RecordBatch[] batches, long timestamp,
+                int fromPartition, int toPartition) {
+            this.generator = generator;
+            this.ids = ids;
+            this.batches = batches;
+            this.timestamp = timestamp;
+            this.fromPartition = fromPartition;
+            this.toPartition = toPartition;
+        }
+
+        @Override
+        protected void compute() {
+            if (toPartition - fromPartition > 1) {
+                int middle = (fromPartition + toPartition) >>> 1;
+                invokeAll(new PartitionTask(generator, ids, batches, timestamp, fromPartition, middle),
+                        new PartitionTask(generator, ids, batches, timestamp, middle, toPartition));
+                return;
+            }
+            if (toPartition == fromPartition) {
+                return;
+            }
+            int from = fromPartition * partitionSize;
+            int to = Math.min(from + partitionSize, ids.length);
+            RecordBatch batch = batches[fromPartition];
+            try {
+                generator.generateBatch(ids, from, to, timestamp, batch);
+                outputStrategy.outputBatch(batch);
+            } catch (RuntimeException e) {
+                System.err.println("An error occurred while generating data for " + (to - from) + " patients");
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.cardio_generator.scheduling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cardio_generator.metrics.Metrics;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+import com.cardio_generator.outputs.RecordingReader;
+
+/**
+ * This class replays a recording through an output strategy, with the original timestamps, at the speed the records
+ * were recorded, a multiple of it, or as fast as the output takes them.
+ * <p>
+ * The first record is sent at once, and every later record when as much time has passed, divided by the speed,
+ * as between the first record and it. Records which are due are passed on in batches of up to {@value #MAX_BATCH};
+ * when the output is slower than the recording, the replay falls behind instead of skipping records. Frames of a
+ * compressed recording are passed on whole with {@link OutputStrategy#outputFrame(ByteBuffer, RecordBatch)}.
+ */
+public class ReplayRunner {
+
+    /** Maximum number of records passed to the output in one call. */
+    static final int MAX_BATCH = 4096;
+
+    /** The recording to replay. */
+    private final RecordingReader recording;
+
+    /** The output strategy that receives the records. */
+    private final OutputStrategy outputStrategy;
+
+    /** The replay speed as a multiple of the recorded speed, or 0 for as fast as possible. */
+    private final double speed;
+
+    /** Time between two progress reports, in milliseconds. */
+    private final long reportIntervalMillis;
+
+    /**
+     * Constructs a {@code ReplayRunner}.
+     *
+     * @param recording The recording to replay.
+     * @param outputStrategy The output strategy that receives the records.
+     * @param speed The replay speed as a multiple of the recorded speed (e.g. 1 for the original speed),
+     *              or 0 for as fast as possible. It should not be negative.
+     * @param reportIntervalMillis Time between two progress reports on standard error, in milliseconds.
+     *                             It should be positive.
+     */
+    public ReplayRunner(RecordingReader recording, OutputStrategy outputStrategy, double speed,
+                        long reportIntervalMillis) {
+        if (!(speed >= 0) || Double.isInfinite(speed) || reportIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Speed must not be negative and the report interval must be positive");
+        }
+        this.recording = recording;
+        this.outputStrategy = outputStrategy;
+        this.speed = speed;
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    /**
+     * Replays the recording to its end.
+     *
+     * @return The number of records replayed.
+     * @throws IOException If an I/O error occurs, or the recording is damaged.
+     */
+    public long run() throws IOException {
+        long first = recording.nextTimestamp();
+        if (first == Long.MAX_VALUE) {
+            return 0;
+        }
+        RecordBatch batch = new RecordBatch(MAX_BATCH);
+        long replayed = 0;
+        long lastReplayed = 0;
+        long recordedTime = first;
+        long start = System.nanoTime();
+        long reportNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMillis);
+        long lastReport = start;
+        long nextReport = start + reportNanos;
+        while (true) {
+            long now = System.nanoTime();
+            if (now - nextReport >= 0) {
+                System.err.printf("replay %ds at %s records=%d (%.0f/s)%n", Math.round((now - start) / 1e9),
+                        Instant.ofEpochMilli(recordedTime), replayed,
+                        (replayed - lastReplayed) * 1e9 / (now - lastReport));
+                lastReplayed = replayed;
+                lastReport = now;
+                nextReport = now + reportNanos;
+            }
+            long next = recording.nextTimestamp();
+            if (next == Long.MAX_VALUE) {
+                break;
+            }
+            long until = Long.MAX_VALUE;
+            if (speed > 0) {
+                until = first + (long) ((now - start) / 1e6 * speed);
+                if (next > until) {
+                    long due = start + (long) ((next - first) * 1e6 / speed);
+                    LockSupport.parkNanos(Math.min(due, nextReport) - now);
+                    continue;
+                }
+            }
+            recording.read(batch, until, MAX_BATCH);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            ByteBuffer frame = recording.frame();
+            try {
+                if (frame != null) {
+                    outputStrategy.outputFrame(frame, batch);
+                } else {
+                    outputStrategy.outputBatch(batch);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                Metrics.failed("replay");
+            }
+            replayed += batch.size();
+            recordedTime = batch.timestamp(batch.size() - 1);
+            batch.clear();
+        }
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        double recordedSeconds = (recordedTime - first) / 1000.0;
+        System.err.printf("Replayed %d records of %.1f recorded hours in %.1f s (%.0f records/s, %.0fx)%n",
+                replayed, recordedSeconds / 3600, seconds, replayed / seconds, recordedSeconds / seconds);
+        return replayed;
+    }
+}
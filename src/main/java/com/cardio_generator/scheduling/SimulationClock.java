@@ -0,0 +1,17 @@
+package com.cardio_generator.scheduling;
+
+/**
+ * This interface supplies the time used to stamp generated records, so the simulation can run on a clock
+ * other than the system clock.
+ */
+@FunctionalInterface
+public interface SimulationClock {
+
+    /** The system clock. */
+    SimulationClock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * @return The current simulation time in milliseconds since the epoch.
+     */
+    long currentTimeMillis();
+}
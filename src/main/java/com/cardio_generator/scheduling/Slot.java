@@ -0,0 +1,229 @@
+package com.cardio_generator.scheduling;
+
+import java.util.Arrays;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+import com.cardio_generator.util.LongMap;
+
+/**
+ * This class is one phase slot of a generator: a subset of the patients which is generated together,
+ * at a fixed offset within the generator's period.
+ * A slot must not be run by two threads at the same time, because it reuses its batch.
+ */
+final class Slot {
+
+    /** The shortest distance between two phase slots of the same generator, in milliseconds. */
+    static final long MIN_SLOT_MILLIS = 100;
+
+    /** The generator of the slot. */
+    final PatientDataGenerator generator;
+
+    /** The IDs of the patients in the slot, in the first {@link #size} elements. Guarded by the slot's monitor. */
+    private int[] patientIds;
+
+    /** The number of patients in the slot. */
+    private volatile int size;
+
+    /**
+     * The index of every patient in {@link #patientIds}, or null until a patient is added or removed for the first
+     * time. Guarded by the slot's monitor.
+     */
+    private LongMap<Integer> index;
+
+    /** A copy of the patients for {@link #run}, or null if they changed since it was taken. Guarded by the monitor. */
+    private int[] snapshot;
+
+    /** The offset of the slot within the period, in milliseconds. */
+    final long offsetMillis;
+
+    /** The period of the generator, in milliseconds. */
+    final long periodMillis;
+
+    /** The batch which collects the records of one run. */
+    private final RecordBatch batch;
+
+    private Slot(PatientDataGenerator generator, int[] patientIds, long offsetMillis, long periodMillis) {
+        this.generator = generator;
+        this.patientIds = patientIds;
+        this.size = patientIds.length;
+        this.snapshot = patientIds;
+        this.offsetMillis = offsetMillis;
+        this.periodMillis = periodMillis;
+        this.batch = new RecordBatch(patientIds.length);
+    }
+
+    /**
+     * Divides the period of a generator into slots of at least {@value #MIN_SLOT_MILLIS} ms
+     * and distributes the patients round-robin over them.
+     *
+     * @param generator The generator.
+     * @param patientIds The IDs of the patients. The order decides the slot of each patient.
+     * @param periodMillis The period of the generator, in milliseconds.
+     * @return The slots, ordered by offset.
+     */
+    static Slot[] plan(PatientDataGenerator generator, int[] patientIds, long periodMillis) {
+        return plan(generator, patientIds, periodMillis, slotCount(periodMillis, patientIds.length));
+    }
+
+    /**
+     * Divides the period of a generator into a given number of slots and distributes the patients round-robin over them.
+     *
+     * @param generator The generator.
+     * @param patientIds The IDs of the patients. The order decides the slot of each patient.
+     * @param periodMillis The period of the generator, in milliseconds.
+     * @param slotCount The number of slots. It should be a positive integer.
+     * @return The slots, ordered by offset.
+     */
+    static Slot[] plan(PatientDataGenerator generator, int[] patientIds, long periodMillis, int slotCount) {
+        int[][] slotPatients = assignSlots(patientIds, slotCount);
+        Slot[] slots = new Slot[slotCount];
+        for (int slot = 0; slot < slotCount; slot++) {
+            slots[slot] = new Slot(generator, slotPatients[slot], slot * periodMillis / slotCount, periodMillis);
+        }
+        return slots;
+    }
+
+    /**
+     * Generates the data of all the patients of the slot and outputs it as one batch.
+     * Errors are caught here, so a failing tick does not stop the caller.
+     *
+     * @param timestamp The time the records are stamped with, in milliseconds.
+     * @param outputStrategy The specified way to output the generated data.
+     * @return The number of records generated.
+     */
+    int run(long timestamp, OutputStrategy outputStrategy) {
+        int[] patientIds;
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = Arrays.copyOf(this.patientIds, size);
+            }
+            patientIds = snapshot;
+        }
+        if (patientIds.length == 0) {
+            return 0;
+        }
+        try {
+            generator.generateBatch(patientIds, 0, patientIds.length, timestamp, batch);
+            outputStrategy.outputBatch(batch);
+            return batch.size();
+        } catch (RuntimeException e) {
+            System.err.println("An error occurred while generating data for " + patientIds.length + " patients");
+            e.printStackTrace();
+            return 0;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * @return The number of patients in the slot.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a patient to the slot, unless it is in it already. It is generated from the next run on.
+     * Takes O(1) amortized time.
+     *
+     * @param patientId The patient's ID.
+     */
+    synchronized void add(int patientId) {
+        LongMap<Integer> index = index();
+        if (index.get(patientId) != null) {
+            return;
+        }
+        if (size == patientIds.length) {
+            patientIds = Arrays.copyOf(patientIds, Math.max(4, size * 2));
+        }
+        patientIds[size] = patientId;
+        index.put(patientId, size);
+        size++;
+        snapshot = null;
+    }
+
+    /**
+     * Removes a patient from the slot, if it is in it. The last patient of the slot takes its place.
+     * Takes O(1) amortized time.
+     *
+     * @param patientId The patient's ID.
+     * @return {@code true} if the patient was in the slot.
+     */
+    synchronized boolean remove(int patientId) {
+        LongMap<Integer> index = index();
+        Integer removed = index.remove(patientId);
+        if (removed == null) {
+            return false;
+        }
+        int i = removed;
+        int last = --size;
+        if (i != last) {
+            patientIds[i] = patientIds[last];
+            index.put(patientIds[i], i);
+        }
+        snapshot = null;
+        return true;
+    }
+
+    /**
+     * @return The index of the patients, built on first use. The caller holds the slot's monitor.
+     */
+    private LongMap<Integer> index() {
+        if (index == null) {
+            index = new LongMap<>(size);
+            for (int i = 0; i < size; i++) {
+                index.put(patientIds[i], i);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds a patient to the slot of a generator which has the fewest patients.
+     *
+     * @param slots The slots of a generator.
+     * @param patientId The patient's ID.
+     */
+    static void addToSmallest(Slot[] slots, int patientId) {
+        Slot smallest = slots[0];
+        for (Slot slot : slots) {
+            if (slot.size() < smallest.size()) {
+                smallest = slot;
+            }
+        }
+        smallest.add(patientId);
+    }
+
+    /**
+     * Computes how many phase slots a period is divided into.
+     *
+     * @param periodMillis The period in milliseconds.
+     * @param patientCount The number of patients.
+     * @return The number of slots, between 1 and the number of patients.
+     */
+    static int slotCount(long periodMillis, int patientCount) {
+        long bySpacing = Math.max(1, periodMillis / MIN_SLOT_MILLIS);
+        return (int) Math.max(1, Math.min(bySpacing, patientCount));
+    }
+
+    /**
+     * Distributes the patients round-robin over the slots.
+     *
+     * @param patientIds The IDs of the patients.
+     * @param slotCount The number of slots.
+     * @return For every slot, the IDs of the patients it owns.
+     */
+    static int[][] assignSlots(int[] patientIds, int slotCount) {
+        int[][] slots = new int[slotCount][];
+        for (int slot = 0; slot < slotCount; slot++) {
+            int size = patientIds.length / slotCount + (slot < patientIds.length % slotCount ? 1 : 0);
+            slots[slot] = new int[size];
+        }
+        for (int i = 0; i < patientIds.length; i++) {
+            slots[i % slotCount][i / slotCount] = patientIds[i];
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,182 @@
+package com.cardio_generator.scheduling;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.cardio_generator.generators.PatientDataGenerator;
+import com.cardio_generator.generators.PatientStateStore;
+import com.cardio_generator.metrics.GeneratorMetrics;
+import com.cardio_generator.metrics.Metrics;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class drives {@link PatientDataGenerator}s over a whole population of patients in real time
+ * with a fixed number of worker threads.
+ * Instead of one scheduled task per patient per generator, the period of every generator is divided into
+ * a number of phase slots. Each slot owns a subset of the patients and is scheduled once per period,
+ * so the number of threads and timer entries does not grow with the number of patients,
+ * while the patients' readings are still spread across the period.
+ * <p>
+ * Each slot collects the records of all its patients in one {@link RecordBatch}, stamped with the time of the tick,
+ * and hands it to the output strategy with a single {@link OutputStrategy#outputBatch(RecordBatch)} call.
+ */
+public class TickScheduler implements GeneratorScheduler {
+
+    /** The executor that runs the slot tasks. */
+    private final ScheduledExecutorService executor;
+
+    /** The IDs of the patients driven by this scheduler, in the order they are assigned to slots. */
+    private final int[] patientIds;
+
+    /** The store whose admissions and discharges the scheduler follows, or null. */
+    private volatile PatientStateStore store;
+
+    /** The slots of every scheduled generator. */
+    private final List<Slot[]> plans = new CopyOnWriteArrayList<>();
+
+    /** The output strategy that receives the generated data. */
+    private final OutputStrategy outputStrategy;
+
+    /** The clock the records are stamped with. */
+    private final SimulationClock clock;
+
+    /**
+     * Constructs a {@code TickScheduler} for the given patients, which stamps records with the system clock.
+     *
+     * @param patientIds The IDs of the patients to generate data for. The order decides the slot of each patient.
+     * @param outputStrategy The specified way to output the generated data.
+     * @param workerCount The number of worker threads. It should be a positive integer.
+     */
+    public TickScheduler(int[] patientIds, OutputStrategy outputStrategy, int workerCount) {
+        this(patientIds, outputStrategy, workerCount, SimulationClock.SYSTEM);
+    }
+
+    /**
+     * Constructs a {@code TickScheduler} for the given patients.
+     *
+     * @param patientIds The IDs of the patients to generate data for. The order decides the slot of each patient.
+     * @param outputStrategy The specified way to output the generated data.
+     * @param workerCount The number of worker threads. It should be a positive integer.
+     * @param clock The clock the records are stamped with.
+     */
+    public TickScheduler(int[] patientIds, OutputStrategy outputStrategy, int workerCount, SimulationClock clock) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive: " + workerCount);
+        }
+        this.patientIds = patientIds.clone();
+        this.outputStrategy = outputStrategy;
+        this.clock = clock;
+        this.executor = Executors.newScheduledThreadPool(workerCount);
+    }
+
+    /**
+     * Schedules a generator to run once per period for every patient of this scheduler.
+     * The patients are spread over at most one slot per {@value Slot#MIN_SLOT_MILLIS} ms of the period.
+     *
+     * @param generator The generator to drive.
+     * @param period The period between two readings of the same patient.
+     * @param timeUnit Time unit of the period parameter (e.g. MINUTES, SECONDS).
+     */
+    @Override
+    public void schedule(PatientDataGenerator generator, long period, TimeUnit timeUnit) {
+        long periodMillis = Math.max(1, timeUnit.toMillis(period));
+        GeneratorMetrics metrics = Metrics.metricsOf(generator);
+        long startNanos = System.nanoTime();
+        PatientStateStore followed = store;
+        Slot[] plan;
+        if (followed == null) {
+            plan = Slot.plan(generator, patientIds, periodMillis);
+            plans.add(plan);
+        } else {
+            // The listener is told of changes under this lock, so none falls between the plan and its registration
+            synchronized (followed) {
+                // The population may grow, so use as many slots as the period allows
+                plan = Slot.plan(generator, followed.patientIds(), periodMillis,
+                        Slot.slotCount(periodMillis, Integer.MAX_VALUE));
+                plans.add(plan);
+            }
+        }
+        // A slot never runs concurrently with itself, so it can keep reusing the same batch.
+        for (Slot slot : plan) {
+            Runnable tick = () -> slot.run(clock.currentTimeMillis(), outputStrategy);
+            if (metrics != null) {
+                tick = measureLag(tick, metrics, startNanos + TimeUnit.MILLISECONDS.toNanos(slot.offsetMillis),
+                        TimeUnit.MILLISECONDS.toNanos(periodMillis));
+            }
+            executor.scheduleAtFixedRate(tick, slot.offsetMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Makes the scheduler follow the admissions and discharges of a store: an admitted patient is added to the slot
+     * with the fewest patients of every generator, and a discharged patient is removed from its slots.
+     * Generators scheduled afterwards are planned for the patients admitted at that time.
+     *
+     * @param patientStateStore The store.
+     */
+    public void follow(PatientStateStore patientStateStore) {
+        this.store = patientStateStore;
+        patientStateStore.addListener(new PatientStateStore.Listener() {
+            @Override
+            public void admitted(int patientId) {
+                for (Slot[] plan : plans) {
+                    Slot.addToSmallest(plan, patientId);
+                }
+            }
+
+            @Override
+            public void discharged(int patientId) {
+                for (Slot[] plan : plans) {
+                    for (Slot slot : plan) {
+                        if (slot.remove(patientId)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wraps a tick so it reports how late it starts compared to its planned time.
+     * The k-th run of a slot is planned at {@code firstNanos + k * periodNanos}, so a delay
+     * is reported even when the executor catches up by running late ticks back to back.
+     *
+     * @param tick The tick.
+     * @param metrics The metrics of the generator.
+     * @param firstNanos The planned {@link System#nanoTime()} of the first run.
+     * @param periodNanos The period in nanoseconds.
+     * @return The wrapped tick.
+     */
+    static Runnable measureLag(Runnable tick, GeneratorMetrics metrics, long firstNanos, long periodNanos) {
+        long[] runs = new long[1]; // Only ever touched by the single running instance of the tick
+        return () -> {
+            long planned = firstNanos + runs[0]++ * periodNanos;
+            metrics.recordLag(TimeUnit.NANOSECONDS.toMillis(Math.max(0, System.nanoTime() - planned)));
+            tick.run();
+        };
+    }
+
+    /**
+     * Stops scheduling new ticks. Ticks which are already running are allowed to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the ticks which are running after {@link #shutdown()} to finish.
+     *
+     * @param timeout The longest time to wait.
+     * @param unit Time unit of the timeout.
+     * @return {@code true} if all ticks finished, {@code false} if the timeout elapsed first.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
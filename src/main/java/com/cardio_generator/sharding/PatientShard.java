@@ -0,0 +1,128 @@
+package com.cardio_generator.sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cardio_generator.outputs.Subscription;
+
+/**
+ * This class describes the slice of the patient population that one simulator process owns.
+ * <p>
+ * Several simulators can share a population by each owning a disjoint shard, either the {@code index}-th of
+ * {@code count} equal blocks of IDs ({@code --shard 2/4}) or explicit ID ranges ({@code --patients 1-5000,9000-9999}).
+ * As long as all of them are started with the same {@code --seed}, every patient gets the same random stream
+ * as in a single simulator of the whole population, because the streams are derived from the seed and the patient ID.
+ */
+public final class PatientShard {
+
+    /** Sorted, non-overlapping inclusive patient ID ranges as {from, to} pairs. */
+    private final int[][] ranges;
+
+    private PatientShard(int[][] ranges) {
+        this.ranges = ranges;
+    }
+
+    /**
+     * Returns the shard which owns the whole population.
+     *
+     * @param patientCount The number of patients. Their IDs are 1 to {@code patientCount}.
+     * @return The shard.
+     */
+    public static PatientShard all(int patientCount) {
+        return ofIndex(patientCount, 1, 1);
+    }
+
+    /**
+     * Returns one of {@code count} equal blocks of the population. Block sizes differ by at most one patient.
+     *
+     * @param patientCount The number of patients in the whole population. Their IDs are 1 to {@code patientCount}.
+     * @param index The number of the block, from 1 to {@code count}.
+     * @param count The number of blocks.
+     * @return The shard.
+     * @throws IllegalArgumentException if the index is not between 1 and the count.
+     */
+    public static PatientShard ofIndex(int patientCount, int index, int count) {
+        if (count <= 0 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Shard must be between 1/" + count + " and " + count + "/" + count
+                    + ": " + index + "/" + count);
+        }
+        int from = (int) ((long) patientCount * (index - 1) / count) + 1;
+        int to = (int) ((long) patientCount * index / count);
+        return new PatientShard(to < from ? new int[0][] : new int[][] {{from, to}});
+    }
+
+    /**
+     * Parses a shard given as {@code index/count}, e.g. "2/4".
+     *
+     * @param patientCount The number of patients in the whole population.
+     * @param text The shard.
+     * @return The shard.
+     * @throws IllegalArgumentException if the text is not a valid shard.
+     */
+    public static PatientShard parseIndex(int patientCount, String text) {
+        int slash = text.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Expected <index>/<count>: " + text);
+        }
+        try {
+            return ofIndex(patientCount, Integer.parseInt(text.substring(0, slash)),
+                    Integer.parseInt(text.substring(slash + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected <index>/<count>: " + text);
+        }
+    }
+
+    /**
+     * Parses a shard given as a comma-separated list of patient IDs and ranges, e.g. "1-5000,9000-9999".
+     *
+     * @param text The list.
+     * @return The shard.
+     * @throws IllegalArgumentException if an entry is not a valid ID or range, or an ID is not positive.
+     */
+    public static PatientShard parseRanges(String text) {
+        int[][] ranges = Subscription.parsePatientRanges(text);
+        if (ranges.length == 0) {
+            throw new IllegalArgumentException("No patients given: " + text);
+        }
+        if (ranges[0][0] < 1) {
+            throw new IllegalArgumentException("Patient IDs must be positive: " + text);
+        }
+        return new PatientShard(ranges);
+    }
+
+    /**
+     * @return The IDs of the patients of the shard, in ascending order.
+     */
+    public List<Integer> patientIds() {
+        List<Integer> patientIds = new ArrayList<>(size());
+        for (int[] range : ranges) {
+            for (int id = range[0]; id <= range[1]; id++) {
+                patientIds.add(id);
+            }
+        }
+        return patientIds;
+    }
+
+    /**
+     * @return The number of patients of the shard.
+     */
+    public int size() {
+        long size = 0;
+        for (int[] range : ranges) {
+            size += range[1] - range[0] + 1;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int[] range : ranges) {
+            text.append(text.length() == 0 ? "" : ",").append(range[0]);
+            if (range[1] != range[0]) {
+                text.append('-').append(range[1]);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package com.cardio_generator.sharding;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cardio_generator.outputs.LabelRegistry;
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.RecordBatch;
+
+/**
+ * This class merges the streams of several sharded simulators into one output strategy.
+ * <p>
+ * It connects as a client to the TCP output ({@code --output tcp:<port>}) of every shard, reads the
+ * {@code patientId,timestamp,label,data} lines and passes them on in batches, typically to a TCP or WebSocket
+ * output strategy which downstream consumers connect to. Each shard is read by its own thread; records of the
+ * same patient keep their order, because a patient belongs to exactly one shard. Lost connections are
+ * re-established every {@value #RECONNECT_MILLIS} ms. The reader threads keep the JVM running until {@link #stop()}.
+ */
+public class ShardFanIn {
+
+    /** The time between two connection attempts to a shard, in milliseconds. */
+    static final long RECONNECT_MILLIS = 1000;
+
+    /** The most records passed on in one batch. */
+    static final int MAX_BATCH_RECORDS = 1024;
+
+    private final List<InetSocketAddress> shards;
+    private final OutputStrategy outputStrategy;
+    private final List<Thread> readers = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * Constructs a {@code ShardFanIn}. Call {@link #start()} to connect to the shards.
+     *
+     * @param shards The TCP endpoints of the shards.
+     * @param outputStrategy The output strategy which receives the merged records.
+     */
+    public ShardFanIn(List<InetSocketAddress> shards, OutputStrategy outputStrategy) {
+        this.shards = new ArrayList<>(shards);
+        this.outputStrategy = outputStrategy;
+    }
+
+    /**
+     * Parses a comma-separated list of {@code host:port} endpoints.
+     *
+     * @param text The list, e.g. "node1:9001,node2:9001".
+     * @return The endpoints, unresolved until the first connection attempt.
+     * @throws IllegalArgumentException if an entry is not a valid endpoint.
+     */
+    public static List<InetSocketAddress> parseEndpoints(String text) {
+        List<InetSocketAddress> endpoints = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            int colon = part.lastIndexOf(':');
+            try {
+                if (colon <= 0) {
+                    throw new NumberFormatException();
+                }
+                endpoints.add(InetSocketAddress.createUnresolved(part.substring(0, colon),
+                        Integer.parseInt(part.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Expected <host>:<port>: " + part);
+            }
+        }
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No shard endpoints given: " + text);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Starts one reader thread per shard.
+     */
+    public synchronized void start() {
+        running = true;
+        for (InetSocketAddress shard : shards) {
+            Thread reader = new Thread(() -> readShard(shard), "fan-in-" + shard.getHostString() + ":" + shard.getPort());
+            reader.start();
+            readers.add(reader);
+        }
+    }
+
+    /**
+     * Stops reading from the shards. Open connections are closed when their reader thread notices.
+     */
+    public synchronized void stop() {
+        running = false;
+        for (Thread reader : readers) {
+            reader.interrupt();
+        }
+    }
+
+    /**
+     * Reads one shard until the fan-in is stopped, reconnecting whenever the connection is lost.
+     */
+    private void readShard(InetSocketAddress shard) {
+        RecordBatch batch = new RecordBatch(MAX_BATCH_RECORDS);
+        boolean connectedBefore = false;
+        while (running) {
+            InetSocketAddress address = new InetSocketAddress(shard.getHostString(), shard.getPort());
+            try (Socket socket = new Socket()) {
+                socket.connect(address);
+                System.err.println("Fan-in connected to shard " + address);
+                connectedBefore = true;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+                String line;
+                while (running && (line = in.readLine()) != null) {
+                    add(line, batch);
+                    // Pass records on as soon as no more are waiting, so a quiet shard adds no delay.
+                    if (batch.size() >= MAX_BATCH_RECORDS || !in.ready()) {
+                        flush(batch);
+                    }
+                }
+                flush(batch);
+            } catch (IOException e) {
+                if (connectedBefore) {
+                    System.err.println("Fan-in lost shard " + address + ": " + e.getMessage());
+                    connectedBefore = false;
+                }
+            }
+            flush(batch);
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses a {@code patientId,timestamp,label,data} line into the batch. Malformed lines are skipped.
+     */
+    private static void add(String line, RecordBatch batch) {
+        int first = line.indexOf(',');
+        int second = line.indexOf(',', first + 1);
+        int third = line.indexOf(',', second + 1);
+        if (first < 0 || second < 0 || third < 0) {
+            return;
+        }
+        try {
+            int labelId = LabelRegistry.idOf(line.substring(second + 1, third));
+            batch.add(Integer.parseInt(line.substring(0, first)),
+                    Long.parseLong(line.substring(first + 1, second)),
+                    labelId,
+                    LabelRegistry.parseValue(labelId, line.substring(third + 1)));
+        } catch (NumberFormatException e) {
+            System.err.println("Fan-in skipped malformed record: " + line);
+        }
+    }
+
+    private void flush(RecordBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            outputStrategy.outputBatch(batch);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.cardio_generator.util;
+
+/**
+ * This class parses the durations given on the command line and in alert rules and load profiles.
+ */
+public final class Durations {
+
+    private Durations() {
+    }
+
+    /**
+     * Parses a duration.
+     *
+     * @param text The duration in seconds, or with a unit of ms, s, m or h (e.g. "10s", "5m", "250ms").
+     * @return The duration in milliseconds, at least 1.
+     * @throws IllegalArgumentException if the text is not a duration of at least one millisecond.
+     */
+    public static long parseMillis(String text) {
+        String value = text.trim();
+        long unit = 1000;
+        if (value.endsWith("ms")) {
+            unit = 1;
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("h") || value.endsWith("m") || value.endsWith("s")) {
+            unit = value.endsWith("h") ? 3_600_000 : value.endsWith("m") ? 60_000 : 1000;
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            double duration = Double.parseDouble(value) * unit;
+            if (!(duration >= 1) || duration > Long.MAX_VALUE / 2) {
+                throw new NumberFormatException();
+            }
+            return (long) duration;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: " + text);
+        }
+    }
+}
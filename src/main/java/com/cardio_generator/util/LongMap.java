@@ -0,0 +1,176 @@
+package com.cardio_generator.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * This class is a map from {@code long} keys, such as patient IDs or a patient ID and a label ID packed together,
+ * to values, with open addressing and linear probing. Entries are removed by moving later entries of their probe
+ * sequence back, so no tombstones are left behind and the table does not fill up as patients come and go.
+ * Every operation takes O(1) amortized time. A map is not thread-safe.
+ *
+ * @param <V> The type of the values. Values must not be null, which marks a free entry.
+ */
+public final class LongMap<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Constructs an empty {@code LongMap}.
+     */
+    public LongMap() {
+        this(8);
+    }
+
+    /**
+     * Constructs an empty {@code LongMap} which holds the given number of entries before it grows.
+     *
+     * @param expected The number of entries expected.
+     */
+    public LongMap(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key The key.
+     * @return The value of the key, or null if the map has none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        for (int entry = entryOf(key, mask); values[entry] != null; entry = (entry + 1) & mask) {
+            if (keys[entry] == key) {
+                return (V) values[entry];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value of a key.
+     *
+     * @param key The key.
+     * @param value The value. It must not be null.
+     * @return The previous value of the key, or null if the map had none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Objects.requireNonNull(value, "value");
+        int mask = keys.length - 1;
+        int entry = entryOf(key, mask);
+        while (values[entry] != null && keys[entry] != key) {
+            entry = (entry + 1) & mask;
+        }
+        V previous = (V) values[entry];
+        keys[entry] = key;
+        values[entry] = value;
+        if (previous == null && ++size * 2 > keys.length) {
+            grow();
+        }
+        return previous;
+    }
+
+    /**
+     * Removes a key, moving later entries of its probe sequence back so no gap breaks it.
+     *
+     * @param key The key.
+     * @return The value the key had, or null if the map had none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int entry = entryOf(key, mask);
+        while (values[entry] != null && keys[entry] != key) {
+            entry = (entry + 1) & mask;
+        }
+        V value = (V) values[entry];
+        if (value == null) {
+            return null;
+        }
+        int gap = entry;
+        for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            // The entry can fill the gap if its home is not cyclically between the gap and itself
+            if (((next - entryOf(keys[next], mask)) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return value;
+    }
+
+    /**
+     * @return The keys, in no particular order.
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int count = 0;
+        for (int entry = 0; entry < keys.length; entry++) {
+            if (values[entry] != null) {
+                result[count++] = keys[entry];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Passes every entry to an action, in no particular order. The action must not change the map.
+     *
+     * @param action The action, which takes the value and the key.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjLongConsumer<? super V> action) {
+        for (int entry = 0; entry < keys.length; entry++) {
+            if (values[entry] != null) {
+                action.accept((V) values[entry], keys[entry]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int entry = entryOf(oldKeys[i], mask);
+                while (values[entry] != null) {
+                    entry = (entry + 1) & mask;
+                }
+                keys[entry] = oldKeys[i];
+                values[entry] = oldValues[i];
+            }
+        }
+    }
+
+    private static int entryOf(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}